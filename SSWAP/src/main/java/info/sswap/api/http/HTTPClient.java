@@ -8,6 +8,8 @@ import info.sswap.api.model.RQG;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
+import java.util.List;
 
 /**
  * Access the HTTP API within the Java API. Useful for sending JSON data to the
@@ -90,6 +92,57 @@ public interface HTTPClient {
 	 */
 	public RQGResponse makeRQG(String jsonString) throws IOException;
 	
+	/**
+	 * Invoke a service with many Resource Invocation Graphs (<code>RIG</code>s)
+	 * in a single HTTP request. The service processes the <code>RIG</code>s
+	 * concurrently, and returns their results as soon as they are ready; this
+	 * is much faster than invoking the <code>RIG</code>s one by one
+	 * (<i>e.g.</i>, for thousands of small <code>RIG</code>s).
+	 * <p>
+	 * All the <code>RIG</code>s must invoke the same service. Every
+	 * <code>RIG</code> has its own response (in the order of the
+	 * <code>RIG</code>s), which can be examined in the same way as the
+	 * response of <code>RIG.invoke()</code>.
+	 * 
+	 * @param rigs
+	 *            the <code>RIG</code>s to invoke the service with
+	 * @return the responses for the <code>RIG</code>s (in the same order)
+	 * @throws IOException
+	 *             if the service cannot be invoked at all
+	 * @throws IllegalArgumentException
+	 *             if the <code>RIG</code>s do not invoke the same service
+	 * @see info.sswap.api.model.RIG#invoke()
+	 */
+	public List<HTTPProvider.RRGResponse> invokeBatch(List<RIG> rigs) throws IOException, IllegalArgumentException;
+	
+	/**
+	 * Waits for the Resource Response Graph (<code>RRG</code>) of an
+	 * asynchronous invocation of a service (<i>i.e.</i>, an invocation that
+	 * returned a token instead of the <code>RRG</code>). The service is asked
+	 * to answer as soon as the <code>RRG</code> is ready (long polling), so
+	 * there is neither the latency of polling at fixed intervals, nor the
+	 * cost of the polls made while the <code>RRG</code> is being computed.
+	 * (If the service does not support long polling, it is polled at the
+	 * interval suggested by the service.)
+	 * 
+	 * @param serviceURI
+	 *            the URI of the service
+	 * @param token
+	 *            the token returned by the asynchronous invocation
+	 * @param timeout
+	 *            the maximum time to wait for the <code>RRG</code> in
+	 *            milliseconds
+	 * @return the response with the <code>RRG</code> (or with the error, if
+	 *         the invocation failed), or null if the <code>RRG</code> has not
+	 *         been computed within the timeout
+	 * @throws IOException
+	 *             if the service cannot be contacted, or it does not know the
+	 *             token
+	 * @throws InterruptedException
+	 *             if the thread is interrupted while waiting
+	 */
+	public HTTPProvider.RRGResponse waitForRRG(URI serviceURI, String token, long timeout) throws IOException, InterruptedException;
+	
 	/**
 	 * Access to get an <code>RIG</code> on success or a network response object
 	 * (via the superinterface) on failure.
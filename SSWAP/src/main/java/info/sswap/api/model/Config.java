@@ -131,6 +131,27 @@ public class Config {
 	 */
 	public static final String CLOSURE_THREADS_DEFAULT = "2"; 
 	
+	/**
+	 * Property name for the number of threads in the pool shared by all closure computations (used only when virtual threads
+	 * are not available). Each closure computation still uses at most CLOSURE_THREADS_KEY of these threads at a time.
+	 */
+	public static final String CLOSURE_EXECUTOR_THREADS_KEY = "info.sswap.impl.empire.io.CLOSURE_EXECUTOR_THREADS";
+	
+	/**
+	 * The default number of threads in the pool shared by all closure computations
+	 */
+	public static final String CLOSURE_EXECUTOR_THREADS_DEFAULT = "16";
+	
+	/**
+	 * Property name for enabling virtual threads for downloads during closure computation (if they are supported by the JVM)
+	 */
+	public static final String CLOSURE_VIRTUAL_THREADS_KEY = "info.sswap.impl.empire.io.CLOSURE_VIRTUAL_THREADS";
+	
+	/**
+	 * By default, virtual threads are used whenever the JVM supports them (value is 'true' or 'false').
+	 */
+	public static final String CLOSURE_VIRTUAL_THREADS_DEFAULT = "true";
+	
 	/**
 	 * Key for the property that defines how long an entry cached in model cache should be stored (time-to-live; TTL).
 	 * Whenever the closure computation process successfully a definition of a term, it is stored in
@@ -153,6 +174,29 @@ public class Config {
 	
 	public static final String MODEL_CACHE_NEGATIVE_ENTRY_TTL_DEFAULT = "1800000"; // 30 minutes in milliseconds
 	
+	/**
+	 * The key for the maximum number of triples (in all models) kept in the memory of a model cache. When this limit is exceeded,
+	 * the least recently used models are evicted.
+	 */
+	public static final String MODEL_CACHE_MAX_TRIPLES_KEY = "info.sswap.impl.empire.io.MODEL_CACHE_MAX_TRIPLES";
+	
+	/**
+	 * The default maximum number of triples kept in the memory of a model cache. Must be a parseable long.
+	 */
+	public static final String MODEL_CACHE_MAX_TRIPLES_DEFAULT = "2000000";
+	
+	/**
+	 * The key for the maximum number of triples (in all closures) kept in the closure cache of a model cache. The closure cache
+	 * stores finished closures, so that requests that mention the same terms do not have to compute the closure again.
+	 * The value of 0 disables the closure cache.
+	 */
+	public static final String CLOSURE_CACHE_MAX_TRIPLES_KEY = "info.sswap.impl.empire.io.CLOSURE_CACHE_MAX_TRIPLES";
+	
+	/**
+	 * The default maximum number of triples kept in the closure cache. Must be a parseable long.
+	 */
+	public static final String CLOSURE_CACHE_MAX_TRIPLES_DEFAULT = "1000000";
+	
 	/**
 	 * The URI of the publicly accessible instance of HTTP/JSON API (used by classes in info.sswap.api.http).
 	 */
@@ -195,14 +239,15 @@ public class Config {
 	public static final String CACHE_DIR_DEFAULT = "cache";
 	
 	/**
-	 * Key for the name of the index file for the cache that maps URIs to local file paths.
+	 * Key for the name of the index file for the cache that maps URIs to local file paths. (The index is a binary
+	 * append-only log; an index in any other format is discarded.)
 	 */
 	public static final String CACHE_INDEX_FILE_KEY = "info.sswap.impl.empire.io.CACHE_INDEX_FILE";
 	
 	/**
 	 * The default name of the cache index file.
 	 */
-	public static final String CACHE_INDEX_FILE_DEFAULT = "cache.properties";
+	public static final String CACHE_INDEX_FILE_DEFAULT = "cache.index";
 
 	/**
 	 * Key for enabling the disk cache (vs. memory-only caching)
@@ -260,6 +305,117 @@ public class Config {
 	 */
 	public static final String RRG_EHCACHE_CACHE_NAME_DEFAULT = "sswap-rrg-cache";
 
+	/**
+	 * Property name for the maximum time (in milliseconds) for which a client may wait for an RRG (i.e., a long-polling
+	 * request for an RRG, or a stream of events about an RRG, is answered at the latest after this time, even if the RRG
+	 * has not yet been computed)
+	 */
+	public static final String RRG_MAX_WAIT_KEY = "info.sswap.api.servlet.RRG_MAX_WAIT";
+
+	/**
+	 * The default maximum time (in milliseconds) for which a client may wait for an RRG
+	 */
+	public static final String RRG_MAX_WAIT_DEFAULT = "60000";
+
+	/**
+	 * Property name for the maximum number of asynchronous RIG invocations executed concurrently by a servlet container
+	 * (each of them builds its own reasoner, so this limits the memory used by asynchronous invocations)
+	 */
+	public static final String ASYNC_INVOCATION_THREADS_KEY = "info.sswap.api.servlet.ASYNC_INVOCATION_THREADS";
+	
+	/**
+	 * The default maximum number of concurrently executed asynchronous RIG invocations
+	 */
+	public static final String ASYNC_INVOCATION_THREADS_DEFAULT = "8";
+	
+	/**
+	 * Property name for the maximum number of asynchronous RIG invocations waiting for execution. When this many invocations
+	 * are waiting, new asynchronous RIGs are rejected (with HTTP 503 Service Unavailable and a Retry-After header).
+	 */
+	public static final String ASYNC_INVOCATION_QUEUE_SIZE_KEY = "info.sswap.api.servlet.ASYNC_INVOCATION_QUEUE_SIZE";
+	
+	/**
+	 * The default maximum number of asynchronous RIG invocations waiting for execution
+	 */
+	public static final String ASYNC_INVOCATION_QUEUE_SIZE_DEFAULT = "100";
+	
+	/**
+	 * Property name for the maximum number of requests processed concurrently by services that handle requests in the
+	 * asynchronous mode (i.e., the size of the compute pool that validates RIGs, executes the services and serializes
+	 * the responses, while the container threads are released)
+	 */
+	public static final String ASYNC_REQUEST_THREADS_KEY = "info.sswap.api.servlet.ASYNC_REQUEST_THREADS";
+	
+	/**
+	 * The default maximum number of requests processed concurrently in the asynchronous mode
+	 */
+	public static final String ASYNC_REQUEST_THREADS_DEFAULT = "16";
+	
+	/**
+	 * Property name for the maximum number of requests (handled in the asynchronous mode) waiting for processing. 
+	 * When this many requests are waiting, new requests are rejected (with HTTP 503 Service Unavailable and a Retry-After header).
+	 */
+	public static final String ASYNC_REQUEST_QUEUE_SIZE_KEY = "info.sswap.api.servlet.ASYNC_REQUEST_QUEUE_SIZE";
+	
+	/**
+	 * The default maximum number of requests (handled in the asynchronous mode) waiting for processing
+	 */
+	public static final String ASYNC_REQUEST_QUEUE_SIZE_DEFAULT = "1000";
+	
+	/**
+	 * Property name for the maximum number of RIGs from batch invocations (see AbstractSSWAPServlet) processed concurrently by 
+	 * a servlet container
+	 */
+	public static final String BATCH_INVOCATION_THREADS_KEY = "info.sswap.api.servlet.BATCH_INVOCATION_THREADS";
+	
+	/**
+	 * The default maximum number of concurrently processed RIGs from batch invocations
+	 */
+	public static final String BATCH_INVOCATION_THREADS_DEFAULT = "8";
+	
+	/**
+	 * Property name for the maximum number of RIGs from batch invocations waiting for processing. When this many RIGs are waiting,
+	 * further RIGs are processed by the threads reading the batches (which also slows down the reading of the batches).
+	 */
+	public static final String BATCH_INVOCATION_QUEUE_SIZE_KEY = "info.sswap.api.servlet.BATCH_INVOCATION_QUEUE_SIZE";
+	
+	/**
+	 * The default maximum number of RIGs from batch invocations waiting for processing
+	 */
+	public static final String BATCH_INVOCATION_QUEUE_SIZE_DEFAULT = "100";
+	
+	/**
+	 * Property name for the maximum number of concurrent lookups of services that map subjects concurrently (see ConcurrentMapsTo)
+	 */
+	public static final String MAPS_TO_THREADS_KEY = "info.sswap.api.servlet.MAPS_TO_THREADS";
+	
+	/**
+	 * The default maximum number of concurrent lookups of services that map subjects concurrently
+	 */
+	public static final String MAPS_TO_THREADS_DEFAULT = "16";
+	
+	/**
+	 * Property name for the maximum number of lookups (see ConcurrentMapsTo) waiting for execution. When this many lookups are waiting,
+	 * further lookups are executed by the threads processing the requests.
+	 */
+	public static final String MAPS_TO_QUEUE_SIZE_KEY = "info.sswap.api.servlet.MAPS_TO_QUEUE_SIZE";
+	
+	/**
+	 * The default maximum number of lookups waiting for execution
+	 */
+	public static final String MAPS_TO_QUEUE_SIZE_DEFAULT = "1000";
+	
+	/**
+	 * Property name for enabling virtual threads for asynchronous RIG invocations, and for requests handled in the asynchronous mode
+	 * (if they are supported by the JVM)
+	 */
+	public static final String ASYNC_INVOCATION_VIRTUAL_THREADS_KEY = "info.sswap.api.servlet.ASYNC_INVOCATION_VIRTUAL_THREADS";
+	
+	/**
+	 * By default, virtual threads are used whenever the JVM supports them (value is 'true' or 'false').
+	 */
+	public static final String ASYNC_INVOCATION_VIRTUAL_THREADS_DEFAULT = "true";
+
 	/**
 	 * Property name for the path to EHCache configuration file for storing content/output of the service (e.g., referenced in an RRG).
 	 * 
@@ -278,6 +434,33 @@ public class Config {
 	 * Default value of the EHCache cache that stores content/output data (produced by the SSWAP service)
 	 */
 	public static final String CONTENT_EHCACHE_CACHE_NAME_DEFAULT = "sswap-content-cache";
+
+	/**
+	 * Property name for the path to EHCache configuration file for storing the responses (RRGs) of deterministic services.
+	 * There is no default value for this property (if there is no value, SSWAP will use built-in configuration file)
+	 */
+	public static final String RESPONSE_EHCACHE_FILE_KEY = "info.sswap.api.servlet.RESPONSE_EHCACHE_FILE";
+
+	/**
+	 * Property name for the name of the EHCache cache for storing the responses (RRGs) of deterministic services
+	 */
+	public static final String RESPONSE_EHCACHE_CACHE_NAME_KEY = "info.sswap.api.servlet.RESPONSE_EHCACHE_CACHE_NAME";
+
+	/**
+	 * Default value of the EHCache cache that stores the responses (RRGs) of deterministic services
+	 */
+	public static final String RESPONSE_EHCACHE_CACHE_NAME_DEFAULT = "sswap-response-cache";
+
+	/**
+	 * Property name for the default time to live (in seconds) of the cached responses of deterministic services (a service
+	 * may override it with its ResponseCacheTTL init-param)
+	 */
+	public static final String RESPONSE_CACHE_TTL_KEY = "info.sswap.api.servlet.RESPONSE_CACHE_TTL";
+
+	/**
+	 * Default time to live (in seconds) of the cached responses of deterministic services
+	 */
+	public static final String RESPONSE_CACHE_TTL_DEFAULT = "3600";
 	
 	/**
 	 * The key for the URI of the module extraction service
@@ -299,6 +482,36 @@ public class Config {
 	 */
 	public static final String MODULE_EXTRACTION_ENABLED_DEFAULT = "false";
 	
+	/**
+	 * The key for the maximum number of answers to subsumption/equivalence questions kept in the reasoning cache
+	 * (shared by all reasoning services). A value of 0 disables the cache.
+	 */
+	public static final String REASONING_CACHE_SIZE_KEY = "info.sswap.impl.empire.model.REASONING_CACHE_SIZE";
+	
+	/**
+	 * The default maximum number of answers kept in the reasoning cache
+	 */
+	public static final String REASONING_CACHE_SIZE_DEFAULT = "10000";
+
+	/**
+	 * The key for the directory where the snapshots of the reasoning cache are saved (and loaded from after a restart), so that
+	 * the terminologies of services do not have to be classified again after a restart. There is no default value (if
+	 * there is no value, the snapshots are not saved). The directory should be local, and it should survive restarts.
+	 */
+	public static final String REASONING_SNAPSHOT_DIR_KEY = "info.sswap.impl.empire.model.REASONING_SNAPSHOT_DIR";
+
+	/**
+	 * The key for the flag whether the reasoner should always trace its operations (so that explanations of inconsistencies
+	 * are available immediately). If the flag is false, the reasoner runs without tracing (which is faster), and an explanation is
+	 * only computed (in a separate knowledge base with tracing) when the message of an InconsistentOntologyException is needed.
+	 */
+	public static final String REASONING_TRACING_KEY = "info.sswap.impl.empire.model.REASONING_TRACING";
+	
+	/**
+	 * The default value for the tracing flag
+	 */
+	public static final String REASONING_TRACING_DEFAULT = "false";
+	
 	/**
 	 * A singleton instance of the config.
 	 */
@@ -328,9 +541,13 @@ public class Config {
 		properties.setProperty(CLOSURE_BYTES_LIMIT_KEY, CLOSURE_BYTES_LIMIT_DEFAULT); 
 		properties.setProperty(CLOSURE_TIME_LIMIT_KEY, CLOSURE_TIME_LIMIT_DEFAULT); 
 		properties.setProperty(CLOSURE_THREADS_KEY, CLOSURE_THREADS_DEFAULT); 
+		properties.setProperty(CLOSURE_EXECUTOR_THREADS_KEY, CLOSURE_EXECUTOR_THREADS_DEFAULT);
+		properties.setProperty(CLOSURE_VIRTUAL_THREADS_KEY, CLOSURE_VIRTUAL_THREADS_DEFAULT);
 		
 		properties.setProperty(MODEL_CACHE_ENTRY_TTL_KEY, MODEL_CACHE_ENTRY_TTL_DEFAULT);
 		properties.setProperty(MODEL_CACHE_NEGATIVE_ENTRY_TTL_KEY, MODEL_CACHE_NEGATIVE_ENTRY_TTL_DEFAULT);
+		properties.setProperty(MODEL_CACHE_MAX_TRIPLES_KEY, MODEL_CACHE_MAX_TRIPLES_DEFAULT);
+		properties.setProperty(CLOSURE_CACHE_MAX_TRIPLES_KEY, CLOSURE_CACHE_MAX_TRIPLES_DEFAULT);
 		properties.setProperty(HTTP_API_URI_KEY, HTTP_API_URI_DEFAULT);
 		properties.setProperty(DISCOVERY_SERVER_QUERY_URI_KEY, DISCOVERY_SERVER_QUERY_URI_DEFAULT);
 		properties.setProperty(DISCOVERY_SERVER_QUERY_URI_ALT_KEY, DISCOVERY_SERVER_QUERY_URI_DEFAULT);
@@ -341,6 +558,8 @@ public class Config {
 		
 		properties.setProperty(MODULE_EXTRACTION_URI_KEY, MODULE_EXTRACTION_URI_DEFAULT);
 		properties.setProperty(MODULE_EXTRACTION_ENABLED_KEY, MODULE_EXTRACTION_ENABLED_DEFAULT);
+		properties.setProperty(REASONING_CACHE_SIZE_KEY, REASONING_CACHE_SIZE_DEFAULT);
+		properties.setProperty(REASONING_TRACING_KEY, REASONING_TRACING_DEFAULT);
 
 		properties.setProperty(DISK_CACHE_ENABLED_KEY, DISK_CACHE_ENABLED_DEFAULT);
 		properties.setProperty(CACHE_ENABLED_KEY, CACHE_ENABLED_DEFAULT);
@@ -349,6 +568,19 @@ public class Config {
 		
 		properties.setProperty(CONTENT_EHCACHE_CACHE_NAME_KEY, CONTENT_EHCACHE_CACHE_NAME_DEFAULT);
 		properties.setProperty(RRG_EHCACHE_CACHE_NAME_KEY, RRG_EHCACHE_CACHE_NAME_DEFAULT);
+		properties.setProperty(RRG_MAX_WAIT_KEY, RRG_MAX_WAIT_DEFAULT);
+		properties.setProperty(RESPONSE_EHCACHE_CACHE_NAME_KEY, RESPONSE_EHCACHE_CACHE_NAME_DEFAULT);
+		properties.setProperty(RESPONSE_CACHE_TTL_KEY, RESPONSE_CACHE_TTL_DEFAULT);
+		
+		properties.setProperty(ASYNC_INVOCATION_THREADS_KEY, ASYNC_INVOCATION_THREADS_DEFAULT);
+		properties.setProperty(ASYNC_INVOCATION_QUEUE_SIZE_KEY, ASYNC_INVOCATION_QUEUE_SIZE_DEFAULT);
+		properties.setProperty(ASYNC_INVOCATION_VIRTUAL_THREADS_KEY, ASYNC_INVOCATION_VIRTUAL_THREADS_DEFAULT);
+		properties.setProperty(ASYNC_REQUEST_THREADS_KEY, ASYNC_REQUEST_THREADS_DEFAULT);
+		properties.setProperty(ASYNC_REQUEST_QUEUE_SIZE_KEY, ASYNC_REQUEST_QUEUE_SIZE_DEFAULT);
+		properties.setProperty(BATCH_INVOCATION_THREADS_KEY, BATCH_INVOCATION_THREADS_DEFAULT);
+		properties.setProperty(BATCH_INVOCATION_QUEUE_SIZE_KEY, BATCH_INVOCATION_QUEUE_SIZE_DEFAULT);
+		properties.setProperty(MAPS_TO_THREADS_KEY, MAPS_TO_THREADS_DEFAULT);
+		properties.setProperty(MAPS_TO_QUEUE_SIZE_KEY, MAPS_TO_QUEUE_SIZE_DEFAULT);
 	}
 	
 	/**
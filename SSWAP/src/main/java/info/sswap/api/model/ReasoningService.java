@@ -23,4 +23,34 @@ public interface ReasoningService {
 	 * @param model dereferenced model
 	 */
 	public void removeModel(SSWAPModel model);
+	
+	/**
+	 * Begins a batch of changes (e.g., several invocations of addModel(SSWAPModel)/removeModel(SSWAPModel), or modifications
+	 * of the models). The reasoner does not process the changes made during the batch until the batch is committed
+	 * (queries made during the batch may not take them into account), so that it processes all of them at once
+	 * instead of after every change. Batches may be nested.
+	 */
+	public void beginBatch();
+	
+	/**
+	 * Commits the batch of changes started by the last beginBatch(). When the outermost batch is committed, the reasoner
+	 * processes all the changes made during the batch (once, before the next query).
+	 * 
+	 * @throws IllegalStateException if there is no batch to commit
+	 */
+	public void commitBatch();
+	
+	/**
+	 * Begins a cross-document session. Until the session ends (see endCrossDocumentSession()), the terms of other documents
+	 * that are needed to answer queries about them (e.g., whether a type of this document is a sub type of a type
+	 * from an RDG) stay in this reasoning service, instead of being added and removed for every query (which makes 
+	 * the reasoner process them every time). Sessions may be nested.
+	 */
+	public void beginCrossDocumentSession();
+	
+	/**
+	 * Ends the cross-document session started by the last beginCrossDocumentSession(). When the outermost session ends,
+	 * the terms of other documents added during the session are removed from this reasoning service.
+	 */
+	public void endCrossDocumentSession();
 }
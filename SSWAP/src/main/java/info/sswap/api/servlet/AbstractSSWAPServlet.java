@@ -5,13 +5,23 @@ package info.sswap.api.servlet;
 
 import info.sswap.api.http.HTTPProvider;
 import info.sswap.api.model.*;
+import info.sswap.api.spi.ExtensionAPI;
 import info.sswap.impl.empire.Vocabulary;
+import info.sswap.impl.empire.model.JenaModelFactory;
+import info.sswap.impl.empire.model.ModelHash;
+import info.sswap.impl.empire.model.ModelImpl;
 import info.sswap.impl.empire.model.ModelUtils;
+import info.sswap.impl.empire.model.RDGImpl;
+import info.sswap.impl.http.BatchFrame;
 import info.sswap.ontologies.sswapmeet.SSWAPMeet.Exec;
 
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.*;
 import javax.servlet.http.*;
@@ -25,6 +35,9 @@ import org.openrdf.model.vocabulary.RDF;
 
 import com.clarkparsia.utils.web.*;
 import com.google.common.io.ByteStreams;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.ResIterator;
 
 /**
  * Handles HTTP GETs and POSTs to a SSWAP service point. This class is a bridge
@@ -163,12 +176,17 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 	 */
 	private static final Logger LOGGER = LogManager.getLogger(AbstractSSWAPServlet.class);
 	
+	/**
+	 * The size of the buffer used when writing (and compressing) the responses
+	 */
+	static final int RESPONSE_BUFFER_SIZE = 8192;
+	
 	/**
 	 * The suffix to the request string for RRG retrieval; that is, if a request
 	 * ends with this suffix (attached to the regular service's URL), it indicates
 	 * that the request is for retrieving a cached RRG, and not invoking the service.
 	 */
-	public static final String RRG_RETRIEVAL_SUFFIX = "/rrg";
+	public static final String RRG_RETRIEVAL_SUFFIX = Vocabulary.SSWAP_RRG_RETRIEVAL_SUFFIX;
 	
 	/**
 	 * Real path to the RDG on the file system as specified in web.xml (may be a directory)
@@ -176,9 +194,19 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 	private String rdgPath = null;
 	
 	/**
-	 * Absolute, fully resolved path and file name of the RDG on the file system
+	 * Whether POSTs are handled in the asynchronous (Servlet 3) mode (see init())
+	 */
+	private boolean asyncMode = false;
+
+	/**
+	 * Whether the service is deterministic; i.e., its responses may be cached (see init() and ResponseCache)
 	 */
-	private String rdgFile = null;
+	private boolean deterministic = false;
+
+	/**
+	 * The time to live (in seconds) of the cached responses of a deterministic service
+	 */
+	private int responseCacheTTL;
 
 	/**
 	 * Flag string appended to terms in the GET query string to identify them as
@@ -275,6 +303,52 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 			suggestedPollingInterval = RRGCache.DEFAULT_SUGGESTED_POLLING_INTERVAL;
 		}
 		
+		// optionally handle POSTs (service invocations) in the asynchronous (Servlet 3) mode:
+		// the container thread is released while the request is read, the service is executed
+		// (in a separate compute pool; see Config.ASYNC_REQUEST_THREADS_KEY) and the response is written,
+		// so that many slow invocations do not exhaust the container's threads.
+		// The servlet must also be declared with <async-supported>true</async-supported>,
+		// otherwise the requests are handled synchronously
+		//
+		// the value can be set in web.xml as
+		/*
+		 *  <init-param>
+		 *    <param-name>AsyncMode</param-name>
+		 *    <param-value>true</param-value>
+		 *  </init-param>
+		 */
+		asyncMode = Boolean.valueOf(servletConfig.getInitParameter("AsyncMode"));
+		
+		// optionally declare the service as deterministic (i.e., the same RIG always produces the same RRG,
+		// as long as the RDG does not change), so that its responses can be cached (see ResponseCache)
+		// and repeated RIGs are answered without executing the service.
+		//
+		// the value can be set in web.xml as
+		/*
+		 *  <init-param>
+		 *    <param-name>Deterministic</param-name>
+		 *    <param-value>true</param-value>
+		 *  </init-param>
+		 */
+		deterministic = Boolean.valueOf(servletConfig.getInitParameter("Deterministic"));
+		
+		// the time to live (in seconds) of the cached responses of a deterministic service
+		// if the value is not set in web.xml, we take the default value from Config
+		//
+		// the value can be set in web.xml as
+		/*
+		 *  <init-param>
+		 *    <param-name>ResponseCacheTTL</param-name>
+		 *    <param-value>600</param-value>
+		 *  </init-param>
+		 */
+		try {
+			responseCacheTTL = Integer.parseInt(servletConfig.getInitParameter("ResponseCacheTTL"));
+		}
+		catch (NumberFormatException e) {
+			responseCacheTTL = Integer.parseInt(Config.get().getProperty(Config.RESPONSE_CACHE_TTL_KEY, Config.RESPONSE_CACHE_TTL_DEFAULT));
+		}
+		
 		// retrieve the optional properties file from web.xml 
 		// if the value is not set in web.xml, we take the default value from Config
 		//
@@ -359,19 +433,24 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 	/**
 	 * Initialization per request
 	 * 
+	 * @return the absolute, fully resolved path and file name of the RDG on the file system
+	 *         (may be null); it is returned rather than stored in a field, since the servlet
+	 *         may process several requests at the same time
 	 * @throws ServletException if servlet init() method is not called
 	 */
-	private void initializeRequest(HttpServletRequest request) throws ServletException {
+	private String initializeRequest(HttpServletRequest request) throws ServletException {
 
 		if ( ! initCompleted ) {
 			throw new ServletException("servlet init(servletConfig) did not complete; if overriding, call super.init(servletConfig) first");
 		}
 		
+		String rdgFile = null;
+		
 		String requestURI;
 		try {
 			requestURI = URLDecoder.decode(request.getRequestURI(),"UTF-8");  // does not include query string
 		} catch ( UnsupportedEncodingException e ) {
-			return;
+			return null;
 		}
 		
 		if ( rdgPath == null ) {
@@ -423,6 +502,7 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 		}
 		
 		// may return with rdgFile == null
+		return rdgFile;
 	}
 
 	/**
@@ -461,7 +541,7 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 
 		int responseCode = -1;	// default, undefined HTTP response code
 		
-		initializeRequest(request);
+		String rdgFile = initializeRequest(request);
 		
 		if (request.getRequestURL().toString().endsWith(RRG_RETRIEVAL_SUFFIX)) {
 			CacheHandler.get().handleGet(request, response);
@@ -471,7 +551,7 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 		try {
 
 			// strips query string and implements the function of GETing the content
-			RDG rdg = getRDG(request.getRequestURL().toString()); 
+			RDG rdg = getRDG(request.getRequestURL().toString(), rdgFile); 
 			String queryStr = request.getQueryString();
 
 			// check to see if we should simply return the RDG
@@ -558,6 +638,10 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 	/**
 	 * An HTTP POST equates to a request service invocation.
 	 * <p>
+	 * A POST whose content type is <code>application/x-sswap-batch</code> is a batch invocation;
+	 * that is, it carries many <code>RIG</code>s, which are processed concurrently, and their results
+	 * are streamed back as they are ready (see <code>HTTPClient.invokeBatch()</code>).
+	 * <p>
 	 * This method is marked <code>protected</code> solely for package access
 	 * purposes. It should not be called directly and cannot be overridden. The
 	 * servlet handler will call this method automatically on an HTTP POST. To
@@ -573,27 +657,83 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 	 * @see #handleRequest(RIG rig)
 	 */
 	@Override
-	protected final void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException {
+	protected final void doPost(final HttpServletRequest request, HttpServletResponse response) throws ServletException {
 
-		int responseCode = -1;	// default, undefined HTTP response code
+		final String rdgFile = initializeRequest(request);
+		final boolean batch = isBatchRequest(request);
+
+		// the results of a batch are streamed as they are ready, which needs the blocking mode
+		if ( asyncMode && !batch && request.isAsyncSupported() ) {
+			
+			// release the container thread; the request is read, processed and answered without blocking it
+			try {
+				new AsyncRequest(request, response, getTimeout() > 0 ? getTimeout() : 0) {
+					protected void process(byte[] requestBody, HttpServletResponse bufferedResponse) throws Exception {
+						processPost(request, bufferedResponse, new ByteArrayInputStream(requestBody), rdgFile);
+					}
+				}.start();
+			} catch ( IOException e ) {
+				throw new ServletException(e.getMessage());
+			}
+			
+			return;
+		}
 		
 		InputStream inputStream = null;
 
-		initializeRequest(request);
+		try {
+			inputStream = request.getInputStream();
+			
+			if ( batch ) {
+				processBatchPost(request, response, inputStream, rdgFile);
+			} else {
+				processPost(request, response, inputStream, rdgFile);
+			}
+		} catch ( IOException e ) {
+			throw new ServletException(e.getMessage());
+		} finally {
+
+			if ( inputStream != null ) {
+				try {
+					inputStream.close();
+				} catch ( Exception e ) {
+					; // consume
+				}
+			}
+		}
+	}
+
+	/**
+	 * Processes an HTTP POST (i.e., invokes the service with the RIG in the body of the request)
+	 * 
+	 * @param request
+	 *            HTTP Servlet request
+	 * @param response
+	 *            HTTP Servlet response
+	 * @param inputStream
+	 *            the body of the request
+	 * @param rdgFile
+	 *            the file with the RDG of the service (may be null)
+	 * @throws ServletException
+	 *             if the response (or an error message) cannot be sent
+	 */
+	private void processPost(HttpServletRequest request, HttpServletResponse response, InputStream inputStream, String rdgFile) throws ServletException {
 
+		int responseCode = -1;	// default, undefined HTTP response code
+		
 		try {
 
 			// implements the function of GETing the content
-			RDG rdg = getRDG(request.getRequestURL().toString());
+			RDG rdg = getRDG(request.getRequestURL().toString(), rdgFile);
 			RIG asyncRIG = null;
 			RIG rig = null;
 			RRG rrg = null;
 			SSWAPProtocol sswapProtocol = null;
+			String responseKey = null;
+			Model responseKeyRIG = null;
 
 			try {
 
-				inputStream = request.getInputStream();
-
 				if ( remoteServiceURI == null ) { // default case
 
 					/*
@@ -612,47 +752,29 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 					 * client's original input returned.
 					 */
 
-					// Save a copy of the input stream in a buffer
+					// Save a copy of the input stream in a buffer (for error messages)
 					byte[] buf = ByteStreams.toByteArray(inputStream);
-					ByteArrayInputStream byteArraryInputStream = new ByteArrayInputStream(buf);
 
-					// check whether this is an asynchronous RIG
-					try {
-						asyncRIG = SSWAP.getResourceGraph(byteArraryInputStream, RIG.class);
-						
-						if (!isAsyncRIG(asyncRIG)) {
-							asyncRIG =  null;
-						}
-					} catch ( Throwable t ) {
-						
-						LOGGER.info("Cannot parse RIG: " + t);
-						
-						int length = buf.length < 123 ? buf.length : 123;
-						String str = new String(buf,0,length,"UTF-8");
-						
-						if ( length == 123 ) {
-							str += " ...";
-						} else if ( str.isEmpty() ) {
-							str = "<nothing>";
-						}
+					// parse the RIG only once; all the documents below are created from this model
+					// (which is not modified), which is much cheaper than parsing the RDF/XML again
+					Model rigModel = parseRIG(buf);
+
+					if ( !isAsyncRIG(rigModel) ) { // regular invocation
 						
-						if (t instanceof InconsistentOntologyException) {
-							throw new DataAccessException("Invalid RIG: " + t.getMessage());
+						// a deterministic service may have already answered this RIG
+						if ( (responseKey = getResponseKey(request, rdgFile, rigModel)) != null ) {
+							responseKeyRIG = rigModel;
+							ResponseCache.Entry cachedResponse = ResponseCache.get().get(responseKey, rigModel);
+							
+							if ( cachedResponse != null ) {
+								writeResponse(request, response, cachedResponse.getContent(), cachedResponse.getOutputURI());
+								return;
+							}
 						}
 						
-						throw new DataAccessException("Invalid RIG: expected RDF/XML but got: " + str);
-						
-					} finally {
-						// reset the stream so that it can be read again (either to be processed as a regular RIG 
-						// or to make the copy of the asynchronous RIG)
-						byteArraryInputStream.reset();
-					}
-
-					if ( asyncRIG == null ) { // regular invocation
-												
 						// Get the RIG for this RDG
 						try {
-							rig = rdg.getRIG(byteArraryInputStream);
+							rig = getRIG(rdg, rigModel);
 						} catch ( Exception e ) {
 							LOGGER.info("Cannot process RIG; validation exception: " + e);
 							throw e;  // bail and return an exception message
@@ -678,21 +800,27 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 							LOGGER.error("handleRequest on RIG failed with the following exception",  t);
 
 							response.setHeader(Vocabulary.SSWAP_HTTP_EXCEPTION_HEADER, t.getMessage());
-							byteArraryInputStream.reset();
 							
-							// will throw on parsing error, but does not validate RIG against RDG
-							sswapProtocol = rig = SSWAP.getResourceGraph(byteArraryInputStream, RIG.class);
+							// failures are not cached
+							responseKey = null;
+							
+							// does not validate RIG against RDG
+							sswapProtocol = rig = ExtensionAPI.createDocument(rigModel, RIG.class);
 
 						}
 						
 					} else { // asynchronous invocation
 						
+						asyncRIG = ExtensionAPI.createDocument(rigModel, RIG.class);
+						
 						// generate token which can be used later by the client to retrieve the result
 						String rrgToken = getRRGToken();
 						
 						// create entry in the RRG cache with the token -- the entry contains only the suggested polling interval
-						// (i.e., no RRG yet since the result has not yet been computed)
-						RRGCache.get().setSuggestedPollingInterval(rrgToken, suggestedPollingInterval);
+						// (i.e., no RRG yet since the result has not yet been computed); the interval is adjusted to the
+						// time that the invocations currently wait for execution
+						RRGCache.get().setSuggestedPollingInterval(rrgToken, 
+										AsyncInvocationExecutor.get().getSuggestedPollingInterval(suggestedPollingInterval));
 						
 						// modify the asynchronous RIG and token to the resource
 						SSWAPResource resource = asyncRIG.getResource();
@@ -700,19 +828,22 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 						
 						// make the copy of the original asyncRIG before passing it to the separate thread
 						// (SSWAP objects are not thread-safe)
-						RIG asyncRIGCopy = null;
-						
-						try {
-							asyncRIGCopy = SSWAP.getResourceGraph(byteArraryInputStream, RIG.class);														
-						} finally {
-							byteArraryInputStream.reset();
-						}
+						RIG asyncRIGCopy = ExtensionAPI.createDocument(rigModel, RIG.class);
 						
 						// prepare asynchronous invocation (with the copy)
 						AsyncRIGInvocation asyncRIGInvocation = new AsyncRIGInvocation(asyncRIGCopy, rdg, rrgToken);
 						
-						// start the new thread and start executing the service there
-						new Thread(asyncRIGInvocation).start();
+						// schedule the execution of the service (in a bounded pool of threads)
+						try {
+							AsyncInvocationExecutor.get().execute(asyncRIGInvocation);
+						} catch ( RejectedExecutionException e ) {
+							RRGCache.get().setError(rrgToken, "Too many pending asynchronous invocations");
+							
+							responseCode = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+							response.setHeader("Retry-After", String.valueOf(AsyncInvocationExecutor.get().getRetryAfter()));
+							
+							throw new IOException("Too many pending asynchronous invocations; retry later");
+						}
 						
 						// assignment to return asyncRIG below
 						sswapProtocol = asyncRIG;
@@ -723,7 +854,11 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 				}
 
 				// return RIG, RRG, or asyncRRG as response
-				serializeResponse(request, response, sswapProtocol);
+				if ( responseKey != null ) {
+					cacheResponse(request, response, sswapProtocol, responseKey, responseKeyRIG);
+				} else {
+					serializeResponse(request, response, sswapProtocol);
+				}
 
 
 			} catch ( Throwable t ) { // any and all, including RuntimeException
@@ -732,45 +867,337 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 
 		} catch ( Throwable t ) { // any and all, including RuntimeException
 			throw new ServletException(t.getMessage());
-		} finally {
+		}
 
-			if ( inputStream != null ) {
-				try {
-					inputStream.close();
-				} catch ( Exception e ) {
-					; // consume
+	}
+
+	/**
+	 * Parses the RDF/XML of a RIG.
+	 * 
+	 * @param buf the RDF/XML of the RIG
+	 * @return the Jena model of the RIG
+	 * @throws DataAccessException if the RIG cannot be parsed
+	 */
+	private Model parseRIG(byte[] buf) throws DataAccessException {
+		try {
+			return JenaModelFactory.get().getModel(new ByteArrayInputStream(buf));
+		} catch ( Throwable t ) {
+			
+			LOGGER.info("Cannot parse RIG: " + t);
+			
+			if (t instanceof InconsistentOntologyException) {
+				throw new DataAccessException("Invalid RIG: " + t.getMessage());
+			}
+			
+			int length = buf.length < 123 ? buf.length : 123;
+			String str;
+			
+			try {
+				str = new String(buf,0,length,"UTF-8");
+			} catch ( UnsupportedEncodingException e ) {
+				str = "";
+			}
+			
+			if ( length == 123 ) {
+				str += " ...";
+			} else if ( str.isEmpty() ) {
+				str = "<nothing>";
+			}
+			
+			throw new DataAccessException("Invalid RIG: expected RDF/XML but got: " + str);
+		}
+	}
+	
+	/**
+	 * Checks whether a POST request is a batch invocation (i.e., many RIGs in a single request; see processBatchPost())
+	 * 
+	 * @param request the request
+	 * @return true if the request is a batch invocation
+	 */
+	private static boolean isBatchRequest(HttpServletRequest request) {
+		String contentType = request.getContentType();
+		
+		return (contentType != null) && contentType.trim().toLowerCase().startsWith(Vocabulary.SSWAP_BATCH_MIME_TYPE);
+	}
+	
+	/**
+	 * Processes a batch invocation; that is, an HTTP POST whose body is a sequence of RIGs (see BatchFrame
+	 * for the format). The RDG is read only once for the whole batch (and every RIG is validated against a copy
+	 * of that RDG, sharing its already prepared validation context), the RIGs are processed concurrently
+	 * (see AsyncInvocationExecutor.getBatchExecutor()), and the result of every RIG is written back as soon
+	 * as it is ready, with its own status (i.e., the order of the results may differ from the order of the RIGs).
+	 * 
+	 * Asynchronous RIGs cannot be invoked in a batch.
+	 * 
+	 * @param request
+	 *            HTTP Servlet request
+	 * @param response
+	 *            HTTP Servlet response
+	 * @param inputStream
+	 *            the body of the request
+	 * @param rdgFile
+	 *            the file with the RDG of the service (may be null)
+	 * @throws ServletException
+	 *             if the response (or an error message) cannot be sent
+	 */
+	private void processBatchPost(HttpServletRequest request, HttpServletResponse response, InputStream inputStream, final String rdgFile) throws ServletException {
+		
+		final String rdgURIStr = request.getRequestURL().toString();
+		final RDG rdg;
+		
+		try {
+			try {
+				rdg = getRDG(rdgURIStr, rdgFile);
+			} catch ( Throwable t ) {
+				sendError(request, response, t.getMessage(), -1);
+				return;
+			}
+			
+			response.setContentType(Vocabulary.SSWAP_BATCH_MIME_TYPE);
+			
+			final OutputStream outputStream = new BufferedOutputStream(response.getOutputStream(), RESPONSE_BUFFER_SIZE);
+			final InputStream batchStream = new BufferedInputStream(inputStream, RESPONSE_BUFFER_SIZE);
+			
+			// released once for every processed item
+			final Semaphore processedItems = new Semaphore(0);
+			int submittedItems = 0;
+			
+			try {
+				BatchFrame item;
+				
+				while ( (item = readBatchItem(batchStream, outputStream)) != null ) {
+					final BatchFrame rigItem = item;
+					
+					Runnable task = new Runnable() {
+						public void run() {
+							try {
+								writeBatchItem(outputStream, processBatchItem(rdg, rdgURIStr, rdgFile, rigItem));
+							} finally {
+								processedItems.release();
+							}
+						}
+					};
+					
+					submittedItems++;
+					
+					try {
+						AsyncInvocationExecutor.getBatchExecutor().execute(task);
+					} catch ( RejectedExecutionException e ) {
+						// too many items are waiting; process this one here (which also stops reading further items for a while)
+						task.run();
+					}
 				}
+			} finally {
+				// wait for all the submitted items, so that their results are written before the response is completed
+				processedItems.acquireUninterruptibly(submittedItems);
 			}
+			
+			outputStream.close();
+			
+		} catch ( Throwable t ) { // any and all, including RuntimeException
+			throw new ServletException(t.getMessage());
 		}
-
 	}
-
+	
+	/**
+	 * Reads the next RIG of a batch. If the batch is malformed, an error item (with id "-") is written to the output
+	 * and no more items are read.
+	 * 
+	 * @param batchStream the body of the request
+	 * @param outputStream the body of the response
+	 * @return the next item or null, if there are no more items
+	 */
+	private BatchFrame readBatchItem(InputStream batchStream, OutputStream outputStream) {
+		try {
+			return BatchFrame.read(batchStream);
+		} catch ( IOException e ) {
+			LOGGER.info("Cannot read a batch of RIGs: " + e);
+			writeBatchItem(outputStream, new BatchFrame("-", HttpServletResponse.SC_BAD_REQUEST, "Invalid batch: " + e.getMessage(), null));
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Writes the result of a RIG in a batch to the response (the results are written by many threads)
+	 * 
+	 * @param outputStream the body of the response
+	 * @param result the result
+	 */
+	private static void writeBatchItem(OutputStream outputStream, BatchFrame result) {
+		synchronized (outputStream) {
+			try {
+				result.write(outputStream);
+				
+				// send the result to the client now, rather than when the buffer is full
+				outputStream.flush();
+			} catch ( IOException e ) {
+				// e.g., the client has disconnected; the remaining items are still processed, but their results are lost
+				LOGGER.info("Unable to write the result of a batch item: " + e);
+			}
+		}
+	}
+	
+	/**
+	 * Invokes the service with a single RIG of a batch.
+	 * 
+	 * @param rdg the RDG of the service (shared by all the items of the batch; it is not modified)
+	 * @param rdgURIStr the URI of the RDG
+	 * @param rdgFile the file with the RDG (may be null)
+	 * @param item the item containing the RIG
+	 * @return the result: RRG (status 200), the unmodified RIG, if the service failed (status 200 with the exception
+	 * message, analogously to the single invocation), or an error status and message
+	 */
+	private BatchFrame processBatchItem(RDG rdg, String rdgURIStr, String rdgFile, BatchFrame item) {
+		
+		String id = item.getId();
+		
+		try {
+			if ( remoteServiceURI != null ) {
+				return new BatchFrame(id, HttpServletResponse.SC_OK, null, 
+								serializeBatchResult(invokeRemoteService(remoteServiceURI, new ByteArrayInputStream(item.getContent()))));
+			}
+			
+			Model rigModel;
+			RIG rig;
+			
+			try {
+				rigModel = parseRIG(item.getContent());
+				
+				if ( isAsyncRIG(rigModel) ) {
+					return new BatchFrame(id, HttpServletResponse.SC_BAD_REQUEST, "Asynchronous RIGs cannot be invoked in a batch", null);
+				}
+				
+				// every item needs its own RDG (SSWAP objects are not thread-safe)
+				rig = getRIG(copyRDG(rdg, rdgURIStr, rdgFile), rigModel);
+			} catch ( Exception e ) {
+				LOGGER.info("Cannot process RIG " + id + " of a batch: " + e);
+				return new BatchFrame(id, HttpServletResponse.SC_BAD_REQUEST, e.getMessage(), null);
+			}
+			
+			try {
+				handleRequest(rig);
+				
+				return new BatchFrame(id, HttpServletResponse.SC_OK, null, serializeBatchResult(rig.getRRG()));
+			} catch ( ClientException ce ) {
+				return new BatchFrame(id, ce.getResponseCode(), ce.getMessage(), null);
+			} catch ( Throwable t ) { // could not get a valid RRG; return the RIG back to the caller
+				LOGGER.error("handleRequest on RIG " + id + " of a batch failed with the following exception",  t);
+				
+				String message = (t.getMessage() == null) ? t.toString() : t.getMessage(); 
+				
+				return new BatchFrame(id, HttpServletResponse.SC_OK, message, 
+								serializeBatchResult(ExtensionAPI.createDocument(rigModel, RIG.class)));
+			}
+		} catch ( Throwable t ) { // any and all, including RuntimeException
+			LOGGER.error("Unable to process RIG " + id + " of a batch", t);
+			return new BatchFrame(id, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, t.getMessage(), null);
+		}
+	}
+	
+	/**
+	 * Creates a copy of the RDG for a single RIG of a batch.
+	 * 
+	 * @param rdg the RDG of the batch
+	 * @param rdgURIStr the URI of the RDG
+	 * @param rdgFile the file with the RDG (may be null)
+	 * @return a copy of the RDG, which shares the validation context with the original RDG (if the RDG supports it), or a newly read RDG
+	 * @throws IOException if the RDG cannot be read
+	 */
+	private RDG copyRDG(RDG rdg, String rdgURIStr, String rdgFile) throws IOException {
+		if (rdg instanceof RDGImpl) {
+			synchronized (rdg) {
+				return ((RDGImpl) rdg).createCopy();
+			}
+		}
+		
+		return getRDG(rdgURIStr, rdgFile);
+	}
+	
+	/**
+	 * Serializes the result of a single RIG of a batch
+	 * 
+	 * @param model the result
+	 * @return the RDF/XML of the result
+	 */
+	private static byte[] serializeBatchResult(SSWAPModel model) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		
+		if (model instanceof ModelImpl) {
+			((ModelImpl) model).serialize(bos, RDFRepresentation.RDF_XML, false /* commentedOutput */, false /* abbreviated */);
+		} else {
+			model.serialize(bos);
+		}
+		
+		return bos.toByteArray();
+	}
+	
 	/**
 	 * Verifies whether the submitted RIG is an asynchronous RIG.
 	 * The determination is done based on analyzing sswap:Subject's types -- if
 	 * subject is typed with a marker class async:RRG, then it is an asynchronous RIG.
+	 * The check looks up the statements in the parsed RIG directly (i.e., it does
+	 * not require creating a RIG from the model).
 	 * 
-	 * @param asyncRIGCandidate a RIG to be checked
+	 * @param rigModel the Jena model of a RIG to be checked
 	 * @return true if the RIG is an asynchronous RIG, false otherwise
 	 */
-	private boolean isAsyncRIG(RIG asyncRIGCandidate) {
-		SSWAPResource resource = asyncRIGCandidate.getResource();
+	private boolean isAsyncRIG(Model rigModel) {
+		Property rdfType = rigModel.createProperty(RDF.TYPE.stringValue());
+		Property operatesOn = rigModel.createProperty(Vocabulary.OPERATES_ON.getURI());
+		Property hasMapping = rigModel.createProperty(Vocabulary.HAS_MAPPING.getURI());
 		
-		if (resource != null) {
-			SSWAPGraph graph = resource.getGraph();
-			
-			if (graph != null) {
-				SSWAPSubject subject = graph.getSubject();
+		ResIterator subjects = rigModel.listResourcesWithProperty(rdfType, Vocabulary.ASYNC_RRG);
+		
+		try {
+			while (subjects.hasNext()) {
+				ResIterator graphs = rigModel.listResourcesWithProperty(hasMapping, subjects.next());
 				
-				if ( (subject != null) && subject.getDeclaredTypes().contains(asyncRIGCandidate.getType(URI.create(Vocabulary.ASYNC_RRG.toString()))) ) {
-					return true;
+				try {
+					while (graphs.hasNext()) {
+						ResIterator resources = rigModel.listResourcesWithProperty(operatesOn, graphs.next());
+						
+						try {
+							while (resources.hasNext()) {
+								if (rigModel.contains(resources.next(), rdfType, Vocabulary.SSWAP_RESOURCE)) {
+									return true;
+								}
+							}
+						} finally {
+							resources.close();
+						}
+					}
+				} finally {
+					graphs.close();
 				}
 			}
+		} finally {
+			subjects.close();
 		}
 		
 		return false;
 	}
 	
+	/**
+	 * Creates a RIG from an already parsed model and validates it against the RDG.
+	 * 
+	 * @param rdg the RDG of this service
+	 * @param rigModel the Jena model of the RIG (it is not modified)
+	 * @return the RIG
+	 * @throws ValidationException if the RIG is not valid against the RDG
+	 */
+	private RIG getRIG(RDG rdg, Model rigModel) throws ValidationException {
+		if (rdg instanceof RDGImpl) {
+			return ((RDGImpl) rdg).getRIG(rigModel);
+		}
+		
+		// an RDG from a different implementation can only read a serialized RIG
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		rigModel.write(bos, "RDF/XML");
+		
+		return rdg.getRIG(new ByteArrayInputStream(bos.toByteArray()));
+	}
+	
 	
 	/**
 	 * Return an error message.
@@ -929,13 +1356,13 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 	/**
 	 * Dereference the servlet's RDG and map any Exceptions to a general
 	 * IOException.  Will catch and throw on rdgURIStr null or empty errors.
+	 * The RDG is parsed only once (see {@link RDGCache}); every request gets
+	 * its own copy of it.
 	 */
-	private RDG getRDG(String rdgURIStr) throws IOException {
+	private RDG getRDG(String rdgURIStr, String rdgFile) throws IOException {
 
 		RDG rdg = null;
 
-		InputStream inputStream = null;
-
 		try { // dereference, but do not get closure
 			
 			if ( rdgURIStr == null || rdgURIStr.isEmpty() ) {
@@ -946,8 +1373,7 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 			try {
 				
 				URI uri = new URI(rdgURIStr);
-				inputStream = new FileInputStream(rdgFile);
-				if ( (rdg = SSWAP.getResourceGraph(inputStream, RDG.class, uri)) == null ) { // URISyntaxException
+				if ( (rdg = RDGCache.get().getRDG(new File(rdgFile), uri)) == null ) { // URISyntaxException
 					throw new Exception();
 				}
 				
@@ -957,14 +1383,6 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 
 		} catch ( Exception e ) {
 			throw new IOException(e.getMessage());
-		} finally {
-			if ( inputStream != null ) {
-				try {
-					inputStream.close();
-				} catch ( Exception e ) {
-					; // consume
-				}
-			}
 		}
 
 		return rdg;
@@ -1476,32 +1894,311 @@ public abstract class AbstractSSWAPServlet extends HttpServlet {
 	}
 
 	/**
-	 * Serialize the model back to the HTTP response.
+	 * Serialize the model back to the HTTP response. The RDF representation is negotiated with the client (see
+	 * getResponseRepresentation()), and the response is compressed on the fly, if the client accepts a compressed
+	 * response (see getResponseEncoding()). RDF/XML is written with the plain (streaming) writer, unless
+	 * the client asks for a pretty output (see Vocabulary.SSWAP_PRETTY_OUTPUT_HEADER).
 	 */
 	private void serializeResponse(HttpServletRequest request, HttpServletResponse response, SSWAPModel model) throws IOException {
 
-		response.setContentType("application/rdf+xml");
-		ServletOutputStream httpResponseStream = null;
+		RDFRepresentation representation = getResponseRepresentation(request);
+		OutputStream httpResponseStream = null;
 
 		try {
-			String outputURI = extractOutputURI(model);
+			httpResponseStream = openResponseStream(request, response, representation, extractOutputURI(model));
 			
-			if (outputURI != null) {
-				response.addHeader(Vocabulary.SSWAP_OUTPUT_URI_HEADER, outputURI);
-			}
-			
-			httpResponseStream = response.getOutputStream();
-			model.serialize(httpResponseStream);
+			serializeModel(request, model, httpResponseStream, representation);
 
 		} catch ( Exception e ) {  // any and all, including RuntimeExceptions
 			throw new IOException("Unable to serialize (write-out) model for: " + model.getURI().toString());
 		} finally {
 			if ( httpResponseStream != null ) {
+				// also finishes the compressed stream
 				httpResponseStream.close();
 			}
 		}
 	}
-
+	
+	/**
+	 * Serializes the response of a deterministic service, stores it in the ResponseCache, and writes it to the HTTP response.
+	 * 
+	 * @param request the request
+	 * @param response the response
+	 * @param model the model to be serialized (an RRG)
+	 * @param responseKey the key of the response in the cache (see getResponseKey())
+	 * @param rigModel the model of the RIG answered by the response
+	 * @throws IOException if the model cannot be serialized, or the response cannot be written 
+	 */
+	private void cacheResponse(HttpServletRequest request, HttpServletResponse response, SSWAPModel model, String responseKey, Model rigModel) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		
+		try {
+			serializeModel(request, model, bos, getResponseRepresentation(request));
+		} catch ( Exception e ) {  // any and all, including RuntimeExceptions
+			throw new IOException("Unable to serialize (write-out) model for: " + model.getURI().toString());
+		}
+		
+		byte[] content = bos.toByteArray();
+		String outputURI = extractOutputURI(model);
+		
+		ResponseCache.get().store(responseKey, rigModel, content, outputURI, responseCacheTTL);
+		
+		writeResponse(request, response, content, outputURI);
+	}
+	
+	/**
+	 * Writes an already serialized response (e.g., from the ResponseCache) to the HTTP response
+	 * 
+	 * @param request the request
+	 * @param response the response
+	 * @param content the serialized model (in the representation negotiated for this request)
+	 * @param outputURI the sswap:outputURI of the model (may be null)
+	 * @throws IOException if the response cannot be written
+	 */
+	private void writeResponse(HttpServletRequest request, HttpServletResponse response, byte[] content, String outputURI) throws IOException {
+		OutputStream httpResponseStream = openResponseStream(request, response, getResponseRepresentation(request), outputURI);
+		
+		try {
+			httpResponseStream.write(content);
+		} finally {
+			// also finishes the compressed stream
+			httpResponseStream.close();
+		}
+	}
+	
+	/**
+	 * Serializes a model in the given representation (pretty-printed, if the client asks for a pretty output) 
+	 */
+	private static void serializeModel(HttpServletRequest request, SSWAPModel model, OutputStream os, RDFRepresentation representation) throws DataAccessException {
+		boolean prettyOutput = Boolean.parseBoolean(request.getHeader(Vocabulary.SSWAP_PRETTY_OUTPUT_HEADER));
+		
+		if (model instanceof ModelImpl) {
+			((ModelImpl) model).serialize(os, representation, false /* commentedOutput */, prettyOutput);
+		}
+		else {
+			model.serialize(os, representation, false /* commentedOutput */);
+		}
+	}
+	
+	/**
+	 * Sets the headers of the response (the content type for the representation, sswap:outputURI) and opens its
+	 * output stream, compressing it if the client accepts a compressed response (see getResponseEncoding()).
+	 * 
+	 * @param request the request
+	 * @param response the response
+	 * @param representation the RDF representation of the response
+	 * @param outputURI the sswap:outputURI of the response (may be null)
+	 * @return the (buffered) output stream; it must be closed to finish the response
+	 * @throws IOException if the output stream cannot be opened
+	 */
+	private static OutputStream openResponseStream(HttpServletRequest request, HttpServletResponse response, RDFRepresentation representation, String outputURI) throws IOException {
+		String contentEncoding = getResponseEncoding(request);
+		
+		response.setContentType(getContentType(representation));
+		response.addHeader("Vary", "Accept, Accept-Encoding");
+		
+		if (outputURI != null) {
+			response.addHeader(Vocabulary.SSWAP_OUTPUT_URI_HEADER, outputURI);
+		}
+		
+		OutputStream httpResponseStream = response.getOutputStream();
+		
+		if ("gzip".equals(contentEncoding)) {
+			response.setHeader("Content-Encoding", contentEncoding);
+			return new GZIPOutputStream(httpResponseStream, RESPONSE_BUFFER_SIZE);
+		}
+		else if ("deflate".equals(contentEncoding)) {
+			response.setHeader("Content-Encoding", contentEncoding);
+			return new DeflaterOutputStream(new BufferedOutputStream(httpResponseStream, RESPONSE_BUFFER_SIZE));
+		}
+		
+		return new BufferedOutputStream(httpResponseStream, RESPONSE_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Computes the key of the response of a deterministic service in the ResponseCache. The key consists of the URL of
+	 * the service, the version of its RDG (so that the cached responses are not used once the RDG changes), the negotiated
+	 * representation of the response and the canonical hash of the RIG (which does not depend on the labels of bnodes).
+	 * Since the hash may be the same for different RIGs, the ResponseCache confirms that the RIG of a cached response
+	 * is isomorphic with the given RIG.
+	 * 
+	 * @param request the request
+	 * @param rdgFile the file with the RDG of the service (may be null)
+	 * @param rigModel the model of the RIG
+	 * @return the key or null, if the response should not be cached (e.g., the service is not deterministic)
+	 */
+	private String getResponseKey(HttpServletRequest request, String rdgFile, Model rigModel) {
+		if ( !deterministic || (rdgFile == null) || !ResponseCache.get().isActive() ) {
+			return null;
+		}
+		
+		String rdgURIStr = request.getRequestURL().toString();
+		long rdgVersion;
+		
+		try {
+			rdgVersion = RDGCache.get().getVersion(new File(rdgFile), new URI(rdgURIStr));
+		} catch ( URISyntaxException e ) {
+			return null;
+		}
+		
+		if ( rdgVersion < 0 ) {
+			// the changes of the RDG are not tracked
+			return null;
+		}
+		
+		boolean prettyOutput = Boolean.parseBoolean(request.getHeader(Vocabulary.SSWAP_PRETTY_OUTPUT_HEADER));
+		
+		return rdgURIStr + " " + rdgVersion + " " + getResponseRepresentation(request) + " " + prettyOutput + " " + ModelHash.canonicalHash(rigModel);
+	}
+	
+	/**
+	 * Determines the RDF representation of the response from the Accept header(s) of the request. N-Triples and Turtle are
+	 * used only if the client explicitly lists them (before RDF/XML, and without q=0); in all other cases (including no Accept
+	 * header or * / *), RDF/XML is used.
+	 * 
+	 * @param request the request
+	 * @return the RDF representation of the response
+	 */
+	private static RDFRepresentation getResponseRepresentation(HttpServletRequest request) {
+		Enumeration<?> acceptHeaders = request.getHeaders("Accept");
+		
+		if ( acceptHeaders == null ) {
+			return RDFRepresentation.RDF_XML;
+		}
+		
+		while ( acceptHeaders.hasMoreElements() ) {
+			Object header = acceptHeaders.nextElement();
+			
+			if ( header == null ) {
+				continue;
+			}
+			
+			for ( String element : header.toString().split(",") ) {
+				String[] parts = element.split(";");
+				String mimeType = parts[0].trim().toLowerCase();
+				
+				if ( getQValue(parts) == 0 ) {
+					// explicitly not acceptable
+					continue;
+				}
+				
+				if ( mimeType.equals("application/rdf+xml") ) {
+					return RDFRepresentation.RDF_XML;
+				} else if ( mimeType.equals("text/turtle") || mimeType.equals("application/x-turtle") ) {
+					return RDFRepresentation.TURTLE;
+				} else if ( mimeType.equals("application/n-triples") ) {
+					return RDFRepresentation.NTRIPLES;
+				}
+			}
+		}
+		
+		return RDFRepresentation.RDF_XML;
+	}
+	
+	/**
+	 * Gets the value of the Content-Type header for the given RDF representation of the response
+	 * 
+	 * @param representation the RDF representation
+	 * @return the content type
+	 */
+	private static String getContentType(RDFRepresentation representation) {
+		switch (representation) {
+			case TURTLE:
+				return "text/turtle; charset=UTF-8";
+			case NTRIPLES:
+				// N-Triples written by Jena are ASCII-only (and therefore valid UTF-8)
+				return "application/n-triples; charset=UTF-8";
+			default:
+				return "application/rdf+xml";
+		}
+	}
+	
+	/**
+	 * Determines the content encoding of the response from the Accept-Encoding header(s) of the request. The encoding with
+	 * the highest q-value is chosen (gzip wins a tie with deflate); an encoding that is not listed gets the q-value of "*",
+	 * if any. The response is not compressed (identity) if neither gzip nor deflate is acceptable, or if identity
+	 * is explicitly preferred to both of them.
+	 * 
+	 * @param request the request
+	 * @return "gzip", "deflate" or null, if the response should not be compressed
+	 */
+	static String getResponseEncoding(HttpServletRequest request) {
+		Enumeration<?> encodingHeaders = request.getHeaders("Accept-Encoding");
+		
+		if ( encodingHeaders == null ) {
+			return null;
+		}
+		
+		double gzip = -1;
+		double deflate = -1;
+		double identity = -1;
+		double wildcard = -1;
+		
+		while ( encodingHeaders.hasMoreElements() ) {
+			Object header = encodingHeaders.nextElement();
+			
+			if ( header == null ) {
+				continue;
+			}
+			
+			for ( String encoding : header.toString().split(",") ) {
+				String[] parts = encoding.split(";");
+				String name = parts[0].trim().toLowerCase();
+				double q = getQValue(parts);
+				
+				if ( name.equals("gzip") || name.equals("x-gzip") ) {
+					gzip = Math.max(gzip, q);
+				} else if ( name.equals("deflate") ) {
+					deflate = Math.max(deflate, q);
+				} else if ( name.equals("identity") ) {
+					identity = Math.max(identity, q);
+				} else if ( name.equals("*") ) {
+					wildcard = Math.max(wildcard, q);
+				}
+			}
+		}
+		
+		if ( gzip < 0 ) {
+			gzip = wildcard;
+		}
+		
+		if ( deflate < 0 ) {
+			deflate = wildcard;
+		}
+		
+		double best = Math.max(gzip, deflate);
+		
+		if ( (best <= 0) || (identity > best) ) {
+			return null;
+		}
+		
+		return (gzip >= deflate) ? "gzip" : "deflate";
+	}
+	
+	/**
+	 * Gets the q-value of an element of an Accept-like header (split on ';')
+	 * 
+	 * @param parts the parts of the element (the first one is the value itself, the remaining ones are the parameters)
+	 * @return the q-value (1, if the element has no valid q-value)
+	 */
+	private static double getQValue(String[] parts) {
+		for ( int i = 1; i < parts.length; i++ ) {
+			String parameter = parts[i].trim();
+			
+			if ( parameter.startsWith("q=") ) {
+				try {
+					double q = Double.parseDouble(parameter.substring(2).trim());
+					
+					return ((q >= 0) && (q <= 1)) ? q : 1;
+				} catch ( NumberFormatException e ) {
+					return 1;
+				}
+			}
+		}
+		
+		return 1;
+	}
+	
 	/*
 	 * methods for parsing Accept headers and MIME types
 	 */
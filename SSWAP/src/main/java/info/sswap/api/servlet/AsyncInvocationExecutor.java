@@ -0,0 +1,442 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+import info.sswap.api.model.Config;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Executes asynchronous RIG invocations (see AsyncRIGInvocation) for all the services in the servlet container.
+ * At most Config.ASYNC_INVOCATION_THREADS_KEY invocations are executed concurrently, and at most
+ * Config.ASYNC_INVOCATION_QUEUE_SIZE_KEY invocations wait for execution; further invocations are rejected
+ * (and the servlet responds with 503 Service Unavailable), rather than overcommitting the server with
+ * an unbounded number of threads, each of them building its own reasoner.
+ *
+ * A separate instance of this class (see getRequestExecutor()) executes the requests handled by services in the
+ * asynchronous (Servlet 3) mode (see AbstractSSWAPServlet); its limits are controlled by Config.ASYNC_REQUEST_THREADS_KEY
+ * and Config.ASYNC_REQUEST_QUEUE_SIZE_KEY.
+ *
+ * Yet another instance (see getBatchExecutor()) processes the RIGs from batch invocations (see AbstractSSWAPServlet);
+ * its limits are controlled by Config.BATCH_INVOCATION_THREADS_KEY and Config.BATCH_INVOCATION_QUEUE_SIZE_KEY.
+ * The lookups of services that map their subjects concurrently (see ConcurrentMapsTo) are executed by the instance returned
+ * by getMapsToExecutor() (with limits controlled by Config.MAPS_TO_THREADS_KEY and Config.MAPS_TO_QUEUE_SIZE_KEY).
+ *
+ * If the JVM supports virtual threads (and they have not been disabled by Config.ASYNC_INVOCATION_VIRTUAL_THREADS_KEY),
+ * the invocations are executed in virtual threads (their number is still limited as described above).
+ *
+ * The executor also keeps statistics about the executed invocations (queue depth, number of active, completed and rejected
+ * invocations, and moving averages of the time spent in the queue and in execution), which are used to suggest
+ * the polling interval to the callers, and the time after which a rejected caller should retry. While the executor is active,
+ * the statistics are also published over JMX (see AsyncInvocationExecutorMBean).
+ */
+public class AsyncInvocationExecutor implements AsyncInvocationExecutorMBean {
+	private static final Logger LOGGER = LogManager.getLogger(AsyncInvocationExecutor.class);
+
+	/**
+	 * How long an idle thread waits for new work before it terminates (in seconds)
+	 */
+	private static final long KEEP_ALIVE_TIME = 60;
+
+	/**
+	 * The weight of the latest observation in the moving averages of the queue latency and execution time
+	 */
+	private static final double SMOOTHING_FACTOR = 0.2;
+
+	/**
+	 * The instance executing asynchronous RIG invocations
+	 */
+	private static final AsyncInvocationExecutor instance = new AsyncInvocationExecutor("sswap-async-", 
+					Config.ASYNC_INVOCATION_THREADS_KEY, Config.ASYNC_INVOCATION_THREADS_DEFAULT,
+					Config.ASYNC_INVOCATION_QUEUE_SIZE_KEY, Config.ASYNC_INVOCATION_QUEUE_SIZE_DEFAULT);
+
+	/**
+	 * The instance executing the requests handled in the asynchronous mode
+	 */
+	private static final AsyncInvocationExecutor requestInstance = new AsyncInvocationExecutor("sswap-request-", 
+					Config.ASYNC_REQUEST_THREADS_KEY, Config.ASYNC_REQUEST_THREADS_DEFAULT,
+					Config.ASYNC_REQUEST_QUEUE_SIZE_KEY, Config.ASYNC_REQUEST_QUEUE_SIZE_DEFAULT);
+
+	/**
+	 * The instance processing the RIGs from batch invocations
+	 */
+	private static final AsyncInvocationExecutor batchInstance = new AsyncInvocationExecutor("sswap-batch-", 
+					Config.BATCH_INVOCATION_THREADS_KEY, Config.BATCH_INVOCATION_THREADS_DEFAULT,
+					Config.BATCH_INVOCATION_QUEUE_SIZE_KEY, Config.BATCH_INVOCATION_QUEUE_SIZE_DEFAULT);
+
+	/**
+	 * The instance executing the lookups of services that map subjects concurrently
+	 */
+	private static final AsyncInvocationExecutor mapsToInstance = new AsyncInvocationExecutor("sswap-mapsto-", 
+					Config.MAPS_TO_THREADS_KEY, Config.MAPS_TO_THREADS_DEFAULT,
+					Config.MAPS_TO_QUEUE_SIZE_KEY, Config.MAPS_TO_QUEUE_SIZE_DEFAULT);
+
+	/**
+	 * The prefix of the names of the threads
+	 */
+	private final String threadNamePrefix;
+
+	private final String threadsKey;
+
+	private final String threadsDefault;
+
+	private final String queueSizeKey;
+
+	private final String queueSizeDefault;
+
+	/**
+	 * The executor (lazily created)
+	 */
+	private ThreadPoolExecutor executor;
+
+	/**
+	 * The name under which the statistics are published over JMX (null, while they are not published)
+	 */
+	private ObjectName mbeanName;
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	/**
+	 * The moving average of the time that the invocations spent waiting for execution (in ms)
+	 */
+	private volatile double averageQueueLatency;
+
+	/**
+	 * The moving average of the execution time of the invocations (in ms)
+	 */
+	private volatile double averageExecutionTime;
+
+	/**
+	 * Accessor for the instance executing asynchronous RIG invocations
+	 *
+	 * @return the instance
+	 */
+	public static AsyncInvocationExecutor get() {
+		return instance;
+	}
+
+	/**
+	 * Accessor for the instance executing the requests handled in the asynchronous mode
+	 *
+	 * @return the instance
+	 */
+	public static AsyncInvocationExecutor getRequestExecutor() {
+		return requestInstance;
+	}
+
+	/**
+	 * Accessor for the instance processing the RIGs from batch invocations
+	 *
+	 * @return the instance
+	 */
+	public static AsyncInvocationExecutor getBatchExecutor() {
+		return batchInstance;
+	}
+
+	/**
+	 * Accessor for the instance executing the lookups of services that map subjects concurrently (see ConcurrentMapsTo)
+	 *
+	 * @return the instance
+	 */
+	public static AsyncInvocationExecutor getMapsToExecutor() {
+		return mapsToInstance;
+	}
+
+	private AsyncInvocationExecutor(String threadNamePrefix, String threadsKey, String threadsDefault, String queueSizeKey, String queueSizeDefault) {
+		this.threadNamePrefix = threadNamePrefix;
+		this.threadsKey = threadsKey;
+		this.threadsDefault = threadsDefault;
+		this.queueSizeKey = queueSizeKey;
+		this.queueSizeDefault = queueSizeDefault;
+	}
+
+	/**
+	 * Schedules an asynchronous invocation for execution.
+	 *
+	 * @param invocation the invocation
+	 * @throws RejectedExecutionException if the maximum number of invocations are already waiting for execution
+	 */
+	public void execute(final Runnable invocation) throws RejectedExecutionException {
+		final long submissionTime = System.currentTimeMillis();
+
+		try {
+			getExecutor().execute(new Runnable() {
+				public void run() {
+					long startTime = System.currentTimeMillis();
+
+					averageQueueLatency = updateAverage(averageQueueLatency, startTime - submissionTime);
+
+					try {
+						invocation.run();
+					}
+					finally {
+						averageExecutionTime = updateAverage(averageExecutionTime, System.currentTimeMillis() - startTime);
+					}
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+
+			LOGGER.warn("Rejected a task (" + getQueueDepth() + " tasks are waiting for " + threadNamePrefix + "* threads, " + getActiveCount() + " are running)");
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the number of invocations waiting for execution
+	 *
+	 * @return the number of waiting invocations
+	 */
+	public synchronized int getQueueDepth() {
+		return (executor == null) ? 0 : executor.getQueue().size();
+	}
+
+	/**
+	 * Gets the (approximate) number of invocations being executed
+	 *
+	 * @return the number of running invocations
+	 */
+	public synchronized int getActiveCount() {
+		return (executor == null) ? 0 : executor.getActiveCount();
+	}
+
+	/**
+	 * Gets the (approximate) number of invocations that have been executed by the current executor
+	 *
+	 * @return the number of completed invocations
+	 */
+	public synchronized long getCompletedCount() {
+		return (executor == null) ? 0 : executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * Gets the number of invocations that have been rejected, because too many invocations were waiting
+	 *
+	 * @return the number of rejected invocations
+	 */
+	public long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Gets the moving average of the time that the invocations spent waiting for execution
+	 *
+	 * @return the average queue latency in ms
+	 */
+	public long getAverageQueueLatency() {
+		return Math.round(averageQueueLatency);
+	}
+
+	/**
+	 * Gets the moving average of the execution time of the invocations
+	 *
+	 * @return the average execution time in ms
+	 */
+	public long getAverageExecutionTime() {
+		return Math.round(averageExecutionTime);
+	}
+
+	/**
+	 * Suggests a polling interval for a caller of an asynchronous invocation. Polling before the invocation has even
+	 * been started is useless, so the interval is at least the observed queue latency.
+	 *
+	 * @param minimumInterval the minimum polling interval (e.g., configured for the service) in ms
+	 * @return the suggested polling interval in ms
+	 */
+	public int getSuggestedPollingInterval(int minimumInterval) {
+		return (int) Math.max(minimumInterval, Math.min(Integer.MAX_VALUE, getAverageQueueLatency()));
+	}
+
+	/**
+	 * Suggests the time after which a caller, whose invocation was rejected, should retry (i.e., the value
+	 * of Retry-After header).
+	 *
+	 * @return the time in seconds
+	 */
+	public long getRetryAfter() {
+		// by that time, the invocations at the head of the queue should have been started
+		return Math.max(1, (long) Math.ceil(averageQueueLatency / 1000));
+	}
+
+	/**
+	 * Checks whether the executor has been created (and not shut down)
+	 *
+	 * @return true if the executor is active
+	 */
+	public synchronized boolean isActive() {
+		return (executor != null) && !executor.isShutdown();
+	}
+
+	/**
+	 * Shuts down the executor (e.g., when the web application is being stopped). Any invocations in progress
+	 * are interrupted. If the executor is needed again afterwards, a new one will be created.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+
+		unregisterMBean();
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		if ((executor == null) || executor.isShutdown()) {
+			executor = createExecutor();
+			registerMBean();
+		}
+
+		return executor;
+	}
+
+	/**
+	 * Publishes the statistics of this executor over JMX (unless they are already published)
+	 */
+	private void registerMBean() {
+		if (mbeanName != null) {
+			return;
+		}
+
+		try {
+			ObjectName name = new ObjectName("info.sswap:type=AsyncInvocationExecutor,name=" + threadNamePrefix.replaceAll("-$", ""));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+				mbeanName = name;
+			}
+		}
+		catch (JMException e) {
+			LOGGER.warn("Unable to publish the statistics of " + threadNamePrefix + "* threads over JMX", e);
+		}
+	}
+
+	/**
+	 * Stops publishing the statistics of this executor over JMX (e.g., so that the web application can be unloaded)
+	 */
+	private void unregisterMBean() {
+		if (mbeanName == null) {
+			return;
+		}
+
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+		}
+		catch (JMException e) {
+			LOGGER.warn("Unable to stop publishing the statistics of " + threadNamePrefix + "* threads over JMX", e);
+		}
+
+		mbeanName = null;
+	}
+
+	private static double updateAverage(double average, long observation) {
+		return (1 - SMOOTHING_FACTOR) * average + SMOOTHING_FACTOR * observation;
+	}
+
+	private ThreadPoolExecutor createExecutor() {
+		int threads = getIntProperty(threadsKey, threadsDefault);
+		int queueSize = getIntProperty(queueSizeKey, queueSizeDefault);
+
+		ThreadFactory threadFactory = null;
+
+		if (Boolean.valueOf(Config.get().getProperty(Config.ASYNC_INVOCATION_VIRTUAL_THREADS_KEY, Config.ASYNC_INVOCATION_VIRTUAL_THREADS_DEFAULT))) {
+			threadFactory = createVirtualThreadFactory(threadNamePrefix);
+		}
+
+		if (threadFactory == null) {
+			threadFactory = new DaemonThreadFactory(threadNamePrefix);
+		}
+
+		// a queue of size 0 means that the invocations are only accepted when there is an idle thread
+		BlockingQueue<Runnable> queue = (queueSize > 0) ? new ArrayBlockingQueue<Runnable>(queueSize) : new SynchronousQueue<Runnable>();
+
+		ThreadPoolExecutor result = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+						queue, threadFactory);
+
+		// do not keep idle threads around when no asynchronous invocations are executed
+		result.allowCoreThreadTimeOut(true);
+
+		LOGGER.debug("Executing " + threadNamePrefix + " tasks with " + threads + " threads and a queue of " + queueSize);
+
+		return result;
+	}
+
+	private static int getIntProperty(String key, String defaultValue) {
+		try {
+			return Integer.parseInt(Config.get().getProperty(key, defaultValue));
+		}
+		catch (NumberFormatException e) {
+			return Integer.parseInt(defaultValue);
+		}
+	}
+
+	/**
+	 * Creates a factory of virtual threads (available since Java 21). The factory is created reflectively, so that this code
+	 * can still be compiled for, and run on, older JVMs.
+	 *
+	 * @param threadNamePrefix the prefix of the names of the threads
+	 * @return the thread factory or null, if virtual threads are not supported
+	 */
+	private static ThreadFactory createVirtualThreadFactory(String threadNamePrefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method nameMethod = Class.forName("java.lang.Thread$Builder").getMethod("name", String.class, long.class);
+			Method factoryMethod = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+
+			builder = nameMethod.invoke(builder, threadNamePrefix, 1l);
+
+			return (ThreadFactory) factoryMethod.invoke(builder);
+		}
+		catch (NoSuchMethodException e) {
+			// virtual threads are not supported by this JVM
+			return null;
+		}
+		catch (ClassNotFoundException e) {
+			return null;
+		}
+		catch (Exception e) {
+			LOGGER.warn("Unable to create a factory of virtual threads", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates daemon threads (so that the executor never prevents the JVM from exiting)
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		private final String threadNamePrefix;
+
+		DaemonThreadFactory(String threadNamePrefix) {
+			this.threadNamePrefix = threadNamePrefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, threadNamePrefix + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
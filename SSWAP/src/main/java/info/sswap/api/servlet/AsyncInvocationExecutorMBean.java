@@ -0,0 +1,52 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+/**
+ * The statistics of an AsyncInvocationExecutor, as published over JMX (under the name
+ * info.sswap:type=AsyncInvocationExecutor,name=&lt;prefix of the names of its threads&gt;).
+ */
+public interface AsyncInvocationExecutorMBean {
+	/**
+	 * Gets the number of invocations waiting for execution
+	 *
+	 * @return the number of waiting invocations
+	 */
+	public int getQueueDepth();
+
+	/**
+	 * Gets the (approximate) number of invocations being executed
+	 *
+	 * @return the number of running invocations
+	 */
+	public int getActiveCount();
+
+	/**
+	 * Gets the (approximate) number of invocations that have been executed by the current executor
+	 *
+	 * @return the number of completed invocations
+	 */
+	public long getCompletedCount();
+
+	/**
+	 * Gets the number of invocations that have been rejected, because too many invocations were waiting
+	 *
+	 * @return the number of rejected invocations
+	 */
+	public long getRejectedCount();
+
+	/**
+	 * Gets the moving average of the time that the invocations spent waiting for execution
+	 *
+	 * @return the average queue latency in ms
+	 */
+	public long getAverageQueueLatency();
+
+	/**
+	 * Gets the moving average of the execution time of the invocations
+	 *
+	 * @return the average execution time in ms
+	 */
+	public long getAverageExecutionTime();
+}
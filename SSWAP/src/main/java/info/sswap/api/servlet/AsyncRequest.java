@@ -0,0 +1,229 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Handles a single request in the asynchronous (Servlet 3) mode, without blocking any of the container's threads:
+ * the body of the request is read with non-blocking reads (as the data arrives), the request is then processed
+ * in the compute pool (see AsyncInvocationExecutor.getRequestExecutor()), and the response is written with
+ * non-blocking writes.
+ *
+ * The processing itself (see process()) is written as usual (i.e., with blocking calls); it writes to a buffered response
+ * (see BufferedHttpServletResponse), which is then sent to the client.
+ */
+abstract class AsyncRequest implements ReadListener, AsyncListener {
+	private static final Logger LOGGER = LogManager.getLogger(AsyncRequest.class);
+
+	/**
+	 * The size of the chunks in which the request is read and the response is written
+	 */
+	private static final int CHUNK_SIZE = 8192;
+
+	private final AsyncContext asyncContext;
+
+	private final HttpServletResponse response;
+
+	private final ServletInputStream inputStream;
+
+	/**
+	 * The body of the request read so far
+	 */
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+	private final byte[] readBuffer = new byte[CHUNK_SIZE];
+
+	/**
+	 * Flag set when the request has been completed (normally, after an error, or after a timeout)
+	 */
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+	/**
+	 * Puts the request into the asynchronous mode.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param timeout the timeout of the request in ms (0 means no timeout)
+	 * @throws IOException if the body of the request cannot be accessed
+	 */
+	AsyncRequest(HttpServletRequest request, HttpServletResponse response, long timeout) throws IOException {
+		this.response = response;
+		this.asyncContext = request.startAsync(request, response);
+		this.inputStream = request.getInputStream();
+
+		asyncContext.setTimeout(timeout);
+		asyncContext.addListener(this);
+	}
+
+	/**
+	 * Starts reading the request (the rest of the processing is triggered by the container's callbacks)
+	 */
+	void start() {
+		inputStream.setReadListener(this);
+	}
+
+	/**
+	 * Processes the request. This method is called in a thread of the compute pool, after the whole body of the request has been read.
+	 *
+	 * @param requestBody the body of the request
+	 * @param bufferedResponse the response to which the result should be written
+	 * @throws Exception if the request cannot be processed
+	 */
+	protected abstract void process(byte[] requestBody, HttpServletResponse bufferedResponse) throws Exception;
+
+	public void onDataAvailable() throws IOException {
+		int len;
+
+		while (inputStream.isReady() && ((len = inputStream.read(readBuffer)) != -1)) {
+			body.write(readBuffer, 0, len);
+		}
+	}
+
+	public void onAllDataRead() throws IOException {
+		try {
+			AsyncInvocationExecutor.getRequestExecutor().execute(new Runnable() {
+				public void run() {
+					processRequest();
+				}
+			});
+		}
+		catch (RejectedExecutionException e) {
+			if (!completed.get()) {
+				response.setHeader("Retry-After", String.valueOf(AsyncInvocationExecutor.getRequestExecutor().getRetryAfter()));
+				sendErrorAndComplete(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many pending requests; retry later");
+			}
+		}
+	}
+
+	public void onError(Throwable t) {
+		LOGGER.info("Unable to read the request", t);
+		sendErrorAndComplete(HttpServletResponse.SC_BAD_REQUEST, "Unable to read the request: " + t.getMessage());
+	}
+
+	public void onTimeout(AsyncEvent event) throws IOException {
+		LOGGER.warn("The processing of an asynchronous request has timed out");
+		sendErrorAndComplete(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "The service did not respond in time");
+	}
+
+	public void onError(AsyncEvent event) throws IOException {
+		complete();
+	}
+
+	public void onComplete(AsyncEvent event) throws IOException {
+		completed.set(true);
+	}
+
+	public void onStartAsync(AsyncEvent event) throws IOException {
+	}
+
+	private void processRequest() {
+		BufferedHttpServletResponse bufferedResponse = new BufferedHttpServletResponse(response);
+
+		try {
+			process(body.toByteArray(), bufferedResponse);
+		}
+		catch (Throwable t) {
+			LOGGER.error("Unable to process an asynchronous request", t);
+			sendErrorAndComplete(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, t.getMessage());
+			return;
+		}
+
+		if (completed.get()) {
+			// the request has already timed out
+			return;
+		}
+
+		if (bufferedResponse.getErrorCode() > 0) {
+			sendErrorAndComplete(bufferedResponse.getErrorCode(), bufferedResponse.getErrorMessage());
+			return;
+		}
+
+		try {
+			writeResponse(bufferedResponse.getContent());
+		}
+		catch (Exception e) {
+			// e.g., the request has timed out in the meantime
+			LOGGER.info("Unable to write the response", e);
+			complete();
+		}
+	}
+
+	/**
+	 * Writes the body of the response with non-blocking writes (and completes the request afterwards)
+	 *
+	 * @param content the body of the response
+	 * @throws IOException if an I/O error should occur
+	 */
+	private void writeResponse(final byte[] content) throws IOException {
+		response.setContentLength(content.length);
+
+		final ServletOutputStream outputStream = response.getOutputStream();
+
+		outputStream.setWriteListener(new WriteListener() {
+			private int offset = 0;
+
+			public void onWritePossible() throws IOException {
+				while (outputStream.isReady()) {
+					if (offset == content.length) {
+						complete();
+						return;
+					}
+
+					int len = Math.min(CHUNK_SIZE, content.length - offset);
+
+					outputStream.write(content, offset, len);
+					offset += len;
+				}
+			}
+
+			public void onError(Throwable t) {
+				LOGGER.info("Unable to write the response", t);
+				complete();
+			}
+		});
+	}
+
+	private void sendErrorAndComplete(int statusCode, String message) {
+		if (completed.get()) {
+			return;
+		}
+
+		try {
+			if (message == null) {
+				response.sendError(statusCode);
+			}
+			else {
+				response.sendError(statusCode, message);
+			}
+		}
+		catch (Exception e) {
+			LOGGER.info("Unable to send an error response", e);
+		}
+
+		complete();
+	}
+
+	private void complete() {
+		if (completed.compareAndSet(false, true)) {
+			asyncContext.complete();
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * A response that keeps the written body (and the error sent via sendError()) in memory, instead of writing them
+ * to the client. The status and headers are passed to the wrapped response. It allows the code that writes the
+ * response with blocking calls to be executed outside of the container's threads, and the body to be written to
+ * the client later in a non-blocking way (see AsyncRequest).
+ */
+class BufferedHttpServletResponse extends HttpServletResponseWrapper {
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+	private ServletOutputStream outputStream;
+
+	private PrintWriter writer;
+
+	/**
+	 * The status code sent with sendError() (or 0, if sendError() has not been called)
+	 */
+	private int errorCode;
+
+	private String errorMessage;
+
+	BufferedHttpServletResponse(HttpServletResponse response) {
+		super(response);
+	}
+
+	@Override
+	public ServletOutputStream getOutputStream() throws IOException {
+		if (writer != null) {
+			throw new IllegalStateException("getWriter() has already been called for this response");
+		}
+
+		if (outputStream == null) {
+			outputStream = new ServletOutputStream() {
+				@Override
+				public void write(int b) throws IOException {
+					buffer.write(b);
+				}
+
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					buffer.write(b, off, len);
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setWriteListener(WriteListener writeListener) {
+					throw new UnsupportedOperationException("A buffered response cannot be written asynchronously");
+				}
+			};
+		}
+
+		return outputStream;
+	}
+
+	@Override
+	public PrintWriter getWriter() throws IOException {
+		if (outputStream != null) {
+			throw new IllegalStateException("getOutputStream() has already been called for this response");
+		}
+
+		if (writer == null) {
+			try {
+				writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+			}
+			catch (UnsupportedEncodingException e) {
+				writer = new PrintWriter(new OutputStreamWriter(buffer, "ISO-8859-1"));
+			}
+		}
+
+		return writer;
+	}
+
+	@Override
+	public void sendError(int sc) throws IOException {
+		sendError(sc, null);
+	}
+
+	@Override
+	public void sendError(int sc, String msg) throws IOException {
+		errorCode = sc;
+		errorMessage = msg;
+	}
+
+	@Override
+	public void flushBuffer() throws IOException {
+		// nothing is written to the client until the whole response is ready
+	}
+
+	@Override
+	public boolean isCommitted() {
+		return false;
+	}
+
+	@Override
+	public void resetBuffer() {
+		buffer.reset();
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		buffer.reset();
+		errorCode = 0;
+		errorMessage = null;
+	}
+
+	/**
+	 * Gets the status code sent via sendError()
+	 *
+	 * @return the status code or 0, if sendError() has not been called
+	 */
+	int getErrorCode() {
+		return errorCode;
+	}
+
+	String getErrorMessage() {
+		return errorMessage;
+	}
+
+	/**
+	 * Gets the body written to this response
+	 *
+	 * @return the body
+	 */
+	byte[] getContent() {
+		if (writer != null) {
+			writer.flush();
+		}
+
+		return buffer.toByteArray();
+	}
+}
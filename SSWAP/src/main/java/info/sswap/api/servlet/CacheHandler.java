@@ -3,11 +3,14 @@
  */
 package info.sswap.api.servlet;
 
-import info.sswap.api.model.RRG;
+import info.sswap.api.model.Config;
 import info.sswap.impl.empire.Vocabulary;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.Enumeration;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
@@ -19,19 +22,31 @@ import javax.servlet.http.HttpServletResponse;
  * Handler for HTTP requests for the cache (e.g., polling for RRGs). The cache-related requests are forwarded to this
  * class by AbstractSSWAPServlet
  * 
+ * Instead of polling at the suggested polling interval, a client may wait for an RRG that has not yet been computed: either
+ * by adding the wait parameter (the maximum time to wait in milliseconds) to the query string (long polling), or
+ * by accepting text/event-stream (server-sent events). The waiting requests do not block any of the container's threads
+ * (see RRGWaiter); the servlet must be declared with &lt;async-supported&gt;true&lt;/async-supported&gt;, otherwise
+ * such requests are answered immediately.
+ * 
  * @author Blazej Bulka <blazej@clarkparsia.com>
  */
 public class CacheHandler {
 	/**
 	 * The name of the parameter in the query string that should contain the token
 	 */
-	public static final String TOKEN_PARAM = "token";
+	public static final String TOKEN_PARAM = Vocabulary.SSWAP_RRG_TOKEN_PARAM;
+	
+	/**
+	 * The name of the parameter in the query string that contains the maximum time (in milliseconds) for which the request
+	 * should wait for the RRG (the time is limited by Config.RRG_MAX_WAIT_KEY)
+	 */
+	public static final String WAIT_PARAM = Vocabulary.SSWAP_RRG_WAIT_PARAM;
 	
 	/**
 	 * The name of the HTTP field in the response to the polling request that should contain the suggested
 	 * polling interval (in milliseconds)
 	 */
-	public static final String POLLING_INTERVAL_HEADER = "X-SSWAP-Suggested-Polling-Interval";
+	public static final String POLLING_INTERVAL_HEADER = Vocabulary.SSWAP_POLLING_INTERVAL_HEADER;
 	
 	public static final String EXECUTION_STATUS_HEADER = "X-SSWAP-Execution-Status";
 	
@@ -68,55 +83,134 @@ public class CacheHandler {
 			
 			RRGCache.Entry entry = RRGCache.get().get(token);
 			
-			if (entry == null) {
-				// if we do not know anything about the token -- just return 404
-				sendError(response, HttpServletResponse.SC_NOT_FOUND, null);
-				return;
-			}
-			
-			RRG rrg = entry.getRRG(); 
-			
-			if (entry.getStatus() != null) {
-				response.addHeader(EXECUTION_STATUS_HEADER, entry.getStatus());
-			}			
-			
-			if (rrg == null) {
-				if (entry.getErrorMessage() != null) {
-					// HTTP 502 to indicate that the service (to which this cache is a gateway) failed
-					response.setHeader(Vocabulary.SSWAP_HTTP_EXCEPTION_HEADER, entry.getErrorMessage());
-									
-					sendError(response, HttpServletResponse.SC_BAD_GATEWAY, entry.getErrorMessage());
-				}
-				else {
-					// otherwise, we are going to return 204 with an optional HTTP header with suggested polling interval
-					if (entry.getSuggestedPollingInterval() > 0) {
-						response.addHeader(POLLING_INTERVAL_HEADER, String.valueOf(entry.getSuggestedPollingInterval()));
-					}
-					
-					response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+			if ((entry != null) && !entry.isComplete() && request.isAsyncSupported()) {
+				boolean eventStream = acceptsEventStream(request);
+				long wait = getWait(request, eventStream);
+				
+				if (wait > 0) {
+					// park the request until the RRG is computed (or the wait is over)
+					new RRGWaiter(request, response, token, wait, eventStream).start();
+					return;
 				}
-				return;
 			}
 			
-			// at this point RRG is not null, and should be returned to the client
-			response.setContentType("application/rdf+xml");
-			
-			ServletOutputStream httpResponseStream = null;
-
-			try {
-				httpResponseStream = response.getOutputStream();
-				rrg.serialize(httpResponseStream);
-			} finally {
-				if ( httpResponseStream != null ) {
-					httpResponseStream.close();
+			sendEntry(request, response, entry);
+		}
+		catch (IOException e) {
+			throw new ServletException("I/O error while sending response", e);
+		}
+	}
+	
+	/**
+	 * Answers a request for an RRG with the current state of its computation: the RRG itself, an error,
+	 * or HTTP 204 (if the computation has not yet finished)
+	 * 
+	 * @param request the request
+	 * @param response the response
+	 * @param entry the entry for the RRG (may be null, if the token is not known)
+	 * @throws IOException if the response cannot be written
+	 */
+	void sendEntry(HttpServletRequest request, HttpServletResponse response, RRGCache.Entry entry) throws IOException {
+		if (entry == null) {
+			// if we do not know anything about the token -- just return 404
+			sendError(response, HttpServletResponse.SC_NOT_FOUND, null);
+			return;
+		}
+		
+		if (entry.getStatus() != null) {
+			response.addHeader(EXECUTION_STATUS_HEADER, entry.getStatus());
+		}			
+		
+		if (!entry.hasRRG()) {
+			if (entry.getErrorMessage() != null) {
+				// HTTP 502 to indicate that the service (to which this cache is a gateway) failed
+				response.setHeader(Vocabulary.SSWAP_HTTP_EXCEPTION_HEADER, entry.getErrorMessage());
+								
+				sendError(response, HttpServletResponse.SC_BAD_GATEWAY, entry.getErrorMessage());
+			}
+			else {
+				// otherwise, we are going to return 204 with an optional HTTP header with suggested polling interval
+				if (entry.getSuggestedPollingInterval() > 0) {
+					response.addHeader(POLLING_INTERVAL_HEADER, String.valueOf(entry.getSuggestedPollingInterval()));
 				}
+				
+				response.setStatus(HttpServletResponse.SC_NO_CONTENT);
 			}
+			return;
+		}
+		
+		// at this point RRG is not null, and should be returned to the client
+		// (as it is stored in the cache, without parsing and serializing it again)
+		response.setContentType(entry.getContentType());
+		response.addHeader("Vary", "Accept-Encoding");
+		
+		ServletOutputStream httpResponseStream = null;
+
+		try {
+			httpResponseStream = response.getOutputStream();
 			
-			rrg.serialize(response.getOutputStream());			
+			if ("gzip".equals(AbstractSSWAPServlet.getResponseEncoding(request))) {
+				// the stored RRG is already compressed
+				byte[] compressedRRG = entry.getCompressedRRG();
+				
+				response.setHeader("Content-Encoding", "gzip");
+				response.setContentLength(compressedRRG.length);
+				httpResponseStream.write(compressedRRG);
+			}
+			else {
+				OutputStream os = new BufferedOutputStream(httpResponseStream, AbstractSSWAPServlet.RESPONSE_BUFFER_SIZE);
+				entry.writeRRG(os);
+				os.flush();
+			}
+		} finally {
+			if ( httpResponseStream != null ) {
+				httpResponseStream.close();
+			}
 		}
-		catch (IOException e) {
-			throw new ServletException("I/O error while sending response", e);
+	}
+	
+	/**
+	 * Gets the time for which a request should wait for an RRG
+	 * 
+	 * @param request the request
+	 * @param eventStream whether the client accepts server-sent events (in such a case, the client waits as long as possible, 
+	 * unless it specifies a shorter time) 
+	 * @return the time in milliseconds (0 means that the request should not wait)
+	 */
+	private static long getWait(HttpServletRequest request, boolean eventStream) {
+		long maxWait = Long.parseLong(Config.get().getProperty(Config.RRG_MAX_WAIT_KEY, Config.RRG_MAX_WAIT_DEFAULT));
+		String waitStr = request.getParameter(WAIT_PARAM);
+		
+		if (waitStr == null) {
+			return eventStream ? maxWait : 0;
 		}
+		
+		try {
+			return Math.max(0, Math.min(Long.parseLong(waitStr), maxWait));
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * Checks whether the client accepts server-sent events
+	 * 
+	 * @param request the request
+	 * @return true if text/event-stream is listed in the Accept header(s) 
+	 */
+	private static boolean acceptsEventStream(HttpServletRequest request) {
+		Enumeration<?> acceptHeaders = request.getHeaders("Accept");
+		
+		while ((acceptHeaders != null) && acceptHeaders.hasMoreElements()) {
+			Object header = acceptHeaders.nextElement();
+			
+			if ((header != null) && header.toString().toLowerCase().contains(RRGWaiter.EVENT_STREAM_CONTENT_TYPE)) {
+				return true;
+			}
+		}
+		
+		return false;
 	}
 	
 	private void sendError(HttpServletResponse response, int status, String errMsg) throws IOException {
@@ -0,0 +1,103 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+import info.sswap.api.model.SSWAPSubject;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link MapsTo} for services whose mapping of a subject is dominated by a slow lookup (<i>e.g.</i>, a database
+ * query or a call to a remote backend), and whose subjects are independent of each other. The lookups for all
+ * the subjects of a <code>RIG</code> are executed concurrently (in a bounded pool of threads shared by all the
+ * services in the servlet container), so the latency of a request does not grow linearly with the number of
+ * its subjects.
+ * <p>
+ * Since the <code>RIG</code> is not thread-safe, the mapping of a subject is split into three steps:
+ * <ol>
+ * <li>{@link #lookup(SSWAPSubject)} reads whatever it needs from the subject, and returns the lookup to be
+ * executed concurrently (it is called for one subject after another)</li>
+ * <li>the lookups are executed concurrently; they must not access the <code>RIG</code> (or any of its
+ * subjects or objects), and their results serve as per-subject buffers</li>
+ * <li>{@link #mapsTo(SSWAPSubject, Object)} applies the result of the lookup to the subject (it is called for one
+ * subject after another, once all the lookups have finished)</li>
+ * </ol>
+ * For example:
+ *
+ * <pre>
+ * public class MyService extends ConcurrentMapsTo&lt;String&gt; {
+ *
+ *   <code>@Override</code>
+ *   protected Callable&lt;String&gt; lookup(SSWAPSubject translatedSubject) {
+ *     final URI uri = translatedSubject.getURI();
+ *
+ *     return new Callable&lt;String&gt;() {
+ *       public String call() throws Exception {
+ *         return queryDatabase(uri);
+ *       }
+ *     };
+ *   }
+ *
+ *   <code>@Override</code>
+ *   protected void mapsTo(SSWAPSubject translatedSubject, String result) {
+ *     // edit/add the objects of the subject based on the result
+ *   }
+ * }
+ * </pre>
+ *
+ * If any of the lookups fails, the remaining ones are cancelled, and the exception is passed to
+ * {@link #finalizeRequest(Exception)}.
+ *
+ * @param <T> the type of the results of the lookups
+ * @see SimpleSSWAPServlet
+ * @see AsyncInvocationExecutor#getMapsToExecutor()
+ */
+public abstract class ConcurrentMapsTo<T> extends MapsTo {
+
+	/**
+	 * Prepares the lookup for a subject. This method is called for one subject after another, so it may
+	 * read the subject (and the <code>RIG</code>); the returned lookup, however, is executed concurrently with the
+	 * lookups for other subjects, and it must not access the <code>RIG</code>.
+	 *
+	 * @param translatedSubject
+	 *            SSWAPSubject after ontology reasoning so that the properties
+	 *            and types of the subject are in the vocabularies of the RDG
+	 * @return the lookup for the subject, or null if there is nothing to look up (the result is then null)
+	 * @throws Exception
+	 *             thrown exception will be passed to {@link #finalizeRequest}
+	 */
+	protected abstract Callable<T> lookup(SSWAPSubject translatedSubject) throws Exception;
+
+	/**
+	 * Performs the mapping from the translated subject to its objects, based on the result of the lookup for the
+	 * subject. This method is called for one subject after another, after all the lookups have finished;
+	 * it may use all the methods available to {@link MapsTo#mapsTo(SSWAPSubject)}.
+	 *
+	 * @param translatedSubject
+	 *            SSWAPSubject after ontology reasoning so that the properties
+	 *            and types of the subject are in the vocabularies of the RDG
+	 * @param result
+	 *            the result of the lookup for the subject
+	 * @throws Exception
+	 *             thrown exception will be passed to {@link #finalizeRequest}
+	 */
+	protected abstract void mapsTo(SSWAPSubject translatedSubject, T result) throws Exception;
+
+	/**
+	 * Performs the lookup and the mapping for a single subject (without any concurrency). This method is not called by
+	 * {@link SimpleSSWAPServlet}, which performs the lookups for all the subjects concurrently.
+	 *
+	 * @param translatedSubject
+	 *            SSWAPSubject after ontology reasoning so that the properties
+	 *            and types of the subject are in the vocabularies of the RDG
+	 * @throws Exception
+	 *             thrown exception will be passed to {@link #finalizeRequest}
+	 */
+	@Override
+	protected final void mapsTo(SSWAPSubject translatedSubject) throws Exception {
+		Callable<T> lookup = lookup(translatedSubject);
+
+		mapsTo(translatedSubject, (lookup == null) ? null : lookup.call());
+	}
+}
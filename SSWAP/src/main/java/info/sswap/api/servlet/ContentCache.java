@@ -17,6 +17,8 @@ import net.sf.ehcache.Element;
 /**
  * Caches arbitrary user/service content (e.g., resources referenced in an RRG)
  * 
+ * The stored entries are never modified, so the cache can be read and written concurrently (EHCache is thread-safe)
+ * 
  * The underlying cache implementation is currently provided by EHCache
  * 
  * @author Blazej Bulka <blazej@clarkparsia.com>
@@ -37,7 +39,7 @@ public class ContentCache {
 	 */
 	private CacheManager cacheManager = null;
 	
-	private boolean active;
+	private volatile boolean active;
 	
 	/**
 	 * Accessor for the singleton instance
@@ -91,7 +93,7 @@ public class ContentCache {
 	 * @param content the "content" (data) to be stored
 	 * @param contentType "type" of content, such as a MIME type
 	 */
-	public synchronized void store(String token, byte[] content, String contentType) {
+	public void store(String token, byte[] content, String contentType) {
 		Entry entry = new Entry();
 		entry.setContent(content);
 		entry.setContentType(contentType);
@@ -109,7 +111,7 @@ public class ContentCache {
 	 * @param token the token for which the entry should be obtained
 	 * @return the entry or null (if there is no entry for this token)
 	 */
-	public synchronized Entry get(String token) {
+	public Entry get(String token) {
 		Element element = getCache().get(token);
 		
 		if (element == null) {
@@ -123,7 +125,7 @@ public class ContentCache {
 		return active;
 	}
 	
-	public synchronized void shutdown() {
+	public void shutdown() {
 		cacheManager.shutdown();
 		active = false;
 	}
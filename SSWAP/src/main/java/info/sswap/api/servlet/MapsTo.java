@@ -16,8 +16,11 @@ import java.util.Set;
  * complexities of servlet programming. This class is instantiated anew for each
  * request, so unlike servlet programming, instance variables in the class are
  * not shared across requests (there is no danger of one request reading or
- * writing to a non-static variable of another request). To use, extend this
- * class to perform the mapping; <i>e.g.</i>,:
+ * writing to a non-static variable of another request). Subclasses whose
+ * instances are expensive to create may declare themselves reusable (see
+ * {@link #isReusable()}); their instances are then reset (see {@link #reset()})
+ * and reused for later requests, but they are still never used by two requests
+ * at the same time. To use, extend this class to perform the mapping; <i>e.g.</i>,:
  * 
  * <pre>
  * public class MyService extends MapsTo {
@@ -129,6 +132,32 @@ public abstract class MapsTo {
 		}
 	}
 	
+	/**
+	 * Declares whether the instances of this class may be reused for later requests
+	 * (after a call to {@link #reset()}), rather than instantiated anew for
+	 * each request. By default, the instances are not reused; override to return
+	 * true, if the state of an instance can be reset.
+	 * 
+	 * @return true if the instances of this class may be reused
+	 */
+	protected boolean isReusable() {
+		return false;
+	}
+	
+	/**
+	 * This method is called at the end of every request (after
+	 * {@link #finalizeRequest(Exception)}) on the instances of the classes that
+	 * declare themselves reusable (see {@link #isReusable()}). Override to clear
+	 * any state left from the request (<i>e.g.</i>, maps filled while mapping the subjects),
+	 * so that the instance can be used for another request.
+	 * 
+	 * @throws Exception
+	 *             if the instance cannot be reset (it is then discarded, rather than reused)
+	 */
+	protected void reset() throws Exception {
+		// nothing to reset by default
+	}
+	
 	/**
 	 * Define this method to perform the mapping from the translated subject to
 	 * its objects.
@@ -0,0 +1,425 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+import info.sswap.api.model.DataAccessException;
+import info.sswap.api.model.RDG;
+import info.sswap.api.model.SSWAP;
+import info.sswap.impl.empire.model.RDGImpl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Caches the RDGs that servlets read from their files, so that the RDG does not have to be parsed (and prepared
+ * for the validation of RIGs) on every request. Every request gets its own copy of the cached RDG (see
+ * RDGImpl.createCopy()), which it may modify without affecting other requests; creating such a copy is much cheaper
+ * than parsing the file, and the copy shares the already prepared validation context (including the closure) of the
+ * cached RDG.
+ *
+ * A cached RDG is discarded as soon as its file is changed. The changes are detected by a WatchService watching the
+ * directories of the cached files (so that the files do not have to be checked on every request); if the directory
+ * cannot be watched (e.g., the file system does not support it), the modification time of the file is checked
+ * on every request instead.
+ */
+public class RDGCache {
+	private static final Logger LOGGER = LogManager.getLogger(RDGCache.class);
+
+	/**
+	 * Singleton instance of this class
+	 */
+	private static final RDGCache instance = new RDGCache();
+
+	/**
+	 * The cached RDGs, keyed by the path of the file and the URI of the RDG (the same file may be served under different URIs)
+	 */
+	private final ConcurrentMap<String,Entry> entries = new ConcurrentHashMap<String,Entry>();
+
+	/**
+	 * The directories that are already being watched
+	 */
+	private final Map<Path,WatchKey> watchedDirectories = new HashMap<Path,WatchKey>();
+
+	/**
+	 * The watch service (created when the first directory is watched)
+	 */
+	private WatchService watchService;
+
+	private volatile boolean active = true;
+
+	/**
+	 * The source of the versions of RDGs
+	 */
+	private final AtomicLong versionCounter = new AtomicLong();
+
+	/**
+	 * Accessor for the singleton instance
+	 *
+	 * @return the singleton instance
+	 */
+	public static RDGCache get() {
+		return instance;
+	}
+
+	/**
+	 * Private constructor (to be accessed only when creating the singleton instance)
+	 */
+	private RDGCache() {
+	}
+
+	/**
+	 * Gets the RDG stored in a file.
+	 *
+	 * @param file the file containing the RDG
+	 * @param uri the URI of the RDG
+	 * @return a copy of the RDG that is private to the caller
+	 * @throws IOException if the file cannot be read
+	 * @throws DataAccessException if the file does not contain a valid RDG
+	 */
+	public RDG getRDG(File file, URI uri) throws IOException, DataAccessException {
+		if (!active) {
+			return read(file, uri);
+		}
+
+		Path path = getPath(file);
+		String key = path + " " + uri;
+
+		Entry entry = getEntry(path, uri, key);
+
+		try {
+			RDGImpl rdg = entry.getRDG();
+
+			// the cached RDG is shared by all the requests, and copying it reads its models (which is not safe while 
+			// another copy is being made; see also AbstractSSWAPServlet.copyRDG())
+			synchronized (rdg) {
+				return rdg.createCopy();
+			}
+		}
+		catch (IOException e) {
+			// do not cache failures (the file may be fixed soon)
+			entries.remove(key, entry);
+			throw e;
+		}
+		catch (DataAccessException e) {
+			entries.remove(key, entry);
+			throw e;
+		}
+	}
+
+	/**
+	 * Gets the version of the RDG stored in a file. The version changes whenever the file changes (i.e., the RDG is read
+	 * again), so it can be used to invalidate data derived from the RDG (e.g., cached responses of the service).
+	 *
+	 * @param file the file containing the RDG
+	 * @param uri the URI of the RDG
+	 * @return the version (a positive number), or -1 if the RDGs are not cached (and changes of the file are not tracked)
+	 */
+	public long getVersion(File file, URI uri) {
+		if (!active) {
+			return -1;
+		}
+
+		Path path = getPath(file);
+
+		return getEntry(path, uri, path + " " + uri).getVersion();
+	}
+
+	private static Path getPath(File file) {
+		return file.getAbsoluteFile().toPath().normalize();
+	}
+
+	/**
+	 * Gets the (possibly not yet loaded) entry for an RDG, replacing it if it is stale
+	 *
+	 * @param path the path of the file
+	 * @param uri the URI of the RDG
+	 * @param key the key of the entry
+	 * @return the entry
+	 */
+	private Entry getEntry(Path path, URI uri, String key) {
+		while (true) {
+			Entry entry = entries.get(key);
+
+			if (entry == null) {
+				Entry newEntry = new Entry(path, uri);
+				entry = entries.putIfAbsent(key, newEntry);
+
+				if (entry == null) {
+					entry = newEntry;
+				}
+			}
+			else if (entry.isStale()) {
+				entries.remove(key, entry);
+				continue;
+			}
+
+			return entry;
+		}
+	}
+
+	/**
+	 * Removes all the cached RDGs
+	 */
+	public void clear() {
+		for (Entry entry : entries.values()) {
+			entry.invalidate();
+		}
+
+		entries.clear();
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * Stops watching the files and removes all the cached RDGs; after this call, RDGs are read from their files
+	 * on every request.
+	 */
+	public synchronized void shutdown() {
+		active = false;
+
+		if (watchService != null) {
+			try {
+				watchService.close();
+			}
+			catch (IOException e) {
+				LOGGER.warn("Unable to close the watch service for RDG files", e);
+			}
+
+			watchService = null;
+		}
+
+		watchedDirectories.clear();
+		clear();
+	}
+
+	/**
+	 * Reads an RDG from a file (without caching)
+	 *
+	 * @param file the file containing the RDG
+	 * @param uri the URI of the RDG
+	 * @return the RDG
+	 * @throws IOException if the file cannot be read
+	 */
+	private static RDG read(File file, URI uri) throws IOException {
+		InputStream is = new FileInputStream(file);
+
+		try {
+			return SSWAP.getResourceGraph(is, RDG.class, uri);
+		}
+		finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Starts watching a directory for changes of the files in it (unless the directory is already being watched).
+	 *
+	 * @param directory the directory
+	 * @return true if the directory is being watched, false if it could not be watched
+	 */
+	private synchronized boolean watch(Path directory) {
+		if (!active || (directory == null)) {
+			return false;
+		}
+
+		if (watchedDirectories.containsKey(directory)) {
+			return true;
+		}
+
+		try {
+			if (watchService == null) {
+				watchService = FileSystems.getDefault().newWatchService();
+				startWatcherThread(watchService);
+			}
+
+			WatchKey watchKey = directory.register(watchService,
+							                       StandardWatchEventKinds.ENTRY_CREATE,
+							                       StandardWatchEventKinds.ENTRY_DELETE,
+							                       StandardWatchEventKinds.ENTRY_MODIFY);
+
+			watchedDirectories.put(directory, watchKey);
+
+			return true;
+		}
+		catch (IOException e) {
+			LOGGER.info("Unable to watch the directory " + directory + " for changes of RDG files; the files will be checked on every request", e);
+		}
+		catch (UnsupportedOperationException e) {
+			LOGGER.info("Unable to watch the directory " + directory + " for changes of RDG files; the files will be checked on every request", e);
+		}
+
+		return false;
+	}
+
+	private void startWatcherThread(final WatchService watchService) {
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				processEvents(watchService);
+			}
+		}, "SSWAP RDG file watcher");
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Processes the events reported by a watch service until it is closed
+	 *
+	 * @param watchService the watch service
+	 */
+	private void processEvents(WatchService watchService) {
+		while (true) {
+			WatchKey watchKey;
+
+			try {
+				watchKey = watchService.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			catch (ClosedWatchServiceException e) {
+				return;
+			}
+
+			Path directory = (Path) watchKey.watchable();
+
+			for (WatchEvent<?> event : watchKey.pollEvents()) {
+				if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+					// some events were lost
+					invalidate(directory, null);
+				}
+				else {
+					invalidate(directory, directory.resolve((Path) event.context()));
+				}
+			}
+
+			if (!watchKey.reset()) {
+				// the directory is no longer accessible (and it is no longer watched)
+				synchronized (this) {
+					watchedDirectories.remove(directory);
+				}
+
+				invalidate(directory, null);
+			}
+		}
+	}
+
+	/**
+	 * Removes the cached RDGs read from a file (or from any file in a directory).
+	 *
+	 * @param directory the directory of the file
+	 * @param file the changed file or null, if all the files in the directory should be considered changed
+	 */
+	private void invalidate(Path directory, Path file) {
+		for (Map.Entry<String,Entry> mapEntry : entries.entrySet()) {
+			Entry entry = mapEntry.getValue();
+
+			if ((file == null) ? directory.equals(entry.getPath().getParent()) : file.equals(entry.getPath())) {
+				entry.invalidate();
+				entries.remove(mapEntry.getKey(), entry);
+			}
+		}
+	}
+
+	/**
+	 * A cached RDG. The RDG is read when it is first needed (so that concurrent requests for the same RDG wait for
+	 * a single read of the file).
+	 */
+	private class Entry {
+		private final Path path;
+
+		private final URI uri;
+
+		/**
+		 * The version of the RDG (unique for every entry)
+		 */
+		private final long version = versionCounter.incrementAndGet();
+
+		private RDGImpl rdg;
+
+		/**
+		 * Flag set when the RDG has been read (before that, the entry cannot be stale)
+		 */
+		private volatile boolean loaded;
+
+		/**
+		 * Flag set when the file is known to have changed after the RDG was read
+		 */
+		private volatile boolean invalidated;
+
+		/**
+		 * Whether the directory of the file is being watched (if not, the modification time has to be checked)
+		 */
+		private volatile boolean watched;
+
+		/**
+		 * The modification time of the file, when the RDG was read
+		 */
+		private volatile long lastModified;
+
+		Entry(Path path, URI uri) {
+			this.path = path;
+			this.uri = uri;
+		}
+
+		Path getPath() {
+			return path;
+		}
+
+		long getVersion() {
+			return version;
+		}
+
+		synchronized RDGImpl getRDG() throws IOException {
+			if (rdg == null) {
+				// start watching (and remember the modification time) before reading, so that no change can be missed
+				watched = watch(path.getParent());
+				lastModified = path.toFile().lastModified();
+
+				RDG result = read(path.toFile(), uri);
+
+				if (!(result instanceof RDGImpl)) {
+					throw new DataAccessException("Unexpected implementation of RDG: " + result);
+				}
+
+				rdg = (RDGImpl) result;
+				loaded = true;
+			}
+
+			return rdg;
+		}
+
+		void invalidate() {
+			invalidated = true;
+		}
+
+		boolean isStale() {
+			if (invalidated) {
+				return true;
+			}
+
+			return loaded && !watched && (path.toFile().lastModified() != lastModified);
+		}
+	}
+}
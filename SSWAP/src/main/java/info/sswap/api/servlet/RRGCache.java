@@ -4,29 +4,55 @@
 package info.sswap.api.servlet;
 
 import info.sswap.api.model.Config;
+import info.sswap.api.model.RDFRepresentation;
 import info.sswap.api.model.RRG;
 import info.sswap.api.model.SSWAP;
+import info.sswap.impl.empire.Vocabulary;
+import info.sswap.impl.empire.model.ModelImpl;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.CacheManager;
 import net.sf.ehcache.Element;
 
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Striped;
+
 /**
  * Manages cached RRGs and information about them (including information about RRGs that have not yet been computed,
  * but they already have a token (identifier) so that the clients can query/poll for them).
  * 
+ * The RRGs are stored as compressed (gzip) RDF/XML, so that they can be sent to polling clients without being parsed
+ * and serialized again (see CacheHandler); they are only parsed when an RRG object is requested (see Entry.getRRG()).
+ * 
+ * The cache is accessed concurrently by many polling clients: reads do not lock, and the updates of an entry are
+ * serialized only with other updates of the same token. Clients waiting for an RRG (see CacheHandler) do not need to poll
+ * this cache; they can register a Listener, which is notified about every update of the entry.
+ * 
  * The underlying cache implementation is currently provided by EHCache
  * 
  * @author Blazej Bulka <blazej@clarkparsia.com>
  */
 public class RRGCache {
+	private static final Logger LOGGER = LogManager.getLogger(RRGCache.class);
+	
 	/**
 	 * Name of resource that contains EHCache configuration file
 	 */
@@ -35,19 +61,39 @@ public class RRGCache {
 	/**
 	 * Default suggested polling interval (in milliseconds)
 	 */
-	public static final int DEFAULT_SUGGESTED_POLLING_INTERVAL = 5 * 1000; // 5 seconds
+	public static final int DEFAULT_SUGGESTED_POLLING_INTERVAL = Vocabulary.SSWAP_DEFAULT_POLLING_INTERVAL;
 	
 	/**
 	 * Singleton instance of this class
 	 */
 	private static final RRGCache instance = new RRGCache();
 	
+	/**
+	 * The number of locks for the updates of the entries (the updates of different tokens usually use different locks)
+	 */
+	private static final int UPDATE_LOCKS = 64;
+	
+	/**
+	 * The content type of the stored RRGs
+	 */
+	private static final String RRG_CONTENT_TYPE = "application/rdf+xml";
+	
 	/**
 	 * EHCache CacheManager
 	 */
 	private CacheManager cacheManager = null;
 	
-	private boolean active;
+	/**
+	 * The locks for the updates of the entries (an update reads the entry, and stores its modified copy)
+	 */
+	private final Striped<Lock> updateLocks = Striped.lock(UPDATE_LOCKS);
+	
+	/**
+	 * The listeners waiting for the updates of entries (by token)
+	 */
+	private final ConcurrentMap<String,Set<Listener>> listeners = new ConcurrentHashMap<String,Set<Listener>>();
+	
+	private volatile boolean active;
 	
 	/**
 	 * Accessor for the singleton instance
@@ -102,23 +148,20 @@ public class RRGCache {
 	 * @param token the token identifying the (potentially future) RRG
 	 * @param suggestedPollingInterval suggested polling interval in milliseconds
 	 */
-	public synchronized void setSuggestedPollingInterval(String token, int suggestedPollingInterval) {
-		Cache cache = getCache(); 
-		
-		Element element = cache.get(token);
-		Entry entry = null;
+	public void setSuggestedPollingInterval(String token, int suggestedPollingInterval) {
+		Lock lock = updateLocks.get(token);
+		lock.lock();
 		
-		// if there is already an entry, reuse it, otherwise, create a new one
-		if (element != null) {
-			entry = (Entry) element.getValue();
+		try {
+			Entry entry = getForUpdate(token);
+			entry.setSuggestedPollingInterval(suggestedPollingInterval);
+			
+			getCache().put(new Element(token, entry));
+			notifyListeners(token, entry);
 		}
-		else {
-			entry = new Entry();
+		finally {
+			lock.unlock();
 		}
-		
-		entry.setSuggestedPollingInterval(suggestedPollingInterval);
-		
-		cache.put(new Element(token, entry));
 	}
 	
 	/**
@@ -130,28 +173,36 @@ public class RRGCache {
 	 * @param token the token identifying the RRG that has been computed
 	 * @param error the error message
 	 */
-	public synchronized void setError(String token, String error) {
-	Entry entry = get(token);
+	public void setError(String token, String error) {
+		Lock lock = updateLocks.get(token);
+		lock.lock();
 		
-		if (entry == null) {
-			entry = new Entry();
+		try {
+			Entry entry = getForUpdate(token);
+			entry.setErrorMessage(error);
+			
+			getCache().put(new Element(token, entry));
+			notifyListeners(token, entry);
+		}
+		finally {
+			lock.unlock();
 		}
-	
-		entry.setErrorMessage(error);
-		
-		getCache().put(new Element(token, entry));		
 	}
 	
-	public synchronized void setStatus(String token, String status) {
-		Entry entry = get(token);
+	public void setStatus(String token, String status) {
+		Lock lock = updateLocks.get(token);
+		lock.lock();
 		
-		if (entry == null) {
-			entry = new Entry();
+		try {
+			Entry entry = getForUpdate(token);
+			entry.setStatus(status);
+			
+			getCache().put(new Element(token, entry));
+			notifyListeners(token, entry);
+		}
+		finally {
+			lock.unlock();
 		}
-		
-		entry.setStatus(status);
-		
-		getCache().put(new Element(token, entry));
 	}
 	
 	/**
@@ -163,29 +214,55 @@ public class RRGCache {
 	 * @param token the token identifying the RRG that has been computed
 	 * @param rrg the computed RRG
 	 */
-	public synchronized void store(String token, RRG rrg) {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		rrg.serialize(bos);
-		try {
-	        bos.close();
-        }
-        catch (IOException e) {
-        	// ignored
-        }
+	public void store(String token, RRG rrg) {
+		// serialize (and compress) the RRG before locking, since it may take a while
+		byte[] content = compress(rrg);
 		
-		String serialization = new String(bos.toByteArray());
+		Lock lock = updateLocks.get(token);
+		lock.lock();
 		
+		try {
+			Entry entry = getForUpdate(token);
+			entry.setRRGContent(content, RRG_CONTENT_TYPE);
+			
+			getCache().put(new Element(token, entry));
+			notifyListeners(token, entry);
+		}
+		finally {
+			lock.unlock();
+		}
 		
-		Entry entry = get(token);
+		getCache().flush();
+	}
+	
+	/**
+	 * Serializes an RRG as compressed RDF/XML
+	 * 
+	 * @param rrg the RRG
+	 * @return the compressed RDF/XML
+	 */
+	private static byte[] compress(RRG rrg) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		
-		if (entry == null) {
-			entry = new Entry();
+		try {
+			GZIPOutputStream gos = new GZIPOutputStream(bos);
+			
+			if (rrg instanceof ModelImpl) {
+				// the plain (streaming) RDF/XML writer is enough, since the RRG is not meant to be read by humans here
+				((ModelImpl) rrg).serialize(gos, RDFRepresentation.RDF_XML, false /* commentedOutput */, false /* abbreviated */);
+			}
+			else {
+				rrg.serialize(gos);
+			}
+			
+			gos.close();
+		}
+		catch (IOException e) {
+			// should not happen -- we are writing to an in-memory stream
+			throw new IllegalStateException("Unable to compress the RRG", e);
 		}
 		
-		entry.setRrgSerialization(serialization);
-		
-		getCache().put(new Element(token, entry));
-		getCache().flush();
+		return bos.toByteArray();
 	}
 	
 	/**
@@ -197,7 +274,7 @@ public class RRGCache {
 	 * @param token the token for which the entry should be obtained
 	 * @return the entry or null (if there is no entry for this token)
 	 */
-	public synchronized Entry get(String token) {
+	public Entry get(String token) {
 		Element element = getCache().get(token);
 		
 		if (element == null) {
@@ -207,15 +284,119 @@ public class RRGCache {
 		return (Entry) element.getValue();		
 	}
 	
+	/**
+	 * Registers a listener for the updates of the entry for a token. (The listener is not notified about the current
+	 * state of the entry; to avoid missing an update, the entry should be checked after the listener is registered.) 
+	 * 
+	 * @param token the token
+	 * @param listener the listener
+	 */
+	public void addListener(String token, Listener listener) {
+		// the same lock as for the updates, so that the set of listeners cannot be removed (as empty) by removeListener()
+		// after this method has found it, but before the listener is added to it
+		Lock lock = updateLocks.get(token);
+		lock.lock();
+		
+		try {
+			Set<Listener> tokenListeners = listeners.get(token);
+			
+			if (tokenListeners == null) {
+				tokenListeners = new CopyOnWriteArraySet<Listener>();
+				listeners.put(token, tokenListeners);
+			}
+			
+			tokenListeners.add(listener);
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes a listener for the updates of the entry for a token
+	 * 
+	 * @param token the token
+	 * @param listener the listener
+	 */
+	public void removeListener(String token, Listener listener) {
+		Lock lock = updateLocks.get(token);
+		lock.lock();
+		
+		try {
+			Set<Listener> tokenListeners = listeners.get(token);
+			
+			if (tokenListeners != null) {
+				tokenListeners.remove(listener);
+				
+				if (tokenListeners.isEmpty()) {
+					listeners.remove(token);
+				}
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Notifies the listeners about an update of an entry (called while holding the lock for the token, so the listeners
+	 * receive the updates in order; they should not block)
+	 * 
+	 * @param token the token
+	 * @param entry the updated entry
+	 */
+	private void notifyListeners(String token, Entry entry) {
+		Set<Listener> tokenListeners = listeners.get(token);
+		
+		if (tokenListeners == null) {
+			return;
+		}
+		
+		for (Listener listener : tokenListeners) {
+			try {
+				listener.entryUpdated(token, entry);
+			}
+			catch (RuntimeException e) {
+				LOGGER.error("Unable to notify a listener about an update of RRG " + token, e);
+			}
+		}
+	}
+	
+	/**
+	 * Gets a copy of the entry for a token (or a new entry), which can be modified and stored again. (The entries
+	 * already stored in the cache are never modified, since they may be concurrently read by other threads.)
+	 * 
+	 * @param token the token for which the entry should be obtained
+	 * @return the copy of the entry
+	 */
+	private Entry getForUpdate(String token) {
+		Entry entry = get(token);
+		
+		return (entry == null) ? new Entry() : entry.copy();
+	}
+	
 	public boolean isActive() {
 		return active;
 	}
 	
-	public synchronized void shutdown() {
+	public void shutdown() {
 		cacheManager.shutdown();
 		active = false;
 	}
 	
+	/**
+	 * A listener for the updates of the entries of the cache
+	 */
+	public interface Listener {
+		/**
+		 * Invoked after an entry has been updated
+		 * 
+		 * @param token the token of the entry
+		 * @param entry the updated entry (it must not be modified)
+		 */
+		void entryUpdated(String token, Entry entry);
+	}
+	
 	/**
 	 * An entry of the cache. It implements Serializable so that EHCache can persist it to disk.
 	 */
@@ -226,11 +407,22 @@ public class RRGCache {
         private static final long serialVersionUID = -3870783536093394229L;
 
 		/**
-		 * The serialization of RRG as RDF/XML (we cannot have RRG object there because it is not Serializable)
-		 * It may be null, if RRG has not yet been computed
+		 * The serialization of RRG as RDF/XML, as stored by older versions (the field is only kept so that the entries
+		 * persisted by them can still be read)
 		 */
 		private String rrgSerialization;
 		
+		/**
+		 * The compressed (gzip) serialization of RRG (we cannot have RRG object there because it is not Serializable)
+		 * It may be null, if RRG has not yet been computed
+		 */
+		private byte[] rrgContent;
+		
+		/**
+		 * The content type of the (uncompressed) RRG serialization
+		 */
+		private String contentType;
+		
 		/**
 		 * The error message (if there is one; it may be null)
 		 */
@@ -248,36 +440,143 @@ public class RRGCache {
 		private int suggestedPollingInterval;
 		
 		/**
-         * @return the rrgSerialization
-         */
-        public String getRrgSerialization() {
-        	return rrgSerialization;
-        }
+		 * Creates a copy of this entry
+		 * 
+		 * @return the copy
+		 */
+		Entry copy() {
+			Entry result = new Entry();
+			
+			result.rrgSerialization = rrgSerialization;
+			result.rrgContent = rrgContent;
+			result.contentType = contentType;
+			result.errorMessage = errorMessage;
+			result.status = status;
+			result.suggestedPollingInterval = suggestedPollingInterval;
+			
+			return result;
+		}
+		
+		/**
+		 * Checks whether the RRG has already been computed
+		 * 
+		 * @return true if the entry contains the RRG
+		 */
+		public boolean hasRRG() {
+			return (rrgContent != null) || (rrgSerialization != null);
+		}
+		
+		/**
+		 * Checks whether the computation of the RRG has finished (i.e., the entry contains either the RRG or an error message)
+		 * 
+		 * @return true if the computation has finished
+		 */
+		public boolean isComplete() {
+			return hasRRG() || (errorMessage != null);
+		}
+		
+		/**
+		 * Gets the compressed (gzip) serialization of the RRG, which can be sent directly to the clients that accept
+		 * such a content encoding
+		 * 
+		 * @return the compressed serialization or null (if RRG has not yet been computed)
+		 */
+		public byte[] getCompressedRRG() {
+			if ((rrgContent == null) && (rrgSerialization != null)) {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				
+				try {
+					GZIPOutputStream gos = new GZIPOutputStream(bos);
+					gos.write(rrgSerialization.getBytes());
+					gos.close();
+				}
+				catch (IOException e) {
+					// should not happen -- we are writing to an in-memory stream
+					throw new IllegalStateException("Unable to compress the RRG", e);
+				}
+				
+				return bos.toByteArray();
+			}
+			
+			return rrgContent;
+		}
+		
+		/**
+		 * Gets the content type of the (uncompressed) serialization of the RRG
+		 * 
+		 * @return the content type
+		 */
+		public String getContentType() {
+			return (contentType == null) ? RRG_CONTENT_TYPE : contentType;
+		}
+		
+		/**
+		 * Writes the (uncompressed) serialization of the RRG, without parsing it
+		 * 
+		 * @param os the output stream
+		 * @throws IOException if an I/O error occurs
+		 */
+		public void writeRRG(OutputStream os) throws IOException {
+			InputStream is = openRRG();
+			
+			try {
+				ByteStreams.copy(is, os);
+			}
+			finally {
+				is.close();
+			}
+		}
+		
+		/**
+		 * Opens the (uncompressed) serialization of the RRG 
+		 * 
+		 * @return the input stream
+		 * @throws IOException if an I/O error occurs 
+		 */
+		private InputStream openRRG() throws IOException {
+			if (rrgContent == null) {
+				return new ByteArrayInputStream(rrgSerialization.getBytes());
+			}
+			
+			return new GZIPInputStream(new ByteArrayInputStream(rrgContent));
+		}
         
+		/**
+		 * Parses the RRG. (This is expensive; the RRG should only be parsed, if an RRG object is really needed.)
+		 * 
+		 * @return the RRG or null (if RRG has not yet been computed)
+		 */
         public RRG getRRG() {
-        	if (rrgSerialization == null) {
+        	if (!hasRRG()) {
         		return null;
         	}
         	
-        	ByteArrayInputStream bis = new ByteArrayInputStream(rrgSerialization.getBytes());
-    		
-    		RRG result = SSWAP.getResourceGraph(bis, RRG.class);
-    		
-    		try {
-    	        bis.close();
-            }
-            catch (IOException e) {
-            	// ignored -- we are closing an in-memory stream
-            }
-    		
-    		return result;
+        	try {
+        		InputStream is = openRRG();
+
+        		try {
+        			return SSWAP.getResourceGraph(is, RRG.class);
+        		}
+        		finally {
+        			is.close();
+        		}
+        	}
+        	catch (IOException e) {
+        		// should not happen -- we are reading an in-memory stream
+        		throw new IllegalStateException("Unable to decompress the RRG", e);
+        	}
         }
         
 		/**
-         * @param rrgSerialization the rrgSerialization to set
+		 * Sets the compressed (gzip) serialization of the RRG
+		 * 
+         * @param rrgContent the compressed serialization
+         * @param contentType the content type of the uncompressed serialization
          */
-        public void setRrgSerialization(String rrgSerialization) {
-        	this.rrgSerialization = rrgSerialization;
+        public void setRRGContent(byte[] rrgContent, String contentType) {
+        	this.rrgContent = rrgContent;
+        	this.contentType = contentType;
+        	this.rrgSerialization = null;
         }
         
 		/**
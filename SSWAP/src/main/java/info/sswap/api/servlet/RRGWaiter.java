@@ -0,0 +1,230 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Parks a request for an RRG (see CacheHandler) in the asynchronous (Servlet 3) mode, until the computation of the RRG
+ * finishes or the request times out, without blocking any of the container's threads. The request is woken up by RRGCache
+ * (see RRGCache.Listener), as soon as the RRG (or an error) is stored.
+ *
+ * There are two modes of waiting:
+ * <ul>
+ * <li>long polling: when the request is woken up, it is answered exactly as a regular (polling) request for the RRG;
+ * i.e., with the RRG, an error, or HTTP 204 (if the request timed out)</li>
+ * <li>server-sent events (if the client accepts text/event-stream): a "status" event is sent whenever the status of the
+ * execution changes, and the stream ends with a "complete" event (whose data is the HTTP status code with which
+ * the RRG will be retrieved; e.g., 200 or 502), or a "timeout" event (whose data is the suggested polling interval)</li>
+ * </ul>
+ */
+class RRGWaiter implements RRGCache.Listener, AsyncListener {
+	private static final Logger LOGGER = LogManager.getLogger(RRGWaiter.class);
+
+	/**
+	 * The content type of server-sent events
+	 */
+	static final String EVENT_STREAM_CONTENT_TYPE = "text/event-stream";
+
+	private final String token;
+
+	private final AsyncContext asyncContext;
+
+	private final HttpServletRequest request;
+
+	private final HttpServletResponse response;
+
+	/**
+	 * Whether the client receives server-sent events (rather than a long-polling response)
+	 */
+	private final boolean eventStream;
+
+	/**
+	 * The last status sent to the client (for server-sent events)
+	 */
+	private String lastStatus;
+
+	/**
+	 * Flag set when the request has been completed (normally, after an error, or after a timeout)
+	 */
+	private final AtomicBoolean completed = new AtomicBoolean();
+
+	/**
+	 * Puts the request into the asynchronous mode.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param token the token of the RRG
+	 * @param timeout the maximum time to wait for the RRG (in milliseconds)
+	 * @param eventStream true if server-sent events should be sent to the client
+	 */
+	RRGWaiter(HttpServletRequest request, HttpServletResponse response, String token, long timeout, boolean eventStream) {
+		this.token = token;
+		this.request = request;
+		this.response = response;
+		this.eventStream = eventStream;
+		this.asyncContext = request.startAsync(request, response);
+
+		asyncContext.setTimeout(timeout);
+		asyncContext.addListener(this);
+	}
+
+	/**
+	 * Starts waiting for the RRG
+	 *
+	 * @throws IOException if the response cannot be written
+	 */
+	synchronized void start() throws IOException {
+		if (eventStream) {
+			response.setContentType(EVENT_STREAM_CONTENT_TYPE);
+			response.setCharacterEncoding("UTF-8");
+			response.setHeader("Cache-Control", "no-cache");
+
+			// send the headers right away (so that the client knows that the events are supported)
+			response.getWriter().print(": waiting for " + token + "\n\n");
+			response.flushBuffer();
+		}
+
+		RRGCache.get().addListener(token, this);
+
+		// the RRG may have been stored before the listener was registered
+		RRGCache.Entry entry = RRGCache.get().get(token);
+
+		if ((entry == null) || entry.isComplete()) {
+			finish();
+		}
+		else {
+			sendStatus(entry);
+		}
+	}
+
+	public void entryUpdated(String token, RRGCache.Entry entry) {
+		if (completed.get()) {
+			return;
+		}
+
+		// the entry is updated in the thread that computes the RRG; the response is written in a container's thread
+		if (entry.isComplete()) {
+			asyncContext.start(new Runnable() {
+				public void run() {
+					finish();
+				}
+			});
+		}
+		else if (eventStream) {
+			asyncContext.start(new Runnable() {
+				public void run() {
+					sendStatus(RRGCache.get().get(RRGWaiter.this.token));
+				}
+			});
+		}
+	}
+
+	public void onTimeout(AsyncEvent event) throws IOException {
+		finish();
+	}
+
+	public void onError(AsyncEvent event) throws IOException {
+		// e.g., the client has disconnected
+		if (completed.compareAndSet(false, true)) {
+			RRGCache.get().removeListener(token, this);
+			asyncContext.complete();
+		}
+	}
+
+	public void onComplete(AsyncEvent event) throws IOException {
+		completed.set(true);
+		RRGCache.get().removeListener(token, this);
+	}
+
+	public void onStartAsync(AsyncEvent event) throws IOException {
+	}
+
+	/**
+	 * Sends the current status of the execution as a server-sent event (if it has changed)
+	 *
+	 * @param entry the current entry for the RRG
+	 */
+	private synchronized void sendStatus(RRGCache.Entry entry) {
+		if (!eventStream || completed.get() || (entry == null) || (entry.getStatus() == null) || entry.getStatus().equals(lastStatus)) {
+			return;
+		}
+
+		lastStatus = entry.getStatus();
+
+		try {
+			sendEvent("status", lastStatus);
+		}
+		catch (IOException e) {
+			LOGGER.info("Unable to send the status of RRG " + token, e);
+		}
+	}
+
+	/**
+	 * Answers the request with the current state of the RRG, and completes the request
+	 */
+	private synchronized void finish() {
+		if (!completed.compareAndSet(false, true)) {
+			return;
+		}
+
+		RRGCache.get().removeListener(token, this);
+
+		RRGCache.Entry entry = RRGCache.get().get(token);
+
+		try {
+			if (!eventStream) {
+				CacheHandler.get().sendEntry(request, response, entry);
+			}
+			else if (entry == null) {
+				sendEvent("complete", String.valueOf(HttpServletResponse.SC_NOT_FOUND));
+			}
+			else if (entry.hasRRG()) {
+				sendEvent("complete", String.valueOf(HttpServletResponse.SC_OK));
+			}
+			else if (entry.getErrorMessage() != null) {
+				sendEvent("complete", String.valueOf(HttpServletResponse.SC_BAD_GATEWAY));
+			}
+			else {
+				sendEvent("timeout", String.valueOf(entry.getSuggestedPollingInterval()));
+			}
+		}
+		catch (IOException e) {
+			LOGGER.info("Unable to send RRG " + token, e);
+		}
+		finally {
+			asyncContext.complete();
+		}
+	}
+
+	/**
+	 * Sends a server-sent event
+	 *
+	 * @param event the name of the event
+	 * @param data the data of the event (a single line)
+	 * @throws IOException if the event cannot be sent
+	 */
+	private void sendEvent(String event, String data) throws IOException {
+		PrintWriter writer = response.getWriter();
+
+		writer.print("event: " + event + "\n");
+		writer.print("data: " + data.replace('\n', ' ').replace('\r', ' ') + "\n\n");
+		writer.flush();
+
+		if (writer.checkError()) {
+			throw new IOException("The client is no longer connected");
+		}
+	}
+}
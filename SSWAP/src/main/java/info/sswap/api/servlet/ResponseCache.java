@@ -0,0 +1,199 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.servlet;
+
+import info.sswap.api.model.Config;
+import info.sswap.impl.empire.model.ModelHash;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * Caches the serialized responses (RRGs) of deterministic services (see AbstractSSWAPServlet), so that a RIG
+ * that has already been answered (e.g., by a retried workflow, or by a polling client) is answered again without
+ * validating the RIG and executing the service.
+ *
+ * The responses are keyed by the URL of the service, the version of its RDG (so that the responses are not used after the
+ * RDG has changed), the representation of the response, and a canonical hash of the RIG (see ModelHash), which does not
+ * depend on the labels of bnodes in the RIG. Every service may have its own time to live of the responses. Since two
+ * different RIGs may (very rarely) have the same hash, every entry also contains the canonical form of its RIG, and
+ * a response is returned only for a RIG that is isomorphic with it.
+ *
+ * The underlying cache implementation is currently provided by EHCache
+ */
+public class ResponseCache {
+	/**
+	 * Name of resource that contains EHCache configuration file
+	 */
+	private static final String EHCACHE_CONF_FILE = "ehcache-sswap.xml";
+
+	/**
+	 * Singleton instance of this class
+	 */
+	private static final ResponseCache instance = new ResponseCache();
+
+	/**
+	 * EHCache CacheManager
+	 */
+	private CacheManager cacheManager = null;
+
+	private boolean active;
+
+	/**
+	 * Accessor for the singleton instance
+	 *
+	 * @return the singleton instance
+	 */
+	public static ResponseCache get() {
+		return instance;
+	}
+
+	/**
+	 * Private constructor (to be accessed only when creating the singleton instance)
+	 */
+	private ResponseCache() {
+		try {
+			InputStream is = null;
+			String configFile = Config.get().getProperty(Config.RESPONSE_EHCACHE_FILE_KEY);
+
+			if (configFile != null) {
+				is = new FileInputStream(configFile);
+			}
+			else {
+				// read the configuration file from the resource stream (bundled in the jar file)
+				// and initialize the EHCache cache manager
+				is = ResponseCache.class.getResourceAsStream(EHCACHE_CONF_FILE);
+			}
+
+			cacheManager = new CacheManager(is);
+			active = true;
+			is.close();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Unable to read configuration file for ehcache", e);
+		}
+	}
+
+	/**
+	 * Gets the cache used for storing responses from EHCache cache manager
+	 * @return the cache for storing responses
+	 */
+	private Cache getCache() {
+		return cacheManager.getCache(Config.get().getProperty(Config.RESPONSE_EHCACHE_CACHE_NAME_KEY,
+                                                              Config.RESPONSE_EHCACHE_CACHE_NAME_DEFAULT));
+	}
+
+	/**
+	 * Stores a response.
+	 *
+	 * @param key the key of the response (see AbstractSSWAPServlet)
+	 * @param rig the model of the RIG that was answered by the response
+	 * @param content the serialized response
+	 * @param outputURI the sswap:outputURI of the response (may be null)
+	 * @param timeToLive the time to live of the response in seconds
+	 */
+	public void store(String key, Model rig, byte[] content, String outputURI, int timeToLive) {
+		Entry entry = new Entry();
+		entry.setRIG(ModelHash.toCanonicalForm(rig));
+		entry.setContent(content);
+		entry.setOutputURI(outputURI);
+
+		Element element = new Element(key, entry);
+		element.setTimeToLive(timeToLive);
+
+		synchronized (this) {
+			getCache().put(element);
+		}
+	}
+
+	/**
+	 * Gets a stored response
+	 *
+	 * @param key the key of the response
+	 * @param rig the model of the RIG to be answered
+	 * @return the response or null (if there is no response for this key, it has expired, or it answers a different RIG
+	 * with the same key)
+	 */
+	public Entry get(String key, Model rig) {
+		Element element;
+
+		synchronized (this) {
+			element = getCache().get(key);
+		}
+
+		if (element == null) {
+			return null;
+		}
+
+		Entry entry = (Entry) element.getValue();
+
+		// entries stored without a RIG (by an older version) cannot be confirmed
+		if ((entry.getRIG() == null) || !ModelHash.isIsomorphic(rig, entry.getRIG())) {
+			return null;
+		}
+
+		return entry;
+	}
+
+	/**
+	 * Removes all the stored responses
+	 */
+	public synchronized void clear() {
+		getCache().removeAll();
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public synchronized void shutdown() {
+		cacheManager.shutdown();
+		active = false;
+	}
+
+	/**
+	 * An entry of the cache. It implements Serializable so that EHCache can store it on disk.
+	 */
+	static class Entry implements Serializable {
+		private static final long serialVersionUID = 7243412936436349461L;
+
+		private String rig;
+
+		private byte[] content;
+
+		private String outputURI;
+
+		public String getRIG() {
+			return rig;
+		}
+
+		public void setRIG(String rig) {
+			this.rig = rig;
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+
+		public void setContent(byte[] content) {
+			this.content = content;
+		}
+
+		public String getOutputURI() {
+			return outputURI;
+		}
+
+		public void setOutputURI(String outputURI) {
+			this.outputURI = outputURI;
+		}
+	}
+}
@@ -4,6 +4,8 @@
 package info.sswap.api.servlet;
 
 import info.sswap.api.model.Config;
+import info.sswap.impl.empire.io.ClosureExecutor;
+import info.sswap.impl.empire.model.ReasoningCache;
 
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -29,6 +31,37 @@ public class SSWAPServletContextListener implements ServletContextListener {
 		if (ContentCache.get().isActive()) {
 			ContentCache.get().shutdown();
 		}
+
+		if (ResponseCache.get().isActive()) {
+			ResponseCache.get().shutdown();
+		}
+
+		if (AsyncInvocationExecutor.get().isActive()) {
+			AsyncInvocationExecutor.get().shutdown();
+		}
+		
+		if (AsyncInvocationExecutor.getRequestExecutor().isActive()) {
+			AsyncInvocationExecutor.getRequestExecutor().shutdown();
+		}
+
+		if (AsyncInvocationExecutor.getBatchExecutor().isActive()) {
+			AsyncInvocationExecutor.getBatchExecutor().shutdown();
+		}
+
+		if (AsyncInvocationExecutor.getMapsToExecutor().isActive()) {
+			AsyncInvocationExecutor.getMapsToExecutor().shutdown();
+		}
+		
+		if (RDGCache.get().isActive()) {
+			RDGCache.get().shutdown();
+		}
+		
+		if (ClosureExecutor.get().isActive()) {
+			ClosureExecutor.get().shutdown();
+		}
+
+		// save the answers derived from terminologies, so that they do not have to be classified again after a restart
+		ReasoningCache.get().saveSnapshots();
 	}
 
 	@Override
@@ -7,8 +7,19 @@ import info.sswap.api.model.RIG;
 import info.sswap.api.model.SSWAPObject;
 import info.sswap.api.model.SSWAPSubject;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -55,7 +66,9 @@ import javax.servlet.ServletException;
  * in {@link #getServiceClass}.
  * <p> 
  * <code>MyService</code> must extend {@link MapsTo} to implement the
- * service.
+ * service. Services whose mapping of a subject is dominated by a slow
+ * lookup (<i>e.g.</i>, a database query) may extend {@link ConcurrentMapsTo}
+ * instead, so that the lookups for all the subjects are performed concurrently.
  * 
  * @author Damian Gessler
  * @see MapsTo
@@ -67,16 +80,32 @@ public abstract class SimpleSSWAPServlet extends AbstractSSWAPServlet {
 	 * 
 	 */
 	private static final long serialVersionUID = 1L;
+	
+	/**
+	 * The maximum number of idle instances of a reusable service class (see MapsTo.isReusable()) kept for later requests
+	 */
+	private static final int MAX_POOLED_INSTANCES = 64;
+	
+	/**
+	 * The constructor of the service class (resolved once, in init())
+	 */
+	private transient MethodHandle mapsToConstructor;
+	
+	/**
+	 * The idle instances of a reusable service class
+	 */
+	private final transient Queue<MapsTo> mapsToPool = new ConcurrentLinkedQueue<MapsTo>();
 
 	@Override
 	public void init(ServletConfig servletConfig) throws ServletException {
 		
 		super.init(servletConfig);
 		
-		// test now, so that any dynamic class instantiation
+		// resolve the service class now (rather than on every request), so that any dynamic class instantiation
 		// errors are thrown at startup
 		try {
-			newMapsTo(null);
+			mapsToConstructor = findMapsToConstructor();
+			newMapsTo();
 		} catch ( Exception e) {
 			throw new ServletException(e);
 		}
@@ -139,7 +168,7 @@ public abstract class SimpleSSWAPServlet extends AbstractSSWAPServlet {
 		MapsTo mapsTo;
 		
 		try {
-			mapsTo = newMapsTo(rig);
+			mapsTo = acquireMapsTo(rig);
 		} catch ( Exception e ) {
 			throw new RuntimeException(e);
 		} 
@@ -148,24 +177,19 @@ public abstract class SimpleSSWAPServlet extends AbstractSSWAPServlet {
 			
 			mapsTo.initializeRequest(rig);
 			
-			for ( SSWAPSubject translatedSubject : rig.getTranslatedSubjects() ) {
-				
-				// assign w/ extant sswapObjects
-				// (a sswapObject may be removed by overridden mapsTo calling MapsTo#unassignObject
-				Collection<SSWAPObject> initialCollection = translatedSubject.getObjects();
-				mapsTo.sswapObjects = new HashSet<SSWAPObject>(initialCollection);
-				
-				mapsTo.mapsTo(translatedSubject);
-				
-				// support case where SSWAPObjects have been added
-				// via the SSWAPProtocol and SSWAPSubject interfaces
-				
-				Collection<SSWAPObject> finalCollection = translatedSubject.getObjects();
-				if ( finalCollection.removeAll(initialCollection) && ! finalCollection.isEmpty() ) {
-					mapsTo.sswapObjects.addAll(finalCollection); // objects added using SSWAPProtocol and SSWAPSubject interfaces (not using assignSubject)
+			if ( mapsTo instanceof ConcurrentMapsTo ) {
+				mapSubjectsConcurrently((ConcurrentMapsTo<?>) mapsTo, rig.getTranslatedSubjects());
+			} else {
+				for ( final SSWAPSubject translatedSubject : rig.getTranslatedSubjects() ) {
+					final MapsTo subjectMapsTo = mapsTo;
+					
+					mapSubject(mapsTo, translatedSubject, new Callable<Void>() {
+						public Void call() throws Exception {
+							subjectMapsTo.mapsTo(translatedSubject);
+							return null;
+						}
+					});
 				}
-				
-				translatedSubject.setObjects(mapsTo.sswapObjects);
 			}
 			
 		} catch ( Exception e ) {
@@ -178,39 +202,216 @@ public abstract class SimpleSSWAPServlet extends AbstractSSWAPServlet {
 			} catch ( Exception ex ) {
 				// constructing on ex.getMessage() separately from ex results in the Exception not being part of the message itself
 				throw new RuntimeException(ex.getMessage(),ex);
+			} finally {
+				releaseMapsTo(mapsTo);
 			}
 		}
 		
 	}
 	
 	/**
-	 * Dynamically instantiates a MapsTo object either first by name (from an
-	 * init value in web.xml), or if that is not defined, by value (from
-	 * getServiceClass).
+	 * Maps a single subject to its objects
+	 * 
+	 * @param mapsTo the service class
+	 * @param translatedSubject the subject
+	 * @param mapping the call that performs the mapping (i.e., calls one of the mapsTo() methods)
+	 * @throws Exception any exception thrown by the mapping
+	 */
+	private static void mapSubject(MapsTo mapsTo, SSWAPSubject translatedSubject, Callable<Void> mapping) throws Exception {
+		
+		// assign w/ extant sswapObjects
+		// (a sswapObject may be removed by overridden mapsTo calling MapsTo#unassignObject
+		Collection<SSWAPObject> initialCollection = translatedSubject.getObjects();
+		mapsTo.sswapObjects = new HashSet<SSWAPObject>(initialCollection);
+		
+		mapping.call();
+		
+		// support case where SSWAPObjects have been added
+		// via the SSWAPProtocol and SSWAPSubject interfaces
+		
+		Collection<SSWAPObject> finalCollection = translatedSubject.getObjects();
+		if ( finalCollection.removeAll(initialCollection) && ! finalCollection.isEmpty() ) {
+			mapsTo.sswapObjects.addAll(finalCollection); // objects added using SSWAPProtocol and SSWAPSubject interfaces (not using assignSubject)
+		}
+		
+		translatedSubject.setObjects(mapsTo.sswapObjects);
+	}
+	
+	/**
+	 * Maps the subjects with a service class that performs its lookups concurrently. The lookups are prepared
+	 * and their results applied in the current thread (since the RIG is not thread-safe); only the lookups themselves
+	 * are executed concurrently (see AsyncInvocationExecutor.getMapsToExecutor()).
+	 * 
+	 * @param mapsTo the service class
+	 * @param translatedSubjects the subjects
+	 * @throws Exception any exception thrown by the service class
+	 */
+	private static <T> void mapSubjectsConcurrently(final ConcurrentMapsTo<T> mapsTo, Collection<SSWAPSubject> translatedSubjects) throws Exception {
+		
+		List<SSWAPSubject> subjects = new ArrayList<SSWAPSubject>(translatedSubjects);
+		List<FutureTask<T>> lookups = new ArrayList<FutureTask<T>>(subjects.size());
+		
+		try {
+			for ( SSWAPSubject translatedSubject : subjects ) {
+				Callable<T> lookup = mapsTo.lookup(translatedSubject);
+				FutureTask<T> lookupTask = (lookup == null) ? null : new FutureTask<T>(lookup);
+				
+				lookups.add(lookupTask);
+				
+				if ( lookupTask != null ) {
+					try {
+						AsyncInvocationExecutor.getMapsToExecutor().execute(lookupTask);
+					} catch ( RejectedExecutionException e ) {
+						// too many lookups are waiting; perform this one here
+						lookupTask.run();
+					}
+				}
+			}
+			
+			for ( int i = 0; i < subjects.size(); i++ ) {
+				final SSWAPSubject translatedSubject = subjects.get(i);
+				final T result = getResult(lookups.get(i));
+				
+				mapSubject(mapsTo, translatedSubject, new Callable<Void>() {
+					public Void call() throws Exception {
+						mapsTo.mapsTo(translatedSubject, result);
+						return null;
+					}
+				});
+			}
+		} finally {
+			// stop the remaining lookups, if any of the subjects has failed
+			for ( FutureTask<T> lookupTask : lookups ) {
+				if ( lookupTask != null ) {
+					lookupTask.cancel(true /* mayInterruptIfRunning */);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Waits for the result of a lookup
+	 * 
+	 * @param lookupTask the lookup (may be null)
+	 * @return the result of the lookup (or null, if there was no lookup)
+	 * @throws Exception the exception thrown by the lookup
+	 */
+	private static <T> T getResult(FutureTask<T> lookupTask) throws Exception {
+		if ( lookupTask == null ) {
+			return null;
+		}
+		
+		try {
+			return lookupTask.get();
+		} catch ( ExecutionException e ) {
+			if ( e.getCause() instanceof Exception ) {
+				throw (Exception) e.getCause();
+			}
+			
+			throw e;
+		}
+	}
+	
+	/**
+	 * Gets an instance of the service class for a request: an idle instance of a reusable
+	 * service class, or a new instance.
 	 * 
 	 * @param rig
 	 *            RIG for this request
 	 * @return an instance of the service class
-	 * @throws ClassNotFoundException
-	 * @throws IllegalAccessException
-	 * @throws InstantiationException
+	 * @throws InstantiationException if the service class cannot be instantiated
 	 */
-	private MapsTo newMapsTo(RIG rig) throws InstantiationException, IllegalAccessException, ClassNotFoundException {
+	private MapsTo acquireMapsTo(RIG rig) throws InstantiationException {
+		
+		MapsTo mapsTo = mapsToPool.poll();
+		
+		if ( mapsTo == null ) {
+			mapsTo = newMapsTo();
+		}
+		
+		mapsTo.rig = rig;
+		
+		return mapsTo;
+	}
+	
+	/**
+	 * Returns an instance of the service class after a request; an instance of a reusable service class is reset and kept
+	 * for later requests.
+	 * 
+	 * @param mapsTo the instance
+	 */
+	private void releaseMapsTo(MapsTo mapsTo) {
+		
+		if ( !mapsTo.isReusable() || (mapsToPool.size() >= MAX_POOLED_INSTANCES) ) {
+			return;
+		}
+		
+		try {
+			mapsTo.reset();
+		} catch ( Exception e ) {
+			// do not reuse an instance in an unknown state
+			return;
+		}
+		
+		mapsTo.rig = null;
+		mapsTo.sswapObjects = new HashSet<SSWAPObject>();
+		
+		mapsToPool.offer(mapsTo);
+	}
+	
+	/**
+	 * Instantiates the service class.
+	 * 
+	 * @return a new instance of the service class
+	 * @throws InstantiationException if the service class cannot be instantiated
+	 */
+	private MapsTo newMapsTo() throws InstantiationException {
 		
-		String serviceClassName = getServletConfig().getInitParameter("ServiceClass");
 		MapsTo mapsTo;
 		
+		try {
+			mapsTo = (MapsTo) mapsToConstructor.invokeExact();
+		} catch ( Throwable t ) {
+			InstantiationException e = new InstantiationException("Unable to instantiate the service class: " + t);
+			e.initCause(t);
+			
+			throw e;
+		}
+		
+		mapsTo.setServlet(this);
+		
+		return mapsTo;
+	}
+	
+	/**
+	 * Resolves the service class either first by name (from an init value in web.xml),
+	 * or if that is not defined, by value (from getServiceClass), and finds its
+	 * no-argument constructor.
+	 * 
+	 * @return the constructor (with the type <code>() -&gt; MapsTo</code>)
+	 * @throws ClassNotFoundException if the service class cannot be found
+	 * @throws NoSuchMethodException if the service class does not have a public no-argument constructor
+	 * @throws IllegalAccessException if the constructor is not accessible
+	 */
+	private MethodHandle findMapsToConstructor() throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException {
+		
+		String serviceClassName = getServletConfig().getInitParameter("ServiceClass");
+		Class<?> serviceClass;
+		
 		// try to load from the <init-param>ServiceClass</init-param> in web.xml
 		if ( serviceClassName != null ) {
-			mapsTo = (MapsTo) Class.forName(serviceClassName).newInstance();
+			serviceClass = Class.forName(serviceClassName);
 		} else { // try to load from the overriding of getServiceClass()
-			mapsTo = (MapsTo) getServiceClass().newInstance();
+			serviceClass = getServiceClass();
 		}
 		
-		mapsTo.rig = rig;
-		mapsTo.setServlet(this);
+		if ( (serviceClass == null) || !MapsTo.class.isAssignableFrom(serviceClass) ) {
+			throw new ClassNotFoundException("The service class must be a subclass of MapsTo: " + serviceClass);
+		}
 		
-		return mapsTo;
+		MethodHandle constructor = MethodHandles.publicLookup().findConstructor(serviceClass, MethodType.methodType(void.class));
+		
+		return constructor.asType(MethodType.methodType(MapsTo.class));
 	}
 
 }
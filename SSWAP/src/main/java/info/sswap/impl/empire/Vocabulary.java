@@ -109,6 +109,46 @@ public class Vocabulary {
 	 */
 	public static final String SSWAP_OUTPUT_URI_HEADER = "X-SSWAP-Output-URI";
 
+	/**
+	 * Non-standard HTTP header, with which a client may ask for a pretty (abbreviated) RDF/XML response (by sending "true");
+	 * by default, the faster, plain RDF/XML writer is used
+	 */
+	public static final String SSWAP_PRETTY_OUTPUT_HEADER = "X-SSWAP-Pretty-Output";
+
+	/**
+	 * The content type of the requests and responses of batch invocations (i.e., many RIGs sent to a service in a single
+	 * HTTP request; see BatchFrame for the format)
+	 */
+	public static final String SSWAP_BATCH_MIME_TYPE = "application/x-sswap-batch";
+
+	/**
+	 * The suffix of a service's URL that indicates a request for retrieving a cached RRG (in an asynchronous version
+	 * of SSWAP protocol), and not invoking the service
+	 */
+	public static final String SSWAP_RRG_RETRIEVAL_SUFFIX = "/rrg";
+
+	/**
+	 * The name of the parameter in the query string of an RRG retrieval request that contains the token
+	 */
+	public static final String SSWAP_RRG_TOKEN_PARAM = "token";
+
+	/**
+	 * The name of the parameter in the query string of an RRG retrieval request that contains the maximum time
+	 * (in milliseconds) for which the request should wait for the RRG
+	 */
+	public static final String SSWAP_RRG_WAIT_PARAM = "wait";
+
+	/**
+	 * Non-standard HTTP header in the response to an RRG retrieval request that contains the suggested polling
+	 * interval (in milliseconds)
+	 */
+	public static final String SSWAP_POLLING_INTERVAL_HEADER = "X-SSWAP-Suggested-Polling-Interval";
+
+	/**
+	 * The polling interval (in milliseconds) suggested when a service does not suggest any
+	 */
+	public static final int SSWAP_DEFAULT_POLLING_INTERVAL = 5 * 1000; // 5 seconds
+
 	/**
 	 * The token used to retrieve an RRG in an asynchronous version of SSWAP protocol.
 	 */
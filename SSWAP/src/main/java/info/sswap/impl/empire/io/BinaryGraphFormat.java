@@ -0,0 +1,302 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import info.sswap.impl.empire.model.JenaModelFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.rdf.model.AnonId;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * A compact binary format of the graphs stored in the disk tier of ModelCache. Unlike RDF/XML, this format can be
+ * loaded without any parsing: every distinct node of the graph is stored only once (in a dictionary), and the triples
+ * are stored as triples of dictionary indices. The files are memory-mapped for reading.
+ *
+ * The layout of a file is:
+ * <pre>
+ * int magic, int version
+ * int prefixCount, (string prefix, string namespace)*
+ * int nodeCount, (byte kind, string label [, string language, string datatype])*
+ * int tripleCount, (int subject, int predicate, int object)*
+ * long CRC32 of all the preceding bytes
+ * </pre>
+ * where a string is an int length followed by that many bytes of UTF-8. (The checksum detects files that were
+ * not completely written, e.g., because of a crash.)
+ */
+final class BinaryGraphFormat {
+	private static final int MAGIC = 0x53534752; // "SSGR"
+
+	private static final int VERSION = 1;
+
+	private static final byte URI_NODE = 1;
+
+	private static final byte BLANK_NODE = 2;
+
+	private static final byte LITERAL_NODE = 3;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * The size of the checksum at the end of the file
+	 */
+	private static final int CHECKSUM_SIZE = 8;
+
+	private BinaryGraphFormat() {
+		// no instances
+	}
+
+	/**
+	 * Writes a graph to a file and forces it to the storage device (so that the file is complete before
+	 * it is referenced by the index of the cache).
+	 *
+	 * @param graph the graph to be written
+	 * @param file the file
+	 * @throws IOException if an I/O error occurs (or the graph contains a node that cannot be stored, e.g., a variable)
+	 */
+	static void write(Graph graph, File file) throws IOException {
+		Map<Node,Integer> dictionary = new HashMap<Node,Integer>();
+		List<Node> nodes = new ArrayList<Node>();
+		int[] triples = new int[graph.size() * 3];
+		int tripleCount = 0;
+
+		ExtendedIterator<Triple> it = graph.find(Node.ANY, Node.ANY, Node.ANY);
+
+		try {
+			while (it.hasNext()) {
+				Triple triple = it.next();
+
+				if (tripleCount * 3 == triples.length) {
+					int[] newTriples = new int[Math.max(triples.length * 2, 3)];
+					System.arraycopy(triples, 0, newTriples, 0, triples.length);
+					triples = newTriples;
+				}
+
+				triples[tripleCount * 3] = encode(triple.getSubject(), dictionary, nodes);
+				triples[tripleCount * 3 + 1] = encode(triple.getPredicate(), dictionary, nodes);
+				triples[tripleCount * 3 + 2] = encode(triple.getObject(), dictionary, nodes);
+				tripleCount++;
+			}
+		}
+		finally {
+			it.close();
+		}
+
+		FileOutputStream fos = new FileOutputStream(file);
+
+		try {
+			CheckedOutputStream cos = new CheckedOutputStream(new BufferedOutputStream(fos), new CRC32());
+			DataOutputStream dos = new DataOutputStream(cos);
+
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+
+			Map<String,String> prefixes = graph.getPrefixMapping().getNsPrefixMap();
+
+			dos.writeInt(prefixes.size());
+
+			for (Map.Entry<String,String> prefix : prefixes.entrySet()) {
+				writeString(dos, prefix.getKey());
+				writeString(dos, prefix.getValue());
+			}
+
+			dos.writeInt(nodes.size());
+
+			for (Node node : nodes) {
+				writeNode(dos, node);
+			}
+
+			dos.writeInt(tripleCount);
+
+			for (int i = 0; i < tripleCount * 3; i++) {
+				dos.writeInt(triples[i]);
+			}
+
+			dos.flush();
+
+			// the checksum itself is not a part of the checksummed data
+			long checksum = cos.getChecksum().getValue();
+			dos.writeLong(checksum);
+			dos.flush();
+
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+	}
+
+	/**
+	 * Reads a graph from a file.
+	 *
+	 * @param file the file
+	 * @return the graph (a new, modifiable graph)
+	 * @throws IOException if an I/O error occurs, or the file is not a complete file in this format
+	 */
+	static Graph read(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+
+		try {
+			FileChannel channel = fis.getChannel();
+			long size = channel.size();
+
+			if ((size < CHECKSUM_SIZE) || (size > Integer.MAX_VALUE)) {
+				throw new IOException("Invalid size of a cached graph file: " + file);
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+			ByteBuffer data = buffer.duplicate();
+			data.limit((int) size - CHECKSUM_SIZE);
+
+			CRC32 crc = new CRC32();
+			crc.update(data.duplicate());
+
+			if (crc.getValue() != buffer.getLong((int) size - CHECKSUM_SIZE)) {
+				throw new IOException("Corrupted cached graph file (checksum mismatch): " + file);
+			}
+
+			try {
+				return readGraph(data);
+			}
+			catch (BufferUnderflowException e) {
+				throw new IOException("Truncated cached graph file: " + file);
+			}
+		}
+		finally {
+			fis.close();
+		}
+	}
+
+	private static Graph readGraph(ByteBuffer data) throws IOException {
+		if ((data.getInt() != MAGIC) || (data.getInt() != VERSION)) {
+			throw new IOException("Unsupported format of a cached graph file");
+		}
+
+		Graph graph = JenaModelFactory.get().createEmptyModel().getGraph();
+
+		int prefixCount = data.getInt();
+
+		for (int i = 0; i < prefixCount; i++) {
+			String prefix = readString(data);
+			String namespace = readString(data);
+
+			graph.getPrefixMapping().setNsPrefix(prefix, namespace);
+		}
+
+		Node[] nodes = new Node[data.getInt()];
+
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = readNode(data);
+		}
+
+		int tripleCount = data.getInt();
+
+		try {
+			for (int i = 0; i < tripleCount; i++) {
+				graph.add(Triple.create(nodes[data.getInt()], nodes[data.getInt()], nodes[data.getInt()]));
+			}
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Invalid node index in a cached graph file");
+		}
+
+		return graph;
+	}
+
+	private static int encode(Node node, Map<Node,Integer> dictionary, List<Node> nodes) {
+		Integer index = dictionary.get(node);
+
+		if (index == null) {
+			index = nodes.size();
+			dictionary.put(node, index);
+			nodes.add(node);
+		}
+
+		return index;
+	}
+
+	private static void writeNode(DataOutputStream dos, Node node) throws IOException {
+		if (node.isURI()) {
+			dos.writeByte(URI_NODE);
+			writeString(dos, node.getURI());
+		}
+		else if (node.isBlank()) {
+			dos.writeByte(BLANK_NODE);
+			writeString(dos, node.getBlankNodeLabel());
+		}
+		else if (node.isLiteral()) {
+			dos.writeByte(LITERAL_NODE);
+			writeString(dos, node.getLiteralLexicalForm());
+			writeString(dos, node.getLiteralLanguage());
+			writeString(dos, (node.getLiteralDatatypeURI() == null) ? "" : node.getLiteralDatatypeURI());
+		}
+		else {
+			throw new IOException("Unsupported node in a cached graph: " + node);
+		}
+	}
+
+	private static Node readNode(ByteBuffer data) throws IOException {
+		byte kind = data.get();
+
+		switch (kind) {
+			case URI_NODE:
+				return Node.createURI(readString(data));
+			case BLANK_NODE:
+				return Node.createAnon(AnonId.create(readString(data)));
+			case LITERAL_NODE:
+				String lexicalForm = readString(data);
+				String language = readString(data);
+				String datatypeURI = readString(data);
+
+				return Node.createLiteral(lexicalForm,
+								          language,
+								          datatypeURI.isEmpty() ? null : TypeMapper.getInstance().getSafeTypeByName(datatypeURI));
+			default:
+				throw new IOException("Invalid node kind in a cached graph file: " + kind);
+		}
+	}
+
+	private static void writeString(DataOutputStream dos, String s) throws IOException {
+		// DataOutputStream.writeUTF() is limited to 64 kB, which may not be enough for literals
+		byte[] bytes = s.getBytes(UTF8);
+
+		dos.writeInt(bytes.length);
+		dos.write(bytes);
+	}
+
+	private static String readString(ByteBuffer data) throws IOException {
+		int length = data.getInt();
+
+		if ((length < 0) || (length > data.remaining())) {
+			throw new IOException("Invalid string length in a cached graph file");
+		}
+
+		byte[] bytes = new byte[length];
+		data.get(bytes);
+
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import java.net.URLConnection;
+
+import com.clarkparsia.utils.web.Header;
+import com.clarkparsia.utils.web.Response;
+
+/**
+ * The HTTP caching information about a downloaded document: its validators (ETag and Last-Modified), which allow
+ * a cached copy of the document to be revalidated with a conditional request (If-None-Match/If-Modified-Since), and
+ * the freshness lifetime requested by the server (Cache-Control max-age).
+ *
+ * Instances of this class are immutable.
+ */
+public class CacheValidators {
+	private static final String MAX_AGE_DIRECTIVE = "max-age";
+
+	/**
+	 * The value of the ETag header (or null, if there was none)
+	 */
+	private final String eTag;
+
+	/**
+	 * The value of the Last-Modified header (or null, if there was none)
+	 */
+	private final String lastModified;
+
+	/**
+	 * The freshness lifetime requested by the server in ms (or null, if the server did not request any)
+	 */
+	private final Long maxAge;
+
+	/**
+	 * Creates a new set of validators.
+	 *
+	 * @param eTag the value of ETag header (may be null)
+	 * @param lastModified the value of Last-Modified header (may be null)
+	 * @param maxAge the freshness lifetime in ms (may be null)
+	 */
+	public CacheValidators(String eTag, String lastModified, Long maxAge) {
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Extracts the caching information from the headers of an HTTP response.
+	 *
+	 * @param response the HTTP response
+	 * @return the caching information
+	 */
+	public static CacheValidators fromResponse(Response response) {
+		String eTag = null;
+		String lastModified = null;
+		String cacheControl = null;
+
+		for (Header header : response.getHeaders()) {
+			// the status line is reported as a header without a name
+			if (header.getName() == null) {
+				continue;
+			}
+
+			if (header.getName().equalsIgnoreCase("ETag")) {
+				eTag = header.getRawHeaderValue();
+			}
+			else if (header.getName().equalsIgnoreCase("Last-Modified")) {
+				lastModified = header.getRawHeaderValue();
+			}
+			else if (header.getName().equalsIgnoreCase("Cache-Control")) {
+				cacheControl = header.getRawHeaderValue();
+			}
+		}
+
+		return new CacheValidators(eTag, lastModified, parseMaxAge(cacheControl));
+	}
+
+	/**
+	 * Parses the freshness lifetime from the value of Cache-Control header. The no-cache and no-store directives
+	 * are treated as a zero lifetime (i.e., the document has to be revalidated every time it is needed).
+	 *
+	 * @param cacheControl the value of Cache-Control header (may be null)
+	 * @return the freshness lifetime in ms or null, if the header does not specify it
+	 */
+	public static Long parseMaxAge(String cacheControl) {
+		if (cacheControl == null) {
+			return null;
+		}
+
+		Long result = null;
+
+		for (String directive : cacheControl.split(",")) {
+			directive = directive.trim().toLowerCase();
+
+			if (directive.equals("no-cache") || directive.equals("no-store")) {
+				return 0l;
+			}
+
+			if (directive.startsWith(MAX_AGE_DIRECTIVE)) {
+				String value = directive.substring(MAX_AGE_DIRECTIVE.length()).trim();
+
+				if (value.startsWith("=")) {
+					value = value.substring(1).trim();
+
+					// the value may be quoted
+					if (value.startsWith("\"") && value.endsWith("\"") && (value.length() > 1)) {
+						value = value.substring(1, value.length() - 1);
+					}
+
+					try {
+						result = Math.max(0l, Long.parseLong(value)) * 1000l;
+					}
+					catch (NumberFormatException e) {
+						// ignore an invalid max-age
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Checks whether these validators allow a conditional request
+	 *
+	 * @return true if there is either an ETag or Last-Modified date
+	 */
+	public boolean canRevalidate() {
+		return (eTag != null) || (lastModified != null);
+	}
+
+	/**
+	 * Sets the headers of a conditional request (If-None-Match and/or If-Modified-Since) on a connection
+	 *
+	 * @param connection the connection (before it has been connected)
+	 */
+	public void applyTo(URLConnection connection) {
+		if (eTag != null) {
+			connection.setRequestProperty("If-None-Match", eTag);
+		}
+
+		if (lastModified != null) {
+			connection.setRequestProperty("If-Modified-Since", lastModified);
+		}
+	}
+
+	/**
+	 * Combines these validators with the ones sent in a 304 (Not Modified) response; the server may send
+	 * new values for the headers in such a response, which replace the old ones.
+	 *
+	 * @param update the validators from the 304 response
+	 * @return the combined validators
+	 */
+	public CacheValidators updateWith(CacheValidators update) {
+		return new CacheValidators((update.eTag != null) ? update.eTag : eTag,
+						           (update.lastModified != null) ? update.lastModified : lastModified,
+						           (update.maxAge != null) ? update.maxAge : maxAge);
+	}
+
+	/**
+	 * Gets the time-to-live for the document
+	 *
+	 * @param defaultTTL the TTL that should be used, if the server did not specify any (in ms)
+	 * @return the TTL in ms
+	 */
+	public long getTimeToLive(long defaultTTL) {
+		return (maxAge != null) ? maxAge : defaultTTL;
+	}
+
+	public String getETag() {
+		return eTag;
+	}
+
+	public String getLastModified() {
+		return lastModified;
+	}
+
+	public Long getMaxAge() {
+		return maxAge;
+	}
+}
@@ -14,6 +14,7 @@ import info.sswap.impl.empire.model.ModelUtils;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
@@ -21,17 +22,19 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -42,7 +45,9 @@ import org.semanticweb.owlapi.model.OWLOntology;
 import org.semanticweb.owlapi.model.OWLOntologyCreationException;
 import org.semanticweb.owlapi.model.OWLOntologyManager;
 
+import com.clarkparsia.utils.web.Response;
 import com.google.common.collect.ImmutableList;
+import com.hp.hpl.jena.rdf.model.Literal;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.rdf.model.RDFNode;
@@ -75,6 +80,28 @@ public class ClosureBuilder {
 	                OWL.ObjectProperty, OWL.Ontology, OWL.OntologyProperty, OWL.Restriction, OWL.SymmetricProperty,
 	                OWL.TransitiveProperty, OWL2.Annotation, OWL2.ReflexiveProperty }));
 	
+	/**
+	 * The downloads currently in progress in all closure builders (so that concurrent closure computations that need the same
+	 * documents download each document only once).
+	 */
+	private static final InFlightRequests IN_FLIGHT_DOWNLOADS = new InFlightRequests() {
+		@Override
+		protected Model share(Model model) {
+			// downloaded models are read-only (see ModelCache.setSharedModel()), so they can be shared without copying
+			return model;
+		}
+		
+		@Override
+		protected boolean isShareable(Exception e) {
+			// byte limits (and interruptions, e.g., after a time limit) are specific to a single closure computation
+			if (e instanceof ByteLimitExceededException) {
+				return false;
+			}
+			
+			return !(e instanceof InterruptedIOException) || (e instanceof SocketTimeoutException);
+		}
+	};
+
 	private static Set<Property> HIERARCHY_PROPERTIES = new HashSet<Property>(Arrays.asList(new Property[] {
 					RDFS.subClassOf, RDFS.subPropertyOf, OWL.equivalentClass, OWL.equivalentProperty
 	}));
@@ -112,7 +139,7 @@ public class ClosureBuilder {
 	private Set<String> markedURIs;
 
 	/**
-	 * The current list of URIs to be dereferenced for the current depth.
+	 * The current list of URIs to be dereferenced during the type retrieving step.
 	 */
 	private List<String> dereferenceQueue;
 
@@ -125,6 +152,17 @@ public class ClosureBuilder {
 	private int readTimeout;
 	
 	private List<String> ignoredNamespaces;
+	
+	/**
+	 * True if the closure currently computed may be missing some documents because of a limit or a transient error
+	 * (such closures are not stored in the closure cache)
+	 */
+	private boolean incomplete;
+	
+	/**
+	 * The (normalized) URIs of all the documents dereferenced during the current closure computation
+	 */
+	private Set<String> dereferencedURIs;
 
 	/**
 	 * Creates a new closure builder. This method is intentionally package private to encourage the use of
@@ -158,6 +196,7 @@ public class ClosureBuilder {
 		}
 
 		this.markedURIs = new HashSet<String>();
+		this.dereferencedURIs = new HashSet<String>();
 		this.dereferenceQueue = new LinkedList<String>();
 		this.expressivityChecker = new ExpressivityChecker();
 		this.ignoredNamespaces = ImmutableList
@@ -257,83 +296,229 @@ public class ClosureBuilder {
 		return build(baseModel, modelURI, degree, hierarchyDegree);
 	}
 	
+	/**
+	 * Build closure for the given model. If the closure cache of the model cache already contains the closure for the same
+	 * terms and parameters (see getCacheKey()), the cached closure is returned instead of computing it again. The closure
+	 * models of cached closures are read-only.
+	 * 
+	 * @param baseModel
+	 *            the model whose closure should be computed (may be null, in such a case the model will be first
+	 *            dereferenced from the given URI)
+	 * @param modelURI
+	 *            the URI of the model (may be null). If the passed model is null, this URI will be used to dereference
+	 *            the initial model. In all other cases, this URI will just prevent an unnecessary re-download of the
+	 *            initial contents of the model
+	 * @param degree
+	 *            the maximum degree for the closure
+	 * @param hierarchyDegree
+	 *            the number of additional degrees for which only the super-classes and super-properties are retrieved
+	 * @return the computed closure
+	 */
 	public Closure build(Model baseModel, String modelURI, int degree, int hierarchyDegree) {
+		ClosureCache closureCache = modelCache.getClosureCache();
+		
+		if (closureCache == null) {
+			return computeClosure(baseModel, modelURI, degree, hierarchyDegree);
+		}
+		
+		String cacheKey = getCacheKey(baseModel, modelURI, degree, hierarchyDegree);
+		Closure result = closureCache.get(cacheKey, baseModel, modelCache.getTimeToLive());
+		
+		if (result != null) {
+			LOGGER.debug("Closure cache hit for " + modelURI);
+			return result;
+		}
+		
+		long generation = closureCache.getGeneration();
+		
+		result = computeClosure(baseModel, modelURI, degree, hierarchyDegree);
+		
+		if (incomplete) {
+			LOGGER.debug("Not caching an incomplete closure for " + modelURI);
+			return result;
+		}
+		
+		return closureCache.put(cacheKey, result, generation, dereferencedURIs);
+	}
+	
+	/**
+	 * Computes the key of a closure in the closure cache. Two closure computations retrieve the same documents if they start
+	 * with the same set of terms to be dereferenced and use the same parameters, so the key contains the sorted (normalized)
+	 * URIs of these terms and the parameters. However, the degree at which the closure stops also depends on whether the
+	 * base model together with the retrieved terms is still in OWL DL, which depends on how the terms are used in the base
+	 * model. Therefore, the key also contains the DL signature of the base model (see getDLSignature()); the actual
+	 * literal values and the URIs of individuals do not influence the closure.
+	 * 
+	 * @param baseModel the base model (may be null)
+	 * @param modelURI the URI of the model (may be null)
+	 * @param degree the maximum degree for the closure
+	 * @param hierarchyDegree the number of additional degrees for the hierarchy
+	 * @return the key
+	 */
+	private String getCacheKey(Model baseModel, String modelURI, int degree, int hierarchyDegree) {
+		Set<String> terms = new TreeSet<String>();
+		
+		if (baseModel != null) {
+			for (String uri : getResourceURIs(baseModel)) {
+				String normalizedURI = ModelUtils.normalizeURI(uri);
+				terms.add((normalizedURI == null) ? uri : normalizedURI);
+			}
+		}
+		
+		String normalizedModelURI = (modelURI == null) ? null : ModelUtils.normalizeURI(modelURI);
+		
+		StringBuilder key = new StringBuilder();
+		
+		// the model URI is either dereferenced (no base model), or excluded from the dereferencing (with a base model)
+		key.append(degree).append(' ').append(hierarchyDegree).append(' ')
+		   .append(baseModel == null).append(' ').append((normalizedModelURI == null) ? modelURI : normalizedModelURI).append('\n');
+		
+		for (String ignoredNamespace : ignoredNamespaces) {
+			key.append(ignoredNamespace).append(' ');
+		}
+		
+		for (String term : terms) {
+			key.append('\n').append(term);
+		}
+		
+		if (baseModel != null) {
+			for (String statement : getDLSignature(baseModel, terms)) {
+				key.append('\n').append(statement);
+			}
+		}
+		
+		return key.toString();
+	}
+	
+	/**
+	 * Computes the DL signature of the base model: the sorted set of its statements where the subjects and objects that are
+	 * not dereferenced terms (e.g., individuals or literals) are replaced by their kinds (a blank node, a named individual,
+	 * or a literal of the given datatype and language). Base models with the same DL signature use the terms in the same way
+	 * (e.g., a property with literals or with individuals), so the OWL DL check gives the same result at every degree.
+	 * 
+	 * @param baseModel the base model
+	 * @param terms the normalized URIs of the terms in the base model that are dereferenced
+	 * @return the DL signature
+	 */
+	private Set<String> getDLSignature(Model baseModel, Set<String> terms) {
+		Set<String> signature = new TreeSet<String>();
+		
+		for (StmtIterator it = baseModel.listStatements(); it.hasNext();) {
+			Statement statement = it.next();
+			
+			signature.add(getDLKind(statement.getSubject(), terms) + ' ' 
+			              + getDLKind(statement.getPredicate(), terms) + ' ' 
+			              + getDLKind(statement.getObject(), terms));
+		}
+		
+		return signature;
+	}
+	
+	/**
+	 * Gets the kind of the node for the DL signature of a model. 
+	 * 
+	 * @param node the node
+	 * @param terms the normalized URIs of the terms in the model that are dereferenced
+	 * @return the URI of a term or of a vocabulary (e.g., RDF, RDFS, OWL) resource, or the kind of the node
+	 */
+	private String getDLKind(RDFNode node, Set<String> terms) {
+		if (node.isLiteral()) {
+			Literal literal = node.asLiteral();
+			
+			return "\"\"^^<" + literal.getDatatypeURI() + ">@" + literal.getLanguage();
+		}
+		
+		if (node.isAnon() || ModelUtils.isBNodeURI(node.asResource().getURI())) {
+			return "_:";
+		}
+		
+		String uri = node.asResource().getURI();
+		String normalizedURI = ModelUtils.normalizeURI(uri);
+		
+		if (terms.contains((normalizedURI == null) ? uri : normalizedURI) || isIgnoredNamespace(uri)) {
+			return "<" + uri + ">";
+		}
+		
+		return "<>";
+	}
+	
+	private Closure computeClosure(Model baseModel, String modelURI, int degree, int hierarchyDegree) {
 		String closureURI = (modelURI == null) ? null : ModelUtils.normalizeURI(modelURI);
 		
 		LOGGER.info("Building closure for " + modelURI + " up to a max degree of " + degree);
 		startTime = System.currentTimeMillis();
+		incomplete = false;
+		dereferencedURIs.clear();
+		
+		final int maxDegree = degree + hierarchyDegree;
+		
+		// the degrees of all the URIs marked during this closure computation (keys are normalized URIs)
+		final Map<String,Integer> uriDegrees = new HashMap<String,Integer>();
+		
+		// the finished dereference tasks (keys are normalized URIs)
+		final Map<String,DereferenceTask> finishedTasks = new HashMap<String,DereferenceTask>();
 		
 		if ((closureURI != null) && (baseModel != null)) {
 			// we already know this model, so mark that it is not retrieved more than once
 			markedURIs.add(closureURI);
+			uriDegrees.put(closureURI, 0);
 		}
-
-		Model[] intermediateModels = new Model[degree + hierarchyDegree + 1];
-		Model newModel = null;
-
-		newModel = JenaModelFactory.get().createEmptyModel();
-
-		intermediateModels[0] = newModel;
-		int largestDegreeRetrieved = 0;
-
-		// main loop, repeated for each degree
-		for (int currentDegree = 1; currentDegree <= degree + hierarchyDegree; currentDegree++) {
-			//System.out.println("Retrieving degree " + currentDegree);
-			Model currentModel = newModel;
-
-			// clear the queue from the previous degree (if any)
-			dereferenceQueue.clear();
-
-			if (getBytesRemaining() <= 0) {
-				LOGGER.error("Byte limit exceeded during closure computation");
-				// byte limit exceeded -- we break here
-				break;
-			}
-
-			if (getTimeRemaining() <= 0) {
-				LOGGER.error("Time limit exceeded during closure computation");
-				// time limit exceeded -- we break here
-				break;
-			}
-
+		
+		List<String> initialURIs = new LinkedList<String>();
+		
+		if (maxDegree >= 1) {
 			if ((modelURI != null) && (baseModel == null)) {
-				enqueueURI(modelURI);
+				initialURIs.addAll(discoverURIs(null, modelURI, 1, degree, maxDegree, uriDegrees, finishedTasks));
 			}
-
-			if (currentDegree == 1 && baseModel != null) {
-				if (currentDegree > degree) {
-					enqueueHierarchyURIs(baseModel);
-				}
-				else {					
-					enqueueURIs(baseModel);
-				}
+			
+			if (baseModel != null) {
+				initialURIs.addAll(discoverURIs(baseModel, null, 0, degree, maxDegree, uriDegrees, finishedTasks));
 			}
-			else {
-				// process the current model and enqueue any new concepts
-				if (currentDegree > degree) {
-					enqueueHierarchyURIs(currentModel);
-				}
-				else {
-					enqueueURIs(currentModel);
-				}
+		}
+		
+		if (initialURIs.isEmpty()) {
+			LOGGER.trace("Closure levels off. No new statements found at degree 1");
+		}
+		
+		// the actual retrieval: the URIs found in every retrieved document are dereferenced as soon as that document
+		// is parsed (i.e., without waiting for all the other documents of the same degree)
+		List<DereferenceTask> dispatchedTasks = dereferenceAll(initialURIs, new DereferenceHandler() {
+			public Collection<String> dereferenced(DereferenceTask task) {
+				String normalizedURI = ModelUtils.normalizeURI(task.getURL());
+				
+				finishedTasks.put(normalizedURI, task);
+				
+				return discoverURIs(task.getModel(), null, uriDegrees.get(normalizedURI), degree, maxDegree, uriDegrees, finishedTasks);
 			}
-
-			if (dereferenceQueue.isEmpty()) {
-				LOGGER.trace("Closure levels off. No new statements found at degree " + currentDegree);
-				// we reached the point when no new statements could be dereferenced
-				// we can terminate the search early
-				break;
+		});
+		
+		int largestDegreeRetrieved = 0;
+		
+		for (DereferenceTask task : dispatchedTasks) {
+			largestDegreeRetrieved = Math.max(largestDegreeRetrieved, uriDegrees.get(ModelUtils.normalizeURI(task.getURL())));
+		}
+		
+		// assemble the models for each degree (the model for a degree contains all the documents retrieved for that
+		// and all the lower degrees)
+		Model[] intermediateModels = new Model[maxDegree + 1];
+		Model newModel = JenaModelFactory.get().createEmptyModel();
+		
+		intermediateModels[0] = newModel;
+		
+		for (int currentDegree = 1; currentDegree <= largestDegreeRetrieved; currentDegree++) {
+			newModel = JenaModelFactory.get().createEmptyModel();
+			addStatements(newModel, intermediateModels[currentDegree - 1]);
+			
+			for (Map.Entry<String,DereferenceTask> entry : finishedTasks.entrySet()) {
+				if ((entry.getValue().getModel() != null) && (uriDegrees.get(entry.getKey()) == currentDegree)) {
+					addStatements(newModel, entry.getValue().getModel());
+				}
 			}
-
-			// actual computation for the degree
-			newModel = doClosure(currentModel, /* typeStatementsOnly */false);
-
+			
 			intermediateModels[currentDegree] = newModel;
-			largestDegreeRetrieved = currentDegree;
 			LOGGER.trace("Finished retrieval of terms for degree " + currentDegree);
 		}
 
-
 		LOGGER.debug("Max degree retrieved from the network (before OWL DL determination): " + largestDegreeRetrieved);
 		
 		int finalDegree = largestDegreeRetrieved;
@@ -383,11 +568,13 @@ public class ClosureBuilder {
 
 		if (getBytesRemaining() <= 0) {
 			// byte limit exceeded -- we break here
+			incomplete = true;
 			return sourceModel;
 		}
 
 		if (getTimeRemaining() <= 0) {
 			// time limit exceeded -- we break here
+			incomplete = true;
 			return sourceModel;
 		}
 
@@ -440,6 +627,68 @@ public class ClosureBuilder {
 		}
 	}
 
+	/**
+	 * Finds the URIs that should be dereferenced because they are mentioned in a model of the given degree, and marks them with
+	 * the next degree. If a URI has already been marked with a higher degree (i.e., it was first found along a longer path), its
+	 * degree is lowered, and if its document has already been retrieved, the URIs mentioned in that document are reconsidered as well
+	 * (so that every URI ends up with the same degree as it would in a level-by-level computation).
+	 * 
+	 * This method is only invoked by the thread that computes the closure (i.e., never concurrently).
+	 * 
+	 * @param model the model whose URIs should be considered (may be null, if a single URI is to be considered instead)
+	 * @param uri the single URI to be considered (used only if the model is null)
+	 * @param modelDegree the degree of the model
+	 * @param degree the maximum degree for which all the URIs are followed
+	 * @param maxDegree the maximum degree (including the degrees for which only the hierarchy URIs are followed)
+	 * @param uriDegrees the degrees of the already marked URIs (keys are normalized URIs)
+	 * @param finishedTasks the already finished dereference tasks (keys are normalized URIs)
+	 * @return the URIs that should be dereferenced (i.e., the URIs that have just been marked for the first time)
+	 */
+	private List<String> discoverURIs(Model model, String uri, int modelDegree, int degree, int maxDegree, Map<String,Integer> uriDegrees, Map<String,DereferenceTask> finishedTasks) {
+		List<String> result = new LinkedList<String>();
+		int nextDegree = (model == null) ? modelDegree : modelDegree + 1;
+		
+		if (nextDegree > maxDegree) {
+			return result;
+		}
+		
+		Collection<String> uris;
+		
+		if (model == null) {
+			uris = (uri == null) ? Collections.<String>emptyList() : Collections.singletonList(uri);
+		}
+		else if (nextDegree > degree) {
+			uris = getUpHierarchyResourceURIs(model);
+		}
+		else {
+			uris = getResourceURIs(model);
+		}
+		
+		for (String discoveredURI : uris) {
+			String normalizedURI = ModelUtils.normalizeURI(discoveredURI);
+			Integer knownDegree = uriDegrees.get(normalizedURI);
+			
+			if (knownDegree == null) {
+				markedURIs.add(normalizedURI);
+				uriDegrees.put(normalizedURI, nextDegree);
+				result.add(discoveredURI);
+				
+				LOGGER.trace(String.format("Scheduling %s for retrieval (degree %d)", discoveredURI, nextDegree));
+			}
+			else if (knownDegree > nextDegree) {
+				uriDegrees.put(normalizedURI, nextDegree);
+				
+				DereferenceTask finishedTask = finishedTasks.get(normalizedURI);
+				
+				if ((finishedTask != null) && (finishedTask.getModel() != null)) {
+					result.addAll(discoverURIs(finishedTask.getModel(), null, nextDegree, degree, maxDegree, uriDegrees, finishedTasks));
+				}
+			}
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * Computes one degree of closure on the passed model
 	 * 
@@ -447,84 +696,140 @@ public class ClosureBuilder {
 	 *            the model whose closure (one level) should be computed
 	 * @return the computed closure
 	 */
-	private Model doClosure(Model sourceModel, boolean typeStatementsOnly) {
+	private Model doClosure(Model sourceModel, final boolean typeStatementsOnly) {
 		// copy all the currently known facts into the result
-		Model closureModel = JenaModelFactory.get().createEmptyModel();
+		final Model closureModel = JenaModelFactory.get().createEmptyModel();
 		addStatements(closureModel, sourceModel);
 
-		// prepare the thread pool for the degree
-		ExecutorService threadPool = Executors.newFixedThreadPool(maxThreads);
-
-		// create the dereference tasks
-		List<Callable<DereferenceTask>> dereferenceTaskCallables = new LinkedList<Callable<DereferenceTask>>();
-
-		for (final String queueElement : dereferenceQueue) {
-			Callable<DereferenceTask> dereferenceTask = new DereferenceTask(queueElement, threadPool);
-			dereferenceTaskCallables.add(dereferenceTask);
-		}
+		dereferenceAll(dereferenceQueue, new DereferenceHandler() {
+			public Collection<String> dereferenced(DereferenceTask task) {
+				// if we were able to retrieve the model, just add the contents
+				// of the retrieved model to the result
+				if (task.getModel() != null) {
+					if (typeStatementsOnly) {
+						addTypeStatements(task.getURL(), closureModel, task.getModel());
+					}
+					else {
+						addStatements(closureModel, task.getModel());
+					}
+				}
+				
+				return Collections.emptyList();
+			}
+		});
 
+		return closureModel;
+	}
+	
+	/**
+	 * Dereferences the given URLs (and any further URLs returned by the handler) using the executor shared by all closure
+	 * builders. At most maxThreads downloads of this builder are in progress at any time; a new download starts as soon as
+	 * any of the previous ones finishes. No new downloads are started once the byte limit is exceeded, and the downloads still in
+	 * progress are cancelled when the time limit is exceeded.
+	 * 
+	 * The handler is invoked for every finished download by the calling thread (i.e., never concurrently).
+	 * 
+	 * @param urls the URLs to be dereferenced
+	 * @param handler the handler for the finished downloads
+	 * @return all the dereference tasks that were started (including those that were cancelled)
+	 */
+	private List<DereferenceTask> dereferenceAll(Collection<String> urls, DereferenceHandler handler) {
+		ExecutorService executorService = ClosureExecutor.get().getExecutorService();
+		LinkedList<String> pendingURLs = new LinkedList<String>(urls);
+		final BlockingQueue<DereferenceTask> finishedTasks = new LinkedBlockingQueue<DereferenceTask>();
+		Map<DereferenceTask,Future<?>> runningTasks = new HashMap<DereferenceTask,Future<?>>();
+		List<DereferenceTask> result = new LinkedList<DereferenceTask>();
+		boolean stopped = false;
+		
 		try {
-			// ask the thread pool to invoke all the dereference tasks concurrently (using the amount of threads
-			// specified by maxThreads
-			// this method waits till all the tasks are finished (or terminated by the timeout)
-			List<Future<DereferenceTask>> dereferencedTaskFutures = threadPool.invokeAll(dereferenceTaskCallables,
-			                getTimeRemaining(), TimeUnit.MILLISECONDS);
-
-			for (Future<DereferenceTask> future : dereferencedTaskFutures) {
-				try {
-					DereferenceTask dereferenceTask = future.get();
-
-					// if we were able to retrieve the model, just add the contents
-					// of the retrieved model to the result
-					if (dereferenceTask.getModel() != null) {
-						if (typeStatementsOnly) {
-							addTypeStatements(dereferenceTask.getURL(), closureModel, dereferenceTask.getModel());
-						}
-						else {
-							addStatements(closureModel, dereferenceTask.getModel());
-						}
+			while (true) {
+				// start as many new downloads as allowed
+				while (!stopped && !pendingURLs.isEmpty() && (runningTasks.size() < Math.max(maxThreads, 1))) {
+					if (getBytesRemaining() <= 0) {
+						LOGGER.error("Byte limit exceeded during closure computation");
+						stopped = true;
+						incomplete = true;
+					}
+					else if (getTimeRemaining() <= 0) {
+						LOGGER.error("Time limit exceeded during closure computation");
+						stopped = true;
+						incomplete = true;
+					}
+					else {
+						final DereferenceTask task = new DereferenceTask(pendingURLs.removeFirst());
+						
+						String normalizedURI = ModelUtils.normalizeURI(task.getURL());
+						dereferencedURIs.add((normalizedURI == null) ? task.getURL() : normalizedURI);
+						
+						Future<?> future = executorService.submit(new Runnable() {
+							public void run() {
+								try {
+									task.call();
+								}
+								finally {
+									finishedTasks.add(task);
+								}
+							}
+						});
+						
+						runningTasks.put(task, future);
+						result.add(task);
 					}
 				}
-				catch (CancellationException e) {
-					LOGGER.debug("Closure computation cancelled", e);
-					
-					// nothing -- just start next iteration (another task could have
-					// been finished before the cancellation)
+				
+				if (runningTasks.isEmpty()) {
+					break;
 				}
-				catch (ExecutionException e) {
-					LOGGER.error("Exception while retrieving a single document within the closure", e);
-					
-					// nothing -- just start next iteration (another task could have
-					// been finished without execution exception)
+				
+				DereferenceTask task = finishedTasks.poll(getTimeRemaining(), TimeUnit.MILLISECONDS);
+				
+				if (task == null) {
+					LOGGER.error("Time limit exceeded during closure computation");
+					break;
 				}
-				catch (RejectedExecutionException e) {
-					LOGGER.error("Exception while retrieving a single document within the closure", e);
-					
-					// nothing -- just start next iteration (another task could have
-					// been finished without execution exception)
+				
+				runningTasks.remove(task);
+				
+				if (task.isByteLimitExceeded()) {
+					// if byte limit is exceeded, it makes no sense to start any further downloads
+					stopped = true;
 				}
-				catch (InterruptedException e) {
-					LOGGER.error("Exception while retrieving a single document within the closure", e);
-					
-					// nothing -- just start next iteration (another task could have
-					// been finished before the interruption)
+				
+				if (task.isTransientFailure()) {
+					incomplete = true;
+				}
+				
+				Collection<String> nextURLs = handler.dereferenced(task);
+				
+				if (!stopped) {
+					pendingURLs.addAll(nextURLs);
 				}
 			}
 		}
 		catch (InterruptedException e) {
 			LOGGER.error("Closure computation cancelled", e);
-						
-			// nothing -- we are about to leave the method anyway
-		}catch (RejectedExecutionException e) {
-			LOGGER.error("Closue computation rejected", e);
+			incomplete = true;
+			
+			// preserve the interrupted status for the caller
+			Thread.currentThread().interrupt();
+		}
+		catch (RejectedExecutionException e) {
+			LOGGER.error("Closure computation rejected", e);
+			incomplete = true;
 			
 			// nothing -- we are about to leave the method anyway
 		}
-
-		// shutdown the thread pool
-		threadPool.shutdownNow();
-
-		return closureModel;
+		
+		// cancel any downloads that are still in progress (e.g., because the time limit was exceeded)
+		for (Future<?> future : runningTasks.values()) {
+			future.cancel(true /* mayInterruptIfRunning */);
+		}
+		
+		if (!runningTasks.isEmpty() || (stopped && !pendingURLs.isEmpty())) {
+			incomplete = true;
+		}
+		
+		return result;
 	}
 
 	/**
@@ -561,6 +866,10 @@ public class ClosureBuilder {
 	 * Retrieves a document at the specified URL and parses it into the Jena model. This method obeys the byte limits
 	 * while downloading the URL and updates the byte counters appropriately.
 	 * 
+	 * If the same URL is already being downloaded (by this or any other closure builder), this method waits for that
+	 * download to finish and returns its result (see InFlightRequests). The returned model is read-only, since it is
+	 * shared with the model cache and with other closure builders.
+	 * 
 	 * This method is invoked by the concurrent worker threads. Note: in case of concurrent downloads, while the
 	 * closure-wide byte counters will be updated correctly, the exceeding of the byte limit may not be noticed until a
 	 * new concurrent download starts. (Every stream has its own internal counter, and these are not synchronized with
@@ -574,9 +883,9 @@ public class ClosureBuilder {
 	 * @throws IOException
 	 *             if a generic I/O error should occur
 	 */
-	private Model dereferenceURL(String urlString) throws IOException, DataAccessException {
+	private Model dereferenceURL(final String urlString) throws IOException, DataAccessException {
 		LOGGER.debug("Attempting to dereference " + urlString);
-		Model result = modelCache.getModel(urlString);
+		Model result = modelCache.getSharedModel(urlString);
 
 		// if we got a hit from the cache, return it right away
 		if (result != null) {
@@ -584,6 +893,57 @@ public class ClosureBuilder {
 			return result;
 		}
 		
+		String key = ModelUtils.normalizeURI(urlString);
+		
+		if (key == null) {
+			key = urlString;
+		}
+		
+		// if another closure computation is already downloading this URL, wait for its result instead of downloading it again
+		try {
+			return IN_FLIGHT_DOWNLOADS.retrieve(key, new Callable<Model>() {
+				public Model call() throws Exception {
+					// the download may have finished (and been cached) just after we checked the cache
+					Model cachedModel = modelCache.getSharedModel(urlString);
+					
+					if (cachedModel != null) {
+						LOGGER.debug("Cache hit for " + urlString);
+						return cachedModel;
+					}
+					
+					return downloadURL(urlString);
+				}
+			});
+		}
+		catch (IOException e) {
+			throw e;
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the download of " + urlString);
+		}
+		catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Downloads a document at the specified URL (bypassing the check in the model cache and the registry of downloads in progress),
+	 * and stores it in the model cache. See dereferenceURL() for details.
+	 * 
+	 * @param urlString
+	 *            the string containing the URL to be retrieved
+	 * @return the downloaded model
+	 * @throws ByteLimitExceededException
+	 *             if the byte limit has been exceeded during the dereferencing.
+	 * @throws IOException
+	 *             if a generic I/O error should occur
+	 */
+	private Model downloadURL(String urlString) throws IOException, DataAccessException {
+		Model result = null;
 		URL url = null;
 		
 		try {
@@ -617,8 +977,37 @@ public class ClosureBuilder {
 		// support content negotiation
 		urlConnection.setRequestProperty("accept", "application/rdf+xml, application/xml; q=0.8, text/xml; q=0.7, application/rss+xml; q=0.3, */*; q=0.2");
 		
+		// if we have an expired copy of the document, ask the server whether it has changed
+		CacheValidators cachedValidators = modelCache.getValidators(urlString);
+		
+		if (cachedValidators != null) {
+			cachedValidators.applyTo(urlConnection);
+		}
+		
 		try {
-			InputStream connInput = ModelUtils.executeRequest(urlConnection).getContent();
+			Response response = ModelUtils.executeRequest(urlConnection);
+			CacheValidators validators = CacheValidators.fromResponse(response);
+			
+			if ((cachedValidators != null) && (response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+				try {
+					response.close();
+				}
+				catch (Exception e) {
+					// intentionally ignored
+				}
+				
+				result = modelCache.revalidate(urlString, validators);
+				
+				if (result != null) {
+					LOGGER.debug("Revalidated " + urlString + " (not modified)");
+					return result;
+				}
+				
+				// the expired copy was evicted in the meantime; download the document again
+				return downloadURL(urlString);
+			}
+			
+			InputStream connInput = response.getContent();
 			ByteLimitInputStream in = new ByteLimitInputStream(connInput, bytesRemaining);
 
 			// parse the model
@@ -641,7 +1030,8 @@ public class ClosureBuilder {
 //				bytesRead += in.getBytesRead();
 			}
 
-			modelCache.setModel(urlString, result);
+			// from now on, the model is only read (and shared with other threads)
+			result = modelCache.setSharedModel(urlString, result, validators);
 		}
 		catch (DataAccessException e) {
 			// do not cache data access exceptions
@@ -1030,6 +1420,19 @@ public class ClosureBuilder {
 		return false;
 	}
 
+	/**
+	 * Receives the results of downloads performed by dereferenceAll().
+	 */
+	private interface DereferenceHandler {
+		/**
+		 * Invoked when a dereference task has finished.
+		 * 
+		 * @param task the finished task
+		 * @return the URLs that should be dereferenced next (e.g., URLs found in the retrieved document)
+		 */
+		Collection<String> dereferenced(DereferenceTask task);
+	}
+	
 	/**
 	 * A dereference task that is executed in the separate thread.
 	 * 
@@ -1041,11 +1444,6 @@ public class ClosureBuilder {
 		 */
 		private String url;
 
-		/**
-		 * The executor service that will execute this task
-		 */
-		private ExecutorService executorService;
-
 		/**
 		 * The model retrieved (may be null, if no data could be retrieved)
 		 */
@@ -1055,18 +1453,21 @@ public class ClosureBuilder {
 		 * True if byte limit was exceeded
 		 */
 		private boolean byteLimitExceeded;
+		
+		/**
+		 * True if the retrieval failed for a reason that may be transient (e.g., a timeout), as opposed to a missing
+		 * or unparseable document
+		 */
+		private boolean transientFailure;
 
 		/**
-		 * Creates a dereferencing task to retrieve the given URL with the specified executor service.
+		 * Creates a dereferencing task to retrieve the given URL.
 		 * 
 		 * @param url
 		 *            the URL
-		 * @param executorService
-		 *            the executor service
 		 */
-		public DereferenceTask(String url, ExecutorService executorService) {
+		public DereferenceTask(String url) {
 			this.url = url;
-			this.executorService = executorService;
 			this.byteLimitExceeded = false;
 		}
 
@@ -1079,11 +1480,10 @@ public class ClosureBuilder {
 				model = dereferenceURL(url);
 			}
 			catch (ByteLimitExceededException e) {
-				byteLimitExceeded = true;
-
 				// if byte limit is exceeded, it makes no sense to
-				// execute any further tasks -- shutdown the executor service
-				executorService.shutdown();
+				// execute any further tasks (the closure builder will not start any new ones)
+				byteLimitExceeded = true;
+				transientFailure = true;
 			}
 			catch (FileNotFoundException e) {
 				LOGGER.warn("For URL: " + url + " : " + e.toString());  // common, so just log a WARN and suppress the stack trace
@@ -1092,6 +1492,7 @@ public class ClosureBuilder {
 			catch (IOException e) {
 				LOGGER.warn("For URL: " + url + " : " + e.toString());
 				// nothing (the model is just null)
+				transientFailure = true;
 			}
 			catch (DataAccessException e) {
 				LOGGER.warn("For URL: " + url + " : " + e.toString());
@@ -1124,9 +1525,17 @@ public class ClosureBuilder {
 		 * 
 		 * @return true if the byte limit is exceeded; false otherwise
 		 */
-		@SuppressWarnings("unused")
 		public boolean isByteLimitExceeded() {
 			return byteLimitExceeded;
 		}
+		
+		/**
+		 * Checks whether the retrieval failed for a reason that may be transient
+		 * 
+		 * @return true if the retrieval should be attempted again by the next closure computation
+		 */
+		public boolean isTransientFailure() {
+			return transientFailure;
+		}
 	}
 }
@@ -0,0 +1,179 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * A cache of finished closures (see ClosureBuilder.build()). Most of the RIGs sent to a service mention exactly the same
+ * terms (those of the RDG vocabulary) and differ only in literal values, so their closures are identical; this cache
+ * allows such requests to skip the whole closure computation (including the checks for OWL DL and the removal of bnodes),
+ * and not just the downloads of the individual documents (which are cached by ModelCache).
+ *
+ * The closures are keyed by the sorted set of the terms that the closure computation would dereference for the base model,
+ * the way the base model uses these terms (which decides whether it stays in OWL DL), and the parameters of the
+ * computation (see ClosureBuilder.getCacheKey()). The cached closure models are shared
+ * (read-only) by all the callers.
+ *
+ * The cache is owned by a ModelCache: its entries expire with the TTL of that ModelCache, and all of them are invalidated
+ * whenever the ModelCache stores a new version of a document that was dereferenced by any cached closure (such updates
+ * are rare, and they happen only after the documents expire).
+ * The memory used by the cache is bounded by the total number of triples in the cached closures.
+ *
+ * This class is thread safe.
+ */
+class ClosureCache {
+	/**
+	 * The cached closures
+	 */
+	private final Cache<String,CachedClosure> cache;
+
+	/**
+	 * The (normalized) URIs of the documents that were dereferenced while computing the cached closures
+	 */
+	private final Set<String> dependencies = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+	
+	/**
+	 * Incremented whenever the whole cache is invalidated; closures whose computation started before an invalidation are not cached
+	 */
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxTriples the maximum number of triples in all the cached closures
+	 */
+	ClosureCache(long maxTriples) {
+		cache = CacheBuilder.newBuilder()
+		                    .maximumWeight(maxTriples)
+		                    .weigher(new Weigher<String,CachedClosure>() {
+		                    	public int weigh(String key, CachedClosure closure) {
+		                    		return closure.getWeight();
+		                    	}
+		                    })
+		                    .build();
+	}
+
+	/**
+	 * Gets a cached closure.
+	 *
+	 * @param key the key of the closure
+	 * @param baseModel the base model of the caller (the returned closure will contain it)
+	 * @param ttl the time-to-live of cached closures (in ms)
+	 * @return the closure (with a read-only closure model) or null, if no valid closure is cached for the key
+	 */
+	Closure get(String key, Model baseModel, long ttl) {
+		CachedClosure cachedClosure = cache.getIfPresent(key);
+
+		if (cachedClosure == null) {
+			return null;
+		}
+
+		if (cachedClosure.getStorageTime() + ttl < System.currentTimeMillis()) {
+			cache.asMap().remove(key, cachedClosure);
+			return null;
+		}
+
+		return new Closure(baseModel, createView(cachedClosure.getGraph()), cachedClosure.getDegree());
+	}
+
+	/**
+	 * Stores a closure in this cache. The closure model must not be modified afterwards; the returned closure contains a read-only
+	 * view of it instead.
+	 *
+	 * @param key the key of the closure
+	 * @param closure the closure
+	 * @param startGeneration the generation of this cache at the time when the computation of the closure started (see getGeneration())
+	 * @param documentURIs the (normalized) URIs of all the documents dereferenced while computing the closure
+	 * @return the closure that should be returned to the caller
+	 */
+	Closure put(String key, Closure closure, long startGeneration, Collection<String> documentURIs) {
+		Graph graph = closure.getClosureModel().getGraph();
+
+		dependencies.addAll(documentURIs);
+		
+		// an invalidation during the computation may have been missed by the computation
+		if (startGeneration == generation.get()) {
+			cache.put(key, new CachedClosure(graph, closure.getDegree(), System.currentTimeMillis()));
+		}
+
+		return new Closure(closure.getBaseModel(), createView(graph), closure.getDegree());
+	}
+
+	/**
+	 * Gets the current generation of this cache (it changes whenever the whole cache is invalidated)
+	 *
+	 * @return the generation
+	 */
+	long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * Invalidates the cached closures after a new version of a document has been stored (if any of them dereferenced that document)
+	 * 
+	 * @param documentURI the normalized URI of the document
+	 */
+	void invalidate(String documentURI) {
+		if (dependencies.contains(documentURI)) {
+			invalidateAll();
+		}
+	}
+
+	/**
+	 * Removes all the closures from this cache
+	 */
+	void invalidateAll() {
+		generation.incrementAndGet();
+		cache.invalidateAll();
+		dependencies.clear();
+	}
+
+	private static Model createView(Graph graph) {
+		return ModelFactory.createModelForGraph(new ReadOnlyGraph(graph));
+	}
+
+	private static class CachedClosure {
+		private final Graph graph;
+		private final int degree;
+		private final long storageTime;
+		private final int weight;
+
+		CachedClosure(Graph graph, int degree, long storageTime) {
+			this.graph = graph;
+			this.degree = degree;
+			this.storageTime = storageTime;
+
+			// the cached graph is never modified, so its size will not change
+			this.weight = Math.max(1, graph.size());
+		}
+
+		Graph getGraph() {
+			return graph;
+		}
+
+		int getDegree() {
+			return degree;
+		}
+
+		long getStorageTime() {
+			return storageTime;
+		}
+
+		int getWeight() {
+			return weight;
+		}
+	}
+}
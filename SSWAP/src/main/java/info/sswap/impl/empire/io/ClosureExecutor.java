@@ -0,0 +1,157 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import info.sswap.api.model.Config;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Manages the long-lived executor shared by all closure builders for their downloads (instead of creating a new
+ * thread pool for every closure computation). Each closure builder still limits the number of its own concurrent
+ * downloads (see ClosureBuilderFactory.setMaxThreads()); this executor only provides the threads.
+ *
+ * If the JVM supports virtual threads (and they have not been disabled by Config.CLOSURE_VIRTUAL_THREADS_KEY), every download
+ * is executed in its own virtual thread. Otherwise, a pool of daemon threads is used (its size is controlled by
+ * Config.CLOSURE_EXECUTOR_THREADS_KEY).
+ */
+public class ClosureExecutor {
+	private static final Logger LOGGER = LogManager.getLogger(ClosureExecutor.class);
+
+	/**
+	 * How long an idle pooled thread waits for new work before it terminates (in seconds)
+	 */
+	private static final long KEEP_ALIVE_TIME = 60;
+
+	/**
+	 * Singleton instance of this class
+	 */
+	private static final ClosureExecutor instance = new ClosureExecutor();
+
+	/**
+	 * The executor (lazily created)
+	 */
+	private ExecutorService executorService;
+
+	/**
+	 * Accessor for the singleton instance
+	 *
+	 * @return the singleton instance
+	 */
+	public static ClosureExecutor get() {
+		return instance;
+	}
+
+	private ClosureExecutor() {
+	}
+
+	/**
+	 * Gets the shared executor service (creating it, if necessary)
+	 *
+	 * @return the executor service
+	 */
+	public synchronized ExecutorService getExecutorService() {
+		if ((executorService == null) || executorService.isShutdown()) {
+			executorService = createExecutorService();
+		}
+
+		return executorService;
+	}
+
+	/**
+	 * Checks whether the shared executor has been created (and not shut down)
+	 *
+	 * @return true if the executor is active
+	 */
+	public synchronized boolean isActive() {
+		return (executorService != null) && !executorService.isShutdown();
+	}
+
+	/**
+	 * Shuts down the shared executor (e.g., when the web application is being stopped). Any downloads in progress
+	 * are interrupted. If the executor is needed again afterwards, a new one will be created.
+	 */
+	public synchronized void shutdown() {
+		if (executorService != null) {
+			executorService.shutdownNow();
+			executorService = null;
+		}
+	}
+
+	private static ExecutorService createExecutorService() {
+		if (Boolean.valueOf(Config.get().getProperty(Config.CLOSURE_VIRTUAL_THREADS_KEY, Config.CLOSURE_VIRTUAL_THREADS_DEFAULT))) {
+			ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+
+			if (virtualThreadExecutor != null) {
+				LOGGER.debug("Using virtual threads for closure computation");
+				return virtualThreadExecutor;
+			}
+		}
+
+		int threads;
+
+		try {
+			threads = Integer.parseInt(Config.get().getProperty(Config.CLOSURE_EXECUTOR_THREADS_KEY, Config.CLOSURE_EXECUTOR_THREADS_DEFAULT));
+		}
+		catch (NumberFormatException e) {
+			threads = Integer.parseInt(Config.CLOSURE_EXECUTOR_THREADS_DEFAULT);
+		}
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+						new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory());
+
+		// do not keep idle threads around when no closure is being computed
+		executor.allowCoreThreadTimeOut(true);
+
+		LOGGER.debug("Using a pool of " + threads + " threads for closure computation");
+
+		return executor;
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for each task (available since Java 21). The executor
+	 * is created reflectively, so that this code can still be compiled for, and run on, older JVMs.
+	 *
+	 * @return the executor or null, if virtual threads are not supported
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			Method factoryMethod = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+
+			return (ExecutorService) factoryMethod.invoke(null);
+		}
+		catch (NoSuchMethodException e) {
+			// virtual threads are not supported by this JVM
+			return null;
+		}
+		catch (Exception e) {
+			LOGGER.warn("Unable to create an executor with virtual threads", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates daemon threads (so that the shared pool never prevents the JVM from exiting)
+	 */
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "sswap-closure-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,532 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import com.hp.hpl.jena.graph.Graph;
+
+/**
+ * The disk tier of ModelCache. Every cached graph is stored in its own file (see BinaryGraphFormat), and the mapping
+ * from URIs to these files (together with the storage times and the HTTP validators of the graphs) is kept in an index.
+ *
+ * The index is an append-only log of records: storing a graph appends one record (instead of rewriting the whole index),
+ * and the log is compacted (rewritten with only the live entries) when it contains too many obsolete records.
+ * The store survives crashes: a graph file is completely written and synced before the record referencing it is appended;
+ * every record has its own checksum, so a partially written record at the end of the log is discarded on startup
+ * (together with the graph files that are not referenced by any record); and the compacted log atomically replaces the old one.
+ *
+ * This class is thread safe. Reading of the graph files does not hold the lock of the store.
+ */
+class DiskModelStore {
+	private static final Logger LOGGER = LogManager.getLogger(DiskModelStore.class);
+
+	private static final int MAGIC = 0x53534958; // "SSIX"
+
+	private static final int VERSION = 1;
+
+	private static final byte PUT_RECORD = 1;
+
+	private static final byte REMOVE_RECORD = 2;
+
+	/**
+	 * The size of the header of the log (magic and version)
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * The suffix of the files with cached graphs
+	 */
+	private static final String GRAPH_FILE_SUFFIX = ".graph";
+
+	/**
+	 * The minimal number of records in the log before it is compacted
+	 */
+	private static final int COMPACTION_THRESHOLD = 1000;
+
+	/**
+	 * The directory with the index and the graph files
+	 */
+	private final File directory;
+
+	/**
+	 * The index log
+	 */
+	private final File indexFile;
+
+	/**
+	 * The live entries of the index (keyed by URI)
+	 */
+	private final Map<String,Entry> entries = new HashMap<String,Entry>();
+
+	/**
+	 * The stream appending records to the index log
+	 */
+	private FileOutputStream logStream;
+
+	/**
+	 * The number of records in the index log (including the obsolete ones)
+	 */
+	private int recordCount;
+
+	/**
+	 * Opens (or creates) a store in a directory.
+	 *
+	 * @param directory the directory
+	 * @param indexFileName the name of the index log in the directory
+	 * @throws IOException if the store cannot be opened
+	 */
+	DiskModelStore(File directory, String indexFileName) throws IOException {
+		this.directory = directory;
+		this.indexFile = new File(directory, indexFileName);
+
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+
+		load();
+		removeUnreferencedFiles();
+
+		if (needsCompaction()) {
+			compact();
+		}
+		else if (logStream == null) {
+			logStream = new FileOutputStream(indexFile, true /* append */);
+		}
+
+		LOGGER.debug("Initialized disk cache with " + entries.size() + " entries");
+	}
+
+	/**
+	 * Gets the index entry for a URI
+	 *
+	 * @param uri the URI
+	 * @return the entry or null, if no graph is stored for the URI
+	 */
+	synchronized Entry get(String uri) {
+		return entries.get(uri);
+	}
+
+	/**
+	 * Reads the graph of an entry
+	 *
+	 * @param entry the entry
+	 * @return the graph
+	 * @throws IOException if the graph cannot be read (e.g., because the entry has been concurrently replaced)
+	 */
+	Graph readGraph(Entry entry) throws IOException {
+		return BinaryGraphFormat.read(new File(directory, entry.getFileName()));
+	}
+
+	/**
+	 * Stores a graph (replacing any graph previously stored for the URI)
+	 *
+	 * @param uri the URI
+	 * @param graph the graph
+	 * @param validators the HTTP caching information about the graph (may be null)
+	 * @param storageTime the time when the graph was stored
+	 * @throws IOException if the graph cannot be stored
+	 */
+	void put(String uri, Graph graph, CacheValidators validators, long storageTime) throws IOException {
+		// the (possibly large) graph is written without holding the lock; the file is not referenced until it is complete
+		File file = File.createTempFile("model", GRAPH_FILE_SUFFIX, directory);
+
+		try {
+			BinaryGraphFormat.write(graph, file);
+		}
+		catch (IOException e) {
+			file.delete();
+			throw e;
+		}
+
+		synchronized (this) {
+			Entry previousEntry = entries.get(uri);
+
+			try {
+				update(new Entry(uri, file.getName(), validators, storageTime));
+			}
+			catch (IOException e) {
+				file.delete();
+				throw e;
+			}
+
+			if (previousEntry != null) {
+				new File(directory, previousEntry.getFileName()).delete();
+			}
+		}
+	}
+
+	/**
+	 * Updates the storage time and the validators of a stored graph (e.g., after it has been revalidated)
+	 *
+	 * @param uri the URI
+	 * @param validators the new HTTP caching information (may be null)
+	 * @param storageTime the new storage time
+	 * @throws IOException if the index cannot be updated
+	 */
+	synchronized void touch(String uri, CacheValidators validators, long storageTime) throws IOException {
+		Entry entry = entries.get(uri);
+
+		if (entry != null) {
+			update(new Entry(uri, entry.getFileName(), validators, storageTime));
+		}
+	}
+
+	/**
+	 * Removes a stored graph
+	 *
+	 * @param uri the URI of the graph
+	 * @throws IOException if the index cannot be updated
+	 */
+	synchronized void remove(String uri) throws IOException {
+		Entry entry = entries.remove(uri);
+
+		if (entry != null) {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			DataOutputStream dos = new DataOutputStream(bos);
+
+			dos.writeByte(REMOVE_RECORD);
+			dos.writeUTF(uri);
+			dos.flush();
+
+			appendRecord(bos.toByteArray());
+
+			new File(directory, entry.getFileName()).delete();
+
+			if (needsCompaction()) {
+				compact();
+			}
+		}
+	}
+
+	/**
+	 * Removes all the stored graphs
+	 *
+	 * @throws IOException if the index cannot be rewritten
+	 */
+	synchronized void clear() throws IOException {
+		for (Entry entry : entries.values()) {
+			new File(directory, entry.getFileName()).delete();
+		}
+
+		entries.clear();
+		compact();
+	}
+
+	/**
+	 * Gets the number of stored graphs
+	 *
+	 * @return the number of graphs
+	 */
+	synchronized int size() {
+		return entries.size();
+	}
+
+	private void update(Entry entry) throws IOException {
+		appendRecord(toRecord(entry));
+		entries.put(entry.getURI(), entry);
+
+		if (needsCompaction()) {
+			compact();
+		}
+	}
+
+	private boolean needsCompaction() {
+		return (recordCount > COMPACTION_THRESHOLD) && (recordCount > 2 * entries.size());
+	}
+
+	/**
+	 * Appends a record to the log and forces it to the storage device
+	 *
+	 * @param payload the contents of the record
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void appendRecord(byte[] payload) throws IOException {
+		logStream.write(frame(payload));
+		logStream.getChannel().force(false);
+		recordCount++;
+	}
+
+	/**
+	 * Rewrites the log with only the live entries. The new log is written to a temporary file, which then atomically
+	 * replaces the old log (so that a crash leaves either the old or the new log).
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void compact() throws IOException {
+		File tempFile = new File(directory, indexFile.getName() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tempFile);
+
+		try {
+			DataOutputStream dos = new DataOutputStream(fos);
+
+			dos.writeInt(MAGIC);
+			dos.writeInt(VERSION);
+
+			for (Entry entry : entries.values()) {
+				dos.write(frame(toRecord(entry)));
+			}
+
+			dos.flush();
+			fos.getFD().sync();
+		}
+		finally {
+			fos.close();
+		}
+
+		if (logStream != null) {
+			logStream.close();
+			logStream = null;
+		}
+
+		try {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		logStream = new FileOutputStream(indexFile, true /* append */);
+		recordCount = entries.size();
+
+		LOGGER.debug("Compacted the disk cache index (" + recordCount + " entries)");
+	}
+
+	/**
+	 * Reads the log. Reading stops at the first incomplete or corrupted record (the result of a crash), and the log
+	 * is truncated there (so that new records are not appended after garbage).
+	 *
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void load() throws IOException {
+		if (!indexFile.exists() || (indexFile.length() == 0)) {
+			createEmptyLog();
+			return;
+		}
+
+		long validLength = HEADER_SIZE;
+		DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+
+		try {
+			if ((indexFile.length() < HEADER_SIZE) || (dis.readInt() != MAGIC) || (dis.readInt() != VERSION)) {
+				// e.g., an index in the old format (a properties file); the graphs cannot be found without it
+				LOGGER.warn("Unsupported format of the disk cache index " + indexFile + "; starting with an empty disk cache");
+				dis.close();
+				createEmptyLog();
+				return;
+			}
+
+			while (true) {
+				byte[] payload;
+
+				try {
+					int length = dis.readInt();
+					int checksum = dis.readInt();
+
+					if ((length <= 0) || (length > indexFile.length())) {
+						break;
+					}
+
+					payload = new byte[length];
+					dis.readFully(payload);
+
+					if (checksum(payload) != checksum) {
+						break;
+					}
+				}
+				catch (EOFException e) {
+					break;
+				}
+
+				applyRecord(payload);
+				validLength += 8 + payload.length;
+				recordCount++;
+			}
+		}
+		finally {
+			dis.close();
+		}
+
+		if (validLength < indexFile.length()) {
+			LOGGER.warn("Discarding an incomplete record at the end of the disk cache index " + indexFile);
+
+			RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+
+			try {
+				raf.setLength(validLength);
+			}
+			finally {
+				raf.close();
+			}
+		}
+	}
+
+	private void createEmptyLog() throws IOException {
+		entries.clear();
+		compact();
+	}
+
+	private void applyRecord(byte[] payload) throws IOException {
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+
+		byte type = dis.readByte();
+		String uri = dis.readUTF();
+
+		if (type == PUT_RECORD) {
+			String fileName = dis.readUTF();
+			long storageTime = dis.readLong();
+			CacheValidators validators = null;
+
+			if (dis.readBoolean()) {
+				String eTag = readOptionalString(dis);
+				String lastModified = readOptionalString(dis);
+				long maxAge = dis.readLong();
+
+				validators = new CacheValidators(eTag, lastModified, (maxAge < 0) ? null : Long.valueOf(maxAge));
+			}
+
+			entries.put(uri, new Entry(uri, fileName, validators, storageTime));
+		}
+		else if (type == REMOVE_RECORD) {
+			entries.remove(uri);
+		}
+	}
+
+	/**
+	 * Deletes the graph files that are not referenced by the index (e.g., files written just before a crash,
+	 * or replaced files whose deletion failed)
+	 */
+	private void removeUnreferencedFiles() {
+		Set<String> referencedFiles = new HashSet<String>();
+
+		for (Entry entry : entries.values()) {
+			referencedFiles.add(entry.getFileName());
+		}
+
+		File[] files = directory.listFiles();
+
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			if (file.getName().endsWith(GRAPH_FILE_SUFFIX) && !referencedFiles.contains(file.getName())) {
+				LOGGER.debug("Removing an unreferenced file from the disk cache: " + file);
+				file.delete();
+			}
+		}
+	}
+
+	private static byte[] toRecord(Entry entry) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+
+		dos.writeByte(PUT_RECORD);
+		dos.writeUTF(entry.getURI());
+		dos.writeUTF(entry.getFileName());
+		dos.writeLong(entry.getStorageTime());
+
+		CacheValidators validators = entry.getValidators();
+
+		dos.writeBoolean(validators != null);
+
+		if (validators != null) {
+			writeOptionalString(dos, validators.getETag());
+			writeOptionalString(dos, validators.getLastModified());
+			dos.writeLong((validators.getMaxAge() == null) ? -1l : validators.getMaxAge());
+		}
+
+		dos.flush();
+
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Prefixes a record with its length and checksum
+	 */
+	private static byte[] frame(byte[] payload) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(payload.length + 8);
+		DataOutputStream dos = new DataOutputStream(bos);
+
+		dos.writeInt(payload.length);
+		dos.writeInt(checksum(payload));
+		dos.write(payload);
+		dos.flush();
+
+		return bos.toByteArray();
+	}
+
+	private static int checksum(byte[] payload) {
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		return (int) crc.getValue();
+	}
+
+	private static void writeOptionalString(DataOutputStream dos, String s) throws IOException {
+		dos.writeBoolean(s != null);
+
+		if (s != null) {
+			dos.writeUTF(s);
+		}
+	}
+
+	private static String readOptionalString(DataInputStream dis) throws IOException {
+		return dis.readBoolean() ? dis.readUTF() : null;
+	}
+
+	/**
+	 * An entry of the index
+	 */
+	static class Entry {
+		private final String uri;
+		private final String fileName;
+		private final CacheValidators validators;
+		private final long storageTime;
+
+		Entry(String uri, String fileName, CacheValidators validators, long storageTime) {
+			this.uri = uri;
+			this.fileName = fileName;
+			this.validators = validators;
+			this.storageTime = storageTime;
+		}
+
+		public String getURI() {
+			return uri;
+		}
+
+		public String getFileName() {
+			return fileName;
+		}
+
+		public CacheValidators getValidators() {
+			return validators;
+		}
+
+		public long getStorageTime() {
+			return storageTime;
+		}
+	}
+}
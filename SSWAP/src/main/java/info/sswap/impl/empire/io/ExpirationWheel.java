@@ -0,0 +1,133 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A hashed timer wheel that schedules expiration of cache entries. Each bucket of the wheel corresponds to one tick
+ * (a fixed interval of time); an entry is placed in the bucket of the tick when it expires. As time passes, the wheel
+ * advances and returns the keys from the buckets of the ticks that have passed, so that only those entries have to be checked
+ * (instead of scanning all the entries on every access).
+ *
+ * Since the wheel has a limited number of buckets, an entry may be returned before it actually expires (if its expiration
+ * is more than one revolution of the wheel away), and the same key may be returned more than once (if it was scheduled
+ * more than once). The caller is responsible for checking whether the entry has really expired (and for rescheduling it, if not).
+ *
+ * Scheduling is lock-free; advancing of the wheel is done by at most one thread at a time (other threads do not wait for it).
+ */
+class ExpirationWheel {
+	/**
+	 * The buckets of the wheel
+	 */
+	private final List<Queue<String>> buckets;
+
+	/**
+	 * The length of a tick (in ms)
+	 */
+	private final long tickLength;
+
+	/**
+	 * The lock held by the thread advancing the wheel
+	 */
+	private final ReentrantLock advanceLock = new ReentrantLock();
+
+	/**
+	 * The last tick whose bucket has been drained
+	 */
+	private volatile long currentTick;
+
+	/**
+	 * Creates a new wheel.
+	 *
+	 * @param bucketCount the number of buckets
+	 * @param tickLength the length of a tick (in ms)
+	 */
+	ExpirationWheel(int bucketCount, long tickLength) {
+		this.tickLength = tickLength;
+		this.buckets = new ArrayList<Queue<String>>(bucketCount);
+
+		for (int i = 0; i < bucketCount; i++) {
+			buckets.add(new ConcurrentLinkedQueue<String>());
+		}
+
+		this.currentTick = toTick(System.currentTimeMillis());
+	}
+
+	/**
+	 * Schedules the expiration of an entry.
+	 *
+	 * @param key the key of the entry
+	 * @param expirationTime the time when the entry expires (in ms since epoch)
+	 */
+	void schedule(String key, long expirationTime) {
+		// never schedule into a bucket that has already been drained
+		long tick = Math.max(toTick(expirationTime), currentTick + 1);
+
+		getBucket(tick).add(key);
+	}
+
+	/**
+	 * Advances the wheel to the given time. If another thread is already advancing the wheel, this method returns immediately.
+	 *
+	 * @param now the current time (in ms since epoch)
+	 * @return the keys of the entries that may have expired
+	 */
+	Collection<String> advance(long now) {
+		if (!advanceLock.tryLock()) {
+			return Collections.emptyList();
+		}
+
+		try {
+			long targetTick = toTick(now);
+
+			if (targetTick <= currentTick) {
+				return Collections.emptyList();
+			}
+
+			List<String> result = new ArrayList<String>();
+
+			// no need to visit any bucket more than once
+			long firstTick = Math.max(currentTick + 1, targetTick - buckets.size() + 1);
+
+			for (long tick = firstTick; tick <= targetTick; tick++) {
+				Queue<String> bucket = getBucket(tick);
+
+				for (String key = bucket.poll(); key != null; key = bucket.poll()) {
+					result.add(key);
+				}
+			}
+
+			currentTick = targetTick;
+
+			return result;
+		}
+		finally {
+			advanceLock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all the scheduled entries
+	 */
+	void clear() {
+		for (Queue<String> bucket : buckets) {
+			bucket.clear();
+		}
+	}
+
+	private long toTick(long time) {
+		return time / tickLength;
+	}
+
+	private Queue<String> getBucket(long tick) {
+		return buckets.get((int) (tick % buckets.size()));
+	}
+}
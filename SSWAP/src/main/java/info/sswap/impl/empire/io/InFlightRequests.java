@@ -0,0 +1,161 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import info.sswap.impl.empire.model.JenaModelFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * A registry of retrievals of models that are currently in progress (keyed, e.g., by the URL being dereferenced).
+ * It coalesces concurrent requests for the same key: the first caller performs the actual retrieval, while all the
+ * other callers that ask for the same key before the retrieval finishes wait for its result (instead of issuing the same
+ * HTTP request and parsing the same document again). This is especially important right after the start (or after
+ * the entries in the ModelCache expire), when many concurrent closure computations need the same ontologies.
+ *
+ * The caller that performed the retrieval receives the retrieved model itself; by default, every other caller receives its own copy
+ * (so that the callers never share a model; see share()). A key is only registered while its retrieval is in progress; the registry does
+ * not cache results (this is the job of ModelCache).
+ *
+ * This class is thread safe.
+ */
+public class InFlightRequests {
+	private static final Logger LOGGER = LogManager.getLogger(InFlightRequests.class);
+
+	/**
+	 * The retrievals currently in progress
+	 */
+	private final ConcurrentMap<String,FutureTask<Model>> inFlight = new ConcurrentHashMap<String,FutureTask<Model>>();
+
+	/**
+	 * The number of requests that were satisfied by waiting for a retrieval started by another caller
+	 */
+	private final AtomicLong joinedCount = new AtomicLong();
+
+	/**
+	 * Retrieves a model for the given key, unless a retrieval for this key is already in progress (in such a case, this method
+	 * waits for that retrieval to finish, and returns its result prepared by share()).
+	 *
+	 * If the retrieval started by another caller fails with an exception that is specific to that caller (see isShareable()),
+	 * this caller retries the retrieval on its own. All other exceptions are reported to every waiting caller.
+	 *
+	 * @param key the key identifying the retrieved model (e.g., a normalized URL)
+	 * @param retrieval the actual retrieval (executed in the current thread, if no other retrieval for the key is in progress)
+	 * @return the retrieved model (may be null, if the retrieval returned null)
+	 * @throws Exception any exception thrown by the retrieval
+	 */
+	public Model retrieve(String key, Callable<Model> retrieval) throws Exception {
+		while (true) {
+			FutureTask<Model> task = new FutureTask<Model>(retrieval);
+			FutureTask<Model> existingTask = inFlight.putIfAbsent(key, task);
+
+			if (existingTask == null) {
+				try {
+					task.run();
+				}
+				finally {
+					inFlight.remove(key, task);
+				}
+
+				return getResult(task);
+			}
+
+			LOGGER.debug("Waiting for the retrieval of " + key + " that is already in progress");
+
+			Model result;
+
+			try {
+				result = getResult(existingTask);
+			}
+			catch (Exception e) {
+				if (isShareable(e)) {
+					throw e;
+				}
+
+				// the other retrieval failed for its own reasons (e.g., its own byte limit); try again
+				continue;
+			}
+
+			joinedCount.incrementAndGet();
+
+			return share(result);
+		}
+	}
+
+	/**
+	 * Checks whether an exception thrown by a retrieval should also be reported to the other callers waiting for the same
+	 * retrieval. By default all exceptions are shared; subclasses may override this method for exceptions that depend on the state
+	 * of the caller that performed the retrieval (e.g., its limits or its interruption).
+	 *
+	 * @param e the exception thrown by the retrieval
+	 * @return true if the exception should be reported to the other callers, false if they should retry the retrieval on their own
+	 */
+	protected boolean isShareable(Exception e) {
+		return true;
+	}
+
+	/**
+	 * Gets the number of requests that did not perform their own retrieval, but waited for a retrieval started by another caller
+	 *
+	 * @return the number of coalesced requests
+	 */
+	public long getJoinedCount() {
+		return joinedCount.get();
+	}
+
+	/**
+	 * Gets the number of retrievals currently in progress
+	 *
+	 * @return the number of retrievals
+	 */
+	public int size() {
+		return inFlight.size();
+	}
+
+	private static Model getResult(FutureTask<Model> task) throws Exception {
+		try {
+			return task.get();
+		}
+		catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Prepares the result of a retrieval for another caller waiting for it. By default, the caller receives a copy of the model;
+	 * subclasses may override this method, if the retrieved models are never modified (e.g., read-only models).
+	 *
+	 * @param model the retrieved model (may be null)
+	 * @return the model for the other caller
+	 */
+	protected Model share(Model model) {
+		if (model == null) {
+			return null;
+		}
+
+		Model result = JenaModelFactory.get().createEmptyModel();
+		result.add(model);
+
+		return result;
+	}
+}
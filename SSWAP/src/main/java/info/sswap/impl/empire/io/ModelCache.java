@@ -10,35 +10,47 @@ import info.sswap.impl.empire.model.JenaModelFactory;
 import info.sswap.impl.empire.model.ModelUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.InputStream;
-import java.lang.ref.SoftReference;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.Properties;
+import java.io.IOException;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.hp.hpl.jena.graph.Graph;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
 
 /**
  * A cache for Jena models. This class is thread safe and can be used by concurrently downloading
  * threads.
+ *
+ * The models are kept in memory as read-only graphs, which are shared by all the readers (see getSharedModel()).
+ * The memory used by the cache is bounded by the total number of triples in the cached models (see
+ * Config.MODEL_CACHE_MAX_TRIPLES_KEY); when this bound is exceeded, the least recently used models are evicted.
+ * Expired entries are found with a timer wheel (see ExpirationWheel), so no scan of all the entries is necessary.
+ * 
+ * Models downloaded over HTTP may be stored together with their validators (see CacheValidators); such models
+ * are kept in memory for a while after they expire, so that they can be revalidated with a conditional request
+ * instead of being downloaded and parsed again.
+ * 
+ * If the disk cache is enabled, the models are also stored on disk in a binary format that can be loaded without
+ * parsing (see DiskModelStore); a model that is not in memory (e.g., after a restart) is loaded from there.
  * 
  * @author Blazej Bulka <blazej@clarkparsia.com>
  */
 public class ModelCache implements Cache {	
 	private static final Logger LOGGER = LogManager.getLogger(ModelCache.class);
 
-	private static final String FILE_PREFIX = "file:";
+	/**
+	 * The number of buckets in the expiration wheel
+	 */
+	private static final int EXPIRATION_WHEEL_BUCKETS = 512;
+
+	/**
+	 * The length of a tick of the expiration wheel (in ms)
+	 */
+	private static final long EXPIRATION_WHEEL_TICK = 100;
 	
 	/**
 	 * Cache directory
@@ -51,30 +63,24 @@ public class ModelCache implements Cache {
 	private String cacheIndexFile = Config.get().getProperty(Config.CACHE_INDEX_FILE_KEY);
 	
 	/**
-	 * Cache contents mapping URIs to local file paths. 
+	 * The disk tier of the cache (null, if it is disabled, or it could not be initialized)
 	 */
-	private Properties locationMap = null;
+	private DiskModelStore diskStore = null;
 	
 	/**
-	 * Map of model URIs to Jena Models
+	 * Map of (normalized) model URIs to the cached models
 	 */
-	private Map<String,SoftReference<MemoryCacheEntry>> cache = new HashMap<String,SoftReference<MemoryCacheEntry>>();
+	private final com.google.common.cache.Cache<String,MemoryCacheEntry> cache;
 	
 	/**
-	 * Map of model URIs to the time when they were stored in this cache
-	 * (to properly detect expired caches).
+	 * The cache of finished closures computed from the models in this cache (null, if it is disabled)
 	 */
-	private Map<String,Long> storagePositiveTimes = new HashMap<String,Long>();
-	
-	private Map<String,Long> storageNegativeTimes = new HashMap<String,Long>();
+	private final ClosureCache closureCache;
 	
 	/**
-	 * The queue of URIs in the order they were added (new caches are always added at the end, and
-	 * the expired caches are removed from the front).
+	 * Schedules the removal of expired entries from the memory
 	 */
-	private List<String> positiveUriQueue = new LinkedList<String>();
-	
-	private List<String> negativeUriQueue = new LinkedList<String>();
+	private final ExpirationWheel expirationWheel = new ExpirationWheel(EXPIRATION_WHEEL_BUCKETS, EXPIRATION_WHEEL_TICK);
 	
 	/**
 	 * Default time-to-live (TTL).
@@ -87,9 +93,9 @@ public class ModelCache implements Cache {
 	 * the time an entry was stored in the cache, it is considered invalid, and
 	 * no longer reported as being in the cache.
 	 */
-	private long entryTTL = defaultEntryTTL;
+	private volatile long entryTTL = defaultEntryTTL;
 	
-	private long negativeEntryTTL = 0; // none
+	private volatile long negativeEntryTTL = 0; // none
 	
 	/**
 	 * Flag whether persistent cache is enabled or disabled.
@@ -122,11 +128,35 @@ public class ModelCache implements Cache {
 	}
 	
 	public ModelCache(long entryTTL, long negativeEntryTTL, boolean diskCacheEnabled) {
+		this(entryTTL, negativeEntryTTL, diskCacheEnabled, getConfigMaxTriples());
+	}
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param entryTTL time-to-live for entries (in ms); a negative value resets to the default
+	 * @param negativeEntryTTL time-to-live for entries about inaccessible URIs (in ms)
+	 * @param diskCacheEnabled whether the models should also be stored on disk
+	 * @param maxTriples the maximum number of triples kept in memory (in all the cached models)
+	 */
+	public ModelCache(long entryTTL, long negativeEntryTTL, boolean diskCacheEnabled, long maxTriples) {
 		this.diskCacheEnabled = diskCacheEnabled 
 		                        && Boolean.valueOf(Config.get().getProperty(Config.DISK_CACHE_ENABLED_KEY, 
 						                                                    Config.DISK_CACHE_ENABLED_DEFAULT));
 		
 		cacheEnabled = Boolean.valueOf(Config.get().getProperty(Config.CACHE_ENABLED_KEY, Config.CACHE_ENABLED_DEFAULT));		
+
+		cache = CacheBuilder.newBuilder()
+		                    .maximumWeight(maxTriples)
+		                    .weigher(new Weigher<String,MemoryCacheEntry>() {
+		                    	public int weigh(String uri, MemoryCacheEntry entry) {
+		                    		return entry.getWeight();
+		                    	}
+		                    })
+		                    .build();
+		
+		long closureCacheMaxTriples = getConfigClosureCacheMaxTriples();
+		closureCache = (cacheEnabled && (closureCacheMaxTriples > 0)) ? new ClosureCache(closureCacheMaxTriples) : null;
 		
 		initDiskCache();
 		
@@ -142,32 +172,18 @@ public class ModelCache implements Cache {
         try {
         	cacheDirName = Config.get().getProperty(Config.CACHE_DIR_KEY);
         	cacheIndexFile = Config.get().getProperty(Config.CACHE_INDEX_FILE_KEY);
-        	locationMap = new Properties();
         	
         	LOGGER.debug("Initialize cache; Directory: " + cacheDirName + " Index: " + cacheIndexFile);
         	
-	        File cacheDir = new File(cacheDirName);
-	        if (!cacheDir.exists()) {
-	        	cacheDir.mkdirs();
-	        }
-	        
-	        File indexFile = new File(cacheDir, cacheIndexFile);
-	        if (indexFile.exists()) {
-	        	locationMap.load(new FileInputStream(indexFile));
-	        	LOGGER.debug("Initialized cache with " + locationMap.size() + " entries");
-	        }
+        	diskStore = new DiskModelStore(new File(cacheDirName), cacheIndexFile);
         }
         catch (Exception e) {
             LOGGER.error("Error initializing cache", e);
         }
 	}
 	
-	private synchronized Properties getLocationMap() {
-		if (locationMap == null) {
-			initDiskCache();
-		}
-		
-		return locationMap;
+	private synchronized DiskModelStore getDiskStore() {
+		return diskCacheEnabled ? diskStore : null;
 	}
 	
 	/**
@@ -204,41 +220,23 @@ public class ModelCache implements Cache {
 						                               : negativeEntryTTL; 
 	}
 	
-	private static File toFile(String fileURL) {		
-		if (fileURL.startsWith(FILE_PREFIX)) {
-			fileURL = fileURL.substring(FILE_PREFIX.length());
-		}								
-		
-		return new File(fileURL);		
-	}
-	
 	private void clearMemory() {
 		if (cacheEnabled) {
-			cache.clear();
-			storagePositiveTimes.clear();
-			storageNegativeTimes.clear();
-			positiveUriQueue.clear();
-			negativeUriQueue.clear();
+			cache.invalidateAll();
+			expirationWheel.clear();
+		}
+		
+		if (closureCache != null) {
+			closureCache.invalidateAll();
 		}
 	}
 	
 	private void clearDisk() {
-		if (cacheEnabled && diskCacheEnabled) {
+		DiskModelStore store = getDiskStore();
+		
+		if (cacheEnabled && (store != null)) {
 			try {
-				Properties properties = getLocationMap();
-
-				for (String term : properties.stringPropertyNames()) {
-					String url = properties.getProperty(term).toString();
-
-					File file = toFile(url);
-
-					file.delete();
-				}
-
-				FileWriter fw = new FileWriter(new File(cacheDirName, cacheIndexFile));
-				getLocationMap().clear();
-				getLocationMap().store(fw, null);
-				fw.close();
+				store.clear();
 			}
 			catch (Exception e) {
 				LOGGER.error("Problem while clearing the ModelCache", e);
@@ -246,12 +244,21 @@ public class ModelCache implements Cache {
 		}	
 	}
 	
-	public synchronized void clear() {
+	public void clear() {
 		LOGGER.debug("Cleaning cache");
 		clearMemory();	
 		clearDisk();		
 	}
 	
+	/**
+	 * Gets the cache of finished closures that are computed from the models in this cache
+	 * 
+	 * @return the closure cache or null, if it is disabled
+	 */
+	ClosureCache getClosureCache() {
+		return closureCache;
+	}
+	
 	/**
 	 * Gets the directory where the files are stored in the cache.
 	 * 
@@ -271,7 +278,7 @@ public class ModelCache implements Cache {
 	 * the model's TTL would be exceeded before getModel() is called, which would cause
 	 * getModel() to return null)
 	 */
-	public synchronized boolean containsModel(String uri) {
+	public boolean containsModel(String uri) {
 		if (!cacheEnabled) {
 			return false;
 		}
@@ -280,17 +287,40 @@ public class ModelCache implements Cache {
 			return false;
 		}
 		
-		return cache.containsKey(uri);
+		MemoryCacheEntry entry = cache.asMap().get(uri);
+
+		return (entry != null) && !isExpired(entry, System.currentTimeMillis());
 	}
 	
 	/**
 	 * Gets a copy of a model that is already in the cache.
-	 * (This method returns a copy so that the caller may start modifying the model.)
+	 * (This method returns a copy so that the caller may start modifying the model. Callers that only
+	 * read the model should use getSharedModel() to avoid the cost of copying.)
 	 * 
 	 * @param uri the URI of the model
 	 * @return the copy of the cached model or null, if the model is not currently cached
 	 */		
-	public synchronized Model getModel(String uri) {
+	public Model getModel(String uri) {
+		Model sharedModel = getSharedModel(uri);
+
+		if (sharedModel == null) {
+			return null;
+		}
+
+		Model result = JenaModelFactory.get().createEmptyModel();
+		result.add(sharedModel);
+
+		return result;
+	}
+
+	/**
+	 * Gets a model that is already in the cache, without copying it. The returned model is read-only (any attempt
+	 * to modify it will throw an UpdateDeniedException), and its statements are shared with all the other readers of the model.
+	 *
+	 * @param uri the URI of the model
+	 * @return the read-only cached model or null, if the model is not currently cached
+	 */
+	public Model getSharedModel(String uri) {
 		if (!cacheEnabled) {
 			return null;
 		}
@@ -303,9 +333,18 @@ public class ModelCache implements Cache {
 		
 		Model result = getModelFromMemory(uri);
 		
+		if ((result == null) && (getValidators(uri) != null)) {
+			// an expired model that should be revalidated with the server (the copy on disk is not any fresher)
+			LOGGER.trace("Cached model for " + uri + " has expired and needs revalidation");
+			return null;
+		}
+		
 		if (result == null) {
 			LOGGER.trace("Getting " + uri + " from memory failed; getting from disk");
-			result = getModelFromDisk(uri);
+
+			if (loadFromDisk(uri)) {
+				result = getModelFromMemory(uri);
+			}
 		}
 		
 		if (result == null) {
@@ -316,86 +355,72 @@ public class ModelCache implements Cache {
 	}
 	
 	private Model getModelFromMemory(String uri) {
-		if ( (uri = ModelUtils.normalizeURI(uri)) == null ) {	// assign; fail silently
+		long now = System.currentTimeMillis();
+
+		removeExpiredData(now);
+
+		MemoryCacheEntry entry = cache.getIfPresent(uri);
+
+		if ((entry == null) || isExpired(entry, now)) {
 			return null;
 		}
 		
-		removeExpiredData();
-
-		Model cachedModel = null; 
-		
-		SoftReference<MemoryCacheEntry> cachedReference = cache.get(uri);
-		boolean negative = false;
-		
-		if (cachedReference != null) {
-			MemoryCacheEntry memCacheEntry = cachedReference.get();
-			
-			if (memCacheEntry != null) {
-				if (memCacheEntry.isNegativeEntry()) {
-					negative = true;
-				}
-				else {
-					cachedModel = memCacheEntry.getModel();
-				}
-			}
+		if (entry.isNegativeEntry()) {
+			return JenaModelFactory.get().createEmptyModel();
 		}
 		
-		Model result = null;
-		
-		if ((cachedModel != null) || negative) {
-			result = JenaModelFactory.get().createEmptyModel();
-			
-			if (cachedModel != null) {
-				result.add(cachedModel);
-			}
-		}				
-		
-		return result;		
+		return createView(entry.getGraph());
 	}
 	
-	private boolean isDiskEntryExpired(String fileURL) {
-		File file = toFile(fileURL);
+	/**
+	 * Loads a model from the disk into the memory (for the next readers). The model keeps its original storage time
+	 * and validators; an expired model is loaded only if it can still be revalidated (see getValidators()).
+	 * 
+	 * @param uri the URI of the model
+	 * @return true if the model has been loaded
+	 */
+	private boolean loadFromDisk(String uri) {
+		DiskModelStore store = getDiskStore();
 		
-		return (System.currentTimeMillis() > (file.lastModified() + entryTTL)); 
-	}
-	
-	private Model getModelFromDisk(String uri) {
-		if (!diskCacheEnabled) {
+		if (store == null) {
 			LOGGER.trace("Disk cache is disabled");
-			return null;
+			return false;
 		}
 		
-		Model result = null;
+		DiskModelStore.Entry diskEntry = store.get(uri);
 		
-		try {
-			String fileURL = getLocationMap().getProperty(uri, null);
+		if (diskEntry == null) {
+			LOGGER.trace("Entry not found in disk cache: "  + uri);
+			return false;
+		}
+		
+		long now = System.currentTimeMillis();
+		
+		if (getRetentionTime(diskEntry.getStorageTime(), diskEntry.getValidators()) < now) {
+			LOGGER.debug("Entry is expired in disk cache: "  + uri + " / " + diskEntry.getFileName());
 			
-			if (fileURL == null) {
-				LOGGER.trace("Entry not found in disk cache: "  + uri);
-				return null;
+			try {
+				store.remove(uri);
 			}
-			
-			if (isDiskEntryExpired(fileURL)) {
-				LOGGER.debug("Entry is expired in disk cache: "  + uri + " / " + fileURL);
-				return null;
+			catch (IOException e) {
+				LOGGER.debug("Error while removing an expired entry from cache", e);
 			}
-
-			URL url = new URL(fileURL);
-
-			URLConnection urlConnection = url.openConnection();
-			urlConnection.connect();
-			InputStream in = urlConnection.getInputStream();
-
-			// parse the model
-			result = JenaModelFactory.get().getModel(in);
-			in.close();
+			
+			return false;
+		}
+		
+		try {
+			Graph graph = store.readGraph(diskEntry);
+			
+			storeInMemory(uri, new MemoryCacheEntry(graph, diskEntry.getValidators(), false /* negative */, diskEntry.getStorageTime()));
 		}
 		catch (Exception e) {
-			LOGGER.debug("Error while reading data from cache");
-			// nothing -- result will just be null on failure, which is what we want
+			LOGGER.debug("Error while reading data from cache", e);
+			// nothing -- the model will just not be found, which is what we want
+			return false;
 		}
 
-		return result;
+		return true;
 	}
 	
 	/**
@@ -406,24 +431,53 @@ public class ModelCache implements Cache {
 	 * @param model the model whose copy will be cached.
 	 */
 	public void setModel(String uri, Model model) {
-		setModel(uri, model, false /* negative */);
+		Model copy = JenaModelFactory.get().createEmptyModel();
+		copy.add(model);
+
+		setSharedModel(uri, copy);
 	}
 	
-	private synchronized void setModel(String uri, Model model, boolean negative) {
-		if (!cacheEnabled) {
-			return;
+	/**
+	 * Stores a model in the cache without copying it. The caller must not modify the model afterwards; instead, it
+	 * should use the returned read-only view of the model (which can be freely shared with other threads).
+	 *
+	 * @param uri the URI of the model
+	 * @param model the model to be cached
+	 * @return a read-only view of the model
+	 */
+	public Model setSharedModel(String uri, Model model) {
+		return setSharedModel(uri, model, null /* validators */);
+	}
+	
+	/**
+	 * Stores a model in the cache without copying it, together with the HTTP caching information sent by the server
+	 * (which allows the model to be revalidated after it expires; see getValidators() and revalidate()).
+	 * The caller must not modify the model afterwards; instead, it should use the returned read-only view of the model.
+	 * 
+	 * If the server specified the freshness lifetime of the model (Cache-Control), it is used instead of the TTL of this cache.
+	 *
+	 * @param uri the URI of the model
+	 * @param model the model to be cached
+	 * @param validators the caching information from the HTTP response (may be null)
+	 * @return a read-only view of the model
+	 */
+	public Model setSharedModel(String uri, Model model, CacheValidators validators) {
+		Model result = null;
+
+		if (cacheEnabled) {
+			String normalizedURI = ModelUtils.normalizeURI(uri);
+
+			if (normalizedURI != null) {
+				result = store(normalizedURI, model, validators, false /* negative */, true /* storeOnDisk */);
+			}
 		}
 		
-		if ((uri = ModelUtils.normalizeURI(uri)) == null) {	// assign; fail silently
-			return;
+		if (result == null) {
+			// not cached, but the caller still expects a read-only view
+			result = createView(model.getGraph());
 		}
 
-		storeInMemory(uri, model, negative);
-
-		if (!negative) {
-			// we do not store on disk failures
-			storeOnDisk(uri, model);
-		}
+		return result;
 	}
 	
 	public void setAsInaccessible(String uri) {
@@ -436,125 +490,237 @@ public class ModelCache implements Cache {
 			return;
 		}
 		
-		setModel(uri, null, true /* negative */);
+		if ((uri = ModelUtils.normalizeURI(uri)) == null) {	// assign; fail silently
+			return;
+		}
+
+		// we do not store on disk failures
+		store(uri, null, null /* validators */, true /* negative */, false /* storeOnDisk */);
 	}
 	
-	private void storeInMemory(String uri, Model model, boolean negative) {
-		removeExpiredData();
+	/**
+	 * Gets the HTTP validators of a cached model (even if the model has already expired), so that the model can be
+	 * revalidated with a conditional request.
+	 * 
+	 * @param uri the URI of the model
+	 * @return the validators or null, if the model is not cached or it cannot be revalidated
+	 */
+	public CacheValidators getValidators(String uri) {
+		if (!cacheEnabled) {
+			return null;
+		}
+		
+		if ( (uri = ModelUtils.normalizeURI(uri)) == null ) {	// assign; fail silently
+			return null;
+		}
+		
+		MemoryCacheEntry entry = cache.asMap().get(uri);
+		
+		if ((entry == null) || entry.isNegativeEntry() || !entry.canRevalidate()) {
+			return null;
+		}
+		
+		return entry.getValidators();
+	}
+	
+	/**
+	 * Marks a cached model as fresh again, after the server confirmed that it has not changed (i.e., responded with
+	 * 304 Not Modified to a conditional request). The model is neither downloaded nor parsed again.
+	 * 
+	 * @param uri the URI of the model
+	 * @param validators the caching information sent in the 304 response (it updates the stored information)
+	 * @return a read-only view of the revalidated model or null, if the model is no longer cached
+	 */
+	public Model revalidate(String uri, CacheValidators validators) {
+		if (!cacheEnabled) {
+			return null;
+		}
+		
+		if ( (uri = ModelUtils.normalizeURI(uri)) == null ) {	// assign; fail silently
+			return null;
+		}
+		
+		MemoryCacheEntry entry = cache.asMap().get(uri);
+		
+		if ((entry == null) || entry.isNegativeEntry() || !entry.canRevalidate()) {
+			return null;
+		}
+		
+		long now = System.currentTimeMillis();
+		MemoryCacheEntry revalidatedEntry = new MemoryCacheEntry(entry.getGraph(), entry.getValidators().updateWith(validators), false /* negative */, now);
+		
+		if (!cache.asMap().replace(uri, entry, revalidatedEntry)) {
+			// the entry has been concurrently replaced or removed
+			return null;
+		}
 		
-		if (cache.get(uri) != null) {
-			positiveUriQueue.remove(uri);
-			negativeUriQueue.remove(uri);
+		expirationWheel.schedule(uri, getRetentionTime(revalidatedEntry));		
+		touchOnDisk(uri, revalidatedEntry.getValidators(), now);
+		
+		return createView(revalidatedEntry.getGraph());
+	}
+	
+	/**
+	 * Stores a model in this cache (without copying it)
+	 *
+	 * @param uri the normalized URI of the model
+	 * @param model the model (null for negative entries)
+	 * @param validators the HTTP caching information about the model (may be null)
+	 * @param negative true if the entry records that the model is inaccessible
+	 * @param storeOnDisk true if the model should also be stored on disk
+	 * @return a read-only view of the stored model (or null, for negative entries, or if the model was not stored)
+	 */
+	private Model store(String uri, Model model, CacheValidators validators, boolean negative, boolean storeOnDisk) {
+		Graph graph = (model == null) ? null : model.getGraph();
+		long now = System.currentTimeMillis();
+		
+		storeInMemory(uri, new MemoryCacheEntry(graph, validators, negative, now));
+		
+		if (!negative && (closureCache != null)) {
+			// a new version of a model (or a model that was inaccessible before); the cached closures may contain the old one
+			closureCache.invalidate(uri);
+		}
+
+		if (storeOnDisk) {
+			storeOnDisk(uri, graph, validators, now);
 		}
 		
+		return (graph == null) ? null : createView(graph);
+	}
+	
+	/**
+	 * Creates a read-only model for a cached graph (the triples of the graph are shared, not copied)
+	 * 
+	 * @param graph the cached graph
+	 * @return the read-only model
+	 */
+	private static Model createView(Graph graph) {
+		return ModelFactory.createModelForGraph(new ReadOnlyGraph(graph));
+	}
+
+	private void storeInMemory(String uri, MemoryCacheEntry entry) {
+		removeExpiredData(System.currentTimeMillis());
+
 		if (entryTTL > 0) {	// only add if we have a positive time-to-live			
-			Model cachedModel = null;
-			
-			if (model != null) {
-				cachedModel = JenaModelFactory.get().createEmptyModel();
-				cachedModel.add(model);
-			}
-			
-			MemoryCacheEntry entry = new MemoryCacheEntry(cachedModel, negative);
-			
-			cache.put(uri, new SoftReference<MemoryCacheEntry>(entry));
-			
-			if (negative) {
-				storageNegativeTimes.put(uri, System.currentTimeMillis());
-				negativeUriQueue.add(uri);
-			} 
-			else {
-				storagePositiveTimes.put(uri, System.currentTimeMillis());
-				positiveUriQueue.add(uri);
-			}									
+			cache.put(uri, entry);
+			expirationWheel.schedule(uri, getRetentionTime(entry));
 		}	
 	}
 	
-	private void storeOnDisk(String uri, Model model) {
-		if (!diskCacheEnabled) {
+	private void storeOnDisk(String uri, Graph graph, CacheValidators validators, long storageTime) {
+		DiskModelStore store = getDiskStore();
+		
+		if (store == null) {
 			return;
 		}
 		
 		try {
-			File file = null;
+			LOGGER.debug("Adding to file cache URL " + uri);
 			
-			String existingFileURL = getLocationMap().getProperty(uri, null);
-			
-			if (existingFileURL != null) {
-				// update of an existing term
-				file = toFile(existingFileURL);
-			}
-			else {
-				// new term -- generate a new temp file
-				file = File.createTempFile("file", "", new File(cacheDirName));
-			}
-			
-			String fileURI = file.toURI().toString();
-
-			LOGGER.debug("Adding to file cache URL " + uri + " -> " + fileURI);
-
-			model.write(new FileOutputStream(file));
-
-			FileWriter fw = new FileWriter(new File(cacheDirName, cacheIndexFile));
-			getLocationMap().setProperty(uri, fileURI);
-			getLocationMap().store(fw, null);
-			fw.close();
+			store.put(uri, graph, validators, storageTime);
 		}
 		catch (Exception e) {
-			// nothing -- on error the file won't be stored in the disk cache
+			LOGGER.debug("Unable to store " + uri + " in the disk cache", e);
+			// nothing -- on error the model won't be stored in the disk cache
 		}		
 	}
 	
 	/**
-	 * Checks whether an entry is expired. If the entry does not exists, it is always
-	 * treated as expired
+	 * Updates the storage time and the validators of a model on disk (after it has been revalidated)
 	 * 
-	 * @param uri the URI of the entry to check for expiration
-	 * @return true if the entry is expired (or does not exist at all), false otherwise
+	 * @param uri the URI of the model
+	 * @param validators the new validators
+	 * @param time the new storage time
 	 */
-	private boolean isExpired(String uri, boolean negative) {		
-		if ( (uri = ModelUtils.normalizeURI(uri)) != null ) {	// assign; failure equals expired
+	private void touchOnDisk(String uri, CacheValidators validators, long time) {
+		DiskModelStore store = getDiskStore();
 		
-			Long storageTime = negative ? storageNegativeTimes.get(uri) 
-							            : storagePositiveTimes.get(uri);
-			
-			long ttl = negative ? negativeEntryTTL
-							    : entryTTL;
+		if (store == null) {
+			return;
+		}
 		
-			if ((storageTime != null) && ((storageTime.longValue() + ttl) >= System.currentTimeMillis())) {
-				return false;
-			}
+		try {
+			store.touch(uri, validators, time);
+		}
+		catch (IOException e) {
+			LOGGER.debug("Unable to update " + uri + " in the disk cache", e);
+		}
+	}
+	
+	/**
+	 * Computes the time when an entry expires (according to the current TTLs)
+	 * 
+	 * @param entry the entry
+	 * @return the expiration time (in ms since epoch)
+	 */
+	private long getExpirationTime(MemoryCacheEntry entry) {
+		if (entry.isNegativeEntry()) {
+			return entry.getStorageTime() + negativeEntryTTL;
 		}
 		
-		return true;
+		return getExpirationTime(entry.getStorageTime(), entry.getValidators());
+	}
+	
+	private long getExpirationTime(long storageTime, CacheValidators validators) {
+		return storageTime + ((validators == null) ? entryTTL : validators.getTimeToLive(entryTTL));
+	}
+	
+	/**
+	 * Computes the time until which an entry is kept in memory. Expired entries that can be revalidated are kept
+	 * for one more TTL of this cache (so that a conditional request can avoid downloading them again).
+	 * 
+	 * @param entry the entry
+	 * @return the time when the entry should be removed (in ms since epoch)
+	 */
+	private long getRetentionTime(MemoryCacheEntry entry) {
+		long expirationTime = getExpirationTime(entry);
+		
+		return entry.canRevalidate() ? (expirationTime + entryTTL) : expirationTime;
+	}
+	
+	private long getRetentionTime(long storageTime, CacheValidators validators) {
+		long expirationTime = getExpirationTime(storageTime, validators);
+		
+		return ((validators != null) && validators.canRevalidate()) ? (expirationTime + entryTTL) : expirationTime;
 	}
 	
 	/**
-	 * Removes all entries that are expired
+	 * Checks whether an entry is expired.
+	 *
+	 * @param entry the entry to check for expiration
+	 * @param now the current time
+	 * @return true if the entry is expired, false otherwise
 	 */
-	private synchronized void removeExpiredData() {
-		removeExpiredData(true /* negative */);
-		removeExpiredData(false /* negative */);
+	private boolean isExpired(MemoryCacheEntry entry, long now) {
+		return getExpirationTime(entry) < now;
 	}
 	
-	private synchronized void removeExpiredData(boolean negative) {		
-		Map<String,Long> storageTimes = negative ? storageNegativeTimes 
-						                         : storagePositiveTimes;
+	private void removeExpiredData() {
+		removeExpiredData(System.currentTimeMillis());
+	}
 		
-		List<String> uriQueue = negative ? negativeUriQueue 
-						                 : positiveUriQueue;
+	/**
+	 * Removes entries that are expired (only the entries whose expiration was scheduled on the ticks of the
+	 * expiration wheel that have passed since the last call are checked)
+	 *
+	 * @param now the current time
+	 */
+	private void removeExpiredData(long now) {
+		for (String uri : expirationWheel.advance(now)) {
+			MemoryCacheEntry entry = cache.asMap().get(uri);
 				
-		for (Iterator<String> it = uriQueue.iterator(); it.hasNext(); ) {
-			String uri = it.next();
+			if (entry == null) {
+				continue;
+			}
+			
+			long retentionTime = getRetentionTime(entry);
 			
-			if (isExpired(uri, negative)) {
-				cache.remove(uri);
-				storageTimes.remove(uri);
-				it.remove();
+			if (retentionTime < now) {
+				cache.asMap().remove(uri, entry);
 			}
 			else {
-				// the queue is sorted by storage time -- so if we reach an non-expired model, we can quit at this point
-				break;
+				// the entry has been replaced, or its retention time is farther than one revolution of the wheel
+				expirationWheel.schedule(uri, retentionTime);
 			}
 		}	
 	}
@@ -577,21 +743,63 @@ public class ModelCache implements Cache {
 		}
 	}
 	
+	private static long getConfigMaxTriples() {
+		try {
+			return Long.parseLong(Config.get().getProperty(Config.MODEL_CACHE_MAX_TRIPLES_KEY, Config.MODEL_CACHE_MAX_TRIPLES_DEFAULT));
+		}
+		catch (NumberFormatException e) {
+			return Long.parseLong(Config.MODEL_CACHE_MAX_TRIPLES_DEFAULT);
+		}
+	}
+
+	private static long getConfigClosureCacheMaxTriples() {
+		try {
+			return Long.parseLong(Config.get().getProperty(Config.CLOSURE_CACHE_MAX_TRIPLES_KEY, Config.CLOSURE_CACHE_MAX_TRIPLES_DEFAULT));
+		}
+		catch (NumberFormatException e) {
+			return Long.parseLong(Config.CLOSURE_CACHE_MAX_TRIPLES_DEFAULT);
+		}
+	}
+
 	static class MemoryCacheEntry {
-		private Model model;
-		private boolean negativeEntry;
-		
-		public MemoryCacheEntry(Model model, boolean negativeEntry) {
-			this.model = model;
+		private final Graph graph;
+		private final CacheValidators validators;
+		private final boolean negativeEntry;
+		private final long storageTime;
+		private final int weight;
+		
+		public MemoryCacheEntry(Graph graph, CacheValidators validators, boolean negativeEntry, long storageTime) {
+			this.graph = graph;
+			this.validators = validators;
 			this.negativeEntry = negativeEntry;
+			this.storageTime = storageTime;
+
+			// the cached graph is never modified, so its size will not change
+			this.weight = Math.max(1, (graph == null) ? 0 : graph.size());
 		}
 		
 		public boolean isNegativeEntry() {
 			return negativeEntry;
 		}
 		
-		public Model getModel() {
-			return model;
+		public Graph getGraph() {
+			return graph;
+		}
+		
+		public CacheValidators getValidators() {
+			return validators;
+		}
+		
+		public boolean canRevalidate() {
+			return (validators != null) && validators.canRevalidate();
+		}
+		
+		public long getStorageTime() {
+			return storageTime;
+		}
+
+		public int getWeight() {
+			return weight;
 		}
 	}
 }
@@ -0,0 +1,74 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.io;
+
+import com.hp.hpl.jena.graph.BulkUpdateHandler;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.impl.SimpleBulkUpdateHandler;
+import com.hp.hpl.jena.graph.impl.WrappedGraph;
+import com.hp.hpl.jena.shared.AddDeniedException;
+import com.hp.hpl.jena.shared.DeleteDeniedException;
+import com.hp.hpl.jena.shared.PrefixMapping;
+import com.hp.hpl.jena.shared.impl.PrefixMappingImpl;
+
+/**
+ * A read-only view of a graph. The models in ModelCache are handed out as such views, so that their triples can be shared
+ * (without copying) by all the threads that read them; any attempt to modify them fails with an UpdateDeniedException.
+ * 
+ * Each view has its own copy of the namespace prefixes (which are small, and which Jena may modify when it creates a model
+ * for the graph).
+ */
+class ReadOnlyGraph extends WrappedGraph {
+	/**
+	 * The bulk update handler (routes all bulk updates through performAdd()/performDelete(), which deny them)
+	 */
+	private final BulkUpdateHandler bulkUpdateHandler = new SimpleBulkUpdateHandler(this);
+
+	/**
+	 * The namespace prefixes of this view
+	 */
+	private final PrefixMapping prefixMapping;
+
+	/**
+	 * Creates a read-only view of a graph. The underlying graph should not be modified while there are any views of it.
+	 *
+	 * @param base the underlying graph
+	 */
+	ReadOnlyGraph(Graph base) {
+		super(base);
+
+		this.prefixMapping = new PrefixMappingImpl().setNsPrefixes(base.getPrefixMapping());
+	}
+
+	@Override
+	public void add(Triple t) {
+		throw new AddDeniedException("Models in the model cache are read-only", t);
+	}
+
+	@Override
+	public void delete(Triple t) {
+		throw new DeleteDeniedException("Models in the model cache are read-only", t);
+	}
+
+	@Override
+	public void performAdd(Triple t) {
+		add(t);
+	}
+
+	@Override
+	public void performDelete(Triple t) {
+		delete(t);
+	}
+
+	@Override
+	public BulkUpdateHandler getBulkUpdateHandler() {
+		return bulkUpdateHandler;
+	}
+
+	@Override
+	public PrefixMapping getPrefixMapping() {
+		return prefixMapping;
+	}
+}
@@ -0,0 +1,300 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.model;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Computes matchings in a bipartite graph between "left" nodes (e.g., individuals in an RDG) and "right" nodes
+ * (e.g., individuals in a protocol graph), where the edges are given by a validity matrix (valid[left][right] is
+ * true if the left node may be matched with the right node).
+ */
+public class BipartiteMatching {
+	/**
+	 * Marker for an unmatched node
+	 */
+	private static final int UNMATCHED = -1;
+
+	/**
+	 * Marker for an infinite distance in the BFS phase of Hopcroft-Karp algorithm
+	 */
+	private static final int INFINITY = Integer.MAX_VALUE;
+
+	/**
+	 * The adjacency lists for left nodes (indices of right nodes, in their original order)
+	 */
+	private final int[][] adjacency;
+
+	/**
+	 * The number of right nodes
+	 */
+	private final int rightCount;
+
+	/**
+	 * The right node matched with the given left node (or UNMATCHED)
+	 */
+	private final int[] matchLeft;
+
+	/**
+	 * The left node matched with the given right node (or UNMATCHED)
+	 */
+	private final int[] matchRight;
+
+	/**
+	 * BFS layers of left nodes (used by Hopcroft-Karp algorithm)
+	 */
+	private final int[] distance;
+
+	/**
+	 * Left nodes whose match can no longer change (used when computing the lexicographically first matching)
+	 */
+	private final boolean[] fixedLeft;
+
+	/**
+	 * Right nodes whose match can no longer change (used when computing the lexicographically first matching)
+	 */
+	private final boolean[] fixedRight;
+
+	/**
+	 * Right nodes already visited by the current search for an augmenting path
+	 */
+	private final boolean[] visitedRight;
+
+	private BipartiteMatching(boolean[][] valid, int rightCount) {
+		this.rightCount = rightCount;
+		this.adjacency = new int[valid.length][];
+
+		for (int left = 0; left < valid.length; left++) {
+			int degree = 0;
+
+			for (int right = 0; right < rightCount; right++) {
+				if (valid[left][right]) {
+					degree++;
+				}
+			}
+
+			adjacency[left] = new int[degree];
+			degree = 0;
+
+			for (int right = 0; right < rightCount; right++) {
+				if (valid[left][right]) {
+					adjacency[left][degree++] = right;
+				}
+			}
+		}
+
+		matchLeft = new int[valid.length];
+		matchRight = new int[rightCount];
+		distance = new int[valid.length];
+		fixedLeft = new boolean[valid.length];
+		fixedRight = new boolean[rightCount];
+		visitedRight = new boolean[rightCount];
+
+		Arrays.fill(matchLeft, UNMATCHED);
+		Arrays.fill(matchRight, UNMATCHED);
+	}
+
+	/**
+	 * Computes a matching that covers every left node. If there are many such matchings, the lexicographically first one
+	 * is returned; i.e., the first left node is matched with the first right node with which it can be matched (while still
+	 * allowing all the other left nodes to be matched), then the second left node is matched in the same way, etc.
+	 * This is exactly the first solution found by a backtracking search that tries the left nodes and right nodes in their order,
+	 * but it is computed in polynomial time (a maximum matching is found first with Hopcroft-Karp algorithm, and then it is
+	 * rearranged with augmenting paths).
+	 *
+	 * @param valid the validity matrix (valid[left][right] is true if the left node can be matched with the right node)
+	 * @param rightCount the number of right nodes
+	 * @return an array whose i-th element is the index of the right node matched with the i-th left node, or null if there is
+	 * no matching that covers every left node
+	 */
+	public static int[] findFirstCompleteMatching(boolean[][] valid, int rightCount) {
+		if (rightCount < valid.length) {
+			return null;
+		}
+
+		BipartiteMatching matching = new BipartiteMatching(valid, rightCount);
+
+		if (matching.computeMaximumMatching() < valid.length) {
+			return null;
+		}
+
+		matching.rearrangeToFirst();
+
+		return matching.matchLeft.clone();
+	}
+
+	/**
+	 * Computes a maximum matching (Hopcroft-Karp algorithm)
+	 *
+	 * @return the size of the matching
+	 */
+	private int computeMaximumMatching() {
+		int size = 0;
+
+		while (buildLayers()) {
+			for (int left = 0; left < adjacency.length; left++) {
+				if ((matchLeft[left] == UNMATCHED) && augmentAlongLayers(left)) {
+					size++;
+				}
+			}
+		}
+
+		return size;
+	}
+
+	/**
+	 * The BFS phase of Hopcroft-Karp algorithm: computes the layers of left nodes starting from the unmatched ones.
+	 *
+	 * @return true if there is an augmenting path
+	 */
+	private boolean buildLayers() {
+		LinkedList<Integer> queue = new LinkedList<Integer>();
+
+		for (int left = 0; left < adjacency.length; left++) {
+			if (matchLeft[left] == UNMATCHED) {
+				distance[left] = 0;
+				queue.add(left);
+			}
+			else {
+				distance[left] = INFINITY;
+			}
+		}
+
+		boolean foundFreeRight = false;
+
+		while (!queue.isEmpty()) {
+			int left = queue.removeFirst();
+
+			for (int right : adjacency[left]) {
+				int nextLeft = matchRight[right];
+
+				if (nextLeft == UNMATCHED) {
+					foundFreeRight = true;
+				}
+				else if (distance[nextLeft] == INFINITY) {
+					distance[nextLeft] = distance[left] + 1;
+					queue.add(nextLeft);
+				}
+			}
+		}
+
+		return foundFreeRight;
+	}
+
+	/**
+	 * The DFS phase of Hopcroft-Karp algorithm: tries to find an augmenting path from the given left node along the layers.
+	 *
+	 * @param left the left node
+	 * @return true if the matching was augmented
+	 */
+	private boolean augmentAlongLayers(int left) {
+		for (int right : adjacency[left]) {
+			int nextLeft = matchRight[right];
+
+			if ((nextLeft == UNMATCHED) || ((distance[nextLeft] == distance[left] + 1) && augmentAlongLayers(nextLeft))) {
+				matchLeft[left] = right;
+				matchRight[right] = left;
+
+				return true;
+			}
+		}
+
+		// this node does not lead to any augmenting path in this phase
+		distance[left] = INFINITY;
+
+		return false;
+	}
+
+	/**
+	 * Rearranges a complete matching into the lexicographically first complete matching. Each left node (in order) is
+	 * tentatively matched with its candidates (in order); the left node that lost its match then looks for an augmenting path
+	 * that avoids all the already fixed nodes. The first candidate for which such a path exists is the final match.
+	 */
+	private void rearrangeToFirst() {
+		for (int left = 0; left < adjacency.length; left++) {
+			int currentRight = matchLeft[left];
+
+			for (int right : adjacency[left]) {
+				if (fixedRight[right]) {
+					continue;
+				}
+
+				if ((right == currentRight) || tryReassign(left, currentRight, right)) {
+					break;
+				}
+			}
+
+			fixedLeft[left] = true;
+			fixedRight[matchLeft[left]] = true;
+		}
+	}
+
+	/**
+	 * Tries to match the given left node with another right node, while keeping the matching complete.
+	 *
+	 * @param left the left node
+	 * @param currentRight the right node currently matched with the left node
+	 * @param right the new right node for the left node
+	 * @return true if the left node was reassigned, false if this is impossible (the matching remains unchanged)
+	 */
+	private boolean tryReassign(int left, int currentRight, int right) {
+		int displacedLeft = matchRight[right];
+
+		matchLeft[left] = right;
+		matchRight[right] = left;
+		matchRight[currentRight] = UNMATCHED;
+
+		if (displacedLeft == UNMATCHED) {
+			return true;
+		}
+
+		matchLeft[displacedLeft] = UNMATCHED;
+		fixedLeft[left] = true;
+		fixedRight[right] = true;
+		Arrays.fill(visitedRight, false);
+
+		boolean augmented = augment(displacedLeft);
+
+		fixedLeft[left] = false;
+		fixedRight[right] = false;
+
+		if (!augmented) {
+			// restore the previous matching
+			matchLeft[left] = currentRight;
+			matchRight[currentRight] = left;
+			matchLeft[displacedLeft] = right;
+			matchRight[right] = displacedLeft;
+		}
+
+		return augmented;
+	}
+
+	/**
+	 * Searches for an augmenting path (avoiding fixed nodes) from an unmatched left node, and augments the matching along it.
+	 *
+	 * @param left the unmatched left node
+	 * @return true if the matching was augmented
+	 */
+	private boolean augment(int left) {
+		for (int right : adjacency[left]) {
+			if (fixedRight[right] || visitedRight[right]) {
+				continue;
+			}
+
+			visitedRight[right] = true;
+
+			int nextLeft = matchRight[right];
+
+			if ((nextLeft == UNMATCHED) || (!fixedLeft[nextLeft] && augment(nextLeft))) {
+				matchLeft[left] = right;
+				matchRight[right] = left;
+
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.model;
+
+import org.mindswap.pellet.exceptions.InconsistentOntologyException;
+
+import com.hp.hpl.jena.rdf.model.Model;
+
+/**
+ * An InconsistentOntologyException whose message (the explanation of the inconsistency) is only computed when it is needed
+ * (e.g., when it is sent back to the client or logged). The explanation is computed from a copy of the statements of 
+ * the inconsistent knowledge base, in separate knowledge bases (see ReasoningServiceImpl.explainInconsistency()).
+ */
+class LazyInconsistentOntologyException extends InconsistentOntologyException {
+	private static final long serialVersionUID = 3326157920436781294L;
+
+	/**
+	 * The statements of the inconsistent knowledge base (null, once the message has been computed)
+	 */
+	private transient Model statements;
+	
+	/**
+	 * The message (null, until the explanation has been computed)
+	 */
+	private String message;
+	
+	/**
+	 * Creates a new exception
+	 * 
+	 * @param statements the statements of the inconsistent knowledge base (must not be modified afterwards)
+	 */
+	LazyInconsistentOntologyException(Model statements) {
+		this.statements = statements;
+	}
+
+	@Override
+	public synchronized String getMessage() {
+		if (message == null) {
+			if (statements == null) {
+				// the exception has been deserialized before the explanation was computed
+				return ReasoningServiceImpl.INCONSISTENCY_MESSAGE;
+			}
+			
+			String explanation = ReasoningServiceImpl.explainInconsistency(statements);
+			
+			if (explanation == null) {
+				// not remembered, so that the explanation is attempted again the next time
+				return ReasoningServiceImpl.INCONSISTENCY_MESSAGE + "(unable to explain the inconsistency)";
+			}
+			
+			message = ReasoningServiceImpl.INCONSISTENCY_MESSAGE + explanation;
+			statements = null;
+		}
+		
+		return message;
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.model;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import com.hp.hpl.jena.rdf.model.Literal;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+/**
+ * Computes a hash of the contents of a Jena model that does not depend on the labels of its bnodes (i.e., the same
+ * graph read twice, or serialized with different bnode ids, has the same hash). The bnodes renamed when the model
+ * was read (see ModelUtils.BNODE_NS) are treated as bnodes as well.
+ *
+ * Every bnode is labeled by the hash of its neighbourhood (the statements in which it occurs, where the other bnodes
+ * are represented by their labels from the previous round), until the labels stop distinguishing more bnodes
+ * (or a limit on the number of rounds is reached). The hash of the model is then the hash of its sorted statements,
+ * where bnodes are represented by their final labels.
+ *
+ * Isomorphic graphs always have the same hash. Non-isomorphic graphs may (very rarely) have the same hash, if their
+ * bnodes cannot be distinguished by their neighbourhoods (e.g., for some highly regular graphs consisting only of bnodes).
+ * Therefore, a user of the hash that must not confuse two graphs (e.g., a cache) should keep the canonical form of the
+ * graph (see toCanonicalForm()) and confirm the match with isIsomorphic().
+ */
+public class ModelHash {
+	private static final String HASH_ALGORITHM = "SHA-256";
+
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * The maximum number of refinements of the labels of bnodes
+	 */
+	private static final int MAX_ROUNDS = 8;
+
+	/**
+	 * Computes the hash of a model
+	 *
+	 * @param model the model
+	 * @return the hash (as a hexadecimal string)
+	 */
+	public static String canonicalHash(Model model) {
+		List<Statement> statements = new ArrayList<Statement>();
+		Map<RDFNode,String> labels = new HashMap<RDFNode,String>();
+
+		StmtIterator it = model.listStatements();
+
+		try {
+			while (it.hasNext()) {
+				Statement statement = it.nextStatement();
+				statements.add(statement);
+
+				if (isBNode(statement.getSubject())) {
+					labels.put(statement.getSubject(), "");
+				}
+
+				if (isBNode(statement.getObject())) {
+					labels.put(statement.getObject(), "");
+				}
+			}
+		}
+		finally {
+			it.close();
+		}
+
+		int distinctLabels = 1;
+
+		for (int round = 0; (round < MAX_ROUNDS) && !labels.isEmpty(); round++) {
+			Map<RDFNode,String> newLabels = refineLabels(statements, labels);
+			int newDistinctLabels = new HashSet<String>(newLabels.values()).size();
+
+			labels = newLabels;
+
+			if (newDistinctLabels == distinctLabels) {
+				// no more bnodes can be distinguished
+				break;
+			}
+
+			distinctLabels = newDistinctLabels;
+		}
+
+		List<String> canonicalStatements = new ArrayList<String>(statements.size());
+
+		for (Statement statement : statements) {
+			canonicalStatements.add(toString(statement.getSubject(), labels) + " <" + statement.getPredicate().getURI() + "> " + toString(statement.getObject(), labels));
+		}
+
+		return hash(canonicalStatements);
+	}
+
+	/**
+	 * Serializes a model (as N-Triples) so that it can be later compared with another model (see isIsomorphic()). The bnodes
+	 * renamed when the model was read are serialized as bnodes.
+	 *
+	 * @param model the model
+	 * @return the canonical form of the model
+	 */
+	public static String toCanonicalForm(Model model) {
+		StringWriter writer = new StringWriter();
+
+		withBNodes(model).write(writer, "N-TRIPLE");
+
+		return writer.toString();
+	}
+
+	/**
+	 * Checks whether a model is isomorphic with a model in the canonical form (i.e., whether they are the same graph
+	 * up to the labels of bnodes)
+	 *
+	 * @param model the model
+	 * @param canonicalForm the other model in the canonical form (see toCanonicalForm())
+	 * @return true if the models are isomorphic
+	 */
+	public static boolean isIsomorphic(Model model, String canonicalForm) {
+		Model other = ModelFactory.createDefaultModel();
+		other.read(new StringReader(canonicalForm), null, "N-TRIPLE");
+
+		return withBNodes(model).isIsomorphicWith(other);
+	}
+
+	/**
+	 * Creates a copy of the model where the bnodes renamed when the model was read are bnodes again (so that they
+	 * are not treated as URIs by the isomorphism check)
+	 *
+	 * @param model the model
+	 * @return the copy of the model
+	 */
+	private static Model withBNodes(Model model) {
+		Model result = ModelFactory.createDefaultModel();
+		Map<RDFNode,Resource> bnodes = new HashMap<RDFNode,Resource>();
+
+		StmtIterator it = model.listStatements();
+
+		try {
+			while (it.hasNext()) {
+				Statement statement = it.nextStatement();
+
+				result.add((Resource) withBNode(statement.getSubject(), result, bnodes), 
+				           statement.getPredicate(), 
+				           withBNode(statement.getObject(), result, bnodes));
+			}
+		}
+		finally {
+			it.close();
+		}
+
+		return result;
+	}
+
+	private static RDFNode withBNode(RDFNode node, Model model, Map<RDFNode,Resource> bnodes) {
+		if (!isBNode(node)) {
+			return node;
+		}
+
+		Resource bnode = bnodes.get(node);
+
+		if (bnode == null) {
+			bnode = model.createResource();
+			bnodes.put(node, bnode);
+		}
+
+		return bnode;
+	}
+
+	/**
+	 * Computes new labels for the bnodes from their neighbourhoods
+	 *
+	 * @param statements all the statements of the model
+	 * @param labels the current labels of the bnodes
+	 * @return the new labels of the bnodes
+	 */
+	private static Map<RDFNode,String> refineLabels(List<Statement> statements, Map<RDFNode,String> labels) {
+		Map<RDFNode,List<String>> neighbourhoods = new HashMap<RDFNode,List<String>>();
+
+		for (RDFNode bnode : labels.keySet()) {
+			List<String> neighbourhood = new ArrayList<String>();
+
+			// the previous label is a part of the neighbourhood, so the labels can only get more specific
+			neighbourhood.add(labels.get(bnode));
+			neighbourhoods.put(bnode, neighbourhood);
+		}
+
+		for (Statement statement : statements) {
+			String predicate = "<" + statement.getPredicate().getURI() + ">";
+
+			if (labels.containsKey(statement.getSubject())) {
+				neighbourhoods.get(statement.getSubject()).add("+ " + predicate + " " + toString(statement.getObject(), labels));
+			}
+
+			if (labels.containsKey(statement.getObject())) {
+				neighbourhoods.get(statement.getObject()).add("- " + predicate + " " + toString(statement.getSubject(), labels));
+			}
+		}
+
+		Map<RDFNode,String> result = new HashMap<RDFNode,String>();
+
+		for (Map.Entry<RDFNode,List<String>> entry : neighbourhoods.entrySet()) {
+			result.put(entry.getKey(), hash(entry.getValue()));
+		}
+
+		return result;
+	}
+
+	private static boolean isBNode(RDFNode node) {
+		return node.isAnon() || (node.isURIResource() && node.asResource().getURI().startsWith(ModelUtils.BNODE_NS));
+	}
+
+	/**
+	 * Creates the string representation of a node (where bnodes are represented by their labels)
+	 *
+	 * @param node the node
+	 * @param labels the labels of the bnodes
+	 * @return the string representation of the node
+	 */
+	private static String toString(RDFNode node, Map<RDFNode,String> labels) {
+		String label = labels.get(node);
+
+		if (label != null) {
+			return "_:" + label;
+		}
+
+		if (node.isLiteral()) {
+			Literal literal = node.asLiteral();
+
+			return "\"" + literal.getLexicalForm() + "\"@" + literal.getLanguage() + "^^" + literal.getDatatypeURI();
+		}
+
+		return "<" + node.asResource().getURI() + ">";
+	}
+
+	/**
+	 * Computes the hash of a (sorted) list of strings
+	 *
+	 * @param strings the strings (the list is sorted by this method)
+	 * @return the hash as a hexadecimal string
+	 */
+	private static String hash(List<String> strings) {
+		Collections.sort(strings);
+
+		try {
+			MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+
+			for (String string : strings) {
+				digest.update(string.getBytes(ENCODING));
+
+				// separator (cannot occur in the UTF-8 encoding of a string)
+				digest.update((byte) 0xff);
+			}
+
+			StringBuilder result = new StringBuilder();
+
+			for (byte b : digest.digest()) {
+				result.append(String.format("%02x", b));
+			}
+
+			return result.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("The JVM does not support " + HASH_ALGORITHM, e);
+		}
+		catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("The JVM does not support " + ENCODING, e);
+		}
+	}
+}
@@ -189,13 +189,31 @@ public abstract class ModelImpl implements SSWAPModel, SupportsRdfId {
 	 * @inheritDoc
 	 */
 	public void serialize(OutputStream os, RDFRepresentation representation, boolean commentedOutput) {
+		serialize(os, representation, commentedOutput, true /* abbreviated */);
+	}
+
+	/**
+	 * Serializes the contents of this object to the specified stream.
+	 * 
+	 * @param os
+	 *            output stream
+	 * @param representation
+	 *            the representation, in which the contents should be written (e.g., RDF/XML).
+	 * @param commentedOutput
+	 *            true, if the output should contain comments about various standard sections of an RDG (valid only for
+	 *            RDF/XML)
+	 * @param abbreviated
+	 *            true, if the RDF/XML output should be abbreviated (pretty), false if it should be written with the
+	 *            (much faster) plain RDF/XML writer (valid only for uncommented RDF/XML)
+	 */
+	public void serialize(OutputStream os, RDFRepresentation representation, boolean commentedOutput, boolean abbreviated) {
 		if (hasSourceModel()) {
 			((SourceModelImpl) getSourceModel()).persist();
 
 			Model fullModel = assertModel();
 			Model partitionedModel = ModelUtils.partitionModel(fullModel, getURI().toString(), false);
 			
-			ModelUtils.serializeModel(partitionedModel, os, representation, /* commentedOutput */ commentedOutput);			
+			ModelUtils.serializeModel(partitionedModel, os, representation, /* commentedOutput */ commentedOutput, abbreviated);			
 		}
 	}
 
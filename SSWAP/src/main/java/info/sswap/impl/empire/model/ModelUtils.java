@@ -182,22 +182,51 @@ public class ModelUtils {
 	 */
 	public static void serializeModel(Model model, OutputStream os, RDFRepresentation rdfRepresentation,
 	                boolean commentedOutput) {
+		serializeModel(model, os, rdfRepresentation, commentedOutput, true /* abbreviated */);
+	}
+
+	/**
+	 * Serializes a Jena model into the output stream in the specified RDF representation (see
+	 * serializeModel(Model, OutputStream, RDFRepresentation, boolean)).
+	 * 
+	 * @param model
+	 *            the Jena model to be serialized
+	 * @param os
+	 *            the output stream to which the model should be serialized
+	 * @param rdfRepresentation
+	 *            the RDF representation in which the model should be serialized
+	 * @param commentedOutput
+	 *            true, if the RDF/XML output should be commented, false otherwise (this flag is ignored for outputs
+	 *            other than RDF/XML, and should only be used for protocol graphs).
+	 * @param abbreviated
+	 *            true, if the RDF/XML output should be abbreviated (i.e., pretty, but much slower to produce), false
+	 *            if the plain RDF/XML writer should be used (this flag is ignored for commented and non-RDF/XML outputs)
+	 */
+	public static void serializeModel(Model model, OutputStream os, RDFRepresentation rdfRepresentation,
+	                boolean commentedOutput, boolean abbreviated) {
 		Model outModel = createOutputModel(model);
 
 		try {
 			if (RDFRepresentation.RDF_XML.equals(rdfRepresentation)) {
-				RDFWriter rdfWriter = outModel.getWriter("RDF/XML-ABBREV");
-				rdfWriter.setProperty("prettyTypes", PRETTY_TYPES);
+				RDFWriter rdfWriter;
+				
+				if (abbreviated || commentedOutput) {
+					rdfWriter = outModel.getWriter("RDF/XML-ABBREV");
+					rdfWriter.setProperty("prettyTypes", PRETTY_TYPES);
+				}
+				else {
+					rdfWriter = outModel.getWriter("RDF/XML");
+				}
+				
 				rdfWriter.setProperty("showXMLDeclaration", "true");
 				
 				if (commentedOutput) {
 					// creating of RDF/XML output and post-processing it to add the comments
 
-					// first write the uncommented RDF/XML to an intermediate stream
-					ByteArrayOutputStream intermediateOutputStream = new ByteArrayOutputStream();
+					// first write the uncommented RDF/XML to an intermediate stream (which is then read without copying it)
+					IntermediateOutputStream intermediateOutputStream = new IntermediateOutputStream();
 					rdfWriter.write(outModel, intermediateOutputStream, null);
-					ByteArrayInputStream intermediateInputStream = new ByteArrayInputStream(intermediateOutputStream
-					                .toByteArray());
+					InputStream intermediateInputStream = intermediateOutputStream.toInputStream();
 
 					try {
 						// comment the persisted model and write to the actual output stream
@@ -567,6 +596,15 @@ public class ModelUtils {
 		return (bnodeURI.startsWith(BNODE_NS));
 	}
 	
+	/**
+	 * An in-memory output stream whose contents can be read back without copying them
+	 */
+	private static class IntermediateOutputStream extends ByteArrayOutputStream {
+		InputStream toInputStream() {
+			return new ByteArrayInputStream(buf, 0, count);
+		}
+	}
+
 	/**
 	 * Creates a model that is suitable for writing out using Jena Writers. It copies all the statements in the given
 	 * model, sets up namespace prefixes, and handles bnodes that were converted into URIs when the data was read in.
@@ -1227,6 +1265,49 @@ public class ModelUtils {
 	 *             on any failure to execute call
 	 */
 	public static Response invoke(URI invocationURI, InputStream graphContentsStream, boolean returnOnHTTPError, long timeout) throws IOException {
+		return invoke(invocationURI, graphContentsStream, null /* contentType */, returnOnHTTPError, timeout);
+	}
+	
+	/**
+	 * Invokes HTTP POST to URL with a body of the specified content type (e.g., a batch of RIGs).
+	 * 
+	 * @param invocationURI
+	 *            URI to invoke (upon successful conversion of URI to a URL)
+	 * @param contentsStream
+	 *            contents of a HTTP POST
+	 * @param contentType
+	 *            the content type of the contents
+	 * @param returnOnHTTPError if true, HTTP error response codes (e.g., 400-
+	 * 			or 500- series will not result in a thrown exception; returned
+	 * 			response object may be examined
+	 * @return the response of the invocation attempt
+	 * @throws IOException
+	 *             on any failure to execute call
+	 */
+	public static Response invoke(URI invocationURI, InputStream contentsStream, String contentType, boolean returnOnHTTPError) throws IOException {
+		return invoke(invocationURI, contentsStream, contentType, returnOnHTTPError, getInvocationTimeout());
+	}
+	
+	/**
+	 * Invokes HTTP GET or POST to URL. Access to the invocation response
+	 * content can be gained by calling <code>getContent</code> on the
+	 * returned response.
+	 * 
+	 * @param invocationURI
+	 *            URI to invoke (upon successful conversion of URI to a URL)
+	 * @param graphContentsStream
+	 *            contents of a HTTP POST; set to null to invoke HTTP GET
+	 * @param contentType
+	 *            the content type of the contents (may be null)
+	 * @param returnOnHTTPError if true, HTTP error response codes (e.g., 400-
+	 * 			or 500- series will not result in a thrown exception; returned
+	 * 			response object may be examined
+	 * @param timeout connect and read timeout in milliseconds
+	 * @return the response of the invocation attempt
+	 * @throws IOException
+	 *             on any failure to execute call
+	 */
+	private static Response invoke(URI invocationURI, InputStream graphContentsStream, String contentType, boolean returnOnHTTPError, long timeout) throws IOException {
 		HttpURLConnection httpConn = httpConn(invocationURI.toURL());
 		if (timeout != -1) {
 			httpConn.setConnectTimeout((int) timeout);
@@ -1237,6 +1318,10 @@ public class ModelUtils {
 			// create an object that will execute the POST request on the service's URL
 			httpConn.setRequestMethod("POST");
 			httpConn.setDoOutput(true);
+			
+			if ( contentType != null ) {
+				httpConn.setRequestProperty("Content-Type", contentType);
+			}
 		}
 	
 		return executeRequest(httpConn, graphContentsStream, returnOnHTTPError);
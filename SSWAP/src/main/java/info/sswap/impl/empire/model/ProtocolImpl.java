@@ -7,6 +7,7 @@ import info.sswap.api.model.DataAccessException;
 import info.sswap.api.model.MappingPattern;
 import info.sswap.api.model.RDFRepresentation;
 import info.sswap.api.model.RDG;
+import info.sswap.api.model.ReasoningService;
 import info.sswap.api.model.SSWAPElement;
 import info.sswap.api.model.SSWAPGraph;
 import info.sswap.api.model.SSWAPIndividual;
@@ -25,9 +26,11 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -486,18 +489,31 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 	 */
 	public void validateAgainstRDG(RDG rdg) throws ValidationException {
 		ReasoningServiceImpl reasoningService = (ReasoningServiceImpl) getReasoningService();		
-				
-		if (needsClosedWorldForValidation()) {
-			closeWorld();
-		}
 		
 		boolean automaticTermRetrieval = reasoningService.isAutomaticTermRetrieval();
 		boolean crossDocumentTermRetrieval = reasoningService.isCrossDocumentTermRetrieval();
 		
-		reasoningService.setAutomaticTermRetrieval(false);
-		reasoningService.setCrossDocumentTermRetrieval(false);
+		// the terms of other documents needed by the checks below are added to the reasoner once for the whole validation
+		reasoningService.beginCrossDocumentSession();
+		
+		// the reasoner processes the closed world restrictions and the RDG at once (instead of after every restriction)
+		reasoningService.beginBatch();
+		boolean batchCommitted = false;
+		
+		// the models of the anonymized RDG (and its closure) are shared by all validations against the RDG, so the RDG has to be
+		// removed from this reasoning service and released even if the validation fails (otherwise the shared models keep
+		// referring to the reasoning services and the RDG object of this validation)
+		RDG rdgWithAnonymizedNodes = null;
+		boolean rdgAdded = false;
 		
 		try {
+			if (needsClosedWorldForValidation()) {
+				closeWorld();
+			}
+			
+			reasoningService.setAutomaticTermRetrieval(false);
+			reasoningService.setCrossDocumentTermRetrieval(false);
+			
 			SSWAPResource thisResource = getResource();
 			SSWAPResource rdgResource = rdg.getResource();
 
@@ -523,13 +539,11 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 				}
 			}
 
-			// at this point, after all the URIs have been compared, an "anonymized" version of the RDG is prepared
+			// at this point, after all the URIs have been compared, an "anonymized" version of the RDG is used
 			// to prevent any clashes with URIs in this Protocol Graph while reasoning (esp. sswap:Resources from RDG and Protocol Graph
-			// are likely to clash)
-			RDG rdgWithAnonymizedNodes = (RDG) ((ProtocolImpl) rdg).anonymizeSSWAPNodes();
-			ReasoningServiceImpl anonRdgReasoningService = (ReasoningServiceImpl) rdgWithAnonymizedNodes.getReasoningService();
-			anonRdgReasoningService.setAutomaticTermRetrieval(false);
-			anonRdgReasoningService.setCrossDocumentTermRetrieval(false);	
+			// are likely to clash). The anonymized version (together with its closure) is prepared only once per RDG,
+			// and shared by all validations against it (each of them gets its own object for it).
+			rdgWithAnonymizedNodes = ((RDGImpl) rdg).getValidationContext().createAnonymizedRDG();
 
 			rdgResource = rdgWithAnonymizedNodes.getResource();
 
@@ -537,8 +551,12 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 			// into account when reasoning. This is done to ensure that all the types (including anonymous types) that are
 			// defined
 			// in the RDG can be accessed by the reasoning service.
+			rdgAdded = true;
 			reasoningService.addModel(rdgWithAnonymizedNodes);
 			
+			reasoningService.commitBatch();
+			batchCommitted = true;
+			
 			if (needsDefaultParametersSet()) {
 				((ResourceImpl) thisResource).setDefaultParameterValues((ResourceImpl) rdgResource);
 			}
@@ -580,18 +598,30 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 			}
 			
 			setMatchingGraphs(matchingGraphs);
-			
-			// remove the RDG's information from the reasoning service for this Protocol Graph (so that the callers of
-			// this method can reuse it without any side-effects)
-			reasoningService.removeModel(rdgWithAnonymizedNodes);		
 		}
 		finally {
+			if (!batchCommitted) {
+				reasoningService.commitBatch();
+			}
+			
+			if (rdgAdded) {
+				// remove the RDG's information from the reasoning service for this Protocol Graph (so that the callers of
+				// this method can reuse it without any side-effects)
+				reasoningService.removeModel(rdgWithAnonymizedNodes);
+			}
+			
+			if (rdgWithAnonymizedNodes != null) {
+				((RDGImpl) rdgWithAnonymizedNodes).dispose();
+			}
+			
 			reasoningService.setAutomaticTermRetrieval(automaticTermRetrieval);
 			reasoningService.setCrossDocumentTermRetrieval(crossDocumentTermRetrieval);
 		
 			if (needsClosedWorldForValidation()) {
 				uncloseWorld();
 			}
+			
+			reasoningService.endCrossDocumentSession();
 		}
 	}
 	
@@ -755,8 +785,29 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 	 */
 	private <T extends SSWAPIndividual> Map<T, T> mapIndividuals(Collection<T> protocolIndividuals, Collection<T> rdgIndividuals,
 	                MappingValidator<T> individualMapper) {
-		// the required mappings -- the keys are individuals in RDG and values are individuals in the Protocol graph (reverse of what the final result will be!)
-		Map<T,T> requiredMappings = requiredMappings(rdgIndividuals, protocolIndividuals, individualMapper);
+		List<T> protocolList = distinct(protocolIndividuals);
+		List<T> rdgList = distinct(rdgIndividuals);
+		
+		if (protocolList.size() < rdgList.size()) {
+			return null; // there are just not enough Protocol graph individuals to produce a mapping
+		}
+		
+		// check every pair of individuals exactly once (the terms of other documents needed by the checks are added
+		// to the reasoner only once for all of them)
+		ReasoningService reasoningService = getReasoningService();
+		boolean[][] validityMatrix;
+		
+		reasoningService.beginCrossDocumentSession();
+		
+		try {
+			validityMatrix = computeValidityMatrix(rdgList, protocolList, individualMapper);
+		}
+		finally {
+			reasoningService.endCrossDocumentSession();
+		}
+		
+		// the required mappings -- the i-th element is the index of the Protocol graph individual mapped onto the i-th RDG individual 
+		int[] requiredMappings = BipartiteMatching.findFirstCompleteMatching(validityMatrix, protocolList.size());
 		
 		if (requiredMappings == null) {
 			// unable to find any mapping for the required mappings
@@ -766,15 +817,17 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 		// prepare result -- keys here are individuals in this Protocol graph and the values are individuals in RDG
 		Map<T,T> result = new HashMap<T,T>();
 		
-		// for required mappings just store them in the result map -- swapping keys and values
-		for (T rdgIndividual : requiredMappings.keySet()) {
-			result.put(requiredMappings.get(rdgIndividual), rdgIndividual);
+		// for required mappings just store them in the result map
+		for (int rdgIndex = 0; rdgIndex < requiredMappings.length; rdgIndex++) {
+			result.put(protocolList.get(requiredMappings[rdgIndex]), rdgList.get(rdgIndex));
 		}
 		
 		// map now all the Protocol graph individuals which were not involved in required mappings		
-		for (T protocolIndividual : protocolIndividuals) {
+		for (int protocolIndex = 0; protocolIndex < protocolList.size(); protocolIndex++) {
+			T protocolIndividual = protocolList.get(protocolIndex);
+			
 			if (!result.containsKey(protocolIndividual)) {
-				result.put(protocolIndividual, optionalMapping(protocolIndividual, rdgIndividuals, individualMapper));				
+				result.put(protocolIndividual, optionalMapping(protocolIndex, rdgList, validityMatrix));				
 			}
 		}
 				
@@ -782,107 +835,31 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 	}
 	
 	/**
-	 * Computes required mappings from RDG individuals to individuals in this protocol graph. Since an
-	 * individual in the Protocol graph can be potentially mapped to multiple corresponding individuals in the RDG, in order to compute a
-	 * full mapping (involving all individuals in RDG), backtracking may be necessary, as well multiple proper solutions may be
-	 * possible. This method returns the first full mapping.
-	 * 
-	 * While this method uses a brute-force search of all possible mappings, the typical amounts of subjects or objects
-	 * in the RDG tend to be fairly small (is that true?). If this is too slow, three solutions are possible: since many
-	 * calls share the parts of the solution caching/memoization may be possible; a more advanced Constraint
-	 * Satisfaction Solver may also be useful; and more intelligent techniques for backtracking may also be useful)
+	 * Computes the validity matrix for the mappings between RDG individuals and individuals in this protocol graph. 
+	 * Every pair of individuals is checked exactly once (subsequently, the required mappings are computed as a complete matching in the 
+	 * bipartite graph described by this matrix, instead of repeatedly checking the same pairs during a backtracking search). 
 	 * 
-	 * This method calls requiredMapping() method, which in turn recursively calls this method. First, this method picks the
-	 * first element from the remaining rdg individuals, and calls requiredMapping(), so that it finds a mapping (an individual in the protocol graph)
-	 * for that rdg individual. After a potential mapping is found, requiredMapping() calls requiredMappings() to find the mappings for
-	 * the remaining individuals. If at any step a mapping cannot be produced, a null map is returned, and the methods
-	 * backtrack to the next potential mapping.
+	 * The pairs are checked sequentially, since all the checks are answered by the same (not thread-safe) reasoning service.
 	 * 
-	 * @param <T>
+	 * @param <T> the type of individuals being mapped (e.g., SSWAPSubject)
 	 * @param rdgIndividuals the RDG individuals
 	 * @param protocolIndividuals the Protocol individuals
 	 * @param individualMapper an object that can decide whether an individual in RDG can be mapped onto a particular individual in the protocol graph
-	 * @return a map whose keys are RDG individuals, and the values are Protocol graph individuals
+	 * @return the matrix, where the element [i][j] is true if the j-th protocol individual is a valid mapping for the i-th RDG individual
 	 */
-	private <T extends SSWAPIndividual> Map<T, T> requiredMappings(Collection<T> rdgIndividuals, Collection<T> protocolIndividuals,
+	private static <T extends SSWAPIndividual> boolean[][] computeValidityMatrix(List<T> rdgIndividuals, List<T> protocolIndividuals,
 	                MappingValidator<T> individualMapper) {
-		// if there are no RDG individuals to map, we got a successful (empty mapping). This is the base case of the recursion.
-		if (rdgIndividuals.isEmpty()) {
-			return new HashMap<T, T>();
-		}
-
-		if (protocolIndividuals.size() < rdgIndividuals.size()) {
-			return null; // there are just not enough Protocol graph individuals to produce a mapping
-		}
-
+		boolean[][] result = new boolean[rdgIndividuals.size()][protocolIndividuals.size()];
 		
-		// try to select a specific RDG individual to find a mapping for it
-		for (T rdgIndividual : rdgIndividuals) {
-			// compute the list of all other RDG individuals (that still have to be mapped).
-			Collection<T> remainingRdgIndividuals = filter(new HashSet<T>(), rdgIndividuals, rdgIndividual);
-
-			// call requiredMapping to find a mapping for that RDG individual; requiredMapping will call this (requiredMappings) method back
-			// to find mappings for remaining RDG individuals
-			Map<T, T> result = requiredMapping(rdgIndividual, remainingRdgIndividuals, protocolIndividuals, individualMapper);			
-			
-			if (result != null) {
-				// a mapping was found -- finish recursion
-				return result;
-			}
+		for (int rdgIndex = 0; rdgIndex < rdgIndividuals.size(); rdgIndex++) {
+			T rdgIndividual = rdgIndividuals.get(rdgIndex);
 			
-			// no mapping could be found, if that rdgIndividual had his mapping assigned at this time; backtrack by picking another one to
-			// find mapping first
-			
-			// TODO: is the split into two methods required anymore? if a mapping cannot be produced when selecting a particular RDG individual
-			// as first (without selecting any corresponding Protocol Graph individual), then the mapping is impossible (?). The ordering of assignment
-			// influences only the performance in CSPs, after all, not the completeness. (and we are not optimizing here the ordering in any way yet
-			// since in most cases it is probably more costly than the benefit ...)
-		}
-
-		// no mappings found
-		return null;
-	}
-
-	/**
-	 * Finds a mapping for a selected RDG individual. This method is a second step in the recursive backtracking algorithm for finding a 
-	 * mapping. See the comment for requiredMappings() (the first step). 
-	 * 
-	 * @param <T>
-	 * @param rdgIndividual the selected rdgIndividual
-	 * @param remainingRdgIndividuals the remaining RDG individuals for which mappings still have to be found
-	 * @param protocolIndividuals individuals in this protocol graph which have not yet been used in a mapping
-	 * @param individualMapper an object that can decide whether an individual in RDG can be mapped onto a particular individual in the protocol graph
-	 * @return a map whose keys are RDG individuals, and the values are individuals in this protocol graph
-	 */
-	private <T extends SSWAPIndividual> Map<T, T> requiredMapping(T rdgIndividual, Collection<T> remainingRdgIndividuals,
-	                Collection<T> protocolIndividuals, MappingValidator<T> individualMapper) {
-		// iterate for every possible protocol individual
-		for (T protocolIndividual : protocolIndividuals) {
-			// check whether the protocol individual is a valid mapping for the RDG individual
-			if (individualMapper.isMappingValid(protocolIndividual, rdgIndividual)) {
-				// a map of all other protocol individuals (they may still be mapped)
-				Collection<T> remainingProtocolIndividuals = filter(new HashSet<T>(), protocolIndividuals, protocolIndividual);
-				
-				// invoke recursively requiredMappings to compute mappings between remaining (unmapped) RDG individuals and protocol individuals			
-				Map<T, T>  result = requiredMappings(remainingRdgIndividuals, 
-								                     remainingProtocolIndividuals,
-								                     individualMapper);
-
-				if (result != null) {
-					Map<T,T> resultCopy = new HashMap<T,T>(result);
-					
-					// a full mapping was found -- record the current pair (RDG individual->Protocol individual), and return
-					resultCopy.put(rdgIndividual, protocolIndividual);
-
-					return resultCopy;
-				}
-				
-				// no mapping was found with this assignment, so try another Protocol individual				
+			for (int protocolIndex = 0; protocolIndex < protocolIndividuals.size(); protocolIndex++) {
+				result[rdgIndex][protocolIndex] = individualMapper.isMappingValid(protocolIndividuals.get(protocolIndex), rdgIndividual);
 			}
 		}
-
-		// no mappings found		
-		return null;
+		
+		return result;
 	}
 
 	/**
@@ -890,15 +867,15 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 	 * for optional mappings this is allowed).
 	 * 
 	 * @param <T>
-	 * @param protocolIndividual the Protocol graph individual for which the mapping should be found
+	 * @param protocolIndex the index of the Protocol graph individual for which the mapping should be found
 	 * @param rdgIndividuals candidate RDG individuals
-	 * @param individualMapper an object that can decide whether an individual in RDG can be mapped onto a particular individual in this protocol graph
+	 * @param validityMatrix the matrix of valid mappings (as computed by computeValidityMatrix())
 	 * @return an individual from RDG that can be mapped onto the given protocol graph individual, null if there are no RDG individuals that can be mapped
 	 */
-	private <T extends SSWAPIndividual> T optionalMapping(T protocolIndividual, Collection<T> rdgIndividuals, MappingValidator<T> individualMapper) {
-		for (T rdgIndividual : rdgIndividuals) {			
-			if (individualMapper.isMappingValid(protocolIndividual, rdgIndividual)) {				
-				return rdgIndividual;
+	private static <T extends SSWAPIndividual> T optionalMapping(int protocolIndex, List<T> rdgIndividuals, boolean[][] validityMatrix) {
+		for (int rdgIndex = 0; rdgIndex < rdgIndividuals.size(); rdgIndex++) {			
+			if (validityMatrix[rdgIndex][protocolIndex]) {				
+				return rdgIndividuals.get(rdgIndex);
 			}
 		}
 		
@@ -906,27 +883,16 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 	}
 	
 	/**
-	 * A convenience method that filters a specified element from the collection: i.e., it adds items to a new
-	 * collection without the specified element
+	 * A convenience method that creates a list of distinct elements of a collection (preserving their order)
 	 * 
 	 * @param <T>
-	 *            the type of objects in the collections
-	 * @param newCollection
-	 *            the collection to which the non-filtered items are to be added
-	 * @param oldCollection
-	 *            the collections that contains elements to be filtered
-	 * @param filteredElement
-	 *            the element to be filtered
-	 * @return the newCollection (i.e., the copy of oldCollection but without any occurrences of filteredElement)
+	 *            the type of objects in the collection
+	 * @param collection
+	 *            the collection
+	 * @return the list of distinct elements
 	 */
-	private static <T> Collection<T> filter(Collection<T> newCollection, Collection<T> oldCollection, T filteredElement) {
-		for (T element : oldCollection) {
-			if (!element.equals(filteredElement)) {
-				newCollection.add(element);
-			}
-		}
-
-		return newCollection;
+	private static <T> List<T> distinct(Collection<T> collection) {
+		return new ArrayList<T>(new LinkedHashSet<T>(collection));
 	}
 	
 	/**
@@ -997,11 +963,12 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 	/**
 	 * @inheritDoc
 	 */
-	public void serialize(OutputStream os, RDFRepresentation rdfRepresentation, boolean commentedOutput) {
+	@Override
+	public void serialize(OutputStream os, RDFRepresentation rdfRepresentation, boolean commentedOutput, boolean abbreviated) {
 		SSWAPResource resource = getResource();
 		
 		if ((resource == null) || (resource.getURI() == null)) {
-			super.serialize(os, rdfRepresentation, commentedOutput);
+			super.serialize(os, rdfRepresentation, commentedOutput, abbreviated);
 		}
 		else {
 			persist();
@@ -1009,7 +976,7 @@ public abstract class ProtocolImpl extends SourceModelImpl implements SSWAPProto
 			Model fullModel = assertModel();
 			Model partitionedModel = ModelUtils.partitionModel(fullModel, resource.getURI().toString(), true);
 			
-			ModelUtils.serializeModel(partitionedModel, os, rdfRepresentation, /* commentedOutput */ commentedOutput);						
+			ModelUtils.serializeModel(partitionedModel, os, rdfRepresentation, /* commentedOutput */ commentedOutput, abbreviated);						
 		}		
 	}
 
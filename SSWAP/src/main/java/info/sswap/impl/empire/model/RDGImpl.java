@@ -10,8 +10,62 @@ import info.sswap.api.model.RIG;
 import info.sswap.api.model.ValidationException;
 
 import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+
+import com.hp.hpl.jena.rdf.model.Model;
 
 public abstract class RDGImpl extends ProtocolImpl implements RDG {
+	/**
+	 * The cached part of validation against this RDG that does not depend on the validated protocol graph.
+	 * Lazily created by getValidationContext().
+	 */
+	private RDGValidationContext validationContext;
+	
+	/**
+	 * Gets the validation context for this RDG. The context is prepared once, and then reused by all subsequent
+	 * validations against this RDG, as long as this RDG is not modified.
+	 * 
+	 * @return the validation context for this RDG
+	 */
+	synchronized RDGValidationContext getValidationContext() {
+		if ((validationContext == null) || !validationContext.isValidFor(this)) {
+			if (validationContext != null) {
+				validationContext.dispose();
+			}
+			
+			validationContext = new RDGValidationContext(this);
+		}
+		
+		return validationContext;
+	}
+	
+	/**
+	 * Creates a copy of this RDG (with its own Jena model), which can be used and modified independently of this RDG.
+	 * Creating a copy is much cheaper than parsing the RDG again, and the copy shares the validation context of this
+	 * RDG, so that validations against the copy do not have to prepare it again (as long as the copy is not modified).
+	 * 
+	 * This RDG must not be modified while the copy is being created.
+	 * 
+	 * @return the copy of this RDG
+	 * @throws DataAccessException if the copy cannot be created
+	 */
+	public RDGImpl createCopy() throws DataAccessException {
+		RDGValidationContext context = getValidationContext();
+		
+		RDGImpl result = ImplFactory.get().createEmptySSWAPDataObject(getURI(), RDGImpl.class);
+		
+		result.dereference(getModel());
+		copyNsPrefixes(getModel(), result);
+		
+		synchronized (result) {
+			result.validationContext = new RDGValidationContext(result, context);
+		}
+		
+		return result;
+	}
+	
 	/**
 	 * @inheritDoc
 	 */
@@ -51,6 +105,55 @@ public abstract class RDGImpl extends ProtocolImpl implements RDG {
 		return result;
 	}
 	
+	/**
+	 * Creates a RIG from an already parsed Jena model and validates it against this RDG. This method is equivalent
+	 * to getRIG(InputStream), but it allows the caller to parse the RIG only once, and then create other
+	 * documents from the same model (e.g., a copy of the RIG to be returned to the client, if the service fails).
+	 * 
+	 * @param model the Jena model with the RIG (as returned by JenaModelFactory.getModel(InputStream)); the model is copied,
+	 * and it is not modified by this method
+	 * @return the RIG
+	 * @throws DataAccessException if the RIG cannot be created from the model
+	 * @throws ValidationException if the RIG is not valid against this RDG
+	 */
+	public RIG getRIG(Model model) throws DataAccessException, ValidationException {
+		RIGImpl result =  ImplFactory.get().createEmptySSWAPDataObject(getURI(), RIGImpl.class);
+		
+		result.dereference(model);
+		copyNsPrefixes(model, result);
+	
+		result.validateAgainstRDG(this);
+
+		if (!result.checkProfile(Expressivity.DL)) {
+			result.setOwlDlRequired(false);
+		}
+		
+		result.setRDG(this);
+		result.setClientSideTranslation(false);
+		
+		return result;
+	}
+	
+	/**
+	 * Copies the namespace prefixes of a Jena model to a document (dereferencing a document from a Jena model
+	 * copies only the statements).
+	 * 
+	 * @param model the Jena model
+	 * @param document the document
+	 */
+	private static void copyNsPrefixes(Model model, SourceModelImpl document) {
+		Map<String,String> nsPrefixMap = model.getNsPrefixMap();
+		
+		for (String prefix : nsPrefixMap.keySet()) {
+			try {
+				document.setNsPrefix(prefix, new URI(nsPrefixMap.get(prefix)));
+			}
+			catch (URISyntaxException e) {
+				// ignoring prefixes that are not legal URIs
+			}
+		}
+	}
+	
 	public String getGraphType() {
 		return "RDG";
 	}
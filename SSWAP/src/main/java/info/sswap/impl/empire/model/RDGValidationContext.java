@@ -0,0 +1,143 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.model;
+
+import info.sswap.api.model.RDG;
+
+import java.net.URI;
+
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.Statement;
+
+/**
+ * The part of validation of protocol graphs against an RDG that depends only on the RDG itself.
+ * It holds the Jena model of an "anonymized" copy of the RDG (i.e., with sswap:Resource, sswap:Subject, etc. converted to
+ * blank nodes to prevent clashes with the URIs in the validated protocol graph), together with its already retrieved closure.
+ *
+ * Such a context is prepared once per RDG, and then shared by all validations against that RDG (e.g., by
+ * every RIG sent to a service). Only the Jena models (which are never modified after the context has been prepared)
+ * are shared: every validation gets its own anonymized RDG object (see createAnonymizedRDG()), since the object tree
+ * (resource, graphs, subjects, objects) initializes its state lazily, and cannot be used by concurrent validations.
+ *
+ * The context becomes stale as soon as the underlying RDG is modified (or its Jena model is replaced);
+ * in such a case a new context has to be prepared (see RDGImpl.getValidationContext()).
+ */
+class RDGValidationContext {
+	/**
+	 * The Jena model of the RDG for which this context was prepared
+	 */
+	private final Model sourceModel;
+
+	/**
+	 * The URI of the anonymized copy of the RDG
+	 */
+	private final URI anonymizedURI;
+
+	/**
+	 * The Jena model of the anonymized copy of the RDG (must not be modified)
+	 */
+	private final Model anonymizedModel;
+
+	/**
+	 * The closure of the anonymized copy of the RDG (must not be modified)
+	 */
+	private final Model anonymizedClosureModel;
+
+	/**
+	 * Flag set when the source model has been modified after this context was prepared
+	 */
+	private volatile boolean stale;
+
+	/**
+	 * The listener that detects modifications of the source model
+	 */
+	private final StatementListener changeListener = new StatementListener() {
+		@Override
+		public void addedStatement(Statement s) {
+			stale = true;
+		}
+
+		@Override
+		public void removedStatement(Statement s) {
+			stale = true;
+		}
+	};
+
+	/**
+	 * Prepares the validation context for the given RDG.
+	 *
+	 * @param rdg the RDG for which the context should be prepared
+	 */
+	RDGValidationContext(RDGImpl rdg) {
+		this.sourceModel = rdg.getModel();
+
+		// register the listener before making the copy, so that no modification can be missed
+		sourceModel.register(changeListener);
+
+		RDGImpl anonymizedRDG = (RDGImpl) rdg.anonymizeSSWAPNodes();
+
+		this.anonymizedURI = anonymizedRDG.getURI();
+		this.anonymizedModel = anonymizedRDG.getModel();
+
+		// retrieve the closure now, so that none of the validations has to do it (or race to do it)
+		this.anonymizedClosureModel = anonymizedRDG.getClosureModel();
+	}
+
+	/**
+	 * Creates a context for a copy of an RDG, which shares the (already prepared) anonymized RDG with the context
+	 * of the original RDG. The new context becomes stale independently of the original one (i.e., as soon as
+	 * the copy is modified).
+	 *
+	 * @param copy the copy of the RDG (with the same contents as the original RDG)
+	 * @param original the context prepared for the original RDG
+	 */
+	RDGValidationContext(RDGImpl copy, RDGValidationContext original) {
+		this.sourceModel = copy.getModel();
+
+		sourceModel.register(changeListener);
+
+		this.anonymizedURI = original.anonymizedURI;
+		this.anonymizedModel = original.anonymizedModel;
+		this.anonymizedClosureModel = original.anonymizedClosureModel;
+	}
+
+	/**
+	 * Creates an anonymized copy of the RDG for a single validation. The copy uses the already retrieved closure, 
+	 * and it should be treated as read-only. Since the copy registers listeners on the shared models, it has to be
+	 * released (see SourceModelImpl.dispose()) when the validation is finished.
+	 *
+	 * @return the anonymized RDG
+	 */
+	RDG createAnonymizedRDG() {
+		RDGImpl result = ImplFactory.get().createEmptySSWAPDataObject(anonymizedURI, RDGImpl.class);
+
+		result.dereference(anonymizedModel);
+		result.setClosureModel(anonymizedClosureModel);
+
+		ReasoningServiceImpl reasoningService = (ReasoningServiceImpl) result.getReasoningService();
+		reasoningService.setAutomaticTermRetrieval(false);
+		reasoningService.setCrossDocumentTermRetrieval(false);
+
+		return result;
+	}
+
+	/**
+	 * Checks whether this context can still be used for the given RDG (i.e., the RDG's model has neither been
+	 * replaced nor modified since this context was prepared).
+	 *
+	 * @param rdg the RDG
+	 * @return true if the context is still up to date, false otherwise
+	 */
+	boolean isValidFor(RDGImpl rdg) {
+		return !stale && (rdg.getModel() == sourceModel);
+	}
+
+	/**
+	 * Releases this context (i.e., stops listening for changes in the RDG's model).
+	 */
+	void dispose() {
+		sourceModel.unregister(changeListener);
+	}
+}
@@ -0,0 +1,577 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.model;
+
+import info.sswap.api.model.Config;
+import info.sswap.impl.empire.model.ReasoningServiceImpl.PropertyInformation;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+import org.mindswap.pellet.utils.ATermUtils;
+
+import aterm.ATerm;
+import aterm.ATermAppl;
+import aterm.ATermList;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.compose.Polyadic;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.Property;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.vocabulary.OWL;
+import com.hp.hpl.jena.vocabulary.OWL2;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+
+/**
+ * A process-wide cache for answers to subsumption/equivalence questions asked by ReasoningServiceImpl.
+ *
+ * Every answer is stored together with the fingerprint of the TBox (and RBox) of the knowledge base that produced it,
+ * so that the answer can be safely reused by any reasoning service whose knowledge base has the same terminology
+ * (e.g., reasoning services for different RIGs sent to the same service, which share the same closure).
+ * Reasoning services only consult this cache when the answer cannot depend on their ABox (see computeFingerprint()).
+ *
+ * The cache is bounded (its maximum size is controlled by Config.REASONING_CACHE_SIZE_KEY) and safe for
+ * concurrent use.
+ *
+ * Besides the answers, the cache also shares the information about properties (see ReasoningServiceImpl.PropertyInformation).
+ * If Config.REASONING_SNAPSHOT_DIR_KEY is set, everything derived from a terminology can be saved to disk (see saveSnapshots()
+ * and ReasoningSnapshot), and it is loaded again the first time a reasoning service with the same terminology needs it
+ * (e.g., after the servlet container is restarted), so that the terminology does not have to be classified again.
+ */
+public class ReasoningCache {
+	private static final Logger LOGGER = LogManager.getLogger(ReasoningCache.class);
+
+	/**
+	 * The singleton instance of the cache
+	 */
+	private static final ReasoningCache instance = new ReasoningCache();
+
+	/**
+	 * The actual storage for the answers (null, if caching is disabled)
+	 */
+	private final Cache<Key,Boolean> cache;
+
+	/**
+	 * The information about properties (null, if caching is disabled)
+	 */
+	private final Cache<Key,PropertyInformation> propertyCache;
+
+	/**
+	 * The fingerprints whose snapshots have already been loaded (or found missing)
+	 */
+	private final Set<Long> loadedSnapshots = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+
+	/**
+	 * The fingerprints with answers that have not yet been saved in snapshots
+	 */
+	private final Set<Long> unsavedSnapshots = Collections.newSetFromMap(new ConcurrentHashMap<Long,Boolean>());
+
+	/**
+	 * The fingerprints of the terminologies of single graphs (see computeFingerprint(Graph)). A graph is often a part
+	 * of many knowledge bases (e.g., a closure shared by all the validations against an RDG), so its fingerprint is kept
+	 * until its terminology changes, and the graph is no longer used.
+	 */
+	private static final Map<Graph,GraphFingerprint> GRAPH_FINGERPRINTS = Collections.synchronizedMap(new WeakHashMap<Graph,GraphFingerprint>());
+
+	/**
+	 * Gets the singleton instance of the cache
+	 *
+	 * @return the instance of the cache
+	 */
+	public static ReasoningCache get() {
+		return instance;
+	}
+
+	private ReasoningCache() {
+		long maxSize = getMaxSize();
+
+		if (maxSize > 0) {
+			cache = CacheBuilder.newBuilder().maximumSize(maxSize).recordStats().build();
+			propertyCache = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+		}
+		else {
+			cache = null;
+			propertyCache = null;
+		}
+	}
+
+	private static long getMaxSize() {
+		long maxSize;
+
+		try {
+			maxSize = Long.parseLong(Config.get().getProperty(Config.REASONING_CACHE_SIZE_KEY, Config.REASONING_CACHE_SIZE_DEFAULT));
+		}
+		catch (NumberFormatException e) {
+			maxSize = Long.parseLong(Config.REASONING_CACHE_SIZE_DEFAULT);
+		}
+
+		return maxSize;
+	}
+
+	/**
+	 * Checks whether this cache is enabled
+	 *
+	 * @return true if the cache is enabled
+	 */
+	public boolean isEnabled() {
+		return (cache != null);
+	}
+
+	/**
+	 * Looks up a cached answer.
+	 *
+	 * @param question an identifier of the kind of the question (e.g., "subClassOf")
+	 * @param term1 the first term of the question
+	 * @param term2 the second term of the question
+	 * @param fingerprint the fingerprint of the TBox of the knowledge base asking the question
+	 * @return the cached answer, or null if there is none
+	 */
+	Boolean getAnswer(String question, String term1, String term2, long fingerprint) {
+		if (cache == null) {
+			return null;
+		}
+
+		return cache.getIfPresent(new Key(question, term1, term2, fingerprint));
+	}
+
+	/**
+	 * Stores an answer in the cache.
+	 *
+	 * @param question an identifier of the kind of the question (e.g., "subClassOf")
+	 * @param term1 the first term of the question
+	 * @param term2 the second term of the question
+	 * @param fingerprint the fingerprint of the TBox of the knowledge base that answered the question
+	 * @param answer the answer
+	 */
+	void putAnswer(String question, String term1, String term2, long fingerprint, boolean answer) {
+		if (cache != null) {
+			cache.put(new Key(question, term1, term2, fingerprint), answer);
+			unsavedSnapshots.add(fingerprint);
+		}
+	}
+
+	/**
+	 * Looks up the cached information about a property
+	 *
+	 * @param property the URI of the property
+	 * @param fingerprint the fingerprint of the TBox of the knowledge base asking for the information
+	 * @return the information about the property, or null if there is none
+	 */
+	PropertyInformation getPropertyInformation(String property, long fingerprint) {
+		if (propertyCache == null) {
+			return null;
+		}
+
+		return propertyCache.getIfPresent(Key.property(property, fingerprint));
+	}
+
+	/**
+	 * Stores the information about a property in the cache
+	 *
+	 * @param property the URI of the property
+	 * @param fingerprint the fingerprint of the TBox of the knowledge base that provided the information
+	 * @param information the information about the property
+	 */
+	void putPropertyInformation(String property, long fingerprint, PropertyInformation information) {
+		if (propertyCache != null) {
+			propertyCache.put(Key.property(property, fingerprint), information);
+			unsavedSnapshots.add(fingerprint);
+		}
+	}
+
+	/**
+	 * Loads the snapshot for a terminology (unless it has already been loaded, or there is no snapshot). This method is called
+	 * by reasoning services whenever they compute the fingerprint of their terminology.
+	 *
+	 * @param fingerprint the fingerprint of the terminology
+	 */
+	void loadSnapshot(long fingerprint) {
+		File dir = getSnapshotDir();
+
+		if ((cache == null) || (dir == null) || !loadedSnapshots.add(fingerprint)) {
+			return;
+		}
+
+		try {
+			if (ReasoningSnapshot.read(dir, fingerprint, cache.asMap(), propertyCache.asMap())) {
+				LOGGER.info("Loaded the reasoning snapshot for " + String.format("%016x", fingerprint));
+			}
+		}
+		catch (IOException e) {
+			LOGGER.warn("Unable to load the reasoning snapshot for " + String.format("%016x", fingerprint), e);
+		}
+	}
+
+	/**
+	 * Saves the snapshots of all the terminologies with answers that have not yet been saved (if Config.REASONING_SNAPSHOT_DIR_KEY
+	 * is set). This method is called when the servlet container shuts down; other applications may call it at any time.
+	 */
+	public void saveSnapshots() {
+		File dir = getSnapshotDir();
+
+		if ((cache == null) || (dir == null)) {
+			return;
+		}
+
+		for (Long fingerprint : new ArrayList<Long>(unsavedSnapshots)) {
+			unsavedSnapshots.remove(fingerprint);
+
+			try {
+				ReasoningSnapshot.write(dir, fingerprint, cache.asMap(), propertyCache.asMap());
+			}
+			catch (IOException e) {
+				LOGGER.warn("Unable to save the reasoning snapshot for " + String.format("%016x", fingerprint), e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the directory with the snapshots
+	 *
+	 * @return the directory, or null if the snapshots are disabled
+	 */
+	private static File getSnapshotDir() {
+		String dir = Config.get().getProperty(Config.REASONING_SNAPSHOT_DIR_KEY);
+
+		return ((dir == null) || dir.isEmpty()) ? null : new File(dir);
+	}
+
+	/**
+	 * Gets the number of lookups that found an answer in this cache
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHitCount() {
+		return (cache == null) ? 0 : cache.stats().hitCount();
+	}
+
+	/**
+	 * Gets the number of lookups that did not find an answer in this cache
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMissCount() {
+		return (cache == null) ? 0 : cache.stats().missCount();
+	}
+
+	/**
+	 * Gets the number of answers currently stored in this cache
+	 *
+	 * @return the number of stored answers
+	 */
+	public long size() {
+		return (cache == null) ? 0 : cache.size();
+	}
+
+	/**
+	 * Removes all the answers (and the information about properties) from this cache
+	 */
+	public void clear() {
+		if (cache != null) {
+			cache.invalidateAll();
+			propertyCache.invalidateAll();
+		}
+
+		// the snapshots may be loaded again
+		loadedSnapshots.clear();
+		unsavedSnapshots.clear();
+	}
+
+	/**
+	 * Computes the fingerprint of the terminology of the statements loaded into a knowledge base (i.e., its raw graph, which
+	 * is usually a union of the graphs of the source models, their closures, etc.). The fingerprint of the terminology of every 
+	 * graph in the union is only computed again when that terminology has changed (see computeFingerprint(Model)), 
+	 * and the fingerprint of the knowledge base combines them. (Two knowledge bases with the same terminology split 
+	 * differently between the graphs may get different fingerprints; they then just do not share their answers.)
+	 *
+	 * @param graph the raw graph of the knowledge base
+	 * @return the fingerprint or null, if the answers should not be cached
+	 */
+	static Long computeFingerprint(Graph graph) {
+		Set<Graph> leafGraphs = Collections.newSetFromMap(new IdentityHashMap<Graph,Boolean>());
+		collectLeafGraphs(graph, leafGraphs);
+
+		List<Long> fingerprints = new ArrayList<Long>(leafGraphs.size());
+
+		for (Graph leafGraph : leafGraphs) {
+			GraphFingerprint graphFingerprint;
+
+			synchronized (GRAPH_FINGERPRINTS) {
+				graphFingerprint = GRAPH_FINGERPRINTS.get(leafGraph);
+
+				if (graphFingerprint == null) {
+					graphFingerprint = new GraphFingerprint(leafGraph);
+					GRAPH_FINGERPRINTS.put(leafGraph, graphFingerprint);
+				}
+			}
+
+			Long fingerprint = graphFingerprint.get(leafGraph);
+
+			if (fingerprint == null) {
+				return null;
+			}
+
+			fingerprints.add(fingerprint);
+		}
+
+		// independent of the order of the graphs in the union
+		Collections.sort(fingerprints);
+
+		return combineFingerprints(fingerprints);
+	}
+
+	private static void collectLeafGraphs(Graph graph, Set<Graph> leafGraphs) {
+		if (graph instanceof Polyadic) {
+			Polyadic union = (Polyadic) graph;
+
+			if (union.getBaseGraph() != null) {
+				collectLeafGraphs(union.getBaseGraph(), leafGraphs);
+			}
+
+			for (Object subGraph : union.getSubGraphs()) {
+				collectLeafGraphs((Graph) subGraph, leafGraphs);
+			}
+		}
+		else {
+			leafGraphs.add(graph);
+		}
+	}
+
+	private static Long combineFingerprints(List<Long> fingerprints) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+			for (Long fingerprint : fingerprints) {
+				for (int shift = 56; shift >= 0; shift -= 8) {
+					digest.update((byte) (fingerprint >>> shift));
+				}
+			}
+
+			byte[] hash = digest.digest();
+			long result = 0;
+
+			for (int i = 0; i < 8; i++) {
+				result = (result << 8) | (hash[i] & 0xff);
+			}
+
+			return result;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	}
+
+	/**
+	 * Computes the fingerprint of the terminology (TBox and RBox) of a model.
+	 * The terminological statements are recognized syntactically (see ReasoningServiceImpl.isTBoxStatement()), so
+	 * the knowledge base does not have to be prepared by the reasoner. The fingerprint depends neither on the order of
+	 * the statements nor on the labels of bnodes (see ModelHash), and it ignores annotations and declarations
+	 * of individuals.
+	 *
+	 * If the answers to subsumption questions may depend on the ABox (i.e., the terminology contains nominals), this
+	 * method returns null to indicate that the answers should not be cached. 
+	 * 
+	 * The fingerprint does not depend on the ABox at all, even if the ABox is inconsistent (in which case the reasoner entails 
+	 * every subsumption). Such answers are never put in the cache, since the reasoner throws an InconsistentOntologyException
+	 * instead of answering, but an answer cached for a consistent knowledge base with the same terminology may be returned
+	 * for an inconsistent one (instead of the exception).
+	 *
+	 * @param model the statements
+	 * @return the fingerprint or null
+	 */
+	static Long computeFingerprint(Model model) {
+		Model tbox = ModelFactory.createDefaultModel();
+
+		StmtIterator it = model.listStatements();
+
+		try {
+			while (it.hasNext()) {
+				Statement statement = it.nextStatement();
+				String predicate = statement.getPredicate().getURI();
+
+				if (!ReasoningServiceImpl.isTBoxStatement(statement) || isIgnoredForFingerprint(statement)) {
+					continue;
+				}
+
+				if (predicate.equals(OWL.oneOf.getURI()) || predicate.equals(OWL.hasValue.getURI())) {
+					return null;
+				}
+
+				tbox.add(statement);
+			}
+		}
+		finally {
+			it.close();
+		}
+
+		String hash = ModelHash.canonicalHash(tbox);
+
+		return (Long.parseLong(hash.substring(0, 8), 16) << 32) | Long.parseLong(hash.substring(8, 16), 16);
+	}
+
+	/**
+	 * The fingerprint of the terminology of a single graph, which is computed again only after a terminological statement
+	 * is added to or removed from the graph
+	 */
+	private static class GraphFingerprint extends StatementListener {
+		private volatile boolean stale = true;
+
+		private Long fingerprint;
+
+		GraphFingerprint(Graph graph) {
+			ModelFactory.createModelForGraph(graph).register(this);
+		}
+
+		synchronized Long get(Graph graph) {
+			if (stale) {
+				// a change made while computing the fingerprint marks it stale again
+				stale = false;
+				fingerprint = computeFingerprint(ModelFactory.createModelForGraph(graph));
+			}
+
+			return fingerprint;
+		}
+
+		@Override
+		public void addedStatement(Statement statement) {
+			changed(statement);
+		}
+
+		@Override
+		public void removedStatement(Statement statement) {
+			changed(statement);
+		}
+
+		@Override
+		public void notifyEvent(Model model, Object event) {
+			// e.g., all the statements have been removed
+			stale = true;
+		}
+
+		private void changed(Statement statement) {
+			if (ReasoningServiceImpl.isTBoxStatement(statement)) {
+				stale = true;
+			}
+		}
+	}
+
+	/**
+	 * Checks whether a terminological statement cannot influence answers to subsumption questions, and varies between
+	 * knowledge bases with the same terminology (e.g., annotations or declarations of individuals in the RIGs).
+	 *
+	 * @param statement the statement
+	 * @return true if the statement should not be a part of the fingerprint
+	 */
+	private static boolean isIgnoredForFingerprint(Statement statement) {
+		Property predicate = statement.getPredicate();
+
+		if (predicate.equals(RDF.type)) {
+			return statement.getObject().equals(OWL.Thing) || statement.getObject().equals(OWL2.NamedIndividual);
+		}
+
+		return predicate.equals(RDFS.label) || predicate.equals(RDFS.comment) || predicate.equals(RDFS.seeAlso)
+			|| predicate.equals(RDFS.isDefinedBy) || predicate.equals(OWL.versionInfo);
+	}
+
+	/**
+	 * Checks whether a class expression contains any nominals (answers to subsumption questions about such expressions
+	 * may depend on the ABox, and therefore should not be cached).
+	 *
+	 * @param term the class expression
+	 * @return true if the expression contains a nominal
+	 */
+	static boolean containsNominal(ATerm term) {
+		if (term instanceof ATermAppl) {
+			ATermAppl appl = (ATermAppl) term;
+
+			if (ATermUtils.isNominal(appl)) {
+				return true;
+			}
+
+			for (int i = 0; i < appl.getArity(); i++) {
+				if (containsNominal(appl.getArgument(i))) {
+					return true;
+				}
+			}
+		}
+		else if (term instanceof ATermList) {
+			for (ATermList list = (ATermList) term; !list.isEmpty(); list = list.getNext()) {
+				if (containsNominal(list.getFirst())) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * The key of a cached answer (or of the information about a property)
+	 */
+	static class Key {
+		final String question;
+		final String term1;
+		final String term2;
+		final long fingerprint;
+
+		/**
+		 * Creates the key of the information about a property
+		 */
+		static Key property(String property, long fingerprint) {
+			return new Key("property", property, "", fingerprint);
+		}
+
+		Key(String question, String term1, String term2, long fingerprint) {
+			this.question = question;
+			this.term1 = term1;
+			this.term2 = term2;
+			this.fingerprint = fingerprint;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+
+			if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key) o;
+
+			return (fingerprint == other.fingerprint) && question.equals(other.question)
+				&& term1.equals(other.term1) && term2.equals(other.term2);
+		}
+
+		@Override
+		public int hashCode() {
+			int result = question.hashCode();
+			result = 31 * result + term1.hashCode();
+			result = 31 * result + term2.hashCode();
+			result = 31 * result + (int) (fingerprint ^ (fingerprint >>> 32));
+
+			return result;
+		}
+	}
+}
@@ -19,6 +19,7 @@ import info.sswap.api.spi.ExtensionAPI;
 import info.sswap.impl.empire.Namespaces;
 import info.sswap.impl.empire.Vocabulary;
 import info.sswap.impl.empire.io.ClosureModelResolver;
+import info.sswap.impl.empire.io.InFlightRequests;
 import info.sswap.impl.empire.model.ProtocolImpl.MappingValidator.MappingType;
 import info.sswap.ontologies.modularity.ModularityModelResolver;
 
@@ -38,6 +39,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -58,8 +62,11 @@ import aterm.ATermAppl;
 import aterm.ATermInt;
 import aterm.ATermList;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.hp.hpl.jena.ontology.OntModel;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
@@ -83,6 +90,11 @@ public class ReasoningServiceImpl implements ReasoningService {
 		
 	public static ExplanationSyntax EXPLANATION_SYNTAX = ExplanationSyntax.RDFXML;
 	
+	/**
+	 * The beginning of the message of InconsistentOntologyExceptions (followed by the explanation)
+	 */
+	static final String INCONSISTENCY_MESSAGE = "The ontology is inconsistent. The set of statements capturing the inconsistency is:\n\n";
+	
 	/**
 	 * A set of URIs of properties that should not be followed during translation/validation process (essentially an exclusion list) 
 	 * 
@@ -124,10 +136,36 @@ public class ReasoningServiceImpl implements ReasoningService {
 	/**
 	 * Temporarily added dependent SSWAPDocuments (e.g., if a user used a term from a different document in a query)
 	 * The keys are the SSWAPDocuments, and the values are Jena Models (with TBox of that SSWAPDocument) that have been temporarily
-	 * added as submodels to this ontModel.
+	 * added as submodels to this ontModel (until the end of the query, or the end of the cross-document session).
 	 */
 	private Map<SSWAPDocument,Model> crossDocumentDependencies = new IdentityHashMap<SSWAPDocument,Model>();
 	
+	/**
+	 * The number of cross-document sessions currently open (see beginCrossDocumentSession())
+	 */
+	private int crossDocumentSessions = 0;
+	
+	/**
+	 * The number of batches of changes currently open (see beginBatch())
+	 */
+	private int batches = 0;
+	
+	/**
+	 * Whether submodels were added/removed in the current batch (and the OntModel has to be rebound when the batch is committed)
+	 */
+	private boolean batchSubModelsChanged = false;
+	
+	/**
+	 * Whether the reasoner should detect changes in the OntModel and its submodels (outside of batches)
+	 */
+	private boolean autoDetectChanges = true;
+	
+	/**
+	 * The TBoxes extracted from the closures of other documents for cross-document queries (shared by all reasoning services). 
+	 * The documents are compared by identity, and the entries are removed when the documents are garbage collected.
+	 */
+	private static final Cache<SSWAPDocument,CrossDocumentTBox> CROSS_DOCUMENT_TBOXES = CacheBuilder.newBuilder().weakKeys().build();
+	
 	/**
 	 * A cache for property information so that we do not have repeatedly query the reasoner while validating values.
 	 * 
@@ -135,6 +173,12 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 */
 	private Map<String,PropertyInformation> propertyInformation = new HashMap<String,PropertyInformation>();
 	
+	/**
+	 * The resolutions of terms currently in progress in all reasoning services (so that concurrent reasoning services
+	 * that need the same term resolve it only once).
+	 */
+	private static final InFlightRequests IN_FLIGHT_TERMS = new InFlightRequests();
+	
 	/**
 	 * Used to resolve externally defined terms
 	 */
@@ -142,6 +186,47 @@ public class ReasoningServiceImpl implements ReasoningService {
 											? new ModularityModelResolver()
 											: new ClosureModelResolver();
 	
+	/**
+	 * A counter incremented every time the contents of the ontModel (or any of its submodels) change. Used to detect
+	 * when tboxFingerprint needs to be recomputed.
+	 */
+	private final AtomicLong kbVersion = new AtomicLong();
+	
+	/**
+	 * The fingerprint of the TBox used to look up answers in the ReasoningCache (null, if answers should not be cached)
+	 */
+	private Long tboxFingerprint;
+	
+	/**
+	 * The value of kbVersion for which tboxFingerprint was computed (or -1, if it was never computed)
+	 */
+	private long tboxFingerprintVersion = -1;
+	
+	/**
+	 * The URIs of the terms known to be used in the ontModel (see isTermKnown()), so that checking a term does not
+	 * have to query the ontModel (which may trigger reasoning). Terms only become known when statements are added, so
+	 * this set is filled as statements and submodels are added, and it is cleared whenever anything is removed
+	 * (the terms that are still known are then added again by isTermKnown()).
+	 */
+	private final Set<String> knownTerms = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+	
+	/**
+	 * Listens for changes in the ontModel and its submodels (e.g., when a user modifies the source model directly)
+	 */
+	private final StatementListener kbChangeListener = new StatementListener() {
+		@Override
+		public void addedStatement(Statement s) {
+			kbVersion.incrementAndGet();
+			addKnownTerms(s);
+		}
+		
+		@Override
+		public void removedStatement(Statement s) {
+			kbVersion.incrementAndGet();
+			knownTerms.clear();
+		}
+	};
+	
 	
 	/**
 	 * Creates a reasoning service based on Pellet reasoner. It also creates a corresponding, internal ontology model
@@ -159,10 +244,13 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 *            the associated Jena model containing statements derived from performing a closure URIs in the base model
 	 */
 	public ReasoningServiceImpl(SourceModel sourceModel) {
+		// the reasoner only traces its operations (which makes all of them more expensive) if configured to do so;
+		// otherwise, the inconsistencies are explained on demand (see explainInconsistency())
+		PelletOptions.USE_TRACING = isTracingEnabled();
+		
 		// Workaround for an issue with incremental operation of the reasoner: 
 		// if set to true (default), some of the updates to the submodels of the OntModel do not propagate in
 		// time, and can cause random, non-deterministic InconsistentOntologyExceptions
-		PelletOptions.USE_TRACING = true;
 		PelletOptions.PROCESS_JENA_UPDATES_INCREMENTALLY = false;
 		
 		sourceModels = Lists.newArrayList();
@@ -175,11 +263,90 @@ public class ReasoningServiceImpl implements ReasoningService {
 		// required to ensure that the changes from the submodels propagate to the OntModel
 		pellet.setAutoDetectChanges(true);
 		
+		ontModel.register(kbChangeListener);
+		
 		addSourceModel(sourceModel);
 	}
 	
-	public void setAutoDetectChanges(boolean autodetect) {
-		((PelletInfGraph) ontModel.getGraph()).setAutoDetectChanges(autodetect);
+	public synchronized void setAutoDetectChanges(boolean autodetect) {
+		autoDetectChanges = autodetect;
+		
+		// within a batch, the changes are not detected until the batch is committed 
+		if (batches == 0) {
+			((PelletInfGraph) ontModel.getGraph()).setAutoDetectChanges(autodetect);
+		}
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	public synchronized void beginBatch() {
+		if (batches++ == 0) {
+			((PelletInfGraph) ontModel.getGraph()).setAutoDetectChanges(false);
+		}
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	public synchronized void commitBatch() {
+		if (batches == 0) {
+			throw new IllegalStateException("There is no batch to commit");
+		}
+		
+		if (--batches > 0) {
+			return;
+		}
+		
+		((PelletInfGraph) ontModel.getGraph()).setAutoDetectChanges(autoDetectChanges);
+		
+		if (batchSubModelsChanged) {
+			// a single rebind for all the submodels added/removed during the batch
+			batchSubModelsChanged = false;
+			releaseDetachedGraphs();
+			ontModel.rebind();
+		}
+		
+		kbVersion.incrementAndGet();
+	}
+	
+	/**
+	 * Adds a submodel to the OntModel. Within a batch, the reasoner only sees the submodel once the batch is committed.
+	 * 
+	 * @param model the submodel
+	 */
+	private synchronized void attachSubModel(Model model) {
+		ontModel.addSubModel(model, batches == 0 /* rebind */);
+		batchSubModelsChanged |= (batches > 0);
+	}
+	
+	/**
+	 * Removes a submodel from the OntModel. Within a batch, the reasoner only sees the removal once the batch is committed.
+	 * 
+	 * @param model the submodel
+	 */
+	private synchronized void detachSubModel(Model model) {
+		ontModel.removeSubModel(model, false /* rebind */);
+		
+		if (batches == 0) {
+			releaseDetachedGraphs();
+			ontModel.rebind();
+		}
+		else {
+			batchSubModelsChanged = true;
+		}
+	}
+	
+	/**
+	 * Lets the reasoner notice the submodels removed from the OntModel (before the next rebind), so that it stops 
+	 * listening for their changes right away. Otherwise, the reasoner would keep listening to them (and a model shared
+	 * by many documents, like a closure, would keep this reasoning service reachable) until the next time its knowledge 
+	 * base is reloaded. 
+	 */
+	private void releaseDetachedGraphs() {
+		// checking whether the graph is prepared makes Pellet's graph listener recollect the graphs of the OntModel and
+		// unregister itself from the ones that are no longer there
+		((PelletInfGraph) ontModel.getGraph()).isPrepared();
 	}
 	
 	private boolean containsSourceModel(SSWAPDocument sourceModel) {
@@ -202,7 +369,9 @@ public class ReasoningServiceImpl implements ReasoningService {
 		try {
 			Model closureModel = sourceModel.getClosureModel();
 			if (closureModel != null) {
-				ontModel.addSubModel(closureModel);
+				attachSubModel(closureModel);
+				closureModel.register(kbChangeListener);
+				addKnownTerms(closureModel);
 			}
 
 			Model jenaModel = sourceModel.getModel();
@@ -210,7 +379,11 @@ public class ReasoningServiceImpl implements ReasoningService {
 				throw new IllegalArgumentException("The SSWAP model does not have an associated Jena model");
 			}
 			
-			ontModel.addSubModel(jenaModel); 
+			attachSubModel(jenaModel); 
+			jenaModel.register(kbChangeListener);
+			addKnownTerms(jenaModel);
+			
+			kbVersion.incrementAndGet();
 		}
 		catch (InconsistentOntologyException e) {
 			handleInconsistentOntologyException(e);
@@ -223,18 +396,26 @@ public class ReasoningServiceImpl implements ReasoningService {
 				return;
 			}
 			
+			boolean removed = false;
+			
 			for (Iterator<SourceModel> it = sourceModels.iterator(); it.hasNext(); ) {
 				SourceModel subModel = it.next();
 				
 				if (subModel == sourceModel) {
 					it.remove();
-					return;
+					removed = true;
+					break;
 				}
 			}
 			
+			if (!removed) {
+				return;
+			}
+			
 			Model closureModel = sourceModel.getClosureModel();
 			if (closureModel != null) {
-				ontModel.removeSubModel(closureModel);
+				detachSubModel(closureModel);
+				closureModel.unregister(kbChangeListener);
 			}
 
 			Model jenaModel = sourceModel.getModel();
@@ -242,13 +423,42 @@ public class ReasoningServiceImpl implements ReasoningService {
 				throw new IllegalArgumentException("The SSWAP model does not have an associated Jena model");
 			}
 			
-			ontModel.removeSubModel(jenaModel); 
+			detachSubModel(jenaModel); 
+			jenaModel.unregister(kbChangeListener);
+			
+			kbVersion.incrementAndGet();
+			knownTerms.clear();
 		}
 		catch (InconsistentOntologyException e) {
 			handleInconsistentOntologyException(e);
 		}
 	}
 	
+	/**
+	 * Releases this reasoning service: stops listening for the changes of the models of its source models (and of the
+	 * other models added to it), and releases the knowledge base. The models themselves are left intact, so they
+	 * can still be used by other reasoning services (e.g., a closure shared by many documents). The reasoning service
+	 * must not be used after this method is called.
+	 */
+	public synchronized void dispose() {
+		for (SourceModel sourceModel : sourceModels) {
+			Model closureModel = sourceModel.getClosureModel();
+			
+			if (closureModel != null) {
+				closureModel.unregister(kbChangeListener);
+			}
+			
+			if (sourceModel.getModel() != null) {
+				sourceModel.getModel().unregister(kbChangeListener);
+			}
+		}
+		
+		ontModel.unregister(kbChangeListener);
+		
+		// unregisters the reasoner's listeners from all the submodels, but does not close them
+		((PelletInfGraph) ontModel.getGraph()).close(false /* recursive */);
+	}
+	
 	public void setAutomaticTermRetrieval(boolean automaticTermRetrieval) {
 		this.automaticTermRetrieval = automaticTermRetrieval;
 	}
@@ -287,18 +497,184 @@ public class ReasoningServiceImpl implements ReasoningService {
 	}
 	
 	private void handleInconsistentOntologyException(InconsistentOntologyException e) throws InconsistentOntologyException {
-		if (ExplanationSyntax.PELLET.equals(EXPLANATION_SYNTAX)) {
+		if (ExplanationSyntax.PELLET.equals(EXPLANATION_SYNTAX) || (e instanceof LazyInconsistentOntologyException)) {
 			throw e;
 		}
 		
-		throw new InconsistentOntologyException("The ontology is inconsistent. The set of statements capturing the inconsistency is:\n\n" + renderInconsistencyExplanation());
+		if (isTracingEnabled()) {
+			PelletInfGraph pellet = (PelletInfGraph) ontModel.getGraph();
+			
+			throw new InconsistentOntologyException(INCONSISTENCY_MESSAGE + renderInconsistencyExplanation(pellet.explainInconsistency()));
+		}
+		
+		// the explanation is computed only if it is needed; the statements are copied now, since the knowledge base
+		// may change before that (the raw graph of the reasoner is the union of the base model and all the submodels,
+		// e.g., the source models, their closures and the TBoxes of other documents)
+		Model statements = JenaModelFactory.get().createEmptyModel();
+		statements.add(ModelFactory.createModelForGraph(((PelletInfGraph) ontModel.getGraph()).getRawGraph()));
+		
+		throw new LazyInconsistentOntologyException(statements);
 	}
 	
-	private String renderInconsistencyExplanation() {		
-		PelletInfGraph pellet = (PelletInfGraph) ontModel.getGraph();
+	/**
+	 * Checks whether the reasoner should always trace its operations (see Config.REASONING_TRACING_KEY)
+	 * 
+	 * @return true if tracing should always be enabled
+	 */
+	private static boolean isTracingEnabled() {
+		return Boolean.valueOf(Config.get().getProperty(Config.REASONING_TRACING_KEY, Config.REASONING_TRACING_DEFAULT));
+	}
+	
+	/**
+	 * Explains the inconsistency of a knowledge base. Pellet can only explain an inconsistency if it traces its operations, 
+	 * but tracing is a global option of Pellet (PelletOptions.USE_TRACING) that would make the reasoning of all the other
+	 * (consistent) knowledge bases more expensive. Instead, the explanation is found without tracing, by checking the consistency 
+	 * of subsets of the statements in separate knowledge bases: the statements are split into axioms (see splitIntoAxioms()), 
+	 * and the axioms are narrowed down to a set that is inconsistent, but becomes consistent if any of its axioms is removed.
+	 * 
+	 * @param statements the statements of the inconsistent knowledge base
+	 * @return the explanation (the serialized statements capturing the inconsistency) or null, if the inconsistency 
+	 * could not be explained
+	 */
+	static String explainInconsistency(Model statements) {
+		try {
+			List<Model> axioms = splitIntoAxioms(statements);
+			
+			if (isConsistent(axioms)) {
+				// e.g., the inconsistency was caused by assertions made directly in the inconsistent knowledge base 
+				return null;
+			}
+			
+			Model explanationModel = JenaModelFactory.get().createEmptyModel();
+			
+			for (Model axiom : findInconsistentAxioms(Collections.<Model>emptyList(), false /* checkBackground */, axioms)) {
+				explanationModel.add(axiom);
+			}
+			
+			return renderInconsistencyExplanation(explanationModel);
+		}
+		catch (RuntimeException e) {
+			LOGGER.warn("Unable to explain the inconsistency", e);
+			
+			return null;
+		}
+	}
+	
+	/**
+	 * Splits statements into axioms. Each axiom consists of a statement about a URI resource (or about a blank node that
+	 * no other statement refers to), together with the statements describing the blank nodes it refers to (e.g., 
+	 * the statements of a restriction), so that no axiom is broken into pieces that the reasoner cannot interpret.
+	 * 
+	 * @param statements the statements
+	 * @return the axioms
+	 */
+	private static List<Model> splitIntoAxioms(Model statements) {
+		List<Model> axioms = Lists.newArrayList();
+		
+		for (StmtIterator it = statements.listStatements(); it.hasNext(); ) {
+			Statement statement = it.nextStatement();
 			
-		Model explanationModel = pellet.explainInconsistency();
+			if (statement.getSubject().isAnon() && statements.contains(null, null, statement.getSubject())) {
+				// included in the axiom of the statement that refers to the blank node
+				continue;
+			}
+			
+			Model axiom = JenaModelFactory.get().createEmptyModel();
+			addAxiomStatements(statements, statement, axiom);
+			axioms.add(axiom);
+		}
+		
+		return axioms;
+	}
+	
+	/**
+	 * Adds a statement to the axiom, together with all the statements describing the blank node it refers to (if any)
+	 * 
+	 * @param statements all the statements
+	 * @param statement the statement to be added
+	 * @param axiom the axiom
+	 */
+	private static void addAxiomStatements(Model statements, Statement statement, Model axiom) {
+		if (axiom.contains(statement)) {
+			return;
+		}
+		
+		axiom.add(statement);
+		
+		if (statement.getObject().isAnon()) {
+			for (StmtIterator it = statements.listStatements(statement.getObject().asResource(), null, (RDFNode) null); it.hasNext(); ) {
+				addAxiomStatements(statements, it.nextStatement(), axiom);
+			}
+		}
+	}
+	
+	/**
+	 * Finds a minimal subset of the axioms that is inconsistent together with the background axioms, by recursively splitting
+	 * the axioms in halves (QuickXplain). The union of the background and the axioms has to be inconsistent.
+	 * 
+	 * @param background the background axioms
+	 * @param checkBackground whether the background alone may already be inconsistent (i.e., it has changed since the last check)
+	 * @param axioms the axioms
+	 * @return a minimal subset of the axioms that is inconsistent together with the background (empty, if the background
+	 * alone is inconsistent)
+	 */
+	private static List<Model> findInconsistentAxioms(List<Model> background, boolean checkBackground, List<Model> axioms) {
+		if (checkBackground && !isConsistent(background)) {
+			return Collections.emptyList();
+		}
+		
+		if (axioms.size() == 1) {
+			return axioms;
+		}
+		
+		List<Model> firstHalf = axioms.subList(0, axioms.size() / 2);
+		List<Model> secondHalf = axioms.subList(axioms.size() / 2, axioms.size());
+		
+		List<Model> fromSecondHalf = findInconsistentAxioms(concat(background, firstHalf), true /* checkBackground */, secondHalf);
+		List<Model> fromFirstHalf = findInconsistentAxioms(concat(background, fromSecondHalf), !fromSecondHalf.isEmpty(), firstHalf);
+		
+		return concat(fromFirstHalf, fromSecondHalf);
+	}
+	
+	private static List<Model> concat(List<Model> first, List<Model> second) {
+		List<Model> result = Lists.newArrayListWithCapacity(first.size() + second.size());
+		result.addAll(first);
+		result.addAll(second);
 		
+		return result;
+	}
+	
+	/**
+	 * Checks the consistency of the axioms in a separate knowledge base
+	 * 
+	 * @param axioms the axioms
+	 * @return true if the axioms are consistent
+	 */
+	private static boolean isConsistent(List<Model> axioms) {
+		Model statements = JenaModelFactory.get().createEmptyModel();
+		
+		for (Model axiom : axioms) {
+			statements.add(axiom);
+		}
+		
+		OntModel ontModel = ModelFactory.createOntologyModel(PelletReasonerFactory.THE_SPEC);
+		ontModel.getDocumentManager().setProcessImports(false);
+		ontModel.addSubModel(statements);
+		
+		PelletInfGraph pellet = (PelletInfGraph) ontModel.getGraph();
+		
+		try {
+			return pellet.isConsistent();
+		}
+		catch (InconsistentOntologyException e) {
+			return false;
+		}
+		finally {
+			pellet.close(false /* recursive */);
+		}
+	}
+	
+	private static String renderInconsistencyExplanation(Model explanationModel) {		
 		ByteArrayOutputStream os = new ByteArrayOutputStream();
 		
 		RDFRepresentation representation = RDFRepresentation.RDF_XML;
@@ -328,11 +704,31 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 * @param termURI the URI of the term to be retrieved.
 	 * @return new closure model for the term
 	 */
-	private Model retrieveAdditionalTerm(URI termURI) {		
+	private Model retrieveAdditionalTerm(final URI termURI) {		
 		if (!ModelUtils.isBNodeURI(termURI.toString())) {
 			//System.out.println("+++ Resolving the term " + termURI);
 			
-			return mResolver.resolveTerm(termURI);
+			// if another reasoning service is already resolving this term, wait for its result instead of resolving it again
+			try {
+				return IN_FLIGHT_TERMS.retrieve(mResolver.getClass().getName() + " " + termURI, new Callable<Model>() {
+					public Model call() {
+						return mResolver.resolveTerm(termURI);
+					}
+				});
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				LOGGER.warn("Interrupted while waiting for the resolution of the term " + termURI);
+				
+				return null;
+			}
+			catch (RuntimeException e) {
+				throw e;
+			}
+			catch (Exception e) {
+				// resolveTerm() does not throw any checked exceptions
+				throw new RuntimeException(e);
+			}
 		}
 		else {
 			return JenaModelFactory.get().createEmptyModel();
@@ -344,17 +740,61 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 * The assumption here is that if the term is mentioned, we know the definition of this term (based on the fact
 	 * that closure should have retrieved it in such a case, or it is an individual).
 	 * 
+	 * The terms in knownTerms are known without querying the ontModel.
+	 * 
 	 * @param termURI the URI of the term that should be checked
 	 * @return true if the term is used anywhere
 	 */
 	private boolean isTermKnown(URI termURI) {
-		if (isBuiltInVocabulary(termURI.toString())) {
+		String term = termURI.toString();
+		
+		if (knownTerms.contains(term) || isBuiltInVocabulary(term)) {
+			return true;
+		}
+		
+		Resource termResource = ontModel.getResource(term);
+		
+		if (ontModel.containsResource(termResource)) {
+			knownTerms.add(term);
 			return true;
 		}
 		
-		Resource termResource = ontModel.getResource(termURI.toString());
+		return false;
+	}
+	
+	/**
+	 * Adds the URIs used in all the statements of a model to knownTerms
+	 * 
+	 * @param model the model (a submodel of the ontModel)
+	 */
+	private void addKnownTerms(Model model) {
+		StmtIterator it = model.listStatements();
+		
+		try {
+			while (it.hasNext()) {
+				addKnownTerms(it.nextStatement());
+			}
+		}
+		finally {
+			it.close();
+		}
+	}
+	
+	/**
+	 * Adds the URIs used in a statement to knownTerms
+	 * 
+	 * @param statement the statement (in the ontModel)
+	 */
+	private void addKnownTerms(Statement statement) {
+		if (statement.getSubject().isURIResource()) {
+			knownTerms.add(statement.getSubject().getURI());
+		}
+		
+		knownTerms.add(statement.getPredicate().getURI());
 		
-		return ontModel.containsResource(termResource);	
+		if (statement.getObject().isURIResource()) {
+			knownTerms.add(statement.getObject().asResource().getURI());
+		}
 	}
 	
 	/**
@@ -363,8 +803,6 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 * @param termURI the URI of the term
 	 */
 	private void assertTermKnown(URI termURI) {
-		// TODO: caching of terms we already know
-		// can ever terms cease to be known (if no, caching is easy; if yes, cache invalidation would become an issue)
 		if (automaticTermRetrieval  && !isTermKnown(termURI)) {
 			Model additionalTerm = retrieveAdditionalTerm(termURI);
 			
@@ -384,7 +822,7 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 * than the document for this reasoning service, this method will add the document to crossDocumentDependencies (remember to use 
 	 * releaseCrossModelTerms later!)
 	 */
-	private void assertCrossModelTerms(SSWAPModel sswapModel) {
+	private synchronized void assertCrossModelTerms(SSWAPModel sswapModel) {
 		if (!crossDocumentTermRetrieval) {
 			return;
 		}
@@ -392,34 +830,99 @@ public class ReasoningServiceImpl implements ReasoningService {
 		SSWAPDocument sourceDocument = sswapModel.getDocument();
 		
 		// only add the document if it is different than the current document and it is not there already
-		if (!containsSourceModel(sourceDocument) && !crossDocumentDependencies.containsKey(sourceDocument)) {
-			// extract TBox of the closure of the other document
-			SSWAPDocument closureDocument = ExtensionAPI.getClosureDocument(sourceDocument);
-			
-			Model closureModel = ExtensionAPI.asJenaModel(closureDocument);
+		// (or the document has changed since it was added)
+		if (containsSourceModel(sourceDocument)) {
+			return;
+		}
+		
+		Model tboxModel = getCrossDocumentTBox(sourceDocument);
+		Model previousTBoxModel = crossDocumentDependencies.get(sourceDocument);
+		
+		if (tboxModel != previousTBoxModel) {
+			if (previousTBoxModel != null) {
+				detachSubModel(previousTBoxModel);
+				knownTerms.clear();
+			}
 			
-			Model tboxModel = extractTBox(closureModel);
-						
 			// add TBox as a submodel of the OntModel (we are only adding TBox to minimize risk of inconsistent ontologies,
 			// and ABox is the most typical place for inconsistency; esp. that cross-document queries typically occur between
 			// RDG and RIG/RRG which contain sswap:Resources with the same URI and many of the properties on sswap:Resources are
 			// functional properties (i.e., any difference in values for these properties between RDG and RIG/RRG will trigger
 			// inconsistent ontology exception))
-			ontModel.addSubModel(tboxModel, true);
+			attachSubModel(tboxModel);
+			kbVersion.incrementAndGet();
+			addKnownTerms(tboxModel);
 			
 			crossDocumentDependencies.put(sourceDocument, tboxModel);
 		}
 	}
 
+	/**
+	 * Gets the TBox of the closure of another document. The TBox is only extracted again if the document has changed 
+	 * since the last extraction.
+	 * 
+	 * @param sourceDocument the other document
+	 * @return the TBox (must not be modified)
+	 */
+	private static Model getCrossDocumentTBox(SSWAPDocument sourceDocument) {
+		SourceModelImpl sourceModel = (sourceDocument instanceof SourceModelImpl) ? (SourceModelImpl) sourceDocument : null;
+		CrossDocumentTBox cachedTBox = (sourceModel == null) ? null : CROSS_DOCUMENT_TBOXES.getIfPresent(sourceDocument);
+		
+		if ((cachedTBox != null) && (cachedTBox.version == sourceModel.getVersion())) {
+			return cachedTBox.tboxModel;
+		}
+		
+		// extract TBox of the closure of the other document
+		SSWAPDocument closureDocument = ExtensionAPI.getClosureDocument(sourceDocument);
+		
+		Model closureModel = ExtensionAPI.asJenaModel(closureDocument);
+		
+		Model tboxModel = extractTBox(closureModel);
+		
+		if (sourceModel != null) {
+			// the version is read only now, since computing the closure changes it
+			CROSS_DOCUMENT_TBOXES.put(sourceDocument, new CrossDocumentTBox(sourceModel.getVersion(), tboxModel));
+		}
+		
+		return tboxModel;
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	public synchronized void beginCrossDocumentSession() {
+		crossDocumentSessions++;
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	public synchronized void endCrossDocumentSession() {
+		if ((crossDocumentSessions == 0) || (--crossDocumentSessions > 0)) {
+			return;
+		}
+		
+		if (!crossDocumentDependencies.isEmpty()) {
+			for (Model tboxModel : crossDocumentDependencies.values()) {
+				detachSubModel(tboxModel);
+			}
+			
+			crossDocumentDependencies.clear();
+			kbVersion.incrementAndGet();
+			knownTerms.clear();
+		}
+	}
+	
 	/**
 	 * Releases all the terms that were temporarily imported by assertCrossModelTerms() for each model. If the given
 	 * invocation of assertCrossModelTerms() did not cause any term additions (or they were already removed), the
-	 * invocation of this method is harmless.
+	 * invocation of this method is harmless. Within a cross-document session, the terms are only released at the end 
+	 * of the session.
 	 * 
 	 * @param sswapModels variable list (array) of SSWAPModels from which to remove TBox models
 	 */
-	private void releaseCrossModelTerms(SSWAPModel... sswapModels) {
-		if (!crossDocumentTermRetrieval) {
+	private synchronized void releaseCrossModelTerms(SSWAPModel... sswapModels) {
+		if (!crossDocumentTermRetrieval || (crossDocumentSessions > 0)) {
 			return;
 		}		
 		
@@ -428,7 +931,9 @@ public class ReasoningServiceImpl implements ReasoningService {
 			
 			Model tboxModel = crossDocumentDependencies.remove(sourceDocument);
 			if (tboxModel != null) {
-				ontModel.removeSubModel(tboxModel);
+				detachSubModel(tboxModel);
+				kbVersion.incrementAndGet();
+				knownTerms.clear();
 			}
         }
 	}
@@ -475,6 +980,9 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 * @inheritDoc
 	 */
 	public boolean isStrictSubTypeOf(SSWAPType sub, SSWAPType sup) {		
+		// both checks below may need the terms from the same other document
+		beginCrossDocumentSession();
+		
 		try {
 			// a strict sub type is a sub type of the other type, and is neither identical
 			// with sup nor equivalent (subTypeOf(sub, sup) and subTypeOf(sup, sub)
@@ -488,6 +996,9 @@ public class ReasoningServiceImpl implements ReasoningService {
 			
 			return false; // this line won't be reached
 		}
+		finally {
+			endCrossDocumentSession();
+		}
 	}
 
 	/**
@@ -510,11 +1021,30 @@ public class ReasoningServiceImpl implements ReasoningService {
 				
 				TypeImpl subType = (TypeImpl) sub;
 				TypeImpl supType = (TypeImpl) sup;
-
-				Statement subClassOfStatement = ontModel.createStatement(subType.getResource(), RDFS.subClassOf, supType
-								.getResource());
 				
-				result = ontModel.contains(subClassOfStatement);
+				// answers about named classes can be shared with other reasoning services (as long as no terms from other
+				// documents are temporarily involved)
+				Long fingerprint = null;
+				
+				if (subType.getResource().isURIResource() && supType.getResource().isURIResource() && crossDocumentDependencies.isEmpty()) {
+					fingerprint = getTBoxFingerprint();
+				}
+				
+				Boolean cachedResult = (fingerprint == null) ? null : ReasoningCache.get().getAnswer("subClassOf", sub.getURI().toString(), sup.getURI().toString(), fingerprint);
+
+				if (cachedResult != null) {
+					result = cachedResult;
+				}
+				else {
+					Statement subClassOfStatement = ontModel.createStatement(subType.getResource(), RDFS.subClassOf, supType
+									.getResource());
+
+					result = ontModel.contains(subClassOfStatement);
+					
+					if (fingerprint != null) {
+						ReasoningCache.get().putAnswer("subClassOf", sub.getURI().toString(), sup.getURI().toString(), fingerprint, result);
+					}
+				}
 				
 			}
 			finally {
@@ -549,14 +1079,26 @@ public class ReasoningServiceImpl implements ReasoningService {
 				assertTermKnown(sub.getURI());
 				assertTermKnown(sup.getURI());
 
-				Resource subResource = ontModel.getResource(sub.getURI().toString());
-				Resource supResource = ontModel.getResource(sup.getURI().toString());
-
-				//System.err.println("Checking rdfs:subPropertyOf for: " + subResource.getURI() + " and " + supResource.getURI());
+				Long fingerprint = crossDocumentDependencies.isEmpty() ? getTBoxFingerprint() : null;
+				Boolean cachedResult = (fingerprint == null) ? null : ReasoningCache.get().getAnswer("subPropertyOf", sub.getURI().toString(), sup.getURI().toString(), fingerprint);
 				
-				Statement subPropertyOfStatement = ontModel.createStatement(subResource, RDFS.subPropertyOf, supResource);
+				if (cachedResult != null) {
+					result = cachedResult;
+				}
+				else {
+					Resource subResource = ontModel.getResource(sub.getURI().toString());
+					Resource supResource = ontModel.getResource(sup.getURI().toString());
+
+					//System.err.println("Checking rdfs:subPropertyOf for: " + subResource.getURI() + " and " + supResource.getURI());
 
-				result = ontModel.contains(subPropertyOfStatement); 
+					Statement subPropertyOfStatement = ontModel.createStatement(subResource, RDFS.subPropertyOf, supResource);
+
+					result = ontModel.contains(subPropertyOfStatement); 
+					
+					if (fingerprint != null) {
+						ReasoningCache.get().putAnswer("subPropertyOf", sub.getURI().toString(), sup.getURI().toString(), fingerprint, result);
+					}
+				}
 			}
 			finally {
 				// release any cross document terms, if they were imported by assertCrossModel()
@@ -580,6 +1122,9 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 * @return true if sub is a strict sub predicate of sup
 	 */
 	public boolean isStrictSubPredicateOf(SSWAPPredicate sub, SSWAPPredicate sup) {
+		// both checks below may need the terms from the same other document
+		beginCrossDocumentSession();
+		
 		try {
 			return !sub.getURI().equals(sup.getURI()) && isSubPredicateOf(sub, sup) && !isSubPredicateOf(sup, sub);
 		}
@@ -588,6 +1133,9 @@ public class ReasoningServiceImpl implements ReasoningService {
 
 			return false; // this line won't be reached
 		}
+		finally {
+			endCrossDocumentSession();
+		}
 	}
 	
 	public boolean isIntersection(String type) {
@@ -798,18 +1346,32 @@ public class ReasoningServiceImpl implements ReasoningService {
 	
 	/**
 	 * Gets information about the property. If the property is already in the cache, the cached information is returned.
-	 * In case of a cache miss, we fetch the information from the reasoner, and store it in the cache before
-	 * returning it from this method 
+	 * In case of a cache miss, we look it up in the ReasoningCache (shared by all the knowledge bases with the same TBox), 
+	 * and only then fetch the information from the reasoner, and store it in the caches before returning it from this method 
 	 * 
 	 * @param predicate the predicate describing the information requested
 	 * @return the property information (should not be null)
 	 */
 	private synchronized PropertyInformation getPropertyInformation(SSWAPPredicate predicate) {
-		PropertyInformation result = propertyInformation.get(predicate.getURI().toString());
+		String uri = predicate.getURI().toString();
+		PropertyInformation result = propertyInformation.get(uri);
 		
 		if (result == null) {
-			result = createPropertyInformation(predicate);
-			propertyInformation.put(predicate.getURI().toString(), result);			
+			Long fingerprint = crossDocumentDependencies.isEmpty() ? getTBoxFingerprint() : null;
+			
+			if (fingerprint != null) {
+				result = ReasoningCache.get().getPropertyInformation(uri, fingerprint);
+			}
+			
+			if (result == null) {
+				result = createPropertyInformation(predicate);
+				
+				if (fingerprint != null) {
+					ReasoningCache.get().putPropertyInformation(uri, fingerprint, result);
+				}
+			}
+			
+			propertyInformation.put(uri, result);			
 		}
 		
 		return result;
@@ -1203,7 +1765,7 @@ public class ReasoningServiceImpl implements ReasoningService {
 	 * 
 	 * @return true if the statement belongs to TBox
 	 */
-	private static boolean isTBoxStatement(Statement s) {
+	static boolean isTBoxStatement(Statement s) {
 		Property p = s.getPredicate();
 		
 		if (p.getURI().equals(RDF.type.getURI())) {
@@ -1464,12 +2026,56 @@ public class ReasoningServiceImpl implements ReasoningService {
 	public void resetKB() {
 		((PelletInfGraph) ontModel.getGraph()).reload();
 		((PelletInfGraph) ontModel.getGraph()).rebind();
+		kbVersion.incrementAndGet();
+		knownTerms.clear();
 	}
 		
 	public KnowledgeBase getPelletKB() {						
-		((PelletInfGraph) ontModel.getGraph()).prepare();
+		prepareKB();
 		return ((PelletInfGraph) ontModel.getGraph()).getKB();
 	}
+	
+	/**
+	 * Prepares the knowledge base for queries (i.e., makes the reasoner process the changes in the OntModel and its submodels).
+	 * Within a batch, the changes made during the batch are only processed after the batch is committed. 
+	 */
+	private void prepareKB() {
+		((PelletInfGraph) ontModel.getGraph()).prepare();
+	}
+	
+	/**
+	 * Gets the fingerprint of the TBox of the underlying knowledge base, to be used for looking up answers
+	 * in the ReasoningCache. The fingerprint is computed from the statements loaded into the OntModel (and its submodels),
+	 * so the reasoner does not have to process them when the answers are in the cache. It is only recomputed when
+	 * the knowledge base has changed (and even then, only the terminologies of the changed submodels are hashed again;
+	 * see ReasoningCache.computeFingerprint(Graph)).
+	 * 
+	 * @return the fingerprint, or null if the answers for this knowledge base should not be cached 
+	 */
+	private synchronized Long getTBoxFingerprint() {
+		if (!ReasoningCache.get().isEnabled()) {
+			return null;
+		}
+		
+		if ((batches > 0) || !autoDetectChanges) {
+			// the reasoner may not have processed all the loaded statements yet, so its answers may not match the fingerprint
+			return null;
+		}
+		
+		long version = kbVersion.get();
+		
+		if (version != tboxFingerprintVersion) {
+			tboxFingerprint = ReasoningCache.computeFingerprint(((PelletInfGraph) ontModel.getGraph()).getRawGraph());
+			tboxFingerprintVersion = version;
+			
+			if (tboxFingerprint != null) {
+				// the answers for this TBox may have been saved before a restart
+				ReasoningCache.get().loadSnapshot(tboxFingerprint);
+			}
+		}
+		
+		return tboxFingerprint;
+	}
 		
 	public OntModel getOntModel() {		
 		return ontModel;
@@ -1749,7 +2355,7 @@ public class ReasoningServiceImpl implements ReasoningService {
 		 */
 		public Model getTranslatedModel(ATermAppl clazz, ATermAppl individual) throws ValidationException {
 			((PelletInfGraph) ontModel.getGraph()).getLoader().clear();
-			((PelletInfGraph) ontModel.getGraph()).prepare();
+			prepareKB();
 			Collection<Statement> statements = translate(clazz, individual);
 
 			for (Statement statement : statements) {
@@ -2471,6 +3077,22 @@ public class ReasoningServiceImpl implements ReasoningService {
 	        	LOGGER.debug("RDG type: " + ATermUtils.toString(rdgType));
 	        }
 	        
+	        // answers about class expressions without nominals do not depend on the ABox, and can be shared
+	        // with other reasoning services
+	        Long fingerprint = null;
+	        
+	        if (!type.equals(MappingType.ANY) && !ReasoningCache.containsNominal(protocolType) && !ReasoningCache.containsNominal(rdgType)) {
+	        	fingerprint = getTBoxFingerprint();
+	        }
+	        
+	        Boolean cachedResult = (fingerprint == null) ? null : ReasoningCache.get().getAnswer("mapping" + type, protocolType.toString(), rdgType.toString(), fingerprint);
+	        
+	        if (cachedResult != null) {
+	        	LOGGER.debug(cachedResult);
+	        	
+	        	return cachedResult;
+	        }
+	        
 			switch (type) {
 				case SUB:
 					isValid = kb.isSubClassOf(protocolType, rdgType);
@@ -2495,6 +3117,10 @@ public class ReasoningServiceImpl implements ReasoningService {
 				default:
 					throw new AssertionError();
 			}
+			
+			if (fingerprint != null) {
+				ReasoningCache.get().putAnswer("mapping" + type, protocolType.toString(), rdgType.toString(), fingerprint, isValid);
+			}
 	        
         }
         catch (InconsistentOntologyException e) {
@@ -2580,6 +3206,20 @@ public class ReasoningServiceImpl implements ReasoningService {
 		DATATYPE, OBJECT, UNDEFINED
 	}
 	
+	/**
+	 * The TBox extracted from the closure of a document for cross-document queries, together with the version
+	 * of the document at the time of the extraction.
+	 */
+	private static class CrossDocumentTBox {
+		private final long version;
+		private final Model tboxModel;
+		
+		public CrossDocumentTBox(long version, Model tboxModel) {
+			this.version = version;
+			this.tboxModel = tboxModel;
+		}
+	}
+	
 	/**
 	 * An entry for caching information about a property so that we do not have to query the reasoner repeatedly 
 	 * about properties. 
@@ -0,0 +1,240 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.empire.model;
+
+import info.sswap.impl.empire.model.ReasoningServiceImpl.PropertyInformation;
+import info.sswap.impl.empire.model.ReasoningServiceImpl.PropertyType;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes the snapshots of the reasoning cache (see ReasoningCache). A snapshot contains everything that has been
+ * derived from a classified knowledge base with a particular terminology (the answers to subsumption/equivalence questions
+ * and the information about properties), and it is stored in a file named after the fingerprint of that terminology.
+ * When a service is restarted, its reasoning services load the snapshot for their terminology, instead of asking the reasoner
+ * (which would have to classify the terminology again).
+ *
+ * The snapshot is a binary file: a header (magic number, format version and the fingerprint), followed by records
+ * (answers and properties), followed by an end record. The snapshots are memory-mapped when read, and written to
+ * a temporary file that atomically replaces the previous snapshot.
+ */
+class ReasoningSnapshot {
+	/**
+	 * The magic number at the beginning of every snapshot ("SSWR")
+	 */
+	private static final int MAGIC = 0x53535752;
+
+	/**
+	 * The version of the format (snapshots in other formats are ignored)
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final byte END_RECORD = 0;
+
+	private static final byte ANSWER_RECORD = 1;
+
+	private static final byte PROPERTY_RECORD = 2;
+
+	private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Gets the file of the snapshot for a terminology
+	 *
+	 * @param dir the directory with the snapshots
+	 * @param fingerprint the fingerprint of the terminology
+	 * @return the file
+	 */
+	static File getFile(File dir, long fingerprint) {
+		return new File(dir, String.format("%016x", fingerprint) + SNAPSHOT_SUFFIX);
+	}
+
+	/**
+	 * Writes the snapshot for a terminology
+	 *
+	 * @param dir the directory with the snapshots
+	 * @param fingerprint the fingerprint of the terminology
+	 * @param answers the answers (only the answers for the given fingerprint are written)
+	 * @param properties the information about properties (only the information for the given fingerprint is written)
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	static void write(File dir, long fingerprint, Map<ReasoningCache.Key,Boolean> answers, Map<ReasoningCache.Key,PropertyInformation> properties) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create the directory for reasoning snapshots: " + dir);
+		}
+
+		File file = getFile(dir, fingerprint);
+		File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(fingerprint);
+
+				for (Map.Entry<ReasoningCache.Key,Boolean> entry : answers.entrySet()) {
+					ReasoningCache.Key key = entry.getKey();
+
+					if (key.fingerprint == fingerprint) {
+						out.writeByte(ANSWER_RECORD);
+						writeString(out, key.question);
+						writeString(out, key.term1);
+						writeString(out, key.term2);
+						out.writeBoolean(entry.getValue());
+					}
+				}
+
+				for (Map.Entry<ReasoningCache.Key,PropertyInformation> entry : properties.entrySet()) {
+					ReasoningCache.Key key = entry.getKey();
+					PropertyInformation information = entry.getValue();
+
+					if (key.fingerprint == fingerprint) {
+						out.writeByte(PROPERTY_RECORD);
+						writeString(out, key.term1);
+						out.writeByte(information.getType().ordinal());
+						out.writeBoolean(information.isAnnotation());
+						writeString(out, information.getRange());
+					}
+				}
+
+				out.writeByte(END_RECORD);
+			}
+			finally {
+				out.close();
+			}
+
+			try {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		}
+		finally {
+			// only exists, if the snapshot could not be written
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Reads the snapshot for a terminology (if there is one)
+	 *
+	 * @param dir the directory with the snapshots
+	 * @param fingerprint the fingerprint of the terminology
+	 * @param answers the map to which the answers should be added
+	 * @param properties the map to which the information about properties should be added
+	 * @return true if the snapshot has been read, false if there is no snapshot for this terminology
+	 * @throws IOException if the snapshot cannot be read (e.g., it is corrupted)
+	 */
+	static boolean read(File dir, long fingerprint, Map<ReasoningCache.Key,Boolean> answers, Map<ReasoningCache.Key,PropertyInformation> properties) throws IOException {
+		File file = getFile(dir, fingerprint);
+
+		if (!file.isFile()) {
+			return false;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if ((buffer.remaining() < 16) || (buffer.getInt() != MAGIC) || (buffer.getInt() != FORMAT_VERSION) || (buffer.getLong() != fingerprint)) {
+				throw new IOException("Not a reasoning snapshot for " + String.format("%016x", fingerprint) + ": " + file);
+			}
+
+			// the records are first read into temporary maps, so that a corrupted snapshot does not add anything
+			Map<ReasoningCache.Key,Boolean> readAnswers = new HashMap<ReasoningCache.Key,Boolean>();
+			Map<ReasoningCache.Key,PropertyInformation> readProperties = new HashMap<ReasoningCache.Key,PropertyInformation>();
+			byte record;
+
+			while ((record = buffer.get()) != END_RECORD) {
+				if (record == ANSWER_RECORD) {
+					String question = readString(buffer);
+					String term1 = readString(buffer);
+					String term2 = readString(buffer);
+
+					readAnswers.put(new ReasoningCache.Key(question, term1, term2, fingerprint), buffer.get() != 0);
+				}
+				else if (record == PROPERTY_RECORD) {
+					String property = readString(buffer);
+					PropertyType type = PropertyType.values()[buffer.get()];
+					boolean annotation = (buffer.get() != 0);
+					String range = readString(buffer);
+
+					readProperties.put(ReasoningCache.Key.property(property, fingerprint), new PropertyInformation(type, annotation, range));
+				}
+				else {
+					throw new IOException("Unknown record " + record + " in the reasoning snapshot: " + file);
+				}
+			}
+
+			answers.putAll(readAnswers);
+			properties.putAll(readProperties);
+
+			return true;
+		}
+		catch (BufferUnderflowException e) {
+			throw new IOException("Truncated reasoning snapshot: " + file);
+		}
+		catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Corrupted reasoning snapshot: " + file);
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a (possibly null) string as its length followed by its UTF-8 encoding
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = s.getBytes(UTF8);
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a (possibly null) string written by writeString()
+	 */
+	private static String readString(ByteBuffer buffer) throws IOException {
+		int length = buffer.getInt();
+
+		if (length == -1) {
+			return null;
+		}
+
+		if ((length < 0) || (length > buffer.remaining())) {
+			throw new IOException("Invalid length of a string in a reasoning snapshot: " + length);
+		}
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+
+		return new String(bytes, UTF8);
+	}
+}
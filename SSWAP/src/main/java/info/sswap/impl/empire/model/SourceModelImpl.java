@@ -38,6 +38,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.persistence.EntityManager;
 import javax.persistence.MappedSuperclass;
@@ -51,6 +52,7 @@ import org.semanticweb.owlapi.model.OWLOntologyManager;
 import com.clarkparsia.empire.jena.JenaDataSource;
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
+import com.hp.hpl.jena.rdf.listeners.StatementListener;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 import com.hp.hpl.jena.rdf.model.Property;
@@ -101,6 +103,26 @@ public abstract class SourceModelImpl extends ModelImpl implements SourceModel {
 	 */
 	private Model closureModel;
 	
+	/**
+	 * The version of the contents of this source model (see getVersion())
+	 */
+	private final AtomicLong version = new AtomicLong();
+	
+	/**
+	 * Listens for changes in the model and the closure model (to update the version)
+	 */
+	private final StatementListener versionListener = new StatementListener() {
+		@Override
+		public void addedStatement(Statement s) {
+			version.incrementAndGet();
+		}
+		
+		@Override
+		public void removedStatement(Statement s) {
+			version.incrementAndGet();
+		}
+	};
+	
 	private SSWAPDocument closedWorldModel;
 
 	/**
@@ -342,8 +364,38 @@ public abstract class SourceModelImpl extends ModelImpl implements SourceModel {
 	 * @inheritDoc
 	 */
 	public void setModel(Model model) {
+		replaceModel(this.model, model);
 		this.model = model;
 	}
+	
+	/**
+	 * Gets the version of the contents of this source model. The version changes every time a statement is added to/removed from
+	 * the model or its closure, or when either of them is replaced (e.g., when the closure is recomputed), so that information 
+	 * derived from this source model (e.g., its TBox) can be cached as long as the version stays the same.
+	 * 
+	 * @return the version
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+	
+	/**
+	 * Moves the version listener from the previous model (or closure model) to the new one, and updates the version.
+	 * 
+	 * @param oldModel the previous model (may be null)
+	 * @param newModel the new model (may be null)
+	 */
+	private void replaceModel(Model oldModel, Model newModel) {
+		if (oldModel != null) {
+			oldModel.unregister(versionListener);
+		}
+		
+		if (newModel != null) {
+			newModel.register(versionListener);
+		}
+		
+		version.incrementAndGet();
+	}
 
 	private static int getConnectTimeout() {
 		int invocationTimeout;
@@ -485,7 +537,7 @@ public abstract class SourceModelImpl extends ModelImpl implements SourceModel {
 	 */
 	public int doClosure() {
 		if (!closureEnabled) {
-			closureModel = JenaModelFactory.get().createEmptyModel();
+			setClosureModel(JenaModelFactory.get().createEmptyModel());
 			return 0;
 		}
 		
@@ -667,7 +719,7 @@ public abstract class SourceModelImpl extends ModelImpl implements SourceModel {
 	 * @inheritDoc
 	 */
 	@Override
-	public void serialize(OutputStream os, RDFRepresentation rdfRepresentation, boolean commentedOutput) {
+	public void serialize(OutputStream os, RDFRepresentation rdfRepresentation, boolean commentedOutput, boolean abbreviated) {
 		if (os == null) {
 			throw new NullPointerException("Null OutputStream is not allowed as an argument to serialize(OutputStream, RDFRepresentation, boolean)");
 		}
@@ -678,7 +730,7 @@ public abstract class SourceModelImpl extends ModelImpl implements SourceModel {
 		
 		persist();
 
-		ModelUtils.serializeModel(model, os, rdfRepresentation, commentedOutput);
+		ModelUtils.serializeModel(model, os, rdfRepresentation, commentedOutput, abbreviated);
 	}
 
 	/**
@@ -1058,6 +1110,7 @@ public abstract class SourceModelImpl extends ModelImpl implements SourceModel {
 	}
 	
 	protected void setClosureModel(Model clModel) {
+		replaceModel(closureModel, clModel);
 		closureModel = clModel;
 	}
 	
@@ -1065,6 +1118,27 @@ public abstract class SourceModelImpl extends ModelImpl implements SourceModel {
 		return mResolver;
 	}
 	
+	/**
+	 * Releases this source model when it is no longer used, but its models (or its closure model) are still used
+	 * elsewhere (e.g., an anonymized RDG that shares its models with all the validations against the RDG): the listeners
+	 * registered on these models by this source model and by its reasoning service are removed, so that they neither
+	 * keep this source model alive nor accumulate on the shared models.
+	 */
+	synchronized void dispose() {
+		if (reasoningServiceImpl != null) {
+			reasoningServiceImpl.dispose();
+			reasoningServiceImpl = null;
+		}
+		
+		if (closureModel != null) {
+			closureModel.unregister(versionListener);
+		}
+		
+		if (model != null) {
+			model.unregister(versionListener);
+		}
+	}
+	
 	/*
 	 * TODO Figure out whether this is really needed
 	 */
@@ -0,0 +1,178 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.impl.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * A single item of a batch invocation (i.e., a RIG sent to a service, or the RRG/RIG returned for it). The body of a batch
+ * request or response (see Vocabulary.SSWAP_BATCH_MIME_TYPE) is a sequence of frames, each of them consisting of:
+ * <ul>
+ * <li>a header line (in UTF-8, terminated by '\n'): <code>&lt;id&gt; &lt;status&gt; &lt;length&gt; &lt;message&gt;</code>,
+ * where id identifies the item within the batch (and contains no whitespace), status is the HTTP status code of the item
+ * (0 in requests), length is the length of the content in bytes, and message is the URL-encoded message about the item
+ * (e.g., an exception message), or '-' if there is no message</li>
+ * <li>the content (e.g., RDF/XML of a RIG)</li>
+ * <li>'\n'</li>
+ * </ul>
+ * The frames in a response do not have to be in the same order as in the request (the items are returned as soon as they are
+ * processed).
+ */
+public class BatchFrame {
+	private static final String ENCODING = "UTF-8";
+
+	/**
+	 * The maximum length of a header line (a longer line means that the stream does not contain frames)
+	 */
+	private static final int MAX_HEADER_LENGTH = 65536;
+
+	private final String id;
+
+	private final int status;
+
+	private final String message;
+
+	private final byte[] content;
+
+	/**
+	 * Creates a frame
+	 *
+	 * @param id the identifier of the item within the batch (must not contain whitespace)
+	 * @param status the HTTP status code of the item (0 for items in requests)
+	 * @param message the message about the item (may be null)
+	 * @param content the content of the item (may be null, if there is no content)
+	 * @throws IllegalArgumentException if the identifier is empty or contains whitespace
+	 */
+	public BatchFrame(String id, int status, String message, byte[] content) throws IllegalArgumentException {
+		if ((id == null) || id.isEmpty() || !id.matches("\\S+")) {
+			throw new IllegalArgumentException("Invalid identifier of a batch item: " + id);
+		}
+
+		this.id = id;
+		this.status = status;
+		this.message = message;
+		this.content = (content == null) ? new byte[0] : content;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * Gets the message about the item
+	 *
+	 * @return the message or null, if there is no message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	public byte[] getContent() {
+		return content;
+	}
+
+	/**
+	 * Writes this frame to a stream.
+	 *
+	 * @param os the stream
+	 * @throws IOException if an I/O error should occur
+	 */
+	public void write(OutputStream os) throws IOException {
+		String encodedMessage = (message == null) ? "-" : URLEncoder.encode(message, ENCODING);
+		String header = id + " " + status + " " + content.length + " " + encodedMessage + "\n";
+
+		os.write(header.getBytes(ENCODING));
+		os.write(content);
+		os.write('\n');
+	}
+
+	/**
+	 * Reads the next frame from a stream.
+	 *
+	 * @param is the stream
+	 * @return the frame or null, if there are no more frames in the stream
+	 * @throws IOException if an I/O error should occur, or the stream does not contain valid frames
+	 */
+	public static BatchFrame read(InputStream is) throws IOException {
+		String header = readHeader(is);
+
+		if (header == null) {
+			return null;
+		}
+
+		String[] fields = header.split(" ");
+
+		if (fields.length != 4) {
+			throw new IOException("Invalid header of a batch item: " + header);
+		}
+
+		int status;
+		int length;
+
+		try {
+			status = Integer.parseInt(fields[1]);
+			length = Integer.parseInt(fields[2]);
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Invalid header of a batch item: " + header);
+		}
+
+		if (length < 0) {
+			throw new IOException("Invalid length of a batch item: " + header);
+		}
+
+		String message = fields[3].equals("-") ? null : URLDecoder.decode(fields[3], ENCODING);
+
+		byte[] content = new byte[length];
+		ByteStreams.readFully(is, content);
+
+		if (is.read() != '\n') {
+			throw new IOException("Missing the end of the batch item: " + fields[0]);
+		}
+
+		return new BatchFrame(fields[0], status, message, content);
+	}
+
+	/**
+	 * Reads the header line of a frame
+	 *
+	 * @param is the stream
+	 * @return the header line (without the terminating '\n') or null, if the stream has ended before the header
+	 * @throws IOException if an I/O error should occur, or the stream ends in the middle of the header
+	 */
+	private static String readHeader(InputStream is) throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		int b;
+
+		while ((b = is.read()) != '\n') {
+			if (b == -1) {
+				if (header.size() == 0) {
+					return null;
+				}
+
+				throw new EOFException("Unexpected end of a batch stream");
+			}
+
+			if (header.size() >= MAX_HEADER_LENGTH) {
+				throw new IOException("The header of a batch item is too long");
+			}
+
+			header.write(b);
+		}
+
+		return header.toString(ENCODING);
+	}
+}
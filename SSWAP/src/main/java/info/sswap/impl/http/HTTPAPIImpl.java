@@ -3,18 +3,27 @@
  */
 package info.sswap.impl.http;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+import com.clarkparsia.utils.web.Header;
 import com.clarkparsia.utils.web.Response;
 
 import info.sswap.api.http.HTTPClient;
 import info.sswap.api.http.HTTPProvider;
 
+import info.sswap.api.model.DataAccessException;
 import info.sswap.api.model.PDG;
+import info.sswap.api.model.RDFRepresentation;
 import info.sswap.api.model.RDG;
 import info.sswap.api.model.RIG;
 import info.sswap.api.model.RQG;
@@ -23,6 +32,8 @@ import info.sswap.api.model.SSWAP;
 import info.sswap.api.model.SSWAPDocument;
 import info.sswap.api.model.SSWAPProtocol;
 import info.sswap.api.model.SSWAPResource;
+import info.sswap.api.model.ValidationException;
+import info.sswap.impl.empire.Vocabulary;
 import info.sswap.impl.empire.model.ModelUtils;
 
 public class HTTPAPIImpl implements HTTPProvider, HTTPClient {
@@ -42,6 +53,16 @@ public class HTTPAPIImpl implements HTTPProvider, HTTPClient {
 	private static URI MAKE_RRG_URI = URI.create(System.getProperty(SSWAP_API_URI_SYSTEM_PROPERTY, SSWAP_API_URI_DEFAULT_VALUE) + "makeRRG");;
 	
 	private static URI MAKE_RQG_URI = URI.create(System.getProperty(SSWAP_API_URI_SYSTEM_PROPERTY, SSWAP_API_URI_DEFAULT_VALUE) + "makeRQG");;
+	
+	/**
+	 * The maximum time (in milliseconds) of a single long-polling request for an RRG (the services may limit it further)
+	 */
+	private static final long MAX_LONG_POLL_WAIT = 60 * 1000;
+	
+	/**
+	 * The additional time (in milliseconds) given to a service to answer a long-polling request (after the wait is over)
+	 */
+	private static final long LONG_POLL_READ_MARGIN = 30 * 1000;
 
 
 	/**
@@ -140,6 +161,224 @@ public class HTTPAPIImpl implements HTTPProvider, HTTPClient {
 	}
 
 	
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public List<HTTPProvider.RRGResponse> invokeBatch(List<RIG> rigs) throws IOException, IllegalArgumentException {
+		
+		List<HTTPProvider.RRGResponse> results = new ArrayList<HTTPProvider.RRGResponse>(Collections.<HTTPProvider.RRGResponse>nCopies(rigs.size(), null));
+		
+		if ( rigs.isEmpty() ) {
+			return results;
+		}
+		
+		URI serviceURI = rigs.get(0).getURI();
+		String serviceURIStr = serviceURI.toString();
+		
+		// the body of the request; the index of a RIG in the list is its identifier in the batch
+		ByteArrayOutputStream batch = new ByteArrayOutputStream();
+		int sentRIGs = 0;
+		
+		for ( int i = 0; i < rigs.size(); i++ ) {
+			RIG rig = rigs.get(i);
+			
+			if ( !serviceURI.equals(rig.getURI()) ) {
+				throw new IllegalArgumentException("All the RIGs in a batch must invoke the same service (" + serviceURIStr + "), but got: " + rig.getURI());
+			}
+			
+			if ( rig.getResource().isAnonymous() ) {
+				results.set(i, new RRGResponse(null, null, new IOException("Cannot invoke because SSWAP Resource has no URL")));
+				continue;
+			}
+			
+			try {
+				rig.validate();
+			} catch ( ValidationException ve ) {
+				results.set(i, new RRGResponse(null, null, new ValidationException("RIG validation error: " + ve.getMessage())));
+				continue;
+			}
+			
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			rig.serialize(bos, RDFRepresentation.RDF_XML, false /* commentedOutput */);
+			
+			new BatchFrame(String.valueOf(i), 0, null, bos.toByteArray()).write(batch);
+			sentRIGs++;
+		}
+		
+		if ( sentRIGs == 0 ) {
+			return results;
+		}
+		
+		Response batchResponse = ModelUtils.invoke(serviceURI, new ByteArrayInputStream(batch.toByteArray()), Vocabulary.SSWAP_BATCH_MIME_TYPE, true /* returnOnHTTPError */);
+		
+		// the exception for the RIGs without a result
+		Exception batchException = null;
+		
+		if ( batchResponse.hasErrorCode() ) {
+			batchException = new IOException("Error invoking service at: " + serviceURIStr + "; [" + batchResponse.getResponseCode() + "] " + batchResponse.getMessage());
+		} else {
+			try {
+				InputStream content = new BufferedInputStream(batchResponse.getContent());
+				BatchFrame frame;
+				
+				// the results are read as they arrive
+				while ( (frame = BatchFrame.read(content)) != null ) {
+					int index = getBatchIndex(frame, rigs.size());
+					
+					if ( index < 0 ) {
+						// not a result of any RIG (e.g., the batch could not be read by the service)
+						batchException = new IOException("Error invoking service at: " + serviceURIStr + "; " + frame.getMessage());
+						continue;
+					}
+					
+					results.set(index, createBatchResponse(rigs.get(index), frame, serviceURIStr));
+				}
+				
+				batchResponse.close();
+			} catch ( IOException ioe ) {
+				batchException = new IOException("Error reading the results of a batch from: " + serviceURIStr + "; " + ioe.getMessage());
+			}
+		}
+		
+		for ( int i = 0; i < results.size(); i++ ) {
+			if ( results.get(i) == null ) {
+				Exception exception = (batchException == null) ? new IOException("No result returned for the RIG from: " + serviceURIStr) : batchException;
+				results.set(i, new RRGResponse(null, batchResponse, exception));
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * @inheritDoc
+	 */
+	@Override
+	public HTTPProvider.RRGResponse waitForRRG(URI serviceURI, String token, long timeout) throws IOException, InterruptedException {
+		String pollURIStr = serviceURI.toString() + Vocabulary.SSWAP_RRG_RETRIEVAL_SUFFIX + "?" + Vocabulary.SSWAP_RRG_TOKEN_PARAM + "=" + URLEncoder.encode(token, "UTF-8");
+		long deadline = System.currentTimeMillis() + timeout;
+		
+		while ( true ) {
+			long wait = Math.max(0, Math.min(deadline - System.currentTimeMillis(), MAX_LONG_POLL_WAIT));
+			long start = System.currentTimeMillis();
+			
+			Response pollResponse = ModelUtils.invoke(URI.create(pollURIStr + "&" + Vocabulary.SSWAP_RRG_WAIT_PARAM + "=" + wait), null, true /* returnOnHTTPError */, wait + LONG_POLL_READ_MARGIN);
+			int responseCode = pollResponse.getResponseCode();
+			
+			if ( responseCode == HttpURLConnection.HTTP_OK ) {
+				try {
+					return new RRGResponse(SSWAP.getResourceGraph(pollResponse.getContent(), RRG.class), pollResponse);
+				} catch ( DataAccessException dae ) {
+					return new RRGResponse(null, pollResponse, new DataAccessException("Could not parse RRG from: " + serviceURI + "; " + dae.getMessage()));
+				}
+			} else if ( responseCode == HttpURLConnection.HTTP_BAD_GATEWAY ) {
+				// the invocation has failed
+				return new RRGResponse(null, pollResponse, new IOException("Error invoking service at: " + serviceURI + "; " + getHeader(pollResponse, Vocabulary.SSWAP_HTTP_EXCEPTION_HEADER)));
+			} else if ( responseCode != HttpURLConnection.HTTP_NO_CONTENT ) {
+				throw new IOException("Error retrieving RRG from: " + serviceURI + "; [" + responseCode + "] " + pollResponse.getMessage());
+			}
+			
+			// the RRG is not ready yet
+			long remaining = deadline - System.currentTimeMillis();
+			
+			if ( remaining <= 0 ) {
+				return null;
+			}
+			
+			if ( System.currentTimeMillis() - start < wait / 2 ) {
+				// the service answered without waiting (i.e., it does not support long polling); poll at the suggested interval
+				Thread.sleep(Math.min(remaining, getSuggestedPollingInterval(pollResponse)));
+			}
+		}
+	}
+	
+	/**
+	 * Gets the value of a header of a response
+	 * 
+	 * @param response the response
+	 * @param headerName the name of the header
+	 * @return the value of the header or null
+	 */
+	private static String getHeader(Response response, String headerName) {
+		Header header = response.getHeader(headerName);
+		
+		return (header == null) ? null : header.getRawHeaderValue();
+	}
+	
+	/**
+	 * Gets the polling interval suggested by a service
+	 * 
+	 * @param pollResponse the response to a poll
+	 * @return the polling interval in milliseconds
+	 */
+	private static long getSuggestedPollingInterval(Response pollResponse) {
+		try {
+			return Long.parseLong(getHeader(pollResponse, Vocabulary.SSWAP_POLLING_INTERVAL_HEADER));
+		} catch ( NumberFormatException e ) {
+			return Vocabulary.SSWAP_DEFAULT_POLLING_INTERVAL;
+		}
+	}
+	
+	/**
+	 * Gets the index of the RIG whose result is in the given frame
+	 * 
+	 * @param frame the frame with the result
+	 * @param size the number of RIGs in the batch
+	 * @return the index of the RIG or -1, if the frame does not contain a result of any RIG
+	 */
+	private static int getBatchIndex(BatchFrame frame, int size) {
+		try {
+			int index = Integer.parseInt(frame.getId());
+			
+			return ((index >= 0) && (index < size)) ? index : -1; 
+		} catch ( NumberFormatException e ) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Creates the response for a single RIG of a batch (the checks are the same as in RIG.invoke()).
+	 * 
+	 * @param rig the RIG
+	 * @param frame the result of the RIG
+	 * @param serviceURIStr the URI of the service
+	 * @return the response
+	 */
+	private BatchRRGResponse createBatchResponse(RIG rig, BatchFrame frame, String serviceURIStr) {
+		if ( frame.getStatus() != HttpURLConnection.HTTP_OK ) {
+			IOException ioe = new IOException("Invalid request for service at: " + serviceURIStr + "; [" + frame.getStatus() + "] " + frame.getMessage());
+			return new BatchRRGResponse(null, frame, ioe);
+		}
+		
+		if ( frame.getMessage() != null ) {
+			// the service failed, and returned the RIG back
+			IOException ioe = new IOException("Error invoking service at: " + serviceURIStr + "; " + frame.getMessage());
+			return new BatchRRGResponse(null, frame, ioe);
+		}
+		
+		RRG rrg;
+		
+		try {
+			rrg = rig.getRRG(new ByteArrayInputStream(frame.getContent()));
+		} catch ( DataAccessException dae ) {
+			dae = new DataAccessException("Could not parse RRG from: " + serviceURIStr + "; " + dae.getMessage());
+			return new BatchRRGResponse(null, frame, dae);
+		} catch ( ValidationException ve ) {
+			ve = new ValidationException("RRG validation error from: " + serviceURIStr + "; "+ ve.getMessage());
+			return new BatchRRGResponse(null, frame, ve);
+		}
+		
+		try {
+			rrg.validate();
+		} catch ( ValidationException ve ) {
+			ve = new ValidationException("RRG validation error from: " + serviceURIStr + "; "+ ve.getMessage());
+			return new BatchRRGResponse(null, frame, ve);
+		}
+		
+		return new BatchRRGResponse(rrg, frame, null);
+	}
+	
 	private <T extends SSWAPDocument> T makeAPI(URI apiURI, Class<T> clazz, InputStream jsonStream) throws IOException {
 		
 		T sswapDocument = null;
@@ -333,6 +572,64 @@ public class HTTPAPIImpl implements HTTPProvider, HTTPClient {
 
 	}
 	
+	/**
+	 * The response for a single <code>RIG</code> of a batch invocation. The status, message and content
+	 * are those of the <code>RIG</code> (rather than of the whole batch).
+	 */
+	public class BatchRRGResponse extends RRGResponse {
+		
+		private final BatchFrame frame;
+		
+		/**
+		 * Constructor to set the <code>RRG</code>, the result of the <code>RIG</code> and an exception;
+		 * not needed by most users.
+		 * 
+		 * @param rrg
+		 *            <code>RRG</code> to be returned to the user, or null
+		 * @param frame
+		 *            the result of the <code>RIG</code> returned by the service
+		 * @param exception 
+		 *            exception that prevented RRG creation from succeeding (may be null)
+		 */
+		public BatchRRGResponse(RRG rrg, BatchFrame frame, Exception exception) {
+			super(rrg, null /* response */, exception);
+			
+			this.frame = frame;
+		}
+		
+		/**
+		 * @inheritDoc
+		 */
+		@Override
+		public int getResponseCode() {
+			return frame.getStatus();
+		}
+		
+		/**
+		 * @inheritDoc
+		 */
+		@Override
+		public boolean hasErrorCode() {
+			return frame.getStatus() >= HttpURLConnection.HTTP_BAD_REQUEST;
+		}
+		
+		/**
+		 * @inheritDoc
+		 */
+		@Override
+		public String getMessage() {
+			return frame.getMessage();
+		}
+		
+		/**
+		 * @inheritDoc
+		 */
+		@Override
+		public InputStream getContent() {
+			return new ByteArrayInputStream(frame.getContent());
+		}
+	}
+	
 	/**
 	 * Exposes access to both a ready-to-use <code>RQG</code> on success or a
 	 * network response object on failure.
@@ -0,0 +1,123 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import info.sswap.api.model.Config;
+import info.sswap.api.servlet.AsyncInvocationExecutor;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * Tests for the bounded execution of asynchronous RIG invocations
+ */
+public class AsyncInvocationExecutorTests {
+	@Test
+	public void testInvocationsAreBounded() throws Exception {
+		String previousThreads = Config.get().getProperty(Config.ASYNC_INVOCATION_THREADS_KEY);
+		String previousQueueSize = Config.get().getProperty(Config.ASYNC_INVOCATION_QUEUE_SIZE_KEY);
+
+		Config.get().setProperty(Config.ASYNC_INVOCATION_THREADS_KEY, "1");
+		Config.get().setProperty(Config.ASYNC_INVOCATION_QUEUE_SIZE_KEY, "1");
+
+		AsyncInvocationExecutor executor = AsyncInvocationExecutor.get();
+
+		// make sure that the executor is created with the configuration above
+		executor.shutdown();
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch finished = new CountDownLatch(2);
+
+		Runnable invocation = new Runnable() {
+			public void run() {
+				started.countDown();
+
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					// finish
+				}
+
+				finished.countDown();
+			}
+		};
+
+		try {
+			long rejected = executor.getRejectedCount();
+
+			executor.execute(invocation);
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			// waits in the queue
+			executor.execute(invocation);
+			assertEquals(1, executor.getQueueDepth());
+			assertEquals(1, executor.getActiveCount());
+
+			try {
+				executor.execute(invocation);
+				fail("An invocation should have been rejected");
+			}
+			catch (RejectedExecutionException e) {
+				// expected
+			}
+
+			assertEquals(rejected + 1, executor.getRejectedCount());
+			assertTrue(executor.getRetryAfter() >= 1);
+
+			release.countDown();
+			assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+			assertTrue(executor.getSuggestedPollingInterval(1000) >= 1000);
+		}
+		finally {
+			release.countDown();
+			executor.shutdown();
+
+			Config.get().setProperty(Config.ASYNC_INVOCATION_THREADS_KEY, previousThreads);
+			Config.get().setProperty(Config.ASYNC_INVOCATION_QUEUE_SIZE_KEY, previousQueueSize);
+		}
+	}
+
+	@Test
+	public void testStatisticsArePublished() throws Exception {
+		AsyncInvocationExecutor executor = AsyncInvocationExecutor.getBatchExecutor();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("info.sswap:type=AsyncInvocationExecutor,name=sswap-batch");
+
+		final CountDownLatch finished = new CountDownLatch(1);
+
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					finished.countDown();
+				}
+			});
+
+			assertTrue(finished.await(10, TimeUnit.SECONDS));
+
+			// the statistics are published while the executor is active
+			assertTrue(server.isRegistered(name));
+			assertEquals(executor.getRejectedCount(), server.getAttribute(name, "RejectedCount"));
+			assertEquals(0, server.getAttribute(name, "QueueDepth"));
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		assertFalse(server.isRegistered(name));
+	}
+}
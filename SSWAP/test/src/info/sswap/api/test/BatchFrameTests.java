@@ -0,0 +1,68 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import info.sswap.impl.http.BatchFrame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests for the format of batch invocations
+ */
+public class BatchFrameTests {
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] rig = "<rdf:RDF>\n</rdf:RDF>".getBytes("UTF-8");
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		new BatchFrame("0", 0, null, rig).write(bos);
+		new BatchFrame("1", 500, "Service failed: a message\nwith a new line", null).write(bos);
+
+		InputStream is = new ByteArrayInputStream(bos.toByteArray());
+
+		BatchFrame first = BatchFrame.read(is);
+		assertEquals("0", first.getId());
+		assertEquals(0, first.getStatus());
+		assertNull(first.getMessage());
+		assertArrayEquals(rig, first.getContent());
+
+		BatchFrame second = BatchFrame.read(is);
+		assertEquals("1", second.getId());
+		assertEquals(500, second.getStatus());
+		assertEquals("Service failed: a message\nwith a new line", second.getMessage());
+		assertEquals(0, second.getContent().length);
+
+		assertNull(BatchFrame.read(is));
+	}
+
+	@Test
+	public void testTruncatedBatch() throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		new BatchFrame("0", 0, null, "<rdf:RDF/>".getBytes("UTF-8")).write(bos);
+
+		byte[] batch = bos.toByteArray();
+
+		try {
+			BatchFrame.read(new ByteArrayInputStream(batch, 0, batch.length - 3));
+			fail("A truncated item should not have been read");
+		}
+		catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidId() {
+		new BatchFrame("a b", 0, null, null);
+	}
+}
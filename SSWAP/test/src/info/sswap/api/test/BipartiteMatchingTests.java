@@ -0,0 +1,51 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import info.sswap.impl.empire.model.BipartiteMatching;
+
+import org.junit.Test;
+
+/**
+ * Tests for the matching used to map individuals of protocol graphs onto individuals of RDGs
+ */
+public class BipartiteMatchingTests {
+	@Test
+	public void testEmpty() {
+		assertArrayEquals(new int[0], BipartiteMatching.findFirstCompleteMatching(new boolean[0][], 3));
+	}
+	
+	@Test
+	public void testNotEnoughRightNodes() {
+		boolean[][] valid = { { true }, { true } };
+		
+		assertNull(BipartiteMatching.findFirstCompleteMatching(valid, 1));
+	}
+	
+	@Test
+	public void testNoCompleteMatching() {
+		// both left nodes can only be matched with the first right node
+		boolean[][] valid = { { true, false, true }, { true, false, false }, { true, false, false } };
+		
+		assertNull(BipartiteMatching.findFirstCompleteMatching(valid, 3));
+	}
+	
+	@Test
+	public void testFirstMatchingIsPreferred() {
+		// every permutation is a valid matching; the first one should be returned
+		boolean[][] valid = { { true, true, true }, { true, true, true }, { true, true, true } };
+		
+		assertArrayEquals(new int[] { 0, 1, 2 }, BipartiteMatching.findFirstCompleteMatching(valid, 3));
+	}
+	
+	@Test
+	public void testBacktrackingIsRequired() {
+		// the first left node cannot keep its first candidate, because the second left node has no other choice
+		boolean[][] valid = { { true, true, false }, { true, false, false }, { false, true, true } };
+		
+		assertArrayEquals(new int[] { 1, 0, 2 }, BipartiteMatching.findFirstCompleteMatching(valid, 3));
+	}
+}
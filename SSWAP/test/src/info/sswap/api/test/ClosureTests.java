@@ -8,10 +8,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import info.sswap.api.model.Config;
 import info.sswap.api.model.DataAccessException;
 import info.sswap.impl.empire.Vocabulary;
 import info.sswap.impl.empire.io.ByteLimitExceededException;
 import info.sswap.impl.empire.io.ByteLimitInputStream;
+import info.sswap.impl.empire.io.CacheValidators;
 import info.sswap.impl.empire.io.Closure;
 import info.sswap.impl.empire.io.ClosureBuilder;
 import info.sswap.impl.empire.io.ClosureBuilderFactory;
@@ -37,6 +40,7 @@ import com.hp.hpl.jena.rdf.model.Resource;
 import com.hp.hpl.jena.rdf.model.ResourceFactory;
 import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.shared.UpdateDeniedException;
 import com.hp.hpl.jena.vocabulary.OWL;
 import com.hp.hpl.jena.vocabulary.RDF;
 import com.hp.hpl.jena.vocabulary.RDFS;
@@ -388,6 +392,236 @@ public class ClosureTests {
         assertNotNull(modelCache.getModel("http://plantontology.sswap.info/poAnnotations/resources/termSearch/TermSearch"));
 	}
 	
+	@Test
+	public void testModelCacheSharedModels() {
+		ModelCache modelCache = new ModelCache(-1, -1, false /* diskCacheEnabled */);
+		
+		Model testModel = JenaModelFactory.get().createEmptyModel();
+		testModel.add(testModel.createResource("http://example.com/sharedOntology.owl#Term1"), RDF.type, OWL.Class);
+		
+		Model sharedModel = modelCache.setSharedModel("http://example.com/sharedOntology.owl", testModel);
+		assertTrue(sharedModel.isIsomorphicWith(testModel));
+		
+		// shared models are read-only
+		try {
+			modelCache.getSharedModel("http://example.com/sharedOntology.owl#Term1").add(OWL.Thing, RDF.type, OWL.Class);
+			fail("Shared models should be read-only");
+		}
+		catch (UpdateDeniedException e) {
+			// expected
+		}
+		
+		// but getModel() still returns a copy that can be modified
+		Model copy = modelCache.getModel("http://example.com/sharedOntology.owl");
+		copy.add(OWL.Thing, RDF.type, OWL.Class);
+		
+		assertEquals(2, copy.size());
+		assertEquals(1, modelCache.getSharedModel("http://example.com/sharedOntology.owl").size());
+	}
+	
+	@Test
+	public void testModelCacheSizeLimit() {
+		ModelCache modelCache = new ModelCache(-1, -1, false /* diskCacheEnabled */, 100 /* maxTriples */);
+		
+		for (int i = 0; i < 100; i++) {
+			Model testModel = JenaModelFactory.get().createEmptyModel();
+			
+			for (int j = 0; j < 10; j++) {
+				testModel.add(testModel.createResource("http://example.com/ontology" + i + ".owl#Term" + j), RDF.type, OWL.Class);
+			}
+			
+			modelCache.setModel("http://example.com/ontology" + i + ".owl", testModel);
+		}
+		
+		long cachedTriples = 0;
+		
+		for (int i = 0; i < 100; i++) {
+			Model cachedModel = modelCache.getSharedModel("http://example.com/ontology" + i + ".owl");
+			
+			if (cachedModel != null) {
+				cachedTriples += cachedModel.size();
+			}
+		}
+		
+		assertTrue(cachedTriples > 0);
+		assertTrue(cachedTriples <= 100);
+		
+		// the most recently stored model should still be there
+		assertNotNull(modelCache.getSharedModel("http://example.com/ontology99.owl"));
+	}
+	
+	@Test
+	public void testModelCacheRevalidation() throws InterruptedException {
+		ModelCache modelCache = new ModelCache(-1, -1, false /* diskCacheEnabled */);
+		
+		Model testModel = JenaModelFactory.get().createEmptyModel();
+		testModel.add(testModel.createResource("http://example.com/revalidatedOntology.owl#Term1"), RDF.type, OWL.Class);
+		
+		// the server-specified max-age takes precedence over the TTL of the cache
+		modelCache.setSharedModel("http://example.com/revalidatedOntology.owl", testModel, new CacheValidators("\"v1\"", null, 100l));
+		assertNotNull(modelCache.getSharedModel("http://example.com/revalidatedOntology.owl"));
+		
+		Thread.sleep(150);
+		
+		// expired, but still available for revalidation
+		assertNull(modelCache.getSharedModel("http://example.com/revalidatedOntology.owl"));
+		
+		CacheValidators validators = modelCache.getValidators("http://example.com/revalidatedOntology.owl");
+		assertNotNull(validators);
+		assertEquals("\"v1\"", validators.getETag());
+		
+		// a 304 response without any new headers
+		Model revalidatedModel = modelCache.revalidate("http://example.com/revalidatedOntology.owl", new CacheValidators(null, null, null));
+		assertNotNull(revalidatedModel);
+		assertTrue(revalidatedModel.isIsomorphicWith(testModel));
+		assertNotNull(modelCache.getSharedModel("http://example.com/revalidatedOntology.owl"));
+		
+		// models without validators cannot be revalidated
+		modelCache.setModel("http://example.com/otherOntology.owl", testModel);
+		assertNull(modelCache.getValidators("http://example.com/otherOntology.owl"));
+		assertNull(modelCache.revalidate("http://example.com/otherOntology.owl", new CacheValidators(null, null, null)));
+	}
+	
+	@Test
+	public void testModelCacheDiskTier() throws IOException {
+		String previousCacheDir = Config.get().getProperty(Config.CACHE_DIR_KEY);
+		File cacheDir = File.createTempFile("modelCache", "");
+		cacheDir.delete();
+		
+		Config.get().setProperty(Config.CACHE_DIR_KEY, cacheDir.getAbsolutePath());
+		
+		try {
+			Model testModel = JenaModelFactory.get().createEmptyModel();
+			testModel.setNsPrefix("ex", "http://example.com/diskOntology.owl#");
+			
+			Resource term = testModel.createResource("http://example.com/diskOntology.owl#Term1");
+			testModel.add(term, RDF.type, OWL.Class);
+			testModel.add(term, RDFS.label, "Term \u00e9", "en");
+			testModel.add(term, RDFS.comment, testModel.createTypedLiteral("42", XSDDatatype.XSDinteger));
+			testModel.add(term, RDFS.subClassOf, testModel.createResource());
+			
+			ModelCache modelCache = new ModelCache(-1, -1, true /* diskCacheEnabled */);
+			modelCache.setSharedModel("http://example.com/diskOntology.owl", testModel, new CacheValidators("\"v1\"", null, null));
+			
+			for (int i = 0; i < 5; i++) {
+				// replaced entries must not be returned after a restart
+				modelCache.setModel("http://example.com/otherOntology" + (i % 2) + ".owl", testModel);
+			}
+			
+			// a new cache (e.g., after a restart) only has the models on disk
+			ModelCache restartedCache = new ModelCache(-1, -1, true /* diskCacheEnabled */);
+			Model diskModel = restartedCache.getSharedModel("http://example.com/diskOntology.owl");
+			
+			assertNotNull(diskModel);
+			assertTrue(diskModel.isIsomorphicWith(testModel));
+			assertEquals("http://example.com/diskOntology.owl#", diskModel.getNsPrefixURI("ex"));
+			assertEquals("\"v1\"", restartedCache.getValidators("http://example.com/diskOntology.owl").getETag());
+			assertNotNull(restartedCache.getSharedModel("http://example.com/otherOntology1.owl"));
+			assertNull(restartedCache.getSharedModel("http://example.com/otherOntology2.owl"));
+			
+			// only the live models should remain on disk
+			int graphFiles = 0;
+			
+			for (File file : cacheDir.listFiles()) {
+				if (file.getName().endsWith(".graph")) {
+					graphFiles++;
+				}
+			}
+			
+			assertEquals(3, graphFiles);
+			
+			restartedCache.clear();
+			assertNull(new ModelCache(-1, -1, true /* diskCacheEnabled */).getSharedModel("http://example.com/diskOntology.owl"));
+		}
+		finally {
+			Config.get().setProperty(Config.CACHE_DIR_KEY, previousCacheDir);
+			
+			for (File file : cacheDir.listFiles()) {
+				file.delete();
+			}
+			
+			cacheDir.delete();
+		}
+	}
+	
+	@Test
+	public void testClosureCache() {
+		ModelCache modelCache = new ModelCache(-1, -1, false /* diskCacheEnabled */);
+		
+		Model termModel = JenaModelFactory.get().createEmptyModel();
+		Resource term = termModel.createResource("http://example.com/closureOntology.owl#Term1");
+		termModel.add(term, RDF.type, OWL.Class);
+		termModel.add(term, RDFS.label, "Term 1");
+		
+		modelCache.setModel("http://example.com/closureOntology.owl", termModel);
+		
+		ClosureBuilderFactory factory = ClosureBuilderFactory.newInstance();
+		factory.setModelCache(modelCache);
+		
+		Closure closure1 = factory.newBuilder().build(createClosureTestModel("value 1"), "http://example.com/closureTest1", 1, 0);
+		assertTrue(closure1.getClosureModel().contains(term, RDFS.label));
+		
+		// the cached closure must not depend on the (changed) cache entry
+		modelCache.setAsInaccessible("http://example.com/closureOntology.owl");
+		
+		// the same terms, but a different literal value
+		Model baseModel = createClosureTestModel("value 2");
+		Closure closure2 = factory.newBuilder().build(baseModel, "http://example.com/closureTest1", 1, 0);
+		
+		assertTrue(closure2.getClosureModel().isIsomorphicWith(closure1.getClosureModel()));
+		assertTrue(closure2.getBaseModel() == baseModel);
+		assertEquals(closure1.getDegree(), closure2.getDegree());
+		
+		try {
+			closure2.getClosureModel().add(term, RDFS.comment, "comment");
+			fail("Cached closures should be read-only");
+		}
+		catch (UpdateDeniedException e) {
+			// correct behavior
+		}
+		
+		// the same terms, but used differently (a resource instead of a literal), which may change the OWL DL check
+		Model differentModel = createClosureTestModel("value 2");
+		differentModel.removeAll(null, RDFS.label, null);
+		differentModel.add(differentModel.createResource("http://example.com/closureTest1#individual"), 
+		                   RDFS.label, 
+		                   differentModel.createResource("http://example.com/closureTest1#label"));
+		
+		Closure differentClosure = factory.newBuilder().build(differentModel, "http://example.com/closureTest1", 1, 0);
+		assertFalse(differentClosure.getClosureModel().contains(term, RDFS.label));
+		
+		// a new version of a document invalidates the cached closures
+		Model newTermModel = JenaModelFactory.get().createEmptyModel();
+		newTermModel.add(term, RDF.type, OWL.Class);
+		modelCache.setModel("http://example.com/closureOntology.owl", newTermModel);
+		
+		Closure closure3 = factory.newBuilder().build(createClosureTestModel("value 3"), "http://example.com/closureTest1", 1, 0);
+		assertTrue(closure3.getClosureModel().contains(term, RDF.type, OWL.Class));
+		assertFalse(closure3.getClosureModel().contains(term, RDFS.label));
+	}
+	
+	private Model createClosureTestModel(String value) {
+		Model model = JenaModelFactory.get().createEmptyModel();
+		
+		model.add(model.createResource("http://example.com/closureTest1#individual"), 
+		          RDF.type, 
+		          model.createResource("http://example.com/closureOntology.owl#Term1"));
+		model.add(model.createResource("http://example.com/closureTest1#individual"), RDFS.label, value);
+		
+		return model;
+	}
+	
+	@Test
+	public void testCacheControlParsing() {
+		assertNull(CacheValidators.parseMaxAge(null));
+		assertNull(CacheValidators.parseMaxAge("public"));
+		assertEquals(Long.valueOf(3600000l), CacheValidators.parseMaxAge("public, max-age=3600"));
+		assertEquals(Long.valueOf(60000l), CacheValidators.parseMaxAge("max-age=\"60\", must-revalidate"));
+		assertEquals(Long.valueOf(0l), CacheValidators.parseMaxAge("no-cache"));
+		assertEquals(Long.valueOf(0l), CacheValidators.parseMaxAge("max-age=3600, no-store"));
+		assertNull(CacheValidators.parseMaxAge("max-age=abc"));
+	}
+	
 	@Test
 	public void testMIMEOntology() throws Exception {
 		Model baseModel = getModel("http://sswapmeet.sswap.info/mime/text/Plain");
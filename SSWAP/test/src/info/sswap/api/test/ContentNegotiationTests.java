@@ -0,0 +1,105 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import info.sswap.api.model.RDFRepresentation;
+import info.sswap.api.servlet.AbstractSSWAPServlet;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+/**
+ * Tests for the negotiation of the content encoding and RDF representation of the responses of a SSWAP servlet
+ */
+public class ContentNegotiationTests {
+	@Test
+	public void testEncodingNames() throws Exception {
+		assertEquals("gzip", getResponseEncoding("gzip"));
+		assertEquals("gzip", getResponseEncoding("x-gzip"));
+		assertEquals("deflate", getResponseEncoding("deflate"));
+		assertEquals("gzip", getResponseEncoding("deflate, gzip"));
+		assertEquals("gzip", getResponseEncoding("deflate", "GZIP"));
+		assertNull(getResponseEncoding("compress, br"));
+	}
+
+	@Test
+	public void testEncodingQValues() throws Exception {
+		assertEquals("deflate", getResponseEncoding("gzip;q=0.5, deflate"));
+		assertEquals("gzip", getResponseEncoding("gzip; q=0.8, deflate; q=0.8"));
+		assertEquals("deflate", getResponseEncoding("gzip;q=0, deflate;q=0.1"));
+		assertNull(getResponseEncoding("gzip;q=0, deflate;q=0.0"));
+		assertEquals("gzip", getResponseEncoding("gzip;q=invalid"));
+	}
+
+	@Test
+	public void testEncodingWildcards() throws Exception {
+		assertEquals("gzip", getResponseEncoding("*"));
+		assertEquals("deflate", getResponseEncoding("gzip;q=0, *"));
+		assertEquals("gzip", getResponseEncoding("*;q=0.5, deflate;q=0.2"));
+		assertNull(getResponseEncoding("*;q=0"));
+	}
+
+	@Test
+	public void testIdentityFallback() throws Exception {
+		assertNull(getResponseEncoding());
+		assertNull(getResponseEncoding(""));
+		assertNull(getResponseEncoding("identity"));
+		assertNull(getResponseEncoding("gzip;q=0.5, identity"));
+		assertEquals("gzip", getResponseEncoding("gzip, identity;q=0.5"));
+		assertEquals("gzip", getResponseEncoding("gzip, identity"));
+	}
+
+	@Test
+	public void testRepresentation() throws Exception {
+		assertEquals(RDFRepresentation.RDF_XML, getResponseRepresentation());
+		assertEquals(RDFRepresentation.RDF_XML, getResponseRepresentation("*/*"));
+		assertEquals(RDFRepresentation.TURTLE, getResponseRepresentation("text/turtle, application/rdf+xml"));
+		assertEquals(RDFRepresentation.TURTLE, getResponseRepresentation("application/x-turtle"));
+		assertEquals(RDFRepresentation.NTRIPLES, getResponseRepresentation("text/html", "application/n-triples;q=0.9"));
+		assertEquals(RDFRepresentation.RDF_XML, getResponseRepresentation("application/rdf+xml, text/turtle"));
+		assertEquals(RDFRepresentation.RDF_XML, getResponseRepresentation("text/turtle;q=0, */*"));
+	}
+
+	private static String getResponseEncoding(String... acceptEncoding) throws Exception {
+		return (String) invoke("getResponseEncoding", createRequest("Accept-Encoding", acceptEncoding));
+	}
+
+	private static RDFRepresentation getResponseRepresentation(String... accept) throws Exception {
+		return (RDFRepresentation) invoke("getResponseRepresentation", createRequest("Accept", accept));
+	}
+
+	private static Object invoke(String methodName, HttpServletRequest request) throws Exception {
+		Method method = AbstractSSWAPServlet.class.getDeclaredMethod(methodName, HttpServletRequest.class);
+		method.setAccessible(true);
+
+		return method.invoke(null, request);
+	}
+
+	/**
+	 * Creates a request that has only the given values of a header (and no other headers)
+	 */
+	private static HttpServletRequest createRequest(final String headerName, final String... values) {
+		return (HttpServletRequest) Proxy.newProxyInstance(ContentNegotiationTests.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getHeaders")) {
+					return Collections.enumeration(headerName.equalsIgnoreCase((String) args[0]) ? Arrays.asList(values) : Collections.<String>emptyList());
+				}
+				else if (method.getName().equals("getHeader")) {
+					return (headerName.equalsIgnoreCase((String) args[0]) && (values.length > 0)) ? values[0] : null;
+				}
+
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import info.sswap.impl.empire.io.InFlightRequests;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * Tests for coalescing of concurrent retrievals of the same model
+ */
+public class InFlightRequestsTests {
+	private static final String TERM = "http://sswapmeet.sswap.info/test/term";
+
+	@Test
+	public void testConcurrentRequestsAreCoalesced() throws Exception {
+		final InFlightRequests requests = new InFlightRequests();
+		final AtomicInteger retrievals = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		final Callable<Model> retrieval = new Callable<Model>() {
+			public Model call() throws Exception {
+				retrievals.incrementAndGet();
+				started.countDown();
+				release.await();
+
+				Model model = ModelFactory.createDefaultModel();
+				model.createResource(TERM).addProperty(model.createProperty(TERM + "#p"), "value");
+
+				return model;
+			}
+		};
+
+		ExecutorService executor = Executors.newFixedThreadPool(5);
+
+		try {
+			Future<Model> first = executor.submit(new Callable<Model>() {
+				public Model call() throws Exception {
+					return requests.retrieve(TERM, retrieval);
+				}
+			});
+
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+
+			Future<?>[] others = new Future<?>[4];
+			final CountDownLatch entered = new CountDownLatch(others.length);
+
+			for (int i = 0; i < others.length; i++) {
+				others[i] = executor.submit(new Callable<Model>() {
+					public Model call() throws Exception {
+						entered.countDown();
+						return requests.retrieve(TERM, retrieval);
+					}
+				});
+			}
+
+			// give the other requests time to join the retrieval in progress
+			assertTrue(entered.await(10, TimeUnit.SECONDS));
+			Thread.sleep(200);
+			release.countDown();
+
+			Model firstModel = first.get(10, TimeUnit.SECONDS);
+			assertEquals(1, firstModel.size());
+
+			for (Future<?> other : others) {
+				Model otherModel = (Model) other.get(10, TimeUnit.SECONDS);
+
+				assertNotSame(firstModel, otherModel);
+				assertTrue(firstModel.isIsomorphicWith(otherModel));
+			}
+
+			assertEquals(0, requests.size());
+			assertEquals(1, retrievals.get());
+			assertEquals(others.length, requests.getJoinedCount());
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testExceptionIsReported() throws Exception {
+		InFlightRequests requests = new InFlightRequests();
+
+		try {
+			requests.retrieve(TERM, new Callable<Model>() {
+				public Model call() throws Exception {
+					throw new IOException("not found");
+				}
+			});
+
+			fail("IOException expected");
+		}
+		catch (IOException e) {
+			// expected
+		}
+
+		assertEquals(0, requests.size());
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import info.sswap.impl.empire.model.ModelHash;
+import info.sswap.impl.empire.model.ModelUtils;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+
+/**
+ * Tests for the canonical hashes of models (used to cache the responses of deterministic services)
+ */
+public class ModelHashTests {
+	private static Model read(String ntriples) {
+		Model model = ModelFactory.createDefaultModel();
+		model.read(new StringReader(ntriples), null, "N-TRIPLE");
+
+		return model;
+	}
+
+	@Test
+	public void testBNodeLabels() {
+		Model first = read("<http://example.org/a> <http://example.org/p> _:x .\n"
+		                 + "_:x <http://example.org/q> \"1\" .\n"
+		                 + "_:x <http://example.org/r> _:y .\n");
+
+		Model second = read("_:b2 <http://example.org/r> _:b1 .\n"
+		                  + "_:b2 <http://example.org/q> \"1\" .\n"
+		                  + "<http://example.org/a> <http://example.org/p> _:b2 .\n");
+
+		// bnodes renamed while reading a RIG
+		Model third = read("<http://example.org/a> <http://example.org/p> <" + ModelUtils.BNODE_NS + "17> .\n"
+		                 + "<" + ModelUtils.BNODE_NS + "17> <http://example.org/q> \"1\" .\n"
+		                 + "<" + ModelUtils.BNODE_NS + "17> <http://example.org/r> <" + ModelUtils.BNODE_NS + "4> .\n");
+
+		assertEquals(ModelHash.canonicalHash(first), ModelHash.canonicalHash(second));
+		assertEquals(ModelHash.canonicalHash(first), ModelHash.canonicalHash(third));
+
+		assertTrue(ModelHash.isIsomorphic(second, ModelHash.toCanonicalForm(first)));
+		assertTrue(ModelHash.isIsomorphic(third, ModelHash.toCanonicalForm(first)));
+		assertTrue(ModelHash.isIsomorphic(first, ModelHash.toCanonicalForm(third)));
+	}
+
+	@Test
+	public void testDifferentGraphs() {
+		Model first = read("<http://example.org/a> <http://example.org/p> _:x .\n"
+		                 + "_:x <http://example.org/q> \"1\" .\n");
+
+		Model second = read("<http://example.org/a> <http://example.org/p> _:x .\n"
+		                  + "_:x <http://example.org/q> \"2\" .\n");
+
+		Model third = read("<http://example.org/a> <http://example.org/p> _:x .\n"
+		                 + "<http://example.org/a> <http://example.org/p> _:y .\n"
+		                 + "_:x <http://example.org/q> \"1\" .\n");
+
+		assertFalse(ModelHash.canonicalHash(first).equals(ModelHash.canonicalHash(second)));
+		assertFalse(ModelHash.canonicalHash(first).equals(ModelHash.canonicalHash(third)));
+	}
+
+	@Test
+	public void testIndistinguishableBNodes() {
+		// a cycle of six bnodes
+		Model first = read("_:a <http://example.org/p> _:b .\n"
+		                 + "_:b <http://example.org/p> _:c .\n"
+		                 + "_:c <http://example.org/p> _:d .\n"
+		                 + "_:d <http://example.org/p> _:e .\n"
+		                 + "_:e <http://example.org/p> _:f .\n"
+		                 + "_:f <http://example.org/p> _:a .\n");
+
+		// two cycles of three bnodes
+		Model second = read("_:a <http://example.org/p> _:b .\n"
+		                  + "_:b <http://example.org/p> _:c .\n"
+		                  + "_:c <http://example.org/p> _:a .\n"
+		                  + "_:d <http://example.org/p> _:e .\n"
+		                  + "_:e <http://example.org/p> _:f .\n"
+		                  + "_:f <http://example.org/p> _:d .\n");
+
+		// the neighbourhoods cannot distinguish these graphs, but the isomorphism check can
+		assertEquals(ModelHash.canonicalHash(first), ModelHash.canonicalHash(second));
+		assertFalse(ModelHash.isIsomorphic(second, ModelHash.toCanonicalForm(first)));
+	}
+}
@@ -13,7 +13,9 @@ import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -39,6 +41,7 @@ import info.sswap.api.model.SSWAPResource;
 import info.sswap.api.model.SSWAPSubject;
 import info.sswap.api.model.SSWAPType;
 import info.sswap.api.model.ValidationException;
+import info.sswap.api.servlet.RDGCache;
 import info.sswap.api.spi.ExtensionAPI;
 import info.sswap.impl.empire.model.ImplFactory;
 import info.sswap.impl.empire.model.ObjectImpl;
@@ -48,6 +51,8 @@ import info.sswap.impl.empire.model.SubjectImpl;
 
 import org.junit.Test;
 
+import com.google.common.io.Files;
+
 /**
  * Tests for handling of RDGs
  * 
@@ -390,6 +395,58 @@ public class RDGTests {
 		assertEquals("fragTest", outputURI.getFragment());
 	}
 	
+	/**
+	 * Tests whether the RDGs cached for servlets are copied for every request, and re-read after their files change
+	 * @throws Exception
+	 */
+	@Test
+	public void testRDGCache() throws Exception {
+		File dir = Files.createTempDir();
+		File file = new File(dir, "qtl-by-trait-accession.owl");
+		URI uri = URI.create("http://sswap.gramene.org/vpin/qtl-by-trait-accession");
+		String originalName = "Gramene QTLs for Trait Ontology Accession ID Retrieval";
+		
+		String content = new String(Files.toByteArray(new File("test/data/qtl-by-trait-accession.owl")), "UTF-8");
+		Files.write(content.getBytes("UTF-8"), file);
+		
+		try {
+			RDG rdg1 = RDGCache.get().getRDG(file, uri);
+			RDG rdg2 = RDGCache.get().getRDG(file, uri);
+			
+			assertFalse(rdg1 == rdg2);
+			assertEquals(originalName, rdg1.getResource().getName());
+			
+			// every request has its own copy
+			rdg1.getResource().setName("Modified by a request");
+			assertEquals(originalName, rdg2.getResource().getName());
+			assertEquals(originalName, RDGCache.get().getRDG(file, uri).getResource().getName());
+			
+			// a changed file has to be read again
+			FileOutputStream fos = new FileOutputStream(file);
+			fos.write(content.replace(originalName, "Changed RDG").getBytes("UTF-8"));
+			fos.close();
+			
+			String name = null;
+			
+			for (int i = 0; i < 100; i++) {
+				name = RDGCache.get().getRDG(file, uri).getResource().getName();
+				
+				if ("Changed RDG".equals(name)) {
+					break;
+				}
+				
+				Thread.sleep(100);
+			}
+			
+			assertEquals("Changed RDG", name);
+		}
+		finally {
+			RDGCache.get().clear();
+			file.delete();
+			dir.delete();
+		}
+	}
+	
 	/**
 	 * Converts a collection of SSWAPProperties into a collection of the URIs for these properties
 	 * 
@@ -36,6 +36,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
@@ -52,6 +54,8 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import com.clarkparsia.utils.web.Response;
+import com.hp.hpl.jena.graph.impl.SimpleEventManager;
+import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.vocabulary.XSD;
 
 /**
@@ -1325,6 +1329,51 @@ public class RIGTests {
 		assertEquals(1, subjects.size());
 	}
 	
+	/**
+	 * Validating RIGs against the same RDG should not leave the listeners of the (discarded) anonymized copies
+	 * of the RDG registered on the closure that all these copies share.
+	 */
+	@Test
+	public void testValidationReleasesListeners() throws Exception {
+		RDG rdg = getDereferencedRDG("http://localhost:8080/Sswap/Fig2Doc","test/data/multi-graph-rdg.owl");
+		
+		int listeners = -1;
+		
+		for (int i = 0; i < 5; i++) {
+			FileInputStream fis = new FileInputStream("test/data/single-graph-rig.owl");
+			RIG rig = rdg.getRIG(fis);
+			fis.close();
+			
+			assertNotNull(rig);
+			
+			if (listeners == -1) {
+				listeners = getAnonymizedClosureListenerCount(rdg);
+			}
+			else {
+				assertEquals(listeners, getAnonymizedClosureListenerCount(rdg));
+			}
+		}
+	}
+	
+	/**
+	 * Counts the listeners registered on the anonymized closure model that the RDG uses for validation (this
+	 * information is not exposed by either the RDG or Jena, so it is read reflectively).
+	 */
+	private static int getAnonymizedClosureListenerCount(RDG rdg) throws Exception {
+		Method getValidationContext = Class.forName("info.sswap.impl.empire.model.RDGImpl").getDeclaredMethod("getValidationContext");
+		getValidationContext.setAccessible(true);
+		Object validationContext = getValidationContext.invoke(rdg);
+		
+		Field anonymizedClosureModel = validationContext.getClass().getDeclaredField("anonymizedClosureModel");
+		anonymizedClosureModel.setAccessible(true);
+		Model closureModel = (Model) anonymizedClosureModel.get(validationContext);
+		
+		Field listeners = SimpleEventManager.class.getDeclaredField("listeners");
+		listeners.setAccessible(true);
+		
+		return ((List<?>) listeners.get(closureModel.getGraph().getEventManager())).size();
+	}
+	
 	@Test
 	public void testMultiGraphRDGMultiGraphRIG() throws Exception {
 		RDG rdg = getDereferencedRDG("http://localhost:8080/Sswap/Fig2Doc","test/data/multi-graph-rdg.owl");
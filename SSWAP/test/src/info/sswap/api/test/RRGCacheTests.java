@@ -0,0 +1,89 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import info.sswap.api.model.RRG;
+import info.sswap.api.model.SSWAP;
+import info.sswap.api.servlet.RRGCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.lang.reflect.Method;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Tests for the storage of RRGs in RRGCache
+ */
+public class RRGCacheTests {
+	@Test
+	public void testCompressedRoundTrip() throws Exception {
+		FileInputStream fis = new FileInputStream("test/data/multifasta3.rrg.owl");
+		RRG rrg = SSWAP.getResourceGraph(fis, RRG.class);
+		fis.close();
+
+		RRGCache cache = RRGCache.get();
+		String token = UUID.randomUUID().toString();
+
+		assertNull(cache.get(token));
+
+		cache.setSuggestedPollingInterval(token, 1234);
+
+		Object entry = cache.get(token);
+		assertFalse((Boolean) call(entry, "hasRRG"));
+		assertNull(call(entry, "getRRG"));
+
+		cache.store(token, rrg);
+
+		entry = cache.get(token);
+		assertTrue((Boolean) call(entry, "hasRRG"));
+		assertTrue((Boolean) call(entry, "isComplete"));
+		assertEquals(1234, call(entry, "getSuggestedPollingInterval"));
+		assertEquals("application/rdf+xml", call(entry, "getContentType"));
+
+		// the stored content is gzip-compressed, and it decompresses to the same serialization that is written to
+		// the clients that do not accept a compressed response
+		byte[] compressed = (byte[]) call(entry, "getCompressedRRG");
+		assertNotNull(compressed);
+
+		byte[] decompressed = ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+		assertTrue(decompressed.length > compressed.length);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		call(entry, "writeRRG", bos);
+		assertArrayEquals(decompressed, bos.toByteArray());
+
+		// and it parses back to the same RRG
+		RRG storedRRG = (RRG) call(entry, "getRRG");
+		assertNotNull(storedRRG);
+		assertEquals(rrg.getResource().getURI(), storedRRG.getResource().getURI());
+		assertEquals(rrg.getResource().getGraphs().size(), storedRRG.getResource().getGraphs().size());
+	}
+
+	/**
+	 * Calls a method of an entry of the cache (the entries are not visible outside of their package)
+	 */
+	private static Object call(Object entry, String methodName, Object... args) throws Exception {
+		for (Method method : entry.getClass().getDeclaredMethods()) {
+			if (method.getName().equals(methodName) && (method.getParameterTypes().length == args.length)) {
+				method.setAccessible(true);
+
+				return method.invoke(entry, args);
+			}
+		}
+
+		throw new NoSuchMethodException(methodName);
+	}
+}
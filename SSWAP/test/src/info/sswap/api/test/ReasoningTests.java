@@ -3,19 +3,34 @@
  */
 package info.sswap.api.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import info.sswap.api.model.Config;
+import info.sswap.api.model.ReasoningService;
 import info.sswap.api.model.SSWAP;
 import info.sswap.api.model.SSWAPDocument;
+import info.sswap.api.model.SSWAPIndividual;
 import info.sswap.api.model.SSWAPType;
+import info.sswap.impl.empire.model.ReasoningCache;
 import info.sswap.impl.empire.model.ReasoningServiceImpl;
 import info.sswap.impl.empire.model.SourceModel;
 import info.sswap.impl.empire.model.SourceModelImpl;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.URI;
+import java.util.Set;
 
 import org.junit.Test;
 import org.mindswap.pellet.KnowledgeBase;
+import org.mindswap.pellet.PelletOptions;
+import org.mindswap.pellet.exceptions.InconsistentOntologyException;
+import org.mindswap.pellet.jena.PelletInfGraph;
+import org.mindswap.pellet.utils.Timer;
 
 import com.clarkparsia.pellet.utils.TermFactory;
 import com.hp.hpl.jena.ontology.OntModel;
@@ -121,4 +136,361 @@ public class ReasoningTests {
 		assertTrue(kb.isDatatypeProperty(TermFactory.term(p1.toString())));
 		assertTrue(kb.isDatatypeProperty(TermFactory.term(p2.toString())));
 	}
+	
+	@Test
+	public void sharedSubsumptionAnswers() {
+		ReasoningCache cache = ReasoningCache.get();
+		
+		// two documents with the same terminology
+		SSWAPDocument doc1 = createSubClassDocument();
+		SSWAPDocument doc2 = createSubClassDocument();
+		
+		assertTrue(doc1.getType(URI.create(NS + "A")).isSubTypeOf(doc1.getType(URI.create(NS + "B"))));
+		assertFalse(doc1.getType(URI.create(NS + "B")).isSubTypeOf(doc1.getType(URI.create(NS + "A"))));
+		
+		long hits = cache.getHitCount();
+		
+		// the answers for the second document should come from the cache
+		assertTrue(doc2.getType(URI.create(NS + "A")).isSubTypeOf(doc2.getType(URI.create(NS + "B"))));
+		assertFalse(doc2.getType(URI.create(NS + "B")).isSubTypeOf(doc2.getType(URI.create(NS + "A"))));
+		assertEquals(hits + 2, cache.getHitCount());
+		
+		// the cached answers were found without the reasoner processing the second document
+		PelletInfGraph graph2 = (PelletInfGraph) ((ReasoningServiceImpl) doc2.getReasoningService()).getOntModel().getGraph();
+		assertFalse(graph2.isPrepared());
+		
+		// after the terminology of the second document changes, the cached answer must not be used for it anymore
+		doc2.getType(URI.create(NS + "B")).addSubClassOf(doc2.getType(URI.create(NS + "A")));
+		
+		assertTrue(doc2.getType(URI.create(NS + "B")).isSubTypeOf(doc2.getType(URI.create(NS + "A"))));
+		assertFalse(doc1.getType(URI.create(NS + "B")).isSubTypeOf(doc1.getType(URI.create(NS + "A"))));
+	}
+	
+	@Test
+	public void knownTermsFollowChanges() throws Exception {
+		Model model = ModelFactory.createDefaultModel();
+		Resource C1 = ResourceFactory.createResource(NS + "KnownC1");
+		Resource C2 = ResourceFactory.createResource(NS + "KnownC2");
+		Resource C3 = ResourceFactory.createResource(NS + "KnownC3");
+		model.add(C1, RDFS.subClassOf, C2);
+		
+		ReasoningServiceImpl reasoner = new ReasoningServiceImpl(new MockSourceModel(model, ModelFactory.createDefaultModel()));
+		Set<?> knownTerms = getKnownTerms(reasoner);
+		
+		// the terms of the source model are indexed when it is added
+		assertTrue(knownTerms.contains(C1.getURI()));
+		assertTrue(knownTerms.contains(C2.getURI()));
+		assertTrue(isTermKnown(reasoner, C1.getURI()));
+		assertFalse(isTermKnown(reasoner, NS + "KnownUnused"));
+		assertFalse(knownTerms.contains(NS + "KnownUnused"));
+		
+		// the terms of an added model, and of the statements added directly
+		SSWAPDocument doc = SSWAP.createSSWAPDocument();
+		doc.getType(URI.create(NS + "KnownA")).addSubClassOf(doc.getType(URI.create(NS + "KnownB")));
+		reasoner.addModel(doc);
+		model.add(C3, RDFS.subClassOf, C1);
+		
+		assertTrue(knownTerms.contains(NS + "KnownA"));
+		assertTrue(knownTerms.contains(NS + "KnownB"));
+		assertTrue(knownTerms.contains(C3.getURI()));
+		assertTrue(isTermKnown(reasoner, NS + "KnownA"));
+		assertTrue(isTermKnown(reasoner, C3.getURI()));
+		
+		// the terms of a removed model are no longer known, but the remaining ones are found again
+		reasoner.removeModel(doc);
+		
+		assertFalse(knownTerms.contains(NS + "KnownA"));
+		assertFalse(isTermKnown(reasoner, NS + "KnownA"));
+		assertTrue(isTermKnown(reasoner, C1.getURI()));
+		assertTrue(knownTerms.contains(C1.getURI()));
+		
+		// the same for a statement removed directly
+		model.remove(C3, RDFS.subClassOf, C1);
+		
+		assertFalse(knownTerms.contains(C3.getURI()));
+		assertFalse(isTermKnown(reasoner, C3.getURI()));
+		assertTrue(isTermKnown(reasoner, C2.getURI()));
+	}
+	
+	private static Set<?> getKnownTerms(ReasoningServiceImpl reasoner) throws Exception {
+		Field knownTerms = ReasoningServiceImpl.class.getDeclaredField("knownTerms");
+		knownTerms.setAccessible(true);
+		
+		return (Set<?>) knownTerms.get(reasoner);
+	}
+	
+	private static boolean isTermKnown(ReasoningServiceImpl reasoner, String termURI) throws Exception {
+		Method isTermKnown = ReasoningServiceImpl.class.getDeclaredMethod("isTermKnown", URI.class);
+		isTermKnown.setAccessible(true);
+		
+		return (Boolean) isTermKnown.invoke(reasoner, URI.create(termURI));
+	}
+	
+	@Test
+	public void subsumptionAnswersIgnoreABoxChanges() {
+		ReasoningCache cache = ReasoningCache.get();
+		
+		SSWAPDocument doc = SSWAP.createSSWAPDocument();
+		doc.getType(URI.create(NS + "ABoxA")).addSubClassOf(doc.getType(URI.create(NS + "ABoxB")));
+		
+		assertTrue(doc.getType(URI.create(NS + "ABoxA")).isSubTypeOf(doc.getType(URI.create(NS + "ABoxB"))));
+		
+		// the fingerprint of the terminology does not change when only individuals are added
+		doc.createIndividual(URI.create(NS + "ABoxInd")).addType(doc.getType(URI.create(NS + "ABoxA")));
+		
+		long hits = cache.getHitCount();
+		
+		assertTrue(doc.getType(URI.create(NS + "ABoxA")).isSubTypeOf(doc.getType(URI.create(NS + "ABoxB"))));
+		assertEquals(hits + 1, cache.getHitCount());
+		
+		// but it does when the terminology changes
+		doc.getType(URI.create(NS + "ABoxB")).addSubClassOf(doc.getType(URI.create(NS + "ABoxC")));
+		
+		hits = cache.getHitCount();
+		
+		assertTrue(doc.getType(URI.create(NS + "ABoxA")).isSubTypeOf(doc.getType(URI.create(NS + "ABoxC"))));
+		assertTrue(doc.getType(URI.create(NS + "ABoxA")).isSubTypeOf(doc.getType(URI.create(NS + "ABoxB"))));
+		assertEquals(hits, cache.getHitCount());
+	}
+	
+	@Test
+	public void snapshotSubsumptionAnswers() throws IOException {
+		ReasoningCache cache = ReasoningCache.get();
+		File snapshotDir = File.createTempFile("reasoningSnapshot", "");
+		snapshotDir.delete();
+		
+		Config.get().setProperty(Config.REASONING_SNAPSHOT_DIR_KEY, snapshotDir.getAbsolutePath());
+		
+		try {
+			SSWAPDocument doc1 = createSubClassDocument();
+			
+			assertTrue(doc1.getType(URI.create(NS + "A")).isSubTypeOf(doc1.getType(URI.create(NS + "B"))));
+			
+			cache.saveSnapshots();
+			
+			// simulates a restart (the cache is empty, but the snapshot is on disk)
+			cache.clear();
+			
+			SSWAPDocument doc2 = createSubClassDocument();
+			long hits = cache.getHitCount();
+			
+			// the answer should come from the snapshot
+			assertTrue(doc2.getType(URI.create(NS + "A")).isSubTypeOf(doc2.getType(URI.create(NS + "B"))));
+			assertEquals(hits + 1, cache.getHitCount());
+		}
+		finally {
+			// an empty value disables the snapshots
+			Config.get().setProperty(Config.REASONING_SNAPSHOT_DIR_KEY, "");
+			cache.clear();
+			
+			File[] files = snapshotDir.listFiles();
+			
+			if (files != null) {
+				for (File file : files) {
+					file.delete();
+				}
+			}
+			
+			snapshotDir.delete();
+		}
+	}
+	
+	@Test
+	public void batchedChanges() {
+		SSWAPDocument doc = SSWAP.createSSWAPDocument();
+		ReasoningService reasoningService = doc.getReasoningService();
+		
+		reasoningService.beginBatch();
+		reasoningService.beginBatch();
+		
+		doc.getType(URI.create(NS + "C")).addSubClassOf(doc.getType(URI.create(NS + "D")));
+		doc.getType(URI.create(NS + "D")).addSubClassOf(doc.getType(URI.create(NS + "E")));
+		
+		reasoningService.commitBatch();
+		reasoningService.commitBatch();
+		
+		// all the changes made during the batch are visible after it is committed
+		assertTrue(doc.getType(URI.create(NS + "C")).isSubTypeOf(doc.getType(URI.create(NS + "E"))));
+		
+		// several models added in a batch are loaded by the reasoner only once (when the batch is committed), 
+		// even if it is queried in the meantime
+		SSWAPType[] batchTypes = new SSWAPType[3];
+		
+		for (int i = 0; i < batchTypes.length; i++) {
+			batchTypes[i] = doc.getType(URI.create(NS + "Batch" + i));
+		}
+		
+		Timer loadTimer = ((ReasoningServiceImpl) reasoningService).getPelletKB().timers.getTimer("load");
+		long loads = loadTimer.getCount();
+		
+		reasoningService.beginBatch();
+		
+		for (int i = 0; i < batchTypes.length; i++) {
+			SSWAPDocument batchDoc = SSWAP.createSSWAPDocument();
+			batchDoc.getType(URI.create(NS + "Batch" + i)).addSubClassOf(batchDoc.getType(URI.create(NS + "C")));
+			
+			reasoningService.addModel(batchDoc);
+			
+			assertTrue(doc.getType(URI.create(NS + "D")).isSubTypeOf(doc.getType(URI.create(NS + "E"))));
+		}
+		
+		assertEquals(loads, loadTimer.getCount());
+		
+		reasoningService.commitBatch();
+		
+		for (SSWAPType batchType : batchTypes) {
+			assertTrue(batchType.isSubTypeOf(doc.getType(URI.create(NS + "E"))));
+		}
+		
+		assertEquals(loads + 1, loadTimer.getCount());
+		
+		try {
+			reasoningService.commitBatch();
+			fail("Committing a batch that was not begun should fail");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void crossDocumentTBoxes() {
+		SSWAPDocument other = SSWAP.createSSWAPDocument();
+		other.getType(URI.create(NS + "CrossB")).addSubClassOf(other.getType(URI.create(NS + "CrossC")));
+		
+		// two documents whose queries need the terms of the other document
+		SSWAPDocument doc1 = SSWAP.createSSWAPDocument();
+		SSWAPType a1 = doc1.getType(URI.create(NS + "CrossA1"));
+		a1.addSubClassOf(doc1.getType(URI.create(NS + "CrossB")));
+		
+		SSWAPDocument doc2 = SSWAP.createSSWAPDocument();
+		SSWAPType a2 = doc2.getType(URI.create(NS + "CrossA2"));
+		a2.addSubClassOf(doc2.getType(URI.create(NS + "CrossB")));
+		
+		assertTrue(a1.isSubTypeOf(other.getType(URI.create(NS + "CrossC"))));
+		assertTrue(a2.isSubTypeOf(other.getType(URI.create(NS + "CrossC"))));
+		assertFalse(a1.isSubTypeOf(other.getType(URI.create(NS + "CrossD"))));
+		
+		// after the other document changes, its terms are extracted again (instead of reusing the ones extracted before)
+		other.getType(URI.create(NS + "CrossC")).addSubClassOf(other.getType(URI.create(NS + "CrossD")));
+		
+		assertTrue(a1.isSubTypeOf(other.getType(URI.create(NS + "CrossD"))));
+		assertTrue(a2.isSubTypeOf(other.getType(URI.create(NS + "CrossD"))));
+		
+		// the terms of the other document are only added for the queries that need them
+		assertFalse(a1.isSubTypeOf(doc1.getType(URI.create(NS + "CrossC"))));
+	}
+	
+	@Test
+	public void crossDocumentSessions() {
+		SSWAPDocument other = SSWAP.createSSWAPDocument();
+		other.getType(URI.create(NS + "SessionB")).addSubClassOf(other.getType(URI.create(NS + "SessionC")));
+		other.getType(URI.create(NS + "SessionB")).addSubClassOf(other.getType(URI.create(NS + "SessionD")));
+		
+		SSWAPDocument doc = SSWAP.createSSWAPDocument();
+		SSWAPType a = doc.getType(URI.create(NS + "SessionA"));
+		a.addSubClassOf(doc.getType(URI.create(NS + "SessionB")));
+		
+		ReasoningService reasoningService = doc.getReasoningService();
+		Timer loadTimer = ((ReasoningServiceImpl) reasoningService).getPelletKB().timers.getTimer("load");
+		
+		reasoningService.beginCrossDocumentSession();
+		reasoningService.beginCrossDocumentSession();
+		
+		try {
+			long loads = loadTimer.getCount();
+			
+			// the terms of the other document are loaded by the reasoner only once for all the queries in the session
+			assertTrue(a.isSubTypeOf(other.getType(URI.create(NS + "SessionC"))));
+			assertTrue(a.isSubTypeOf(other.getType(URI.create(NS + "SessionD"))));
+			assertTrue(a.isSubTypeOf(other.getType(URI.create(NS + "SessionC"))));
+			
+			assertEquals(loads + 1, loadTimer.getCount());
+			
+			// the terms stay until the outermost session ends
+			reasoningService.endCrossDocumentSession();
+			
+			assertTrue(a.isSubTypeOf(doc.getType(URI.create(NS + "SessionC"))));
+		}
+		finally {
+			reasoningService.endCrossDocumentSession();
+		}
+		
+		assertFalse(a.isSubTypeOf(doc.getType(URI.create(NS + "SessionC"))));
+	}
+	
+	@Test
+	public void inconsistencyExplanation() {
+		// the default configuration (the explanation is computed lazily in a separate knowledge base)
+		assertInconsistencyExplained("Lazy");
+	}
+	
+	@Test
+	public void lazyInconsistencyExplanationWithoutTracing() {
+		SSWAPDocument doc = SSWAP.createSSWAPDocument();
+		SSWAPType c = doc.getType(URI.create(NS + "MinimalDisjointC"));
+		SSWAPType d = doc.getType(URI.create(NS + "MinimalDisjointD"));
+		
+		c.addDisjointWith(d);
+		doc.getType(URI.create(NS + "MinimalUnrelatedA")).addSubClassOf(doc.getType(URI.create(NS + "MinimalUnrelatedB")));
+		
+		SSWAPIndividual ind = doc.createIndividual(URI.create(NS + "MinimalInd"));
+		ind.addType(c);
+		ind.addType(d);
+		
+		try {
+			c.isSubTypeOf(d);
+			fail("The document should be inconsistent");
+		}
+		catch (InconsistentOntologyException e) {
+			// only the statements needed for the inconsistency are in the explanation
+			assertTrue(e.getMessage(), e.getMessage().contains("MinimalDisjointC"));
+			assertFalse(e.getMessage(), e.getMessage().contains("MinimalUnrelatedA"));
+		}
+		
+		// the explanation does not switch on tracing for the other knowledge bases
+		assertFalse(PelletOptions.USE_TRACING);
+	}
+	
+	@Test
+	public void tracedInconsistencyExplanation() {
+		Config.get().setProperty(Config.REASONING_TRACING_KEY, "true");
+		
+		try {
+			assertInconsistencyExplained("Traced");
+		}
+		finally {
+			Config.get().setProperty(Config.REASONING_TRACING_KEY, Config.REASONING_TRACING_DEFAULT);
+		}
+	}
+	
+	private static void assertInconsistencyExplained(String prefix) {
+		SSWAPDocument doc = SSWAP.createSSWAPDocument();
+		SSWAPType c = doc.getType(URI.create(NS + prefix + "DisjointC"));
+		SSWAPType d = doc.getType(URI.create(NS + prefix + "DisjointD"));
+		
+		c.addDisjointWith(d);
+		
+		SSWAPIndividual ind = doc.createIndividual(URI.create(NS + prefix + "Ind"));
+		ind.addType(c);
+		ind.addType(d);
+		
+		try {
+			c.isSubTypeOf(d);
+			fail("The document should be inconsistent");
+		}
+		catch (InconsistentOntologyException e) {
+			// the explanation (whether or not the reasoner traces its operations) mentions the disjoint classes
+			assertTrue(e.getMessage(), e.getMessage().contains(prefix + "DisjointC"));
+			assertTrue(e.getMessage(), e.getMessage().contains(prefix + "DisjointD"));
+		}
+	}
+	
+	private static SSWAPDocument createSubClassDocument() {
+		SSWAPDocument doc = SSWAP.createSSWAPDocument();
+		
+		doc.getType(URI.create(NS + "A")).addSubClassOf(doc.getType(URI.create(NS + "B")));
+		
+		return doc;
+	}
 }
@@ -41,7 +41,15 @@ import junit.framework.JUnit4TestAdapter;
 	TSVTests.class,
 	CreateObject.class,
 	SharedURITests.class,
-	CrossDocumentReasoningTests.class
+	CrossDocumentReasoningTests.class,
+	BipartiteMatchingTests.class,
+	InFlightRequestsTests.class,
+	AsyncInvocationExecutorTests.class,
+	BatchFrameTests.class,
+	ContentNegotiationTests.class,
+	RRGCacheTests.class,
+	SimpleSSWAPServletTests.class,
+	ModelHashTests.class
 })
 public class SSWAPTestSuite {
 	@BeforeClass
@@ -0,0 +1,272 @@
+/**
+ * This software is copyrighted and licensed; see the accompanying license file for copyright holders and terms.
+ */
+package info.sswap.api.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import info.sswap.api.model.RDG;
+import info.sswap.api.model.RIG;
+import info.sswap.api.model.SSWAP;
+import info.sswap.api.model.SSWAPObject;
+import info.sswap.api.model.SSWAPSubject;
+import info.sswap.api.model.SSWAPType;
+import info.sswap.api.servlet.ConcurrentMapsTo;
+import info.sswap.api.servlet.MapsTo;
+import info.sswap.api.servlet.SimpleSSWAPServlet;
+
+import java.io.FileInputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import javax.servlet.ServletConfig;
+
+import org.junit.Test;
+
+/**
+ * Tests for the handling of the subjects of a RIG by SimpleSSWAPServlet
+ */
+public class SimpleSSWAPServletTests {
+	private static final String NS = "tag:sswap.info,2011-01-31:sswap:java:api:SimpleSSWAPServletTest#";
+
+	/**
+	 * The namespace of the types of the objects in the test RIG (one type per subject)
+	 */
+	private static final String MIME_NS = "http://sswapmeet.sswap.info/mime/";
+
+	/**
+	 * A servlet that handles the RIGs passed to it directly (rather than in HTTP requests)
+	 */
+	public static class TestServlet extends SimpleSSWAPServlet {
+		private static final long serialVersionUID = 1L;
+
+		public void handle(RIG rig) {
+			handleRequest(rig);
+		}
+	}
+
+	/**
+	 * Maps every subject to an object whose URI is derived from the types of the subject's objects
+	 */
+	public static class SerialMapping extends MapsTo {
+		@Override
+		protected void mapsTo(SSWAPSubject translatedSubject) throws Exception {
+			assignObject(translatedSubject, URI.create(map(getObjectTypes(translatedSubject))));
+		}
+	}
+
+	/**
+	 * The same mapping as SerialMapping, with the lookups performed concurrently (and finishing in a random order)
+	 */
+	public static class ConcurrentMapping extends ConcurrentMapsTo<String> {
+		private final Random random = new Random();
+
+		@Override
+		protected Callable<String> lookup(SSWAPSubject translatedSubject) throws Exception {
+			final String types = getObjectTypes(translatedSubject);
+			final int delay = random.nextInt(50);
+
+			return new Callable<String>() {
+				public String call() throws Exception {
+					Thread.sleep(delay);
+
+					return map(types);
+				}
+			};
+		}
+
+		@Override
+		protected void mapsTo(SSWAPSubject translatedSubject, String result) throws Exception {
+			assignObject(translatedSubject, URI.create(result));
+		}
+	}
+
+	/**
+	 * A reusable mapping that records its state
+	 */
+	public static class PooledMapping extends MapsTo {
+		private static final List<PooledMapping> requests = Collections.synchronizedList(new ArrayList<PooledMapping>());
+
+		private final List<SSWAPSubject> mappedSubjects = new ArrayList<SSWAPSubject>();
+
+		private boolean dirtyOnRequest;
+
+		private int resets;
+
+		@Override
+		protected void initializeRequest(RIG rig) throws Exception {
+			dirtyOnRequest |= !mappedSubjects.isEmpty() || !sswapObjects.isEmpty();
+			requests.add(this);
+		}
+
+		@Override
+		protected void mapsTo(SSWAPSubject translatedSubject) throws Exception {
+			mappedSubjects.add(translatedSubject);
+		}
+
+		@Override
+		protected boolean isReusable() {
+			return true;
+		}
+
+		@Override
+		protected void reset() throws Exception {
+			mappedSubjects.clear();
+			resets++;
+		}
+	}
+
+	@Test
+	public void testConcurrentMappingMatchesSerialMapping() throws Exception {
+		TestServlet serialServlet = createServlet(SerialMapping.class);
+		TestServlet concurrentServlet = createServlet(ConcurrentMapping.class);
+
+		for (int i = 0; i < 3; i++) {
+			RIG serialRIG = getRIG();
+			serialServlet.handle(serialRIG);
+
+			RIG concurrentRIG = getRIG();
+			concurrentServlet.handle(concurrentRIG);
+
+			Map<String,List<String>> serialResults = getMappedObjects(serialRIG);
+
+			assertEquals(5, serialResults.size());
+			assertEquals(serialResults, getMappedObjects(concurrentRIG));
+		}
+	}
+
+	@Test
+	public void testPooledInstanceIsReset() throws Exception {
+		TestServlet servlet = createServlet(PooledMapping.class);
+		PooledMapping.requests.clear();
+
+		for (int i = 0; i < 3; i++) {
+			servlet.handle(getRIG());
+		}
+
+		assertEquals(3, PooledMapping.requests.size());
+
+		// the same instance has served all the requests, and it has been reset after each of them
+		PooledMapping mapping = PooledMapping.requests.get(0);
+
+		for (PooledMapping request : PooledMapping.requests) {
+			assertSame(mapping, request);
+		}
+
+		assertEquals(3, mapping.resets);
+		assertFalse(mapping.dirtyOnRequest);
+		assertTrue(mapping.mappedSubjects.isEmpty());
+		assertNull(getRIG(mapping));
+	}
+
+	private static RIG getRIG() throws Exception {
+		FileInputStream fis = new FileInputStream("test/data/multi-graph-rdg.owl");
+		RDG rdg = SSWAP.getResourceGraph(fis, RDG.class, new URI("http://localhost:8080/Sswap/Fig2Doc"));
+		fis.close();
+
+		fis = new FileInputStream("test/data/multi-graph-rig.owl");
+		RIG rig = rdg.getRIG(fis);
+		fis.close();
+
+		return rig;
+	}
+
+	private static String getObjectTypes(SSWAPSubject subject) {
+		List<String> types = new ArrayList<String>();
+
+		for (SSWAPObject object : subject.getObjects()) {
+			for (SSWAPType type : object.getDeclaredTypes()) {
+				if (type.getURI().toString().startsWith(MIME_NS)) {
+					types.add(type.getURI().toString());
+				}
+			}
+		}
+
+		Collections.sort(types);
+
+		return types.toString();
+	}
+
+	private static String map(String objectTypes) {
+		return NS + "mapped-" + Math.abs(objectTypes.hashCode());
+	}
+
+	/**
+	 * Gets the objects assigned by a mapping, keyed by the types of the other objects of their subjects
+	 */
+	private static Map<String,List<String>> getMappedObjects(RIG rig) {
+		Map<String,List<String>> result = new TreeMap<String,List<String>>();
+
+		for (SSWAPSubject subject : rig.getTranslatedSubjects()) {
+			List<String> types = new ArrayList<String>();
+			List<String> mappedObjects = new ArrayList<String>();
+
+			for (SSWAPObject object : subject.getObjects()) {
+				if (!object.isAnonymous() && object.getURI().toString().startsWith(NS)) {
+					mappedObjects.add(object.getURI().toString());
+				}
+				else {
+					for (SSWAPType type : object.getDeclaredTypes()) {
+						if (type.getURI().toString().startsWith(MIME_NS)) {
+							types.add(type.getURI().toString());
+						}
+					}
+				}
+			}
+
+			Collections.sort(types);
+			Collections.sort(mappedObjects);
+
+			assertEquals(1, mappedObjects.size());
+
+			result.put(types.toString(), mappedObjects);
+		}
+
+		return result;
+	}
+
+	private static TestServlet createServlet(final Class<? extends MapsTo> serviceClass) throws Exception {
+		TestServlet servlet = new TestServlet();
+
+		servlet.init((ServletConfig) Proxy.newProxyInstance(SimpleSSWAPServletTests.class.getClassLoader(), new Class<?>[] { ServletConfig.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getInitParameter")) {
+					return "ServiceClass".equals(args[0]) ? serviceClass.getName() : null;
+				}
+				else if (method.getName().equals("getInitParameterNames")) {
+					return Collections.enumeration(Collections.singleton("ServiceClass"));
+				}
+				else if (method.getName().equals("getServletName")) {
+					return serviceClass.getSimpleName();
+				}
+
+				throw new UnsupportedOperationException(method.getName());
+			}
+		}));
+
+		return servlet;
+	}
+
+	/**
+	 * Gets the RIG of an instance of a service class (which is only visible to its subclasses and its package)
+	 */
+	private static RIG getRIG(MapsTo mapsTo) throws Exception {
+		Field rig = MapsTo.class.getDeclaredField("rig");
+		rig.setAccessible(true);
+
+		return (RIG) rig.get(mapsTo);
+	}
+}
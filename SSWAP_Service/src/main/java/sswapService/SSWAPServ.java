@@ -33,6 +33,28 @@ public class SSWAPServ extends MapsTo {
     }
 
 
+    /**
+     * The instances are reused by the servlet (after a reset), rather than created for every request.
+     */
+    @Override
+    protected boolean isReusable() {
+        return true;
+    }
+
+
+    /**
+     * Clears the state left from a request.
+     */
+    @Override
+    protected void reset() {
+        rigGraph = null;
+        subjectHashMap.clear();
+        object = null;
+        subject = null;
+        objectCount = 0;
+    }
+
+
     @Override
     protected void mapsTo(SSWAPSubject translatedSubject) throws Exception {
 